@@ -0,0 +1,318 @@
+package hudson.plugins.ec2;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.plugins.ec2.util.EC2ApiRateLimiter;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.services.sts.StsClient;
+import software.amazon.awssdk.services.sts.auth.StsAssumeRoleCredentialsProvider;
+import software.amazon.awssdk.services.sts.model.AssumeRoleRequest;
+import software.amazon.awssdk.services.sts.model.AssumeRoleResponse;
+
+/**
+ * Caches the sessions of the roles the clouds assume, so that every cloud and form handler connecting with the same
+ * credentials, role, session name and region shares one session.
+ * <p>
+ * Sessions are refreshed in the background {@link #PREFETCH_MINUTES} before they expire, and the current one keeps
+ * being used while a refresh fails, so that rolling the credentials over neither slows down nor fails the calls made
+ * with them. Refreshes and their failures are counted in the {@link RoleSession} of the cached session.
+ * <p>
+ * The clients are not given the session itself but a provider looking it up by key, so that a session can be closed,
+ * once idle or invalidated, while clients connected with it are still in use.
+ */
+@Restricted(NoExternalUse.class)
+public final class AssumedRoleCredentialsCache {
+
+    private static final Logger LOGGER = Logger.getLogger(AssumedRoleCredentialsCache.class.getName());
+
+    /*
+     * How long (in minutes) before a session expires it is refreshed in the background.
+     */
+    static final long PREFETCH_MINUTES =
+            Long.getLong("hudson.plugins.ec2.AssumedRoleCredentialsCache.prefetchMinutes", 5);
+
+    /*
+     * How long (in minutes) a session nobody resolved credentials from is kept refreshing. The clients using it assume
+     * the role again on their next call.
+     */
+    static final long IDLE_MINUTES = Long.getLong("hudson.plugins.ec2.AssumedRoleCredentialsCache.idleMinutes", 60);
+
+    /*
+     * How long before a session expires calls block on refreshing it, if the background refreshes failed.
+     */
+    private static final Duration STALE_TIME = Duration.ofMinutes(1);
+
+    private static final Map<String, CachedSession> SESSIONS = new ConcurrentHashMap<>();
+
+    private AssumedRoleCredentialsCache() {}
+
+    /**
+     * Gets a provider of the credentials of the given role session, creating the session if needed.
+     * <p>
+     * The provider looks the session up every time it resolves credentials, so that it keeps working once the session
+     * was evicted for being idle or dropped by {@link #invalidate}: a new session is then created.
+     *
+     * @param key identifies the base credentials and the role session, see {@link EC2Cloud#credentialsKey}
+     * @param stsClient creates the STS client to assume the role with, given the interceptor counting the refreshes
+     */
+    @NonNull
+    static AwsCredentialsProvider get(
+            @NonNull String key,
+            @NonNull AssumeRoleRequest request,
+            @NonNull Function<ExecutionInterceptor, StsClient> stsClient) {
+        evictIdle(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(IDLE_MINUTES));
+        SessionProvider provider = new SessionProvider(key, request, stsClient);
+        provider.session();
+        return provider;
+    }
+
+    /**
+     * Gets the cached session of the given key, if any.
+     */
+    @CheckForNull
+    static RoleSession getSession(@NonNull String key) {
+        CachedSession cached = SESSIONS.get(key);
+        return cached != null ? cached.session : null;
+    }
+
+    /**
+     * Drops all the cached sessions, e.g. because the base credentials changed.
+     */
+    static void invalidateAll() {
+        List<CachedSession> sessions = new ArrayList<>(SESSIONS.values());
+        SESSIONS.clear();
+        sessions.forEach(CachedSession::close);
+    }
+
+    /**
+     * Drops the cached session of the given key, e.g. because its credentials expired and it could not refresh them.
+     * The providers handed out for it assume the role again on their next call.
+     */
+    static void invalidate(@NonNull String key) {
+        CachedSession cached = SESSIONS.remove(key);
+        if (cached != null) {
+            cached.close();
+        }
+    }
+
+    /**
+     * Closes the sessions nobody resolved credentials from since the given time.
+     */
+    static void evictIdle(long idleSince) {
+        for (Iterator<CachedSession> it = SESSIONS.values().iterator(); it.hasNext(); ) {
+            CachedSession cached = it.next();
+            if (cached.lastUsed < idleSince) {
+                it.remove();
+                cached.close();
+            }
+        }
+    }
+
+    /**
+     * The provider handed out to the clients, resolving the credentials from the current session of its key.
+     */
+    private static final class SessionProvider implements EC2ApiRateLimiter.AccountCredentialsProvider {
+        private final String key;
+
+        private final AssumeRoleRequest request;
+
+        private final Function<ExecutionInterceptor, StsClient> stsClient;
+
+        SessionProvider(String key, AssumeRoleRequest request, Function<ExecutionInterceptor, StsClient> stsClient) {
+            this.key = key;
+            this.request = request;
+            this.stsClient = stsClient;
+        }
+
+        CachedSession session() {
+            return SESSIONS.computeIfAbsent(key, k -> {
+                RoleSession session = new RoleSession(request.roleArn(), request.roleSessionName());
+                StsClient client = stsClient.apply(session.interceptor());
+                StsAssumeRoleCredentialsProvider provider = StsAssumeRoleCredentialsProvider.builder()
+                        .stsClient(client)
+                        .refreshRequest(request)
+                        .asyncCredentialUpdateEnabled(true)
+                        .prefetchTime(Duration.ofMinutes(PREFETCH_MINUTES))
+                        .staleTime(STALE_TIME)
+                        .build();
+                return new CachedSession(session, provider, client);
+            });
+        }
+
+        /*
+         * The account of the role, i.e. the fifth field of its ARN: arn:aws:iam::123456789012:role/name.
+         */
+        @NonNull
+        @Override
+        public String getAccount() {
+            String[] arn = request.roleArn().split(":", 6);
+            return arn.length == 6 && !arn[4].isEmpty() ? arn[4] : request.roleArn();
+        }
+
+        @Override
+        public AwsCredentials resolveCredentials() {
+            while (true) {
+                CachedSession cached = session();
+                try {
+                    return cached.resolveCredentials();
+                } catch (RuntimeException e) {
+                    if (!cached.closed) {
+                        throw e;
+                    }
+                    // Evicted or invalidated meanwhile, resolve from the new session
+                }
+            }
+        }
+    }
+
+    private static final class CachedSession {
+        private final RoleSession session;
+
+        private final StsAssumeRoleCredentialsProvider provider;
+
+        private final StsClient client;
+
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private volatile boolean closed;
+
+        CachedSession(RoleSession session, StsAssumeRoleCredentialsProvider provider, StsClient client) {
+            this.session = session;
+            this.provider = provider;
+            this.client = client;
+        }
+
+        AwsCredentials resolveCredentials() {
+            lastUsed = System.currentTimeMillis();
+            return provider.resolveCredentials();
+        }
+
+        void close() {
+            closed = true;
+            provider.close();
+            client.close();
+        }
+    }
+
+    /**
+     * How the refreshes of a role session went.
+     */
+    public static final class RoleSession {
+        private final String roleArn;
+
+        private final String roleSessionName;
+
+        private final LongAdder refreshes = new LongAdder();
+
+        private final LongAdder refreshFailures = new LongAdder();
+
+        private volatile Instant expiration;
+
+        private volatile Instant refreshedAt;
+
+        private volatile Instant lastFailure;
+
+        private volatile String lastFailureMessage;
+
+        RoleSession(String roleArn, String roleSessionName) {
+            this.roleArn = roleArn;
+            this.roleSessionName = roleSessionName;
+        }
+
+        public String getRoleArn() {
+            return roleArn;
+        }
+
+        public String getRoleSessionName() {
+            return roleSessionName;
+        }
+
+        public long getRefreshes() {
+            return refreshes.sum();
+        }
+
+        public long getRefreshFailures() {
+            return refreshFailures.sum();
+        }
+
+        /**
+         * Gets when the current credentials of the session expire, null until the role was assumed.
+         */
+        @CheckForNull
+        public Instant getExpiration() {
+            return expiration;
+        }
+
+        /**
+         * Gets how long the current credentials of the session live, null until the role was assumed.
+         */
+        @CheckForNull
+        public Duration getLifetime() {
+            Instant from = refreshedAt;
+            Instant to = expiration;
+            return from != null && to != null ? Duration.between(from, to) : null;
+        }
+
+        @CheckForNull
+        public Instant getLastFailure() {
+            return lastFailure;
+        }
+
+        @CheckForNull
+        public String getLastFailureMessage() {
+            return lastFailureMessage;
+        }
+
+        void refreshed(@CheckForNull Instant expiration) {
+            refreshes.increment();
+            this.refreshedAt = Instant.now();
+            this.expiration = expiration;
+        }
+
+        void refreshFailed(@NonNull Throwable e) {
+            refreshFailures.increment();
+            lastFailure = Instant.now();
+            lastFailureMessage = e.getMessage();
+            LOGGER.log(
+                    Level.WARNING,
+                    "Failed to refresh the credentials of role " + roleArn + ", the current ones expire at "
+                            + expiration,
+                    e);
+        }
+
+        ExecutionInterceptor interceptor() {
+            return new ExecutionInterceptor() {
+                @Override
+                public void afterExecution(Context.AfterExecution context, ExecutionAttributes executionAttributes) {
+                    if (context.response() instanceof AssumeRoleResponse response) {
+                        refreshed(response.credentials() != null ? response.credentials().expiration() : null);
+                    }
+                }
+
+                @Override
+                public void onExecutionFailure(
+                        Context.FailedExecution context, ExecutionAttributes executionAttributes) {
+                    refreshFailed(context.exception());
+                }
+            };
+        }
+    }
+}
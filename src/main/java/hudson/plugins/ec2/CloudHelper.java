@@ -21,14 +21,19 @@ final class CloudHelper {
     private static final Logger LOGGER = Logger.getLogger(CloudHelper.class.getName());
 
     static Instance getInstanceWithRetry(String instanceId, EC2Cloud cloud) throws SdkException, InterruptedException {
+        if (StringUtils.isEmpty(instanceId) || cloud == null) {
+            return null;
+        }
+        // Lookups of other instances made at the same time share a single DescribeInstances call.
+        InstanceLookupCoalescer lookups = cloud.getInstanceLookups();
         // Sometimes even after a successful RunInstances, DescribeInstances
         // returns an error for a few seconds. We do a few retries instead of
         // failing instantly. See [JENKINS-15319].
         for (int i = 0; i < 5; i++) {
             try {
-                return getInstance(instanceId, cloud);
+                return lookups.getInstance(instanceId);
             } catch (AwsServiceException e) {
-                if ("InvalidInstanceID.NotFound".equals(e.awsErrorDetails().errorCode())
+                if (InstanceLookupCoalescer.INSTANCE_NOT_FOUND_ERROR_CODE.equals(e.awsErrorDetails().errorCode())
                         || EC2Cloud.EC2_REQUEST_EXPIRED_ERROR_CODE.equals(
                                 e.awsErrorDetails().errorCode())) {
                     // retry in 5 seconds.
@@ -39,7 +44,21 @@ final class CloudHelper {
             }
         }
         // Last time, throw on any error.
-        return getInstance(instanceId, cloud);
+        return lookups.getInstance(instanceId);
+    }
+
+    /**
+     * Looks up an instance in the shared inventory of the cloud rather than describing it on its own.
+     *
+     * @param force if true, the inventory is refreshed unless it is at most {@link EC2InstanceInventory#FORCED_MAX_AGE} old
+     */
+    @CheckForNull
+    static Instance getCachedInstance(String instanceId, EC2Cloud cloud, boolean force)
+            throws SdkException, InterruptedException {
+        if (StringUtils.isEmpty(instanceId) || cloud == null) {
+            return null;
+        }
+        return cloud.getInventory().getInstance(instanceId, force);
     }
 
     @CheckForNull
@@ -30,6 +30,8 @@ import hudson.model.Descriptor.FormException;
 import hudson.model.Node;
 import hudson.model.Slave;
 import hudson.plugins.ec2.util.AmazonEC2Factory;
+import hudson.plugins.ec2.util.EC2ApiSubsystem;
+import hudson.plugins.ec2.util.EC2ClientRegistry;
 import hudson.plugins.ec2.util.ResettableCountDownLatch;
 import hudson.slaves.ComputerLauncher;
 import hudson.slaves.NodeProperty;
@@ -134,8 +136,8 @@ public abstract class EC2AbstractSlave extends Slave {
     protected transient ResettableCountDownLatch terminateScheduled = new ResettableCountDownLatch(1, false);
 
     /*
-     * The time (in milliseconds) after which we will always re-fetch externally changeable EC2 data when we are asked
-     * for it
+     * The time (in milliseconds) after which the instance inventory of the cloud is refreshed when we are asked for
+     * externally changeable EC2 data. This is shared by all the agents of a cloud.
      */
     protected static final long MIN_FETCH_TIME =
             Long.getLong("hudson.plugins.ec2.EC2AbstractSlave.MIN_FETCH_TIME", TimeUnit.SECONDS.toMillis(20));
@@ -748,7 +750,7 @@ public abstract class EC2AbstractSlave extends Slave {
     public static Instance getInstance(String instanceId, EC2Cloud cloud) {
         Instance i = null;
         try {
-            i = CloudHelper.getInstanceWithRetry(instanceId, cloud);
+            i = CloudHelper.getCachedInstance(instanceId, cloud, true);
         } catch (InterruptedException e) {
             // We'll just retry next time we test for idleness.
             LOGGER.fine("InterruptedException while get " + instanceId + " Exception: " + e);
@@ -786,6 +788,7 @@ public abstract class EC2AbstractSlave extends Slave {
                     .build();
             LOGGER.fine("Sending terminate request for " + getInstanceId());
             ec2.terminateInstances(request);
+            getCloud().onInstanceTerminated(getInstanceId());
             LOGGER.info("EC2 instance terminate request sent for " + getInstanceId());
             return true;
         } catch (SdkException e) {
@@ -917,14 +920,7 @@ public abstract class EC2AbstractSlave extends Slave {
      * reflect the reality of the instances.
      */
     private void fetchLiveInstanceData(boolean force) throws SdkException {
-        /*
-         * If we've grabbed the data recently, don't bother getting it again unless we are forced
-         */
         long now = System.currentTimeMillis();
-        if ((lastFetchTime > 0) && (now - lastFetchTime < MIN_FETCH_TIME) && !force) {
-            return;
-        }
-
         if (getInstanceId() == null || getInstanceId().isEmpty()) {
             /*
              * The getInstanceId() implementation on EC2SpotSlave can return null if the spot request doesn't yet know
@@ -936,9 +932,12 @@ public abstract class EC2AbstractSlave extends Slave {
             return;
         }
 
+        /*
+         * The cloud inventory is only refreshed once it is older than MIN_FETCH_TIME, unless we are forced
+         */
         Instance i = null;
         try {
-            i = CloudHelper.getInstanceWithRetry(getInstanceId(), getCloud());
+            i = CloudHelper.getCachedInstance(getInstanceId(), getCloud(), force);
         } catch (InterruptedException e) {
             // We'll just retry next time we test for idleness.
             LOGGER.fine("InterruptedException while get " + getInstanceId() + " Exception: " + e);
@@ -974,7 +973,7 @@ public abstract class EC2AbstractSlave extends Slave {
     protected void clearLiveInstancedata() throws SdkException {
         Instance inst = null;
         try {
-            inst = CloudHelper.getInstanceWithRetry(getInstanceId(), getCloud());
+            inst = CloudHelper.getCachedInstance(getInstanceId(), getCloud(), false);
         } catch (InterruptedException e) {
             // We'll just retry next time we test for idleness.
             LOGGER.fine("InterruptedException while get " + getInstanceId() + " Exception: " + e);
@@ -1005,7 +1004,7 @@ public abstract class EC2AbstractSlave extends Slave {
     protected void pushLiveInstancedata() throws SdkException {
         Instance inst = null;
         try {
-            inst = CloudHelper.getInstanceWithRetry(getInstanceId(), getCloud());
+            inst = CloudHelper.getCachedInstance(getInstanceId(), getCloud(), false);
         } catch (InterruptedException e) {
             // We'll just retry next time we test for idleness.
             LOGGER.fine("InterruptedException while get " + getInstanceId() + " Exception: " + e);
@@ -1116,16 +1115,49 @@ public abstract class EC2AbstractSlave extends Slave {
         if (!StringUtils.isEmpty(region)) {
             Ec2Client client =
                     AmazonEC2Factory.getInstance().connect(credentialsProvider, EC2Cloud.parseRegion(region), null);
-            DescribeAvailabilityZonesResponse zones = client.describeAvailabilityZones();
-            List<AvailabilityZone> zoneList = zones.availabilityZones();
-            model.add("<not specified>", "");
-            for (AvailabilityZone z : zoneList) {
-                model.add(z.zoneName(), z.zoneName());
+            fillZoneItems(model, client);
+        }
+        return model;
+    }
+
+    /**
+     * Lists the availability zones of a region with a client shared through the {@link EC2ClientRegistry}.
+     */
+    static ListBoxModel fillZoneItems(
+            boolean useInstanceProfileForCredentials,
+            String credentialsId,
+            String roleArn,
+            String roleSessionName,
+            String region) {
+        ListBoxModel model = new ListBoxModel();
+
+        if (!StringUtils.isEmpty(region)) {
+            try (EC2ClientRegistry.Lease lease = EC2Cloud.leaseClient(
+                    useInstanceProfileForCredentials,
+                    credentialsId,
+                    roleArn,
+                    roleSessionName,
+                    region,
+                    EC2Cloud.parseRegion(region),
+                    null)) {
+                fillZoneItems(model, lease.get());
             }
         }
         return model;
     }
 
+    private static void fillZoneItems(ListBoxModel model, Ec2Client client) {
+        DescribeAvailabilityZonesResponse zones;
+        try (EC2ApiSubsystem.Scope ignored = EC2ApiSubsystem.FORM_VALIDATION.enter()) {
+            zones = client.describeAvailabilityZones();
+        }
+        List<AvailabilityZone> zoneList = zones.availabilityZones();
+        model.add("<not specified>", "");
+        for (AvailabilityZone z : zoneList) {
+            model.add(z.zoneName(), z.zoneName());
+        }
+    }
+
     /*
      * Used to determine if the agent is On Demand or Spot
      */
@@ -1151,9 +1183,7 @@ public abstract class EC2AbstractSlave extends Slave {
             if (!Jenkins.get().hasPermission(Jenkins.ADMINISTER)) {
                 return new ListBoxModel();
             }
-            AwsCredentialsProvider credentialsProvider = EC2Cloud.createCredentialsProvider(
-                    useInstanceProfileForCredentials, credentialsId, roleArn, roleSessionName, region);
-            return fillZoneItems(credentialsProvider, region);
+            return fillZoneItems(useInstanceProfileForCredentials, credentialsId, roleArn, roleSessionName, region);
         }
 
         public List<Descriptor<AMITypeData>> getAMITypeDescriptors() {
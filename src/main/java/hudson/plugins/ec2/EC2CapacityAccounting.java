@@ -0,0 +1,384 @@
+package hudson.plugins.ec2;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesResponse;
+import software.amazon.awssdk.services.ec2.model.DescribeSpotInstanceRequestsRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeSpotInstanceRequestsResponse;
+import software.amazon.awssdk.services.ec2.model.Filter;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.Reservation;
+import software.amazon.awssdk.services.ec2.model.SpotInstanceRequest;
+
+/**
+ * Capacity accounting of an {@link EC2Cloud}.
+ * <p>
+ * A single sweep describes all the running, pending and stopping instances and all the spot requests launched by this
+ * controller, from which {@link EC2Cloud} computes the global count and the count of every template in memory. The
+ * sweep is reused for {@link #MAX_AGE}, which is also how often the local ledger is reconciled with EC2.
+ * <p>
+ * On top of the sweep, a lock-free ledger tracks the capacity that is not visible in it yet: slots reserved by
+ * provisioning in progress and instances launched but not described yet. Slots are reserved with compare-and-set
+ * against the instance cap of the cloud and of the template, so that several templates can launch instances at the
+ * same time without overshooting the caps.
+ */
+final class EC2CapacityAccounting {
+
+    private static final Logger LOGGER = Logger.getLogger(EC2CapacityAccounting.class.getName());
+
+    /*
+     * How long (in milliseconds) a sweep is used to count the instances before describing them again.
+     */
+    static final long MAX_AGE =
+            Long.getLong("hudson.plugins.ec2.EC2CapacityAccounting.maxAge", TimeUnit.SECONDS.toMillis(10));
+
+    /*
+     * How long (in milliseconds) a launched instance is counted until a sweep describes it. EC2 is eventually
+     * consistent, so an instance may be missing from the sweeps for a while after its launch.
+     */
+    static final long LAUNCH_GRACE_PERIOD = Long.getLong(
+            "hudson.plugins.ec2.EC2CapacityAccounting.launchGracePeriod", TimeUnit.MINUTES.toMillis(5));
+
+    private final EC2Cloud cloud;
+
+    private final long launchGracePeriod;
+
+    private final Object refreshLock = new Object();
+
+    @CheckForNull
+    private volatile Sweep sweep;
+
+    /*
+     * Incremented every time a new sweep replaces the ledger entries it covers.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /*
+     * Slots reserved or launched since the last sweep, for the whole cloud and by template description.
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final Map<String, AtomicInteger> pendingByTemplate = new ConcurrentHashMap<>();
+
+    /*
+     * Instances (or spot requests) launched but not described by a sweep yet, by id, with the template that launched
+     * them.
+     */
+    private final Map<String, Launch> launched = new ConcurrentHashMap<>();
+
+    /*
+     * Instances (or spot requests) terminated since the last sweep, by id, with the time of the termination.
+     */
+    private final Map<String, Long> terminated = new ConcurrentHashMap<>();
+
+    EC2CapacityAccounting(@NonNull EC2Cloud cloud) {
+        this(cloud, LAUNCH_GRACE_PERIOD);
+    }
+
+    EC2CapacityAccounting(@NonNull EC2Cloud cloud, long launchGracePeriod) {
+        this.cloud = cloud;
+        this.launchGracePeriod = launchGracePeriod;
+    }
+
+    /**
+     * Gets the current sweep for the given Jenkins URL, describing the instances again if it is too old.
+     */
+    @NonNull
+    Sweep current(@CheckForNull String jenkinsServerUrl) throws SdkException {
+        Sweep s = sweep;
+        if (s != null && s.isFresh(jenkinsServerUrl)) {
+            return s;
+        }
+        synchronized (refreshLock) {
+            // Another thread may have swept while we were waiting
+            s = sweep;
+            if (s == null || !s.isFresh(jenkinsServerUrl)) {
+                s = fetch(jenkinsServerUrl);
+                sweep = s;
+                reconcile(s);
+            }
+            return s;
+        }
+    }
+
+    /**
+     * Gets the generation of the ledger, to be read before counting the instances of the current sweep and passed to
+     * {@link #reserve}.
+     */
+    long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Reserves up to {@code number} slots for the given template.
+     *
+     * @param availableTotal the capacity left in the cloud according to the sweep
+     * @param availableTemplate the capacity left for the template according to the sweep
+     * @param generation the {@link #generation()} read before counting the sweep
+     * @return the reservation, which may hold fewer slots than requested, or null if a new sweep was taken meanwhile
+     *     and the counts need to be computed again
+     */
+    @CheckForNull
+    SlotReservation reserve(
+            @NonNull SlaveTemplate template, int number, int availableTotal, int availableTemplate, long generation) {
+        AtomicInteger templatePending = pendingFor(template.description);
+        int granted = reserveUpTo(pending, availableTotal, number);
+        int templateGranted = reserveUpTo(templatePending, availableTemplate, granted);
+        pending.addAndGet(templateGranted - granted);
+        if (this.generation.get() != generation) {
+            // The counts we were given do not match the ledger anymore
+            pending.addAndGet(-templateGranted);
+            templatePending.addAndGet(-templateGranted);
+            return null;
+        }
+        return new SlotReservation(template.description, templateGranted);
+    }
+
+    /**
+     * Stops accounting for an instance, or spot request, that was just terminated.
+     */
+    void terminated(@CheckForNull String id) {
+        if (id != null) {
+            terminated.put(id, System.currentTimeMillis());
+            Launch launch = launched.remove(id);
+            if (launch != null) {
+                release(launch.templateDescription, 1);
+            }
+        }
+    }
+
+    /**
+     * Drops the current sweep so that the next count will describe the instances again.
+     */
+    void invalidate() {
+        synchronized (refreshLock) {
+            sweep = null;
+        }
+    }
+
+    /**
+     * Gets how many slots are reserved, or launched but not described by a sweep yet.
+     *
+     * @param template the template to count the slots of, null to count all of them
+     */
+    int pending(@CheckForNull SlaveTemplate template) {
+        return template == null ? pending.get() : pendingFor(template.description).get();
+    }
+
+    private static int reserveUpTo(AtomicInteger counter, int available, int number) {
+        while (true) {
+            int current = counter.get();
+            int granted = Math.min(number, available - current);
+            if (granted <= 0) {
+                return 0;
+            }
+            if (counter.compareAndSet(current, current + granted)) {
+                return granted;
+            }
+        }
+    }
+
+    private AtomicInteger pendingFor(String templateDescription) {
+        return pendingByTemplate.computeIfAbsent(String.valueOf(templateDescription), d -> new AtomicInteger());
+    }
+
+    private void release(String templateDescription, int slots) {
+        pending.addAndGet(-slots);
+        pendingFor(templateDescription).addAndGet(-slots);
+    }
+
+    /*
+     * Drops what the given sweep covers from the ledger. Called after the sweep is published, so that an instance is
+     * always counted in at least one of them. Launched instances are dropped once described, or once their grace
+     * period is over in case they are never described, e.g. because they were terminated outside of Jenkins.
+     */
+    private void reconcile(@NonNull Sweep sweep) {
+        generation.incrementAndGet();
+        Set<String> described = new HashSet<>();
+        for (Instance instance : sweep.instances) {
+            described.add(instance.instanceId());
+        }
+        for (SpotInstanceRequest sir : sweep.spotRequests) {
+            described.add(sir.spotInstanceRequestId());
+            if (sir.instanceId() != null) {
+                described.add(sir.instanceId());
+            }
+        }
+        long expired = sweep.fetchedAt - launchGracePeriod;
+        launched.entrySet().removeIf(entry -> {
+            Launch launch = entry.getValue();
+            if (described.contains(entry.getKey()) || launch.at < expired) {
+                release(launch.templateDescription, 1);
+                return true;
+            }
+            return false;
+        });
+        terminated.values().removeIf(at -> at < sweep.fetchedAt);
+    }
+
+    private Sweep fetch(@CheckForNull String jenkinsServerUrl) throws SdkException {
+        long now = System.currentTimeMillis();
+
+        List<Instance> instances = new ArrayList<>();
+        List<Filter> filters = cloud.getGenericFilters(jenkinsServerUrl, null);
+        filters.add(Filter.builder()
+                .name("instance-state-name")
+                .values("running", "pending", "stopping")
+                .build());
+        DescribeInstancesRequest dir =
+                DescribeInstancesRequest.builder().filters(filters).build();
+        DescribeInstancesResponse result;
+        do {
+            result = cloud.connect().describeInstances(dir);
+            for (Reservation r : result.reservations()) {
+                instances.addAll(r.instances());
+            }
+            dir = dir.toBuilder().nextToken(result.nextToken()).build();
+        } while (result.nextToken() != null);
+
+        List<SpotInstanceRequest> spotRequests = new ArrayList<>();
+        DescribeSpotInstanceRequestsRequest dsir = DescribeSpotInstanceRequestsRequest.builder()
+                .filters(cloud.getGenericFilters(jenkinsServerUrl, null))
+                .maxResults(100)
+                .build();
+        DescribeSpotInstanceRequestsResponse sirResp;
+        do {
+            sirResp = cloud.connect().describeSpotInstanceRequests(dsir);
+            if (sirResp.spotInstanceRequests() != null) {
+                spotRequests.addAll(sirResp.spotInstanceRequests());
+            }
+            dsir = dsir.toBuilder().nextToken(sirResp.nextToken()).build();
+        } while (sirResp.nextToken() != null);
+
+        LOGGER.log(
+                Level.FINE,
+                "Swept capacity of cloud {0}: {1} instances and {2} spot requests in {3}ms",
+                new Object[] {cloud.name, instances.size(), spotRequests.size(), System.currentTimeMillis() - now});
+        return new Sweep(jenkinsServerUrl, instances, spotRequests, now);
+    }
+
+    /**
+     * The instances and spot requests described by one sweep, minus the ones terminated since.
+     */
+    final class Sweep {
+        private final String jenkinsServerUrl;
+        private final List<Instance> instances;
+        private final List<SpotInstanceRequest> spotRequests;
+        private final long fetchedAt;
+
+        private Sweep(
+                String jenkinsServerUrl,
+                List<Instance> instances,
+                List<SpotInstanceRequest> spotRequests,
+                long fetchedAt) {
+            this.jenkinsServerUrl = jenkinsServerUrl;
+            this.instances = Collections.unmodifiableList(instances);
+            this.spotRequests = Collections.unmodifiableList(spotRequests);
+            this.fetchedAt = fetchedAt;
+        }
+
+        private boolean isFresh(String jenkinsServerUrl) {
+            return Objects.equals(this.jenkinsServerUrl, jenkinsServerUrl)
+                    && System.currentTimeMillis() - fetchedAt < MAX_AGE;
+        }
+
+        List<Instance> getInstances() {
+            if (terminated.isEmpty()) {
+                return instances;
+            }
+            return instances.stream()
+                    .filter(i -> !terminated.containsKey(i.instanceId()))
+                    .toList();
+        }
+
+        List<SpotInstanceRequest> getSpotRequests() {
+            if (terminated.isEmpty()) {
+                return spotRequests;
+            }
+            return spotRequests.stream()
+                    .filter(sir -> !terminated.containsKey(sir.spotInstanceRequestId())
+                            && (sir.instanceId() == null || !terminated.containsKey(sir.instanceId())))
+                    .toList();
+        }
+    }
+
+    /**
+     * Slots reserved for a template. Slots taken by launched instances stay in the ledger until a sweep describes them,
+     * the others are released on {@link #close()}.
+     */
+    final class SlotReservation implements AutoCloseable {
+        private final String templateDescription;
+        private final int slots;
+        private int used;
+        private boolean closed;
+
+        private SlotReservation(String templateDescription, int slots) {
+            this.templateDescription = templateDescription;
+            this.slots = slots;
+        }
+
+        /**
+         * The number of slots reserved, which may be less than requested.
+         */
+        int getSlots() {
+            return slots;
+        }
+
+        /**
+         * Records the instances, or spot requests, launched with this reservation.
+         */
+        synchronized void launched(@NonNull Collection<String> ids) {
+            long now = System.currentTimeMillis();
+            for (String id : ids) {
+                if (id == null || closed) {
+                    continue;
+                }
+                if (used < slots) {
+                    used++;
+                } else {
+                    // More than reserved, still count it
+                    pending.incrementAndGet();
+                    pendingFor(templateDescription).incrementAndGet();
+                }
+                Launch previous = launched.put(id, new Launch(templateDescription, now));
+                if (previous != null) {
+                    release(previous.templateDescription, 1);
+                }
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                release(templateDescription, slots - used);
+            }
+        }
+    }
+
+    private static final class Launch {
+        private final String templateDescription;
+        private final long at;
+
+        Launch(String templateDescription, long at) {
+            this.templateDescription = templateDescription;
+            this.at = at;
+        }
+    }
+}
@@ -29,6 +29,7 @@ import com.google.common.collect.Sets;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
 import hudson.model.PeriodicWork;
+import hudson.plugins.ec2.util.EC2ApiSubsystem;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
@@ -71,7 +72,9 @@ public class EC2CleanupOrphanedNodes extends PeriodicWork {
     @Override
     protected void doRun() {
         LOGGER.fine(() -> "Starting clean up activity for orphaned nodes");
-        getClouds().forEach(this::cleanCloud);
+        try (EC2ApiSubsystem.Scope ignored = EC2ApiSubsystem.CLEANUP.enter()) {
+            getClouds().forEach(this::cleanCloud);
+        }
     }
 
     @VisibleForTesting
@@ -102,7 +105,7 @@ public class EC2CleanupOrphanedNodes extends PeriodicWork {
                 // exclude instances that just got updated
                 .filter(remote -> !updatedInstances.contains(remote.instanceId()))
                 .filter(this::isOrphaned)
-                .forEach(remote -> terminateInstance(remote.instanceId(), connection));
+                .forEach(remote -> terminateInstance(remote.instanceId(), connection, cloud));
     }
 
     private List<EC2Cloud> getClouds() {
@@ -267,11 +270,12 @@ public class EC2CleanupOrphanedNodes extends PeriodicWork {
         return isOrphan;
     }
 
-    private void terminateInstance(String instanceId, Ec2Client connection) {
+    private void terminateInstance(String instanceId, Ec2Client connection, EC2Cloud cloud) {
         LOGGER.info(() -> "Removing orphaned instance: " + instanceId);
         try {
             connection.terminateInstances(
                     builder -> builder.instanceIds(instanceId).build());
+            cloud.onInstanceTerminated(instanceId);
         } catch (SdkException ex) {
             LOGGER.log(Level.WARNING, "Error terminating remote instance " + instanceId, ex);
         }
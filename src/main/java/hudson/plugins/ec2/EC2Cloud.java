@@ -37,6 +37,7 @@ import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
 import hudson.ProxyConfiguration;
 import hudson.Util;
+import hudson.XmlFile;
 import hudson.model.Computer;
 import hudson.model.Descriptor;
 import hudson.model.Failure;
@@ -44,16 +45,25 @@ import hudson.model.ItemGroup;
 import hudson.model.Label;
 import hudson.model.Node;
 import hudson.model.PeriodicWork;
+import hudson.model.Saveable;
 import hudson.model.TaskListener;
+import hudson.model.listeners.SaveableListener;
 import hudson.plugins.ec2.util.AmazonEC2Factory;
+import hudson.plugins.ec2.util.EC2ApiMetrics;
+import hudson.plugins.ec2.util.EC2ApiSubsystem;
+import hudson.plugins.ec2.util.EC2ClientRegistry;
+import hudson.plugins.ec2.util.EC2CloudScope;
 import hudson.plugins.ec2.util.FIPS140Utils;
 import hudson.plugins.ec2.util.KeyPair;
+import hudson.plugins.ec2.util.SharedHttpClient;
 import hudson.security.ACL;
 import hudson.slaves.Cloud;
 import hudson.slaves.NodeProvisioner.PlannedNode;
+import hudson.util.DaemonThreadFactory;
 import hudson.util.FormValidation;
 import hudson.util.HttpResponses;
 import hudson.util.ListBoxModel;
+import hudson.util.NamingThreadFactory;
 import hudson.util.Secret;
 import hudson.util.StreamTaskListener;
 import jakarta.servlet.ServletException;
@@ -67,29 +77,40 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
-import java.util.regex.Pattern;
 import jenkins.model.Jenkins;
 import jenkins.model.JenkinsLocationConfiguration;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
 import org.apache.commons.lang.StringUtils;
 import org.jenkinsci.Symbol;
 import org.kohsuke.accmod.Restricted;
@@ -116,29 +137,25 @@ import software.amazon.awssdk.core.exception.SdkClientException;
 import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.core.retry.RetryPolicy;
 import software.amazon.awssdk.http.SdkHttpClient;
-import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.regions.RegionMetadata;
 import software.amazon.awssdk.regions.ServiceEndpointKey;
 import software.amazon.awssdk.regions.ServiceMetadata;
+import software.amazon.awssdk.services.ec2.Ec2AsyncClient;
 import software.amazon.awssdk.services.ec2.Ec2Client;
 import software.amazon.awssdk.services.ec2.model.DescribeInstancesRequest;
 import software.amazon.awssdk.services.ec2.model.DescribeInstancesResponse;
 import software.amazon.awssdk.services.ec2.model.DescribeRegionsResponse;
-import software.amazon.awssdk.services.ec2.model.DescribeSpotInstanceRequestsRequest;
-import software.amazon.awssdk.services.ec2.model.DescribeSpotInstanceRequestsResponse;
 import software.amazon.awssdk.services.ec2.model.Filter;
 import software.amazon.awssdk.services.ec2.model.Instance;
-import software.amazon.awssdk.services.ec2.model.InstanceStateName;
 import software.amazon.awssdk.services.ec2.model.InstanceType;
 import software.amazon.awssdk.services.ec2.model.KeyPairInfo;
-import software.amazon.awssdk.services.ec2.model.Reservation;
 import software.amazon.awssdk.services.ec2.model.SpotInstanceRequest;
 import software.amazon.awssdk.services.ec2.model.SpotInstanceState;
 import software.amazon.awssdk.services.ec2.model.Tag;
 import software.amazon.awssdk.services.sts.StsClient;
 import software.amazon.awssdk.services.sts.StsClientBuilder;
-import software.amazon.awssdk.services.sts.auth.StsAssumeRoleCredentialsProvider;
 import software.amazon.awssdk.services.sts.model.AssumeRoleRequest;
 
 /**
@@ -160,12 +177,27 @@ public class EC2Cloud extends Cloud {
 
     private static final SimpleFormatter sf = new SimpleFormatter();
 
+    /*
+     * Whether the templates matching a label are prepared and launched concurrently, rather than one after the other.
+     */
+    static final boolean PARALLEL_PROVISIONING = Boolean.getBoolean("hudson.plugins.ec2.EC2Cloud.parallelProvisioning");
+
+    /*
+     * How many templates are prepared or launched at the same time when provisioning in parallel, for all the clouds.
+     */
+    static final int PROVISIONING_THREADS = Integer.getInteger("hudson.plugins.ec2.EC2Cloud.provisioningThreads", 4);
+
+    private static final ExecutorService PROVISIONING_EXECUTOR = createProvisioningExecutor();
+
+    /*
+     * The clouds holding clients, so that those of the clouds removed or replaced by a new configuration are released.
+     */
+    private static final Set<EC2Cloud> CONNECTED = ConcurrentHashMap.newKeySet();
+
     // if this system property is defined and its value points to a valid ssh private key on disk
     // then this will be used instead of any configured ssh credential
     public static final String SSH_PRIVATE_KEY_FILEPATH = EC2Cloud.class.getName() + ".sshPrivateKeyFilePath";
 
-    private transient ReentrantLock slaveCountingLock = new ReentrantLock();
-
     private final boolean useInstanceProfileForCredentials;
 
     private final String roleArn;
@@ -200,7 +232,7 @@ public class EC2Cloud extends Cloud {
 
     private List<? extends SlaveTemplate> templates;
 
-    private transient KeyPair usableKeyPair;
+    private transient volatile EC2KeyPairCache keyPairCache;
 
     /**
      * Represents the region. Can be null for backward compatibility reasons.
@@ -211,10 +243,36 @@ public class EC2Cloud extends Cloud {
 
     private boolean noDelayProvisioning;
 
+    private int provisioningWeight;
+
     private boolean cleanUpOrphanedNodes;
 
     private transient volatile Ec2Client connection;
 
+    /*
+     * The lease of the connection on the EC2ClientRegistry.
+     */
+    private transient EC2ClientRegistry.Lease connectionLease;
+
+    /*
+     * The non-blocking client, once connected. Unset if the factory does not provide one.
+     */
+    private transient volatile Ec2AsyncClient asyncConnection;
+
+    private transient volatile boolean asyncConnected;
+
+    private transient volatile EC2InstanceInventory inventory;
+
+    private transient volatile InstanceLookupCoalescer instanceLookups;
+
+    private transient volatile EC2PendingInstanceTracker pendingInstances;
+
+    private transient volatile EC2SpotRequestCache spotRequests;
+
+    private transient volatile EC2CapacityAccounting capacityAccounting;
+
+    private transient volatile EC2ProvisioningLocks provisioningLocks;
+
     @DataBoundConstructor
     public EC2Cloud(
             String name,
@@ -387,6 +445,18 @@ public class EC2Cloud extends Cloud {
         this.noDelayProvisioning = noDelayProvisioning;
     }
 
+    /**
+     * Gets the share of the demand this cloud takes when no delay provisioning spreads it over several clouds.
+     */
+    public int getProvisioningWeight() {
+        return Math.max(provisioningWeight, 1);
+    }
+
+    @DataBoundSetter
+    public void setProvisioningWeight(int provisioningWeight) {
+        this.provisioningWeight = Math.max(provisioningWeight, 1);
+    }
+
     public boolean isCleanUpOrphanedNodes() {
         return cleanUpOrphanedNodes;
     }
@@ -467,8 +537,6 @@ public class EC2Cloud extends Cloud {
     }
 
     protected Object readResolve() {
-        this.slaveCountingLock = new ReentrantLock();
-
         for (SlaveTemplate t : templates) {
             t.parent = this;
         }
@@ -635,14 +703,44 @@ public class EC2Cloud extends Cloud {
      * Gets the {@link KeyPairInfo} used for the launch.
      */
     @CheckForNull
-    public synchronized KeyPair getKeyPair() throws SdkException, IOException {
-        if (usableKeyPair == null) {
-            EC2PrivateKey ec2PrivateKey = this.resolvePrivateKey();
-            if (ec2PrivateKey != null) {
-                usableKeyPair = ec2PrivateKey.find(connect());
+    public KeyPair getKeyPair() throws SdkException, IOException {
+        EC2PrivateKey ec2PrivateKey = this.resolvePrivateKey();
+        if (ec2PrivateKey == null) {
+            return null;
+        }
+        return findKeyPair(ec2PrivateKey, connect());
+    }
+
+    /**
+     * Finds the key pair matching the private key resolved from this cloud, from the cache unless the credential
+     * changed since it was looked up.
+     */
+    @CheckForNull
+    KeyPair findKeyPair(@NonNull EC2PrivateKey ec2PrivateKey, @NonNull Ec2Client ec2) throws SdkException, IOException {
+        String credentialsId = System.getProperty(SSH_PRIVATE_KEY_FILEPATH, "").isEmpty()
+                ? sshKeysCredentialsId
+                : System.getProperty(SSH_PRIVATE_KEY_FILEPATH);
+        return getKeyPairCache().find(credentialsId, ec2PrivateKey, ec2);
+    }
+
+    /**
+     * Drops the cached key pair, e.g. after EC2 rejected it.
+     */
+    void invalidateKeyPair() {
+        getKeyPairCache().invalidate();
+    }
+
+    private EC2KeyPairCache getKeyPairCache() {
+        EC2KeyPairCache result = keyPairCache;
+        if (result == null) {
+            synchronized (this) {
+                result = keyPairCache;
+                if (result == null) {
+                    keyPairCache = result = new EC2KeyPairCache();
+                }
             }
         }
-        return usableKeyPair;
+        return result;
     }
 
     /**
@@ -702,6 +800,82 @@ public class EC2Cloud extends Cloud {
         }
     }
 
+    /**
+     * Gets the metrics of the EC2 API calls made for this cloud, shown on its API metrics page.
+     */
+    @Restricted(NoExternalUse.class)
+    public List<EC2ApiMetrics.OperationMetrics> getApiMetrics() {
+        return EC2ApiMetrics.get().getOperations(name);
+    }
+
+    /**
+     * Gets the metrics of the EC2 API calls not made for any cloud, e.g. to fill and validate forms.
+     */
+    @Restricted(NoExternalUse.class)
+    public List<EC2ApiMetrics.OperationMetrics> getUnattributedApiMetrics() {
+        return EC2ApiMetrics.get().getOperations(null);
+    }
+
+    /**
+     * Gets the demand observed and forecast for the labels of the predictive templates of this cloud, shown on its
+     * demand forecast page.
+     */
+    @Restricted(NoExternalUse.class)
+    public List<EC2PredictiveProvisionerStrategy.DemandForecast> getDemandForecasts() {
+        return EC2PredictiveProvisionerStrategy.get().getForecasts(this);
+    }
+
+    /**
+     * Serves the metrics of the EC2 API calls made for this cloud as JSON.
+     */
+    @Restricted(NoExternalUse.class)
+    public HttpResponse doApiMetricsJson() {
+        Jenkins.get().checkPermission(Jenkins.SYSTEM_READ);
+        JSONObject metrics = EC2ApiMetrics.get().toJSON(name);
+        AssumedRoleCredentialsCache.RoleSession session = getAssumedRoleSession();
+        if (session != null) {
+            JSONObject assumedRole = new JSONObject();
+            assumedRole.put("roleArn", session.getRoleArn());
+            assumedRole.put("roleSessionName", session.getRoleSessionName());
+            assumedRole.put("refreshes", session.getRefreshes());
+            assumedRole.put("refreshFailures", session.getRefreshFailures());
+            assumedRole.put("expiration", Objects.toString(session.getExpiration(), null));
+            assumedRole.put("lastFailure", Objects.toString(session.getLastFailure(), null));
+            assumedRole.put("lastFailureMessage", session.getLastFailureMessage());
+            metrics.put("assumedRole", assumedRole);
+        }
+        JSONArray lockWaits = new JSONArray();
+        for (EC2ProvisioningLocks.LockWaits waits : getProvisioningLockWaits()) {
+            JSONObject lock = new JSONObject();
+            lock.put("template", waits.getTemplate());
+            lock.put("acquisitions", waits.getAcquisitions());
+            lock.put("contended", waits.getContended());
+            lock.put("totalWaitMillis", waits.getTotalWaitMillis());
+            lock.put("meanWaitMillis", waits.getMeanWaitMillis());
+            lock.put("maxWaitMillis", waits.getMaxWaitMillis());
+            lockWaits.add(lock);
+        }
+        metrics.put("provisioningLocks", lockWaits);
+        return HttpResponses.okJSON(metrics);
+    }
+
+    /**
+     * Gets how the refreshes of the session of the role this cloud assumes went, if it assumes one.
+     */
+    @CheckForNull
+    @Restricted(NoExternalUse.class)
+    public AssumedRoleCredentialsCache.RoleSession getAssumedRoleSession() {
+        if (StringUtils.isEmpty(getRoleArn())) {
+            return null;
+        }
+        return AssumedRoleCredentialsCache.getSession(credentialsKey(
+                isUseInstanceProfileForCredentials(),
+                getCredentialsId(),
+                getRoleArn(),
+                getRoleSessionName(),
+                getRegion()));
+    }
+
     /**
      * Counts the number of instances in EC2 that can be used with the specified image and a template. Also removes any
      * nodes associated with canceled requests.
@@ -729,34 +903,18 @@ public class EC2Cloud extends Cloud {
         Set<String> instanceIds = new HashSet<>();
         String description = template != null ? template.description : null;
 
-        List<Filter> filters = getGenericFilters(jenkinsServerUrl, template);
-        filters.add(Filter.builder()
-                .name("instance-state-name")
-                .values("running", "pending", "stopping")
-                .build());
-        DescribeInstancesRequest dir =
-                DescribeInstancesRequest.builder().filters(filters).build();
-        DescribeInstancesResponse result = null;
-        do {
-            result = connect().describeInstances(dir);
-            dir = DescribeInstancesRequest.builder()
-                    .filters(filters)
-                    .nextToken(result.nextToken())
-                    .build();
-            for (Reservation r : result.reservations()) {
-                for (Instance i : r.instances()) {
-                    if (isEc2ProvisionedAmiSlave(i.tags(), description)) {
-                        LOGGER.log(
-                                Level.FINE,
-                                "Existing instance found: " + i.instanceId() + " AMI: " + i.imageId()
-                                        + (template != null ? (" Template: " + description) : "") + " Jenkins Server: "
-                                        + jenkinsServerUrl);
-                        n++;
-                        instanceIds.add(i.instanceId());
-                    }
-                }
+        EC2CapacityAccounting.Sweep sweep = getCapacityAccounting().current(jenkinsServerUrl);
+        for (Instance i : sweep.getInstances()) {
+            if (hasTemplateTags(i.tags(), template) && isEc2ProvisionedAmiSlave(i.tags(), description)) {
+                LOGGER.log(
+                        Level.FINE,
+                        "Existing instance found: " + i.instanceId() + " AMI: " + i.imageId()
+                                + (template != null ? (" Template: " + description) : "") + " Jenkins Server: "
+                                + jenkinsServerUrl);
+                n++;
+                instanceIds.add(i.instanceId());
             }
-        } while (result.nextToken() != null);
+        }
 
         n += countCurrentEC2SpotSlaves(template, jenkinsServerUrl, instanceIds);
 
@@ -773,80 +931,64 @@ public class EC2Cloud extends Cloud {
             throws SdkException {
         int n = 0;
         String description = template != null ? template.description : null;
-        List<SpotInstanceRequest> sirs = null;
-        List<Filter> filters = getGenericFilters(jenkinsServerUrl, template);
-        if (template != null) {
-            filters.add(Filter.builder()
-                    .name("launch.image-id")
-                    .values(template.getAmi())
-                    .build());
-        }
-
-        DescribeSpotInstanceRequestsRequest dsir = DescribeSpotInstanceRequestsRequest.builder()
-                .filters(filters)
-                .maxResults(100)
-                .build();
-        Set<SpotInstanceRequest> sirSet = new HashSet<>();
-        DescribeSpotInstanceRequestsResponse sirResp = null;
-
-        do {
-            sirResp = connect().describeSpotInstanceRequests(dsir);
-            sirs = sirResp.spotInstanceRequests();
-            dsir = DescribeSpotInstanceRequestsRequest.builder()
-                    .filters(filters)
-                    .maxResults(100)
-                    .nextToken(sirResp.nextToken())
-                    .build();
-
-            if (sirs != null) {
-                for (SpotInstanceRequest sir : sirs) {
-                    sirSet.add(sir);
-                    if (sir.state() == SpotInstanceState.OPEN || sir.state() == SpotInstanceState.ACTIVE) {
-                        if (sir.instanceId() != null && instanceIds.contains(sir.instanceId())) {
-                            continue;
-                        }
+        Set<String> sirSet = new HashSet<>();
+        Map<String, EC2SpotSlave> spotNodes = null;
+
+        EC2CapacityAccounting.Sweep sweep = getCapacityAccounting().current(jenkinsServerUrl);
+        for (SpotInstanceRequest sir : sweep.getSpotRequests()) {
+            if (!hasTemplateTags(sir.tags(), template)
+                    || (template != null
+                            && (sir.launchSpecification() == null
+                                    || !StringUtils.equals(
+                                            sir.launchSpecification().imageId(), template.getAmi())))) {
+                continue;
+            }
+            sirSet.add(sir.spotInstanceRequestId());
+            if (sir.state() == SpotInstanceState.OPEN || sir.state() == SpotInstanceState.ACTIVE) {
+                if (sir.instanceId() != null && instanceIds.contains(sir.instanceId())) {
+                    continue;
+                }
 
-                        if (isEc2ProvisionedAmiSlave(sir.tags(), description)) {
-                            LOGGER.log(
-                                    Level.FINE,
-                                    "Spot instance request found: " + sir.spotInstanceRequestId() + " AMI: "
-                                            + sir.instanceId() + " state: " + sir.state() + " status: "
-                                            + sir.status());
+                if (isEc2ProvisionedAmiSlave(sir.tags(), description)) {
+                    LOGGER.log(
+                            Level.FINE,
+                            "Spot instance request found: " + sir.spotInstanceRequestId() + " AMI: " + sir.instanceId()
+                                    + " state: " + sir.state() + " status: " + sir.status());
 
-                            n++;
-                            if (sir.instanceId() != null) {
-                                instanceIds.add(sir.instanceId());
-                            }
-                        }
-                    } else {
-                        // Cancelled or otherwise dead
-                        for (Node node : Jenkins.get().getNodes()) {
-                            try {
-                                if (!(node instanceof EC2SpotSlave ec2Slave)) {
-                                    continue;
-                                }
-                                if (ec2Slave.getSpotInstanceRequestId().equals(sir.spotInstanceRequestId())) {
-                                    LOGGER.log(
-                                            Level.INFO,
-                                            "Removing dead request: " + sir.spotInstanceRequestId() + " AMI: "
-                                                    + sir.instanceId() + " state: " + sir.state() + " status: "
-                                                    + sir.status());
-                                    Jenkins.get().removeNode(node);
-                                    break;
-                                }
-                            } catch (IOException e) {
-                                LOGGER.log(
-                                        Level.WARNING,
-                                        "Failed to remove node for dead request: " + sir.spotInstanceRequestId()
-                                                + " AMI: " + sir.instanceId() + " state: " + sir.state()
-                                                + " status: " + sir.status(),
-                                        e);
-                            }
+                    n++;
+                    if (sir.instanceId() != null) {
+                        instanceIds.add(sir.instanceId());
+                    }
+                }
+            } else {
+                // Cancelled or otherwise dead
+                if (spotNodes == null) {
+                    spotNodes = new HashMap<>();
+                    for (Node node : Jenkins.get().getNodes()) {
+                        if (node instanceof EC2SpotSlave ec2Slave && ec2Slave.getSpotInstanceRequestId() != null) {
+                            spotNodes.put(ec2Slave.getSpotInstanceRequestId(), ec2Slave);
                         }
                     }
                 }
+                EC2SpotSlave node = spotNodes.remove(sir.spotInstanceRequestId());
+                if (node == null) {
+                    continue;
+                }
+                try {
+                    LOGGER.log(
+                            Level.INFO,
+                            "Removing dead request: " + sir.spotInstanceRequestId() + " AMI: " + sir.instanceId()
+                                    + " state: " + sir.state() + " status: " + sir.status());
+                    Jenkins.get().removeNode(node);
+                } catch (IOException e) {
+                    LOGGER.log(
+                            Level.WARNING,
+                            "Failed to remove node for dead request: " + sir.spotInstanceRequestId() + " AMI: "
+                                    + sir.instanceId() + " state: " + sir.state() + " status: " + sir.status(),
+                            e);
+                }
             }
-        } while (sirResp.nextToken() != null);
+        }
         n += countJenkinsNodeSpotInstancesWithoutRequests(template, sirSet, instanceIds);
         return n;
     }
@@ -854,7 +996,7 @@ public class EC2Cloud extends Cloud {
     // Count nodes where the spot request does not yet exist (sometimes it takes time for the request to appear
     // in the EC2 API)
     private int countJenkinsNodeSpotInstancesWithoutRequests(
-            SlaveTemplate template, Set<SpotInstanceRequest> sirSet, Set<String> instanceIds) throws SdkException {
+            SlaveTemplate template, Set<String> sirSet, Set<String> instanceIds) throws SdkException {
         int n = 0;
         for (Node node : Jenkins.get().getNodes()) {
             if (!(node instanceof EC2SpotSlave ec2Slave)) {
@@ -868,12 +1010,10 @@ public class EC2Cloud extends Cloud {
                 continue;
             }
 
-            if (sirSet.contains(sir)) {
+            if (!sirSet.add(sir.spotInstanceRequestId())) {
                 continue;
             }
 
-            sirSet.add(sir);
-
             if (sir.state() == SpotInstanceState.OPEN || sir.state() == SpotInstanceState.ACTIVE) {
                 if (template != null) {
                     List<Tag> instanceTags = sir.tags();
@@ -905,7 +1045,7 @@ public class EC2Cloud extends Cloud {
         return n;
     }
 
-    private List<Filter> getGenericFilters(String jenkinsServerUrl, SlaveTemplate template) {
+    List<Filter> getGenericFilters(String jenkinsServerUrl, SlaveTemplate template) {
         List<Filter> filters = new ArrayList<>();
         filters.add(Filter.builder()
                 .name("tag-key")
@@ -940,6 +1080,25 @@ public class EC2Cloud extends Cloud {
         return filters;
     }
 
+    /**
+     * Whether the tags match the tags of the template, as the filters from {@link #getGenericFilters} would.
+     */
+    private static boolean hasTemplateTags(List<Tag> tags, SlaveTemplate template) {
+        if (template == null || template.getTags() == null) {
+            return true;
+        }
+        for (EC2Tag tag : template.getTags()) {
+            if (tag.getName() != null
+                    && tag.getValue() != null
+                    && tags.stream()
+                            .noneMatch(t -> StringUtils.equals(t.key(), tag.getName())
+                                    && StringUtils.equals(t.value(), tag.getValue()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private boolean isEc2ProvisionedAmiSlave(List<Tag> tags, String description) {
         for (Tag tag : tags) {
             if (StringUtils.equals(tag.key(), EC2Tag.TAG_NAME_JENKINS_SLAVE_TYPE)) {
@@ -963,56 +1122,137 @@ public class EC2Cloud extends Cloud {
     }
 
     /**
-     * Returns the maximum number of possible agents that can be created.
+     * Reserves capacity for up to {@code number} new agents of the template, against the instance cap of the cloud
+     * and of the template.
      */
-    private int getPossibleNewSlavesCount(SlaveTemplate template) throws SdkException {
-        int estimatedTotalSlaves = countCurrentEC2Slaves(null);
-        int estimatedAmiSlaves = countCurrentEC2Slaves(template);
-
-        int availableTotalSlaves = instanceCap - estimatedTotalSlaves;
-        int availableAmiSlaves = template.getInstanceCap() - estimatedAmiSlaves;
-        LOGGER.log(
-                Level.FINE,
-                "Available Total Agents: " + availableTotalSlaves + " Available AMI agents: " + availableAmiSlaves
-                        + " AMI: " + template.getAmi() + " TemplateDesc: " + template.description);
+    private EC2CapacityAccounting.SlotReservation reserveNewSlaves(SlaveTemplate template, int number)
+            throws SdkException {
+        EC2CapacityAccounting accounting = getCapacityAccounting();
+        while (true) {
+            long generation = accounting.generation();
+            int estimatedTotalSlaves = countCurrentEC2Slaves(null);
+            int estimatedAmiSlaves = countCurrentEC2Slaves(template);
+
+            int availableTotalSlaves = instanceCap - estimatedTotalSlaves;
+            int availableAmiSlaves = template.getInstanceCap() - estimatedAmiSlaves;
+            LOGGER.log(
+                    Level.FINE,
+                    "Available Total Agents: " + availableTotalSlaves + " Available AMI agents: " + availableAmiSlaves
+                            + " AMI: " + template.getAmi() + " TemplateDesc: " + template.description);
+
+            EC2CapacityAccounting.SlotReservation reservation =
+                    accounting.reserve(template, number, availableTotalSlaves, availableAmiSlaves, generation);
+            if (reservation != null) {
+                return reservation;
+            }
+            // A new sweep came in while we were counting, count again
+        }
+    }
 
-        return Math.min(availableAmiSlaves, availableTotalSlaves);
+    /**
+     * Gets how many more executors for the given label this cloud can launch, as far as its instance cap and the ones
+     * of its templates allow, counting the launches in progress.
+     */
+    int getHeadroom(@CheckForNull Label label) throws SdkException {
+        EC2CapacityAccounting accounting = getCapacityAccounting();
+        try (EC2ApiSubsystem.Scope ignored = EC2ApiSubsystem.PROVISIONING.enter()) {
+            long remaining = (long) instanceCap - countCurrentEC2Slaves(null) - accounting.pending(null);
+            long headroom = 0;
+            for (SlaveTemplate t : getTemplates(label)) {
+                if (remaining <= 0) {
+                    break;
+                }
+                long available = Math.min(
+                        (long) t.getInstanceCap() - countCurrentEC2Slaves(t) - accounting.pending(t), remaining);
+                if (available > 0) {
+                    headroom += available * t.getNumExecutors();
+                    remaining -= available;
+                }
+            }
+            return (int) Math.min(headroom, Integer.MAX_VALUE);
+        }
     }
 
     /**
      * Obtains a agent whose AMI matches the AMI of the given template, and that also has requiredLabel (if requiredLabel is non-null)
      * forceCreateNew specifies that the creation of a new agent is required. Otherwise, an existing matching agent may be re-used
      */
-    private List<EC2AbstractSlave> getNewOrExistingAvailableSlave(SlaveTemplate t, int number, boolean forceCreateNew)
+    List<EC2AbstractSlave> getNewOrExistingAvailableSlave(SlaveTemplate t, int number, boolean forceCreateNew)
             throws IOException {
-        try {
-            slaveCountingLock.lock();
-            int possibleSlavesCount = getPossibleNewSlavesCount(t);
-            if (possibleSlavesCount <= 0) {
-                LOGGER.log(Level.INFO, "{0}. Cannot provision - no capacity for instances: " + possibleSlavesCount, t);
-                return null;
-            }
-
+        // The reservation keeps other provisioning from taking the same capacity while we launch, no lock is held
+        try (EC2ApiSubsystem.Scope ignored = EC2ApiSubsystem.PROVISIONING.enter();
+                EC2CapacityAccounting.SlotReservation reservation = reserveNewSlaves(t, number)) {
             EnumSet<SlaveTemplate.ProvisionOptions> provisionOptions;
             if (forceCreateNew) {
                 provisionOptions = EnumSet.of(SlaveTemplate.ProvisionOptions.FORCE_CREATE);
             } else {
                 provisionOptions = EnumSet.of(SlaveTemplate.ProvisionOptions.ALLOW_CREATE);
             }
+            return launchReserved(t, reservation, number, provisionOptions);
+        }
+    }
 
-            if (number > possibleSlavesCount) {
-                LOGGER.log(
-                        Level.INFO,
-                        String.format(
-                                "%d nodes were requested for the template %s, "
-                                        + "but because of instance cap only %d can be provisioned",
-                                number, t, possibleSlavesCount));
-                number = possibleSlavesCount;
-            }
+    /**
+     * Launches up to {@code number} agents of the template, as many as the reservation holds slots for.
+     */
+    private List<EC2AbstractSlave> launchReserved(
+            SlaveTemplate t,
+            EC2CapacityAccounting.SlotReservation reservation,
+            int number,
+            EnumSet<SlaveTemplate.ProvisionOptions> provisionOptions)
+            throws IOException {
+        int possibleSlavesCount = reservation.getSlots();
+        if (possibleSlavesCount <= 0) {
+            LOGGER.log(Level.INFO, "{0}. Cannot provision - no capacity for instances: " + possibleSlavesCount, t);
+            return null;
+        }
+
+        if (number > possibleSlavesCount) {
+            LOGGER.log(
+                    Level.INFO,
+                    String.format(
+                            "%d nodes were requested for the template %s, "
+                                    + "but because of instance cap only %d can be provisioned",
+                            number, t, possibleSlavesCount));
+            number = possibleSlavesCount;
+        }
 
-            return t.provision(number, provisionOptions);
-        } finally {
-            slaveCountingLock.unlock();
+        List<EC2AbstractSlave> slaves;
+        // Other provisioning of the template could wake the same stopped instances
+        try (EC2ProvisioningLocks.Held ignored = getProvisioningLocks().lock(t.description)) {
+            slaves = t.provision(number, provisionOptions);
+        }
+        if (slaves != null) {
+            // They keep their slots until a sweep sees them
+            reservation.launched(slaves.stream()
+                    .filter(Objects::nonNull)
+                    .map(slave -> slave instanceof EC2SpotSlave spotSlave
+                            ? spotSlave.getSpotInstanceRequestId()
+                            : slave.getInstanceId())
+                    .toList());
+        }
+        return slaves;
+    }
+
+    /**
+     * Launches up to {@code number} agents of the template to refill its warm pool, within the instance caps. The
+     * agents are not added to Jenkins yet.
+     */
+    @NonNull
+    List<EC2AbstractSlave> launchWarmPoolAgents(SlaveTemplate t, int number) throws IOException {
+        try (EC2CapacityAccounting.SlotReservation reservation = reserveNewSlaves(t, number)) {
+            int slots = Math.min(number, reservation.getSlots());
+            if (slots <= 0) {
+                LOGGER.log(Level.INFO, "{0}. Cannot refill the warm pool - no capacity for instances", t);
+                return Collections.emptyList();
+            }
+            List<EC2AbstractSlave> slaves;
+            try (EC2ProvisioningLocks.Held ignored = getProvisioningLocks().lock(t.description)) {
+                slaves = t.launchWarmPoolInstances(slots);
+            }
+            reservation.launched(
+                    slaves.stream().map(EC2AbstractSlave::getInstanceId).toList());
+            return slaves;
         }
     }
 
@@ -1030,7 +1270,43 @@ public class EC2Cloud extends Cloud {
             return Collections.emptyList();
         }
 
-        for (SlaveTemplate t : matchingTemplates) {
+        if (PARALLEL_PROVISIONING && matchingTemplates.size() > 1) {
+            provisionInParallel(new ArrayList<>(matchingTemplates), excessWorkload, plannedNodes);
+        } else {
+            provisionSequentially(matchingTemplates, excessWorkload, plannedNodes);
+        }
+        LOGGER.log(Level.INFO, "We have now {0} computers, waiting for {1} more", new Object[] {
+            jenkinsInstance.getComputers().length, plannedNodes.size()
+        });
+        return plannedNodes;
+    }
+
+    /**
+     * Provisions agents of the given template ahead of a forecast demand.
+     *
+     * @param number how many agents to provision
+     * @see EC2PredictiveProvisionerStrategy
+     */
+    @NonNull
+    Collection<PlannedNode> provisionAhead(@NonNull SlaveTemplate t, int number) {
+        Jenkins jenkinsInstance = Jenkins.get();
+        if (jenkinsInstance.isQuietingDown() || jenkinsInstance.isTerminating()) {
+            LOGGER.log(Level.FINE, "Not provisioning nodes ahead, Jenkins instance is quieting down or terminating");
+            return Collections.emptyList();
+        }
+        List<PlannedNode> plannedNodes = new ArrayList<>();
+        provisionSequentially(List.of(t), number * t.getNumExecutors(), plannedNodes);
+        return plannedNodes;
+    }
+
+    /**
+     * Provisions the excess workload with one template after the other, in their order of preference.
+     *
+     * @return the excess workload left
+     */
+    private int provisionSequentially(
+            Collection<SlaveTemplate> templates, int excessWorkload, List<PlannedNode> plannedNodes) {
+        for (SlaveTemplate t : templates) {
             try {
                 LOGGER.log(
                         Level.INFO,
@@ -1058,26 +1334,160 @@ public class EC2Cloud extends Cloud {
                 if (excessWorkload == 0) {
                     break;
                 }
-            } catch (AwsServiceException e) {
-                LOGGER.log(Level.WARNING, t + ". Exception during provisioning", e);
-                if ("RequestExpired".equals(e.awsErrorDetails().errorCode())
-                        || "ExpiredToken".equals(e.awsErrorDetails().errorCode())) {
-                    // A RequestExpired or ExpiredToken error can indicate that credentials have expired so reconnect
-                    LOGGER.log(Level.INFO, "Reconnecting to EC2 due to RequestExpired or ExpiredToken error");
-                    try {
-                        reconnectToEc2();
-                    } catch (IOException e2) {
-                        LOGGER.log(Level.WARNING, "Failed to reconnect ec2", e2);
+            } catch (SdkException | IOException e) {
+                provisioningFailed(t, e);
+            }
+        }
+        return excessWorkload;
+    }
+
+    /**
+     * Provisions the excess workload with several templates at once.
+     * <p>
+     * The workload is split up front in the order of preference of the templates, each one taking what is left as far
+     * as its instance cap and the one of the cloud allow, and the shares are launched concurrently. All the templates
+     * are prepared meanwhile, so that when a template fails to launch its share, e.g. for lack of capacity, the next
+     * ones take it over without looking up their image, key pair and security groups first.
+     */
+    void provisionInParallel(List<SlaveTemplate> templates, int excessWorkload, List<PlannedNode> plannedNodes) {
+        List<CompletableFuture<Void>> preparations = new ArrayList<>();
+        for (SlaveTemplate t : templates) {
+            preparations.add(CompletableFuture.runAsync(() -> prepare(t), PROVISIONING_EXECUTOR));
+        }
+
+        List<TemplateShare> shares = new ArrayList<>();
+        int unassigned = excessWorkload;
+        for (int i = 0; i < templates.size() && unassigned > 0; i++) {
+            SlaveTemplate t = templates.get(i);
+            int number = Math.max(unassigned / t.getNumExecutors(), 1);
+            EC2CapacityAccounting.SlotReservation reservation;
+            try (EC2ApiSubsystem.Scope ignored = EC2ApiSubsystem.PROVISIONING.enter()) {
+                reservation = reserveNewSlaves(t, number);
+            } catch (SdkException e) {
+                provisioningFailed(t, e);
+                continue;
+            }
+            if (reservation.getSlots() <= 0) {
+                LOGGER.log(Level.INFO, "{0}. Cannot provision - no capacity for instances", t);
+                reservation.close();
+                continue;
+            }
+            LOGGER.log(
+                    Level.INFO,
+                    "{0}. Attempting to provision {1} agent(s) of an excess workload of {2} units",
+                    new Object[] {t, reservation.getSlots(), excessWorkload});
+            TemplateShare share = new TemplateShare(t, reservation);
+            share.slaves = preparations
+                    .get(i)
+                    .exceptionally(e -> null)
+                    .thenApplyAsync(v -> launchShare(share), PROVISIONING_EXECUTOR);
+            shares.add(share);
+            unassigned -= reservation.getSlots() * t.getNumExecutors();
+        }
+
+        // Collect in the order of preference, so that the preferred templates come first
+        List<SlaveTemplate> fallbacks = new ArrayList<>(templates);
+        for (TemplateShare share : shares) {
+            List<EC2AbstractSlave> slaves;
+            try {
+                slaves = share.slaves.join();
+            } catch (CompletionException | CancellationException e) {
+                // The share failed unexpectedly, e.g. its launch was rejected: the others still count
+                share.reservation.close();
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                provisioningFailed(share.template, cause instanceof Exception ex ? ex : e);
+                slaves = null;
+            }
+            int launched = 0;
+            if (slaves != null) {
+                for (EC2AbstractSlave slave : slaves) {
+                    if (slave != null) {
+                        plannedNodes.add(createPlannedNode(share.template, slave));
+                        excessWorkload -= share.template.getNumExecutors();
+                        launched++;
                     }
                 }
-            } catch (SdkException | IOException e) {
-                LOGGER.log(Level.WARNING, t + ". Exception during provisioning", e);
+            }
+            if (launched < share.reservation.getSlots()) {
+                LOGGER.warning(
+                        "Can't raise " + (share.reservation.getSlots() - launched) + " nodes for " + share.template);
+                // It is out of capacity or failing, leave its share to the others
+                fallbacks.remove(share.template);
             }
         }
-        LOGGER.log(Level.INFO, "We have now {0} computers, waiting for {1} more", new Object[] {
-            jenkinsInstance.getComputers().length, plannedNodes.size()
-        });
-        return plannedNodes;
+
+        if (excessWorkload > 0 && !fallbacks.isEmpty()) {
+            LOGGER.log(
+                    Level.INFO, "Excess workload of {0} units left, falling back to the next templates", excessWorkload);
+            provisionSequentially(fallbacks, excessWorkload, plannedNodes);
+        }
+    }
+
+    private static void prepare(SlaveTemplate t) {
+        try (EC2ApiSubsystem.Scope ignored = EC2ApiSubsystem.PROVISIONING.enter()) {
+            t.prepare();
+        } catch (SdkException | IOException e) {
+            // Launching will fail too, and report it
+            LOGGER.log(Level.FINE, t + ". Failed to prepare provisioning", e);
+        }
+    }
+
+    @CheckForNull
+    private List<EC2AbstractSlave> launchShare(TemplateShare share) {
+        try (EC2ApiSubsystem.Scope ignored = EC2ApiSubsystem.PROVISIONING.enter();
+                EC2CapacityAccounting.SlotReservation reservation = share.reservation) {
+            return launchReserved(
+                    share.template,
+                    reservation,
+                    reservation.getSlots(),
+                    EnumSet.of(SlaveTemplate.ProvisionOptions.ALLOW_CREATE));
+        } catch (SdkException | IOException e) {
+            provisioningFailed(share.template, e);
+            return null;
+        }
+    }
+
+    private void provisioningFailed(SlaveTemplate t, Exception e) {
+        LOGGER.log(Level.WARNING, t + ". Exception during provisioning", e);
+        if (e instanceof AwsServiceException awsException
+                && ("RequestExpired".equals(awsException.awsErrorDetails().errorCode())
+                        || "ExpiredToken".equals(awsException.awsErrorDetails().errorCode()))) {
+            // A RequestExpired or ExpiredToken error can indicate that credentials have expired so reconnect
+            LOGGER.log(Level.INFO, "Reconnecting to EC2 due to RequestExpired or ExpiredToken error");
+            try {
+                reconnectToEc2();
+            } catch (IOException e2) {
+                LOGGER.log(Level.WARNING, "Failed to reconnect ec2", e2);
+            }
+        }
+    }
+
+    /**
+     * The part of the excess workload a template launches when provisioning in parallel.
+     */
+    private static final class TemplateShare {
+        private final SlaveTemplate template;
+
+        private final EC2CapacityAccounting.SlotReservation reservation;
+
+        private CompletableFuture<List<EC2AbstractSlave>> slaves;
+
+        TemplateShare(SlaveTemplate template, EC2CapacityAccounting.SlotReservation reservation) {
+            this.template = template;
+            this.reservation = reservation;
+        }
+    }
+
+    private static ExecutorService createProvisioningExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                PROVISIONING_THREADS,
+                PROVISIONING_THREADS,
+                1,
+                TimeUnit.MINUTES,
+                new LinkedBlockingQueue<>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "EC2Cloud.provision"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     private static void attachSlavesToJenkins(Jenkins jenkins, List<EC2AbstractSlave> slaves, SlaveTemplate t)
@@ -1138,9 +1548,12 @@ public class EC2Cloud extends Cloud {
             throws IOException {
         LOGGER.info("Attempting to wake & re-attach orphan/stopped nodes");
         Ec2Client ec2 = this.connect();
-        DescribeInstancesResponse diResult = template.getDescribeInstanceResult(ec2, true);
-        List<Instance> orphansOrStopped = template.findOrphansOrStopped(diResult, requestedNum);
-        template.wakeOrphansOrStoppedUp(ec2, orphansOrStopped);
+        List<Instance> orphansOrStopped;
+        try (EC2ProvisioningLocks.Held ignored = getProvisioningLocks().lock(template.description)) {
+            DescribeInstancesResponse diResult = template.getDescribeInstanceResult(ec2, true);
+            orphansOrStopped = template.findOrphansOrStopped(diResult, requestedNum);
+            template.wakeOrphansOrStoppedUp(ec2, orphansOrStopped);
+        }
         /* If the number of possible nodes to re-attach is greater than the number of nodes requested, will only attempt to re-attach up to the number requested */
         while (orphansOrStopped.size() > requestedNum) {
             orphansOrStopped.remove(0);
@@ -1152,80 +1565,8 @@ public class EC2Cloud extends Cloud {
     }
 
     private PlannedNode createPlannedNode(final SlaveTemplate t, final EC2AbstractSlave slave) {
-        return new PlannedNode(
-                t.getDisplayName(),
-                Computer.threadPoolForRemoting.submit(new Callable<>() {
-                    int retryCount = 0;
-                    private static final int DESCRIBE_LIMIT = 2;
-
-                    @Override
-                    public Node call() throws Exception {
-                        while (true) {
-                            String instanceId = slave.getInstanceId();
-                            if (slave instanceof EC2SpotSlave) {
-                                if (((EC2SpotSlave) slave).isSpotRequestDead()) {
-                                    LOGGER.log(
-                                            Level.WARNING,
-                                            "{0} Spot request died, can't do anything. Terminate provisioning",
-                                            t);
-                                    return null;
-                                }
-
-                                // Spot Instance does not have instance id yet.
-                                if (StringUtils.isEmpty(instanceId)) {
-                                    Thread.sleep(5000);
-                                    continue;
-                                }
-                            }
-
-                            Instance instance = CloudHelper.getInstanceWithRetry(instanceId, slave.getCloud());
-                            if (instance == null) {
-                                LOGGER.log(
-                                        Level.WARNING,
-                                        "{0} Can't find instance with instance id `{1}` in cloud {2}. Terminate provisioning ",
-                                        new Object[] {t, instanceId, slave.cloudName});
-                                return null;
-                            }
-
-                            InstanceStateName state = instance.state().name();
-                            if (state.equals(InstanceStateName.RUNNING)) {
-                                // Spot instance are not reconnected automatically,
-                                // but could be new orphans that has the option enable
-                                Computer c = slave.toComputer();
-                                if (slave.getStopOnTerminate() && (c != null)) {
-                                    c.connect(false);
-                                }
-
-                                long secondsSinceStart = Instant.now().until(instance.launchTime(), ChronoUnit.SECONDS);
-                                LOGGER.log(
-                                        Level.INFO,
-                                        "{0} Node {1} moved to RUNNING state in {2} seconds and is ready to be connected by Jenkins",
-                                        new Object[] {t, slave.getNodeName(), secondsSinceStart});
-                                return slave;
-                            }
-
-                            if (!state.equals(InstanceStateName.PENDING)) {
-
-                                if (retryCount >= DESCRIBE_LIMIT) {
-                                    LOGGER.log(
-                                            Level.WARNING,
-                                            "Instance {0} did not move to running after {1} attempts, terminating provisioning",
-                                            new Object[] {instanceId, retryCount});
-                                    return null;
-                                }
-
-                                LOGGER.log(
-                                        Level.INFO,
-                                        "Attempt {0}: {1}. Node {2} is neither pending, neither running, it''s {3}. Will try again after 5s",
-                                        new Object[] {retryCount, t, slave.getNodeName(), state});
-                                retryCount++;
-                            }
-
-                            Thread.sleep(5000);
-                        }
-                    }
-                }),
-                t.getNumExecutors());
+        // Waits for the instance to run without holding a thread
+        return new PlannedNode(t.getDisplayName(), EC2LaunchPipeline.start(t, slave), t.getNumExecutors());
     }
 
     @Override
@@ -1268,31 +1609,33 @@ public class EC2Cloud extends Cloud {
             final String roleSessionName,
             final String region) {
 
-        AwsCredentialsProvider provider = createCredentialsProvider(useInstanceProfileForCredentials, credentialsId);
-
         if (StringUtils.isNotEmpty(roleArn)) {
             AssumeRoleRequest assumeRoleRequest = AssumeRoleRequest.builder()
                     .roleArn(roleArn)
                     .roleSessionName(StringUtils.defaultIfBlank(roleSessionName, "Jenkins"))
                     .build();
 
-            StsClientBuilder stsClientBuilder = StsClient.builder()
-                    .credentialsProvider(provider)
-                    .httpClient(getHttpClient())
-                    .overrideConfiguration(createClientOverrideConfiguration());
-            Region parsed = parseRegion(region);
-            if (parsed != null) {
-                stsClientBuilder.region(parsed);
-            }
-            StsClient stsClient = stsClientBuilder.build();
-
-            return StsAssumeRoleCredentialsProvider.builder()
-                    .stsClient(stsClient)
-                    .refreshRequest(assumeRoleRequest)
-                    .build();
+            // The session is shared and refreshed in the background, see AssumedRoleCredentialsCache
+            return AssumedRoleCredentialsCache.get(
+                    credentialsKey(useInstanceProfileForCredentials, credentialsId, roleArn, roleSessionName, region),
+                    assumeRoleRequest,
+                    refreshes -> {
+                        StsClientBuilder stsClientBuilder = StsClient.builder()
+                                .credentialsProvider(
+                                        createCredentialsProvider(useInstanceProfileForCredentials, credentialsId))
+                                .httpClient(getHttpClient())
+                                .overrideConfiguration(createClientOverrideConfiguration().toBuilder()
+                                        .addExecutionInterceptor(refreshes)
+                                        .build());
+                        Region parsed = parseRegion(region);
+                        if (parsed != null) {
+                            stsClientBuilder.region(parsed);
+                        }
+                        return stsClientBuilder.build();
+                    });
         }
 
-        return provider;
+        return createCredentialsProvider(useInstanceProfileForCredentials, credentialsId);
     }
 
     @CheckForNull
@@ -1308,12 +1651,278 @@ public class EC2Cloud extends Cloud {
 
     private Ec2Client reconnectToEc2() throws IOException {
         synchronized (this) {
-            connection = AmazonEC2Factory.getInstance()
-                    .connect(createCredentialsProvider(), parseRegion(getRegion()), parseEndpoint(getAltEC2Endpoint()));
+            // The client may not work anymore, e.g. because its credentials expired: don't get it back
+            releaseConnection(true);
+            if (StringUtils.isNotEmpty(getRoleArn())) {
+                // Nor the role session it was connected with
+                AssumedRoleCredentialsCache.invalidate(credentialsKey(
+                        isUseInstanceProfileForCredentials(),
+                        getCredentialsId(),
+                        getRoleArn(),
+                        getRoleSessionName(),
+                        getRegion()));
+            }
+            connectionLease = EC2ClientRegistry.get()
+                    .connect(
+                            credentialsKey(
+                                    isUseInstanceProfileForCredentials(),
+                                    getCredentialsId(),
+                                    getRoleArn(),
+                                    getRoleSessionName(),
+                                    getRegion()),
+                            this::createCredentialsProvider,
+                            parseRegion(getRegion()),
+                            parseEndpoint(getAltEC2Endpoint()));
+            // The client may be shared with other clouds, its calls are made on behalf of this one
+            connection = EC2CloudScope.bind(connectionLease.get(), name);
+            CONNECTED.add(this);
+            if (name != null) {
+                EC2ConnectionHealth.of(name).connected();
+            }
+            disconnectAsync();
             return connection;
         }
     }
 
+    private void releaseConnection(boolean invalidate) {
+        EC2ClientRegistry.Lease lease = connectionLease;
+        connectionLease = null;
+        connection = null;
+        if (lease != null) {
+            if (invalidate) {
+                lease.invalidate();
+            }
+            lease.close();
+        }
+    }
+
+    /**
+     * Identifies the credentials a client is connected with in the {@link EC2ClientRegistry}, see
+     * {@link #createCredentialsProvider(boolean, String, String, String, String)}. Static credentials are told apart by
+     * a digest of their secret, so that updating it connects new clients.
+     */
+    static String credentialsKey(
+            boolean useInstanceProfileForCredentials,
+            String credentialsId,
+            String roleArn,
+            String roleSessionName,
+            String region) {
+        String credentials;
+        if (useInstanceProfileForCredentials) {
+            credentials = "instance-profile";
+        } else {
+            credentials = "credentials:" + StringUtils.defaultString(credentialsId);
+            // Clients keep the secret they were connected with: tell an updated secret apart from the previous one
+            AmazonWebServicesCredentials awsCredentials = getCredentials(credentialsId);
+            if (awsCredentials != null) {
+                credentials += ":" + secretDigest(awsCredentials);
+            }
+        }
+        if (StringUtils.isEmpty(roleArn)) {
+            return credentials;
+        }
+        // The role is assumed through the STS endpoint of the region
+        return credentials + "|" + roleArn + "|" + StringUtils.defaultIfBlank(roleSessionName, "Jenkins") + "|"
+                + StringUtils.defaultString(region);
+    }
+
+    private static String secretDigest(@NonNull AmazonWebServicesCredentials credentials) {
+        String secret;
+        if (credentials instanceof AWSCredentialsImpl impl) {
+            // Resolving them would assume their role, if any
+            secret = impl.getAccessKey() + "\n" + Secret.toString(impl.getSecretKey()) + "\n"
+                    + StringUtils.defaultString(impl.getIamRoleArn());
+        } else {
+            AwsCredentials resolved = credentials.resolveCredentials();
+            secret = resolved.accessKeyId() + "\n" + resolved.secretAccessKey();
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(secret.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Leases a client from the {@link EC2ClientRegistry} for form handlers, to be closed once done with it.
+     */
+    static EC2ClientRegistry.Lease leaseClient(
+            boolean useInstanceProfileForCredentials,
+            String credentialsId,
+            String roleArn,
+            String roleSessionName,
+            String region,
+            @CheckForNull Region ec2Region,
+            @CheckForNull URI endpoint) {
+        return EC2ClientRegistry.get()
+                .connect(
+                        credentialsKey(useInstanceProfileForCredentials, credentialsId, roleArn, roleSessionName, region),
+                        () -> createCredentialsProvider(
+                                useInstanceProfileForCredentials, credentialsId, roleArn, roleSessionName, region),
+                        ec2Region,
+                        endpoint);
+    }
+
+    private void disconnectAsync() {
+        Ec2AsyncClient previous = asyncConnection;
+        asyncConnection = null;
+        asyncConnected = false;
+        if (previous != null) {
+            // Let the calls in flight complete before releasing the connections of the client
+            CompletableFuture.delayedExecutor(1, TimeUnit.MINUTES).execute(previous::close);
+        }
+    }
+
+    /**
+     * Connects to EC2 with a non-blocking client, to wait on calls without holding a thread.
+     *
+     * @return the client, or null if the {@link AmazonEC2Factory} only provides blocking clients, in which case
+     *     {@link #connect()} is to be used
+     */
+    @CheckForNull
+    Ec2AsyncClient connectAsync() {
+        if (!asyncConnected) {
+            synchronized (this) {
+                if (!asyncConnected) {
+                    try {
+                        asyncConnection = AmazonEC2Factory.getInstance()
+                                .connectAsync(
+                                        createCredentialsProvider(),
+                                        parseRegion(getRegion()),
+                                        parseEndpoint(getAltEC2Endpoint()),
+                                        name);
+                    } catch (SdkException e) {
+                        LOGGER.log(Level.WARNING, "Failed to connect to EC2 with a non-blocking client", e);
+                        asyncConnection = null;
+                    }
+                    if (asyncConnection != null) {
+                        CONNECTED.add(this);
+                    }
+                    asyncConnected = true;
+                }
+            }
+        }
+        return asyncConnection;
+    }
+
+    /**
+     * Gets the shared snapshot of the instances launched by this cloud.
+     */
+    @NonNull
+    EC2InstanceInventory getInventory() {
+        EC2InstanceInventory result = inventory;
+        if (result == null) {
+            synchronized (this) {
+                result = inventory;
+                if (result == null) {
+                    inventory = result = new EC2InstanceInventory(this);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the coalescer batching the single-instance lookups of this cloud.
+     */
+    @NonNull
+    InstanceLookupCoalescer getInstanceLookups() {
+        InstanceLookupCoalescer result = instanceLookups;
+        if (result == null) {
+            synchronized (this) {
+                result = instanceLookups;
+                if (result == null) {
+                    instanceLookups = result = new InstanceLookupCoalescer(this);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the tracker polling the instances this cloud launched until they run.
+     */
+    @NonNull
+    EC2PendingInstanceTracker getPendingInstances() {
+        EC2PendingInstanceTracker result = pendingInstances;
+        if (result == null) {
+            synchronized (this) {
+                result = pendingInstances;
+                if (result == null) {
+                    pendingInstances = result = new EC2PendingInstanceTracker(this);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the cached state of the spot requests of the spot agents of this cloud.
+     */
+    @NonNull
+    EC2SpotRequestCache getSpotRequests() {
+        EC2SpotRequestCache result = spotRequests;
+        if (result == null) {
+            synchronized (this) {
+                result = spotRequests;
+                if (result == null) {
+                    spotRequests = result = new EC2SpotRequestCache(this);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the capacity accounting of this cloud, from which the instance caps are checked.
+     */
+    @NonNull
+    EC2CapacityAccounting getCapacityAccounting() {
+        EC2CapacityAccounting result = capacityAccounting;
+        if (result == null) {
+            synchronized (this) {
+                result = capacityAccounting;
+                if (result == null) {
+                    capacityAccounting = result = new EC2CapacityAccounting(this);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the locks serializing the provisioning of each template of this cloud.
+     */
+    @NonNull
+    EC2ProvisioningLocks getProvisioningLocks() {
+        EC2ProvisioningLocks result = provisioningLocks;
+        if (result == null) {
+            synchronized (this) {
+                result = provisioningLocks;
+                if (result == null) {
+                    provisioningLocks = result = new EC2ProvisioningLocks();
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets how long provisioning waited on the lock of every template of this cloud.
+     */
+    @Restricted(NoExternalUse.class)
+    public List<EC2ProvisioningLocks.LockWaits> getProvisioningLockWaits() {
+        return getProvisioningLocks().getWaits();
+    }
+
+    /**
+     * Stops counting an instance we just terminated against the instance caps, without waiting for the next sweep.
+     */
+    void onInstanceTerminated(String instanceId) {
+        getCapacityAccounting().terminated(instanceId);
+    }
+
     /**
      * Connects to EC2 and returns {@link Ec2Client}, which can then be used to communicate with EC2.
      */
@@ -1329,36 +1938,40 @@ public class EC2Cloud extends Cloud {
         }
     }
 
+    /**
+     * Gets the HTTP client shared by all the clients connecting to AWS.
+     */
     public static SdkHttpClient getHttpClient() {
-        Jenkins instance = Jenkins.getInstanceOrNull();
+        return SharedHttpClient.get();
+    }
 
-        ProxyConfiguration proxy = instance != null ? instance.proxy : null;
-        ApacheHttpClient.Builder builder = ApacheHttpClient.builder();
-        if (proxy != null && proxy.name != null && !proxy.name.isEmpty()) {
-            software.amazon.awssdk.http.apache.ProxyConfiguration.Builder proxyConfiguration =
-                    software.amazon.awssdk.http.apache.ProxyConfiguration.builder()
-                            .endpoint(URI.create(String.format("http://%s:%s", proxy.name, proxy.port)));
-            if (proxy.getUserName() != null) {
-                proxyConfiguration.username(proxy.getUserName());
-                proxyConfiguration.password(Secret.toString(proxy.getSecretPassword()));
-            }
-            List<Pattern> patterns = proxy.getNoProxyHostPatterns();
-            if (patterns != null && !patterns.isEmpty()) {
-                patterns.stream().map(Pattern::pattern).forEach(proxyConfiguration::addNonProxyHost);
-            }
-            builder.proxyConfiguration(proxyConfiguration.build());
-        }
-        return builder.build();
+    /**
+     * Gets the non-blocking HTTP client shared by all the non-blocking clients connecting to AWS.
+     */
+    public static SdkAsyncHttpClient getAsyncHttpClient() {
+        return SharedHttpClient.getAsync();
     }
 
     public static ClientOverrideConfiguration createClientOverrideConfiguration() {
+        return createClientOverrideConfiguration(null);
+    }
+
+    /**
+     * Creates the configuration of the clients making calls for the given cloud, recording them in its
+     * {@link EC2ApiMetrics}.
+     *
+     * @param cloudName the cloud, null if the clients are shared by the clouds, see {@link EC2CloudScope}, or not made
+     *     for a cloud
+     */
+    public static ClientOverrideConfiguration createClientOverrideConfiguration(@CheckForNull String cloudName) {
         // Default retry limit (3) is low and often cause problems. Raise it a bit.
         // See: https://issues.jenkins-ci.org/browse/JENKINS-26800
-        ClientOverrideConfiguration config = ClientOverrideConfiguration.builder()
+        return ClientOverrideConfiguration.builder()
                 .putAdvancedOption(SdkAdvancedClientOption.SIGNER, Aws4Signer.create())
                 .retryPolicy(RetryPolicy.builder().numRetries(16).build())
+                .addExecutionInterceptor(EC2ApiMetrics.interceptor(cloudName))
+                .addExecutionInterceptor(EC2ConnectionHealth.interceptor(cloudName))
                 .build();
-        return config;
     }
 
     /* Parse a url or return a sensible error */
@@ -1559,7 +2172,7 @@ public class EC2Cloud extends Cloud {
             if (!Jenkins.get().hasPermission(Jenkins.ADMINISTER)) {
                 return FormValidation.ok();
             }
-            try {
+            try (EC2ApiSubsystem.Scope ignored = EC2ApiSubsystem.FORM_VALIDATION.enter()) {
                 List<FormValidation> validations = new ArrayList<>();
 
                 LOGGER.fine(() -> "begin doTestConnection()");
@@ -1592,19 +2205,25 @@ public class EC2Cloud extends Cloud {
                     region = DEFAULT_EC2_HOST;
                 }
 
-                AwsCredentialsProvider credentialsProvider = createCredentialsProvider(
-                        useInstanceProfileForCredentials, credentialsId, roleArn, roleSessionName, region);
-                Ec2Client ec2 = AmazonEC2Factory.getInstance()
-                        .connect(credentialsProvider, parseRegion(region), parseEndpoint(altEC2Endpoint));
-                ec2.describeInstances();
-
-                if (!privateKey.trim().isEmpty()) {
-                    // check if this key exists
-                    EC2PrivateKey pk = new EC2PrivateKey(privateKey);
-                    if (pk.find(ec2) == null) {
-                        validations.add(FormValidation.error(
-                                "The EC2 key pair private key isn't registered to this EC2 region (fingerprint is "
-                                        + pk.getFingerprint() + ")"));
+                try (EC2ClientRegistry.Lease lease = leaseClient(
+                        useInstanceProfileForCredentials,
+                        credentialsId,
+                        roleArn,
+                        roleSessionName,
+                        region,
+                        parseRegion(region),
+                        parseEndpoint(altEC2Endpoint))) {
+                    Ec2Client ec2 = lease.get();
+                    ec2.describeInstances();
+
+                    if (!privateKey.trim().isEmpty()) {
+                        // check if this key exists
+                        EC2PrivateKey pk = new EC2PrivateKey(privateKey);
+                        if (pk.find(ec2) == null) {
+                            validations.add(FormValidation.error(
+                                    "The EC2 key pair private key isn't registered to this EC2 region (fingerprint is "
+                                            + pk.getFingerprint() + ")"));
+                        }
                     }
                 }
 
@@ -1679,13 +2298,17 @@ public class EC2Cloud extends Cloud {
                 throws IOException, ServletException {
             ListBoxModel model = new ListBoxModel();
             if (Jenkins.get().hasPermission(Jenkins.ADMINISTER)) {
-                try {
-                    AwsCredentialsProvider credentialsProvider =
-                            createCredentialsProvider(useInstanceProfileForCredentials, credentialsId);
-                    URI endpoint = parseEndpoint(altEC2Endpoint);
-                    Ec2Client client = AmazonEC2Factory.getInstance()
-                            .connect(credentialsProvider, getBootstrapRegion(endpoint), endpoint);
-                    DescribeRegionsResponse regions = client.describeRegions();
+                URI endpoint = parseEndpoint(altEC2Endpoint);
+                try (EC2ApiSubsystem.Scope ignored = EC2ApiSubsystem.FORM_VALIDATION.enter();
+                        EC2ClientRegistry.Lease lease = leaseClient(
+                                useInstanceProfileForCredentials,
+                                credentialsId,
+                                null,
+                                null,
+                                null,
+                                getBootstrapRegion(endpoint),
+                                endpoint)) {
+                    DescribeRegionsResponse regions = lease.get().describeRegions();
                     List<software.amazon.awssdk.services.ec2.model.Region> regionList = regions.regions();
                     for (software.amazon.awssdk.services.ec2.model.Region r : regionList) {
                         String name = r.regionName();
@@ -1718,6 +2341,49 @@ public class EC2Cloud extends Cloud {
         }
     }
 
+    /**
+     * Drops the connection of this cloud, so that the next call reconnects.
+     */
+    void disconnect() {
+        synchronized (this) {
+            releaseConnection(false);
+            disconnectAsync();
+            CONNECTED.remove(this);
+        }
+    }
+
+    /**
+     * Releases the clients of the clouds that are not among the given ones anymore, i.e. removed or replaced by a new
+     * configuration, so that the {@link EC2ClientRegistry} can close them once nobody else uses them.
+     */
+    static void disconnectRemoved(@NonNull Collection<EC2Cloud> clouds) {
+        for (EC2Cloud cloud : CONNECTED) {
+            if (clouds.stream().noneMatch(c -> c == cloud)) {
+                LOGGER.log(Level.FINE, "Releasing the clients of removed cloud {0}", cloud.getDisplayName());
+                cloud.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the clients when the proxy of Jenkins or the credentials they were connected with change.
+     */
+    @Extension
+    public static final class OnConnectionSettingsChangeListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if ((o instanceof ProxyConfiguration && SharedHttpClient.proxyChanged())
+                    || o instanceof SystemCredentialsProvider) {
+                EC2ClientRegistry.get().invalidateAll();
+                AssumedRoleCredentialsCache.invalidateAll();
+                Jenkins instance = Jenkins.getInstanceOrNull();
+                if (instance != null) {
+                    instance.clouds.getAll(EC2Cloud.class).forEach(EC2Cloud::disconnect);
+                }
+            }
+        }
+    }
+
     @Extension
     public static class EC2ConnectionUpdater extends PeriodicWork {
         @Override
@@ -1729,25 +2395,64 @@ public class EC2Cloud extends Cloud {
         protected void doRun() throws IOException {
             Jenkins instance = Jenkins.get();
             if (instance.clouds != null) {
-                for (Cloud cloud : instance.clouds) {
-                    if (cloud instanceof EC2Cloud ec2_cloud) {
-                        LOGGER.finer(() -> "Checking EC2 Connection on: " + ec2_cloud.getDisplayName());
-                        try {
-                            if (ec2_cloud.connection != null) {
-                                List<Filter> filters = new ArrayList<>();
-                                filters.add(Filter.builder()
-                                        .name("tag-key")
-                                        .values("bogus-EC2ConnectionKeepalive")
-                                        .build());
-                                DescribeInstancesRequest dir = DescribeInstancesRequest.builder()
-                                        .filters(filters)
-                                        .build();
-                                ec2_cloud.connection.describeInstances(dir);
-                            }
-                        } catch (SdkException e) {
-                            LOGGER.finer(() -> "Reconnecting to EC2 on: " + ec2_cloud.getDisplayName());
-                            ec2_cloud.reconnectToEc2();
+                forgetRemovedClouds(instance);
+                try (EC2ApiSubsystem.Scope ignored = EC2ApiSubsystem.CLEANUP.enter()) {
+                    checkConnections(instance);
+                }
+            }
+        }
+
+        /*
+         * Drops what is kept for the clouds removed, renamed or replaced by a new configuration since the last run.
+         */
+        private void forgetRemovedClouds(Jenkins instance) {
+            List<EC2Cloud> clouds = instance.clouds.getAll(EC2Cloud.class);
+            disconnectRemoved(clouds);
+            Set<String> names = new HashSet<>();
+            for (EC2Cloud cloud : clouds) {
+                if (cloud.name != null) {
+                    names.add(cloud.name);
+                }
+            }
+            EC2ConnectionHealth.retainClouds(names);
+            EC2ApiMetrics.get().retainClouds(names);
+        }
+
+        private void checkConnections(Jenkins instance) throws IOException {
+            for (Cloud cloud : instance.clouds) {
+                if (cloud instanceof EC2Cloud ec2_cloud) {
+                    LOGGER.finer(() -> "Checking EC2 Connection on: " + ec2_cloud.getDisplayName());
+                    if (ec2_cloud.connection == null) {
+                        continue;
+                    }
+                    // The calls the cloud makes anyway tell whether its connection works
+                    EC2ConnectionHealth health = ec2_cloud.name != null ? EC2ConnectionHealth.of(ec2_cloud.name) : null;
+                    AssumedRoleCredentialsCache.RoleSession session = ec2_cloud.getAssumedRoleSession();
+                    if (health != null && health.needsReconnect(session != null ? session.getExpiration() : null)) {
+                        LOGGER.fine(() -> "Reconnecting to EC2 on: " + ec2_cloud.getDisplayName()
+                                + ", its credentials failed or expired");
+                        ec2_cloud.reconnectToEc2();
+                        continue;
+                    }
+                    Duration lifetime = session != null ? session.getLifetime() : null;
+                    if (health != null && !health.needsProbe(lifetime != null ? lifetime.toMillis() : 0)) {
+                        continue;
+                    }
+                    try {
+                        if (ec2_cloud.connection != null) {
+                            List<Filter> filters = new ArrayList<>();
+                            filters.add(Filter.builder()
+                                    .name("tag-key")
+                                    .values("bogus-EC2ConnectionKeepalive")
+                                    .build());
+                            DescribeInstancesRequest dir = DescribeInstancesRequest.builder()
+                                    .filters(filters)
+                                    .build();
+                            ec2_cloud.connection.describeInstances(dir);
                         }
+                    } catch (SdkException e) {
+                        LOGGER.finer(() -> "Reconnecting to EC2 on: " + ec2_cloud.getDisplayName());
+                        ec2_cloud.reconnectToEc2();
                     }
                 }
             }
@@ -178,7 +178,7 @@ public class EC2Computer extends SlaveComputer {
      */
     public Instance describeInstance() throws SdkException, InterruptedException {
         if (ec2InstanceDescription == null) {
-            ec2InstanceDescription = CloudHelper.getInstanceWithRetry(getInstanceId(), getCloud());
+            ec2InstanceDescription = CloudHelper.getCachedInstance(getInstanceId(), getCloud(), false);
         }
         return ec2InstanceDescription;
     }
@@ -187,17 +187,18 @@ public class EC2Computer extends SlaveComputer {
      * This will flush any cached description held by {@link #describeInstance()}.
      */
     public Instance updateInstanceDescription() throws SdkException, InterruptedException {
-        return ec2InstanceDescription = CloudHelper.getInstanceWithRetry(getInstanceId(), getCloud());
+        return ec2InstanceDescription = CloudHelper.getCachedInstance(getInstanceId(), getCloud(), true);
     }
 
     /**
      * Gets the current state of the instance.
      *
      * <p>
-     * Unlike {@link #describeInstance()}, this method always return the current status by calling EC2.
+     * Unlike {@link #describeInstance()}, this method always return the current status, read from the inventory of the
+     * cloud which is refreshed when it is older than a few seconds.
      */
     public InstanceState getState() throws SdkException, InterruptedException {
-        ec2InstanceDescription = CloudHelper.getInstanceWithRetry(getInstanceId(), getCloud());
+        ec2InstanceDescription = CloudHelper.getCachedInstance(getInstanceId(), getCloud(), true);
         return InstanceState.find(ec2InstanceDescription.state().name().toString());
     }
 
@@ -273,6 +274,11 @@ public class EC2Computer extends SlaveComputer {
         EC2AbstractSlave node = getNode();
         if (node != null) {
             node.onConnected();
+            EC2Cloud cloud = node.getCloud();
+            SlaveTemplate template = cloud != null ? cloud.getTemplate(node.templateDescription) : null;
+            if (template != null) {
+                template.getWarmPool().onConnected(node);
+            }
         }
     }
 }
@@ -0,0 +1,155 @@
+package hudson.plugins.ec2;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.plugins.ec2.util.EC2CloudScope;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+
+/**
+ * Tracks whether the connection of a cloud works from the outcome of the calls it makes anyway, so that it doesn't
+ * have to be probed.
+ * <p>
+ * The connection is to be rebuilt after {@link #AUTH_FAILURE_LIMIT} consecutive authentication failures, or once the
+ * credentials it was connected with expired. It is only probed when it made no call for longer than its credentials
+ * live, as nothing else would tell whether it still works.
+ */
+final class EC2ConnectionHealth {
+
+    /*
+     * How many calls in a row have to fail to authenticate before reconnecting.
+     */
+    static final int AUTH_FAILURE_LIMIT =
+            Integer.getInteger("hudson.plugins.ec2.EC2ConnectionHealth.authFailureLimit", 3);
+
+    /*
+     * How long (in minutes) credentials are assumed to live when their expiry is unknown, e.g. static credentials.
+     */
+    static final long DEFAULT_CREDENTIALS_LIFETIME_MINUTES =
+            Long.getLong("hudson.plugins.ec2.EC2ConnectionHealth.defaultCredentialsLifetimeMinutes", 60);
+
+    private static final Set<String> AUTH_ERROR_CODES = Set.of(
+            "AuthFailure",
+            "ExpiredToken",
+            "InvalidClientTokenId",
+            "RequestExpired",
+            "SignatureDoesNotMatch",
+            "UnrecognizedClientException");
+
+    private static final Map<String, EC2ConnectionHealth> CLOUDS = new ConcurrentHashMap<>();
+
+    private final LongSupplier clock;
+
+    private volatile long lastCall;
+
+    private final AtomicInteger consecutiveAuthFailures = new AtomicInteger();
+
+    EC2ConnectionHealth(@NonNull LongSupplier clock) {
+        this.clock = clock;
+        this.lastCall = clock.getAsLong();
+    }
+
+    /**
+     * Gets the health of the connection of the given cloud.
+     */
+    @NonNull
+    static EC2ConnectionHealth of(@NonNull String cloudName) {
+        return CLOUDS.computeIfAbsent(cloudName, n -> new EC2ConnectionHealth(System::currentTimeMillis));
+    }
+
+    /**
+     * Forgets the health of the clouds other than the given ones, i.e. removed or renamed since.
+     */
+    static void retainClouds(@NonNull Collection<String> cloudNames) {
+        CLOUDS.keySet().retainAll(cloudNames);
+    }
+
+    /**
+     * Creates the interceptor tracking the calls of a client into the health of the cloud of each call, see
+     * {@link EC2CloudScope}.
+     *
+     * @param cloudName the cloud the client makes calls for, null if it is shared or not bound to a cloud
+     */
+    @NonNull
+    static ExecutionInterceptor interceptor(@CheckForNull String cloudName) {
+        return new ExecutionInterceptor() {
+            @Override
+            public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes executionAttributes) {
+                EC2CloudScope.capture(executionAttributes);
+            }
+
+            @Override
+            public void afterExecution(Context.AfterExecution context, ExecutionAttributes executionAttributes) {
+                String cloud = EC2CloudScope.of(executionAttributes, cloudName);
+                if (cloud != null) {
+                    of(cloud).succeeded();
+                }
+            }
+
+            @Override
+            public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes executionAttributes) {
+                String cloud = EC2CloudScope.of(executionAttributes, cloudName);
+                if (cloud != null) {
+                    of(cloud).failed(context.exception());
+                }
+            }
+        };
+    }
+
+    void connected() {
+        succeeded();
+    }
+
+    void succeeded() {
+        lastCall = clock.getAsLong();
+        consecutiveAuthFailures.set(0);
+    }
+
+    void failed(@NonNull Throwable e) {
+        lastCall = clock.getAsLong();
+        if (e instanceof AwsServiceException awsException
+                && awsException.awsErrorDetails() != null
+                && AUTH_ERROR_CODES.contains(awsException.awsErrorDetails().errorCode())) {
+            consecutiveAuthFailures.incrementAndGet();
+        }
+        // Other failures, e.g. throttling or network errors, don't tell anything about the credentials
+    }
+
+    int getConsecutiveAuthFailures() {
+        return consecutiveAuthFailures.get();
+    }
+
+    /**
+     * Tells whether the connection is to be rebuilt.
+     *
+     * @param credentialsExpiration when the credentials of the connection expire, null if unknown
+     */
+    boolean needsReconnect(@CheckForNull Instant credentialsExpiration) {
+        if (consecutiveAuthFailures.get() >= AUTH_FAILURE_LIMIT) {
+            return true;
+        }
+        return credentialsExpiration != null && credentialsExpiration.toEpochMilli() <= clock.getAsLong();
+    }
+
+    /**
+     * Tells whether the connection made no call for longer than its credentials live, so that it has to be probed.
+     *
+     * @param credentialsLifetimeMillis how long the credentials of the connection live, 0 if unknown
+     */
+    boolean needsProbe(long credentialsLifetimeMillis) {
+        long lifetime = credentialsLifetimeMillis > 0
+                ? credentialsLifetimeMillis
+                : TimeUnit.MINUTES.toMillis(DEFAULT_CREDENTIALS_LIFETIME_MINUTES);
+        return clock.getAsLong() - lastCall > lifetime;
+    }
+}
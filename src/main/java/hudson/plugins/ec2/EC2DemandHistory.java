@@ -0,0 +1,122 @@
+package hudson.plugins.ec2;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The demand for the executors of a label, recorded in a ring buffer of time slots.
+ * <p>
+ * Each slot keeps the highest demand seen during it, in a {@code short}, so that four weeks of 15 minute slots take
+ * 5 kB. The demand at a future time is forecast from the slots at the same time of the week on the previous weeks and
+ * at the same time of day on the previous days, both exponentially smoothed so that the most recent weigh most.
+ */
+final class EC2DemandHistory {
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    private static final long WEEK = TimeUnit.DAYS.toMillis(7);
+
+    /*
+     * How much the most recent of the same slots weighs, the one before weighs (1 - SMOOTHING) times less and so on.
+     */
+    static final double SMOOTHING = 0.5;
+
+    /*
+     * How much the time of the week weighs against the time of day, when there is history for both.
+     */
+    static final double WEEKLY_WEIGHT = 0.7;
+
+    private static final short UNKNOWN = -1;
+
+    private final long slotMillis;
+
+    private final short[] demand;
+
+    private long lastSlot = Long.MIN_VALUE;
+
+    private int lastDemand;
+
+    EC2DemandHistory(long slotMillis, long retentionMillis) {
+        this.slotMillis = slotMillis;
+        this.demand = new short[(int) Math.max(retentionMillis / slotMillis, 1)];
+        Arrays.fill(demand, UNKNOWN);
+    }
+
+    /**
+     * Records the demand seen at the given time.
+     */
+    synchronized void record(long now, int seen) {
+        long slot = now / slotMillis;
+        if (lastSlot == Long.MIN_VALUE || slot - lastSlot >= demand.length) {
+            Arrays.fill(demand, UNKNOWN);
+        } else if (slot < lastSlot) {
+            // The clock went back, keep the slots already recorded
+            slot = lastSlot;
+        } else {
+            for (long s = lastSlot + 1; s <= slot; s++) {
+                demand[index(s)] = UNKNOWN;
+            }
+        }
+        lastSlot = slot;
+        lastDemand = Math.max(seen, 0);
+        short value = (short) Math.min(lastDemand, Short.MAX_VALUE);
+        int i = index(slot);
+        if (value > demand[i]) {
+            demand[i] = value;
+        }
+    }
+
+    /**
+     * Gets the demand last recorded.
+     */
+    synchronized int getObserved() {
+        return lastDemand;
+    }
+
+    /**
+     * Forecasts the demand at the given time.
+     *
+     * @return the forecast demand, 0 if there is no history for that time yet
+     */
+    synchronized double forecast(long at) {
+        long target = at / slotMillis;
+        double weekly = smooth(target, WEEK / slotMillis);
+        double daily = smooth(target, DAY / slotMillis);
+        if (Double.isNaN(weekly)) {
+            return Double.isNaN(daily) ? 0 : daily;
+        }
+        if (Double.isNaN(daily)) {
+            return weekly;
+        }
+        return WEEKLY_WEIGHT * weekly + (1 - WEEKLY_WEIGHT) * daily;
+    }
+
+    /**
+     * Smooths the slots one period, two periods... before the target, as far as the history goes.
+     *
+     * @return the smoothed demand, NaN if none of these slots was recorded
+     */
+    private double smooth(long target, long period) {
+        if (period <= 0 || lastSlot == Long.MIN_VALUE) {
+            return Double.NaN;
+        }
+        double sum = 0;
+        double weights = 0;
+        double weight = SMOOTHING;
+        for (long slot = target - period; slot > lastSlot - demand.length; slot -= period) {
+            if (slot <= lastSlot) {
+                short value = demand[index(slot)];
+                if (value != UNKNOWN) {
+                    sum += weight * value;
+                    weights += weight;
+                }
+            }
+            weight *= 1 - SMOOTHING;
+        }
+        return weights > 0 ? sum / weights : Double.NaN;
+    }
+
+    private int index(long slot) {
+        return (int) Math.floorMod(slot, (long) demand.length);
+    }
+}
@@ -0,0 +1,519 @@
+package hudson.plugins.ec2;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.BlockDeviceMapping;
+import software.amazon.awssdk.services.ec2.model.CreateFleetError;
+import software.amazon.awssdk.services.ec2.model.CreateFleetInstance;
+import software.amazon.awssdk.services.ec2.model.CreateFleetRequest;
+import software.amazon.awssdk.services.ec2.model.CreateFleetResponse;
+import software.amazon.awssdk.services.ec2.model.CreateLaunchTemplateRequest;
+import software.amazon.awssdk.services.ec2.model.CreateLaunchTemplateVersionRequest;
+import software.amazon.awssdk.services.ec2.model.DefaultTargetCapacityType;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeSpotInstanceRequestsRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeSpotInstanceRequestsResponse;
+import software.amazon.awssdk.services.ec2.model.EbsBlockDevice;
+import software.amazon.awssdk.services.ec2.model.Filter;
+import software.amazon.awssdk.services.ec2.model.FleetLaunchTemplateConfigRequest;
+import software.amazon.awssdk.services.ec2.model.FleetLaunchTemplateOverridesRequest;
+import software.amazon.awssdk.services.ec2.model.FleetLaunchTemplateSpecificationRequest;
+import software.amazon.awssdk.services.ec2.model.FleetType;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.InstanceLifecycle;
+import software.amazon.awssdk.services.ec2.model.InstanceLifecycleType;
+import software.amazon.awssdk.services.ec2.model.InstanceNetworkInterfaceSpecification;
+import software.amazon.awssdk.services.ec2.model.LaunchTemplateBlockDeviceMappingRequest;
+import software.amazon.awssdk.services.ec2.model.LaunchTemplateEbsBlockDeviceRequest;
+import software.amazon.awssdk.services.ec2.model.LaunchTemplateEnclaveOptionsRequest;
+import software.amazon.awssdk.services.ec2.model.LaunchTemplateIamInstanceProfileSpecificationRequest;
+import software.amazon.awssdk.services.ec2.model.LaunchTemplateInstanceMetadataOptionsRequest;
+import software.amazon.awssdk.services.ec2.model.LaunchTemplateInstanceNetworkInterfaceSpecificationRequest;
+import software.amazon.awssdk.services.ec2.model.LaunchTemplatePlacementRequest;
+import software.amazon.awssdk.services.ec2.model.LaunchTemplateTagSpecificationRequest;
+import software.amazon.awssdk.services.ec2.model.LaunchTemplatesMonitoringRequest;
+import software.amazon.awssdk.services.ec2.model.OnDemandOptionsRequest;
+import software.amazon.awssdk.services.ec2.model.RequestLaunchTemplateData;
+import software.amazon.awssdk.services.ec2.model.Reservation;
+import software.amazon.awssdk.services.ec2.model.RunInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.SpotInstanceRequest;
+import software.amazon.awssdk.services.ec2.model.SpotOptionsRequest;
+import software.amazon.awssdk.services.ec2.model.TagSpecification;
+import software.amazon.awssdk.services.ec2.model.TargetCapacitySpecificationRequest;
+import software.amazon.awssdk.services.ec2.model.TerminateInstancesRequest;
+
+/**
+ * Launches the instances of a {@link SlaveTemplate} with an EC2 Fleet in instant mode, across several instance types
+ * and subnets in a single call.
+ * <p>
+ * A fleet launches from an EC2 launch template, so the launch specification of the template is registered as a
+ * version of a launch template named after it. A new version is only created when the specification changed, e.g.
+ * for a new AMI. The instance type and the subnet are left out of it, they come from the overrides of the fleet.
+ * <p>
+ * The fleet launches as many instances as there is capacity for, the pools out of capacity are reported as errors
+ * along with the instances launched in the others.
+ */
+final class EC2FleetLauncher {
+
+    private static final Logger LOGGER = Logger.getLogger(EC2FleetLauncher.class.getName());
+
+    private static final String LAUNCH_TEMPLATE_NOT_FOUND = "InvalidLaunchTemplateName.NotFoundException";
+
+    private static final String LAUNCH_TEMPLATE_EXISTS = "InvalidLaunchTemplateName.AlreadyExistsException";
+
+    private static final String INSTANCE_NOT_FOUND = "InvalidInstanceID.NotFound";
+
+    /*
+     * How many times the instances launched are described, waiting twice as long before each new attempt.
+     */
+    private static final int DESCRIBE_ATTEMPTS = 4;
+
+    private static final long DESCRIBE_DELAY_MILLIS = 500;
+
+    private final SlaveTemplate template;
+
+    private final LongConsumer pause;
+
+    /*
+     * The launch template data last registered, and its version.
+     */
+    private volatile RegisteredVersion registered;
+
+    EC2FleetLauncher(@NonNull SlaveTemplate template) {
+        this(template, EC2FleetLauncher::sleep);
+    }
+
+    EC2FleetLauncher(@NonNull SlaveTemplate template, @NonNull LongConsumer pause) {
+        this.template = template;
+        this.pause = pause;
+    }
+
+    /**
+     * Launches up to {@code number} instances of the given launch specification.
+     *
+     * @param spot whether to launch spot capacity rather than on-demand
+     * @param maxPrice the maximum hourly price of a spot instance, the on-demand price if null
+     * @return the instances launched, possibly fewer than requested, the spot ones with their spot request
+     * @throws SdkException if no instance could be launched
+     */
+    @NonNull
+    List<Instance> launch(
+            @NonNull Ec2Client ec2,
+            @NonNull RunInstancesRequest spec,
+            @NonNull List<String> instanceTypes,
+            @NonNull List<String> subnetIds,
+            @NonNull FleetAllocationStrategy strategy,
+            int number,
+            boolean spot,
+            @CheckForNull String maxPrice)
+            throws SdkException {
+        String version = registerVersion(ec2, toLaunchTemplateData(spec));
+
+        CreateFleetRequest request =
+                makeCreateFleetRequest(version, instanceTypes, subnetIds, strategy, number, spot, maxPrice);
+        CreateFleetResponse response = ec2.createFleet(request);
+
+        for (CreateFleetError error : response.errors()) {
+            LOGGER.log(
+                    Level.INFO,
+                    "{0}. Fleet could not launch in {1}: {2} {3}",
+                    new Object[] {
+                        template,
+                        error.launchTemplateAndOverrides() != null
+                                ? error.launchTemplateAndOverrides().overrides()
+                                : null,
+                        error.errorCode(),
+                        error.errorMessage()
+                    });
+        }
+
+        List<String> instanceIds = new ArrayList<>();
+        for (CreateFleetInstance instance : response.instances()) {
+            instanceIds.addAll(instance.instanceIds());
+        }
+        if (instanceIds.isEmpty()) {
+            CreateFleetError error = response.errors().isEmpty()
+                    ? null
+                    : response.errors().get(0);
+            throw SdkException.builder()
+                    .message("Fleet launched no instance"
+                            + (error != null ? ": " + error.errorCode() + " " + error.errorMessage() : ""))
+                    .build();
+        }
+        LOGGER.log(Level.INFO, "{0}. Fleet launched {1} of {2} instance(s): {3}", new Object[] {
+            template, instanceIds.size(), number, instanceIds
+        });
+        return describe(ec2, response);
+    }
+
+    @NonNull
+    CreateFleetRequest makeCreateFleetRequest(
+            String version,
+            List<String> instanceTypes,
+            List<String> subnetIds,
+            FleetAllocationStrategy strategy,
+            int number,
+            boolean spot,
+            String maxPrice) {
+        List<FleetLaunchTemplateOverridesRequest> overrides = new ArrayList<>();
+        for (int i = 0; i < instanceTypes.size(); i++) {
+            FleetLaunchTemplateOverridesRequest.Builder override = FleetLaunchTemplateOverridesRequest.builder()
+                    .instanceType(instanceTypes.get(i))
+                    // The first types are preferred by the prioritized on-demand strategy
+                    .priority((double) i);
+            if (spot && maxPrice != null) {
+                override.maxPrice(maxPrice);
+            }
+            if (subnetIds.isEmpty()) {
+                overrides.add(override.build());
+            } else {
+                for (String subnetId : subnetIds) {
+                    overrides.add(override.subnetId(subnetId).build());
+                }
+            }
+        }
+
+        CreateFleetRequest.Builder request = CreateFleetRequest.builder()
+                .type(FleetType.INSTANT)
+                .launchTemplateConfigs(FleetLaunchTemplateConfigRequest.builder()
+                        .launchTemplateSpecification(FleetLaunchTemplateSpecificationRequest.builder()
+                                .launchTemplateName(getLaunchTemplateName())
+                                .version(version)
+                                .build())
+                        .overrides(overrides)
+                        .build())
+                .targetCapacitySpecification(TargetCapacitySpecificationRequest.builder()
+                        .totalTargetCapacity(number)
+                        .defaultTargetCapacityType(
+                                spot ? DefaultTargetCapacityType.SPOT : DefaultTargetCapacityType.ON_DEMAND)
+                        .build());
+        if (spot) {
+            request.spotOptions(SpotOptionsRequest.builder()
+                    .allocationStrategy(strategy.getSpotStrategy())
+                    .build());
+        } else {
+            request.onDemandOptions(OnDemandOptionsRequest.builder()
+                    .allocationStrategy(strategy.getOnDemandStrategy())
+                    .build());
+        }
+        return request.build();
+    }
+
+    /*
+     * Gets the launched instances with their addresses and spot request. EC2 may not show them right after the fleet
+     * launched them, so they are described again a few times. The agents of the instances still not visible get their
+     * addresses once they are, but a spot agent needs its spot request: the spot instances EC2 does not tell the
+     * request of are terminated rather than handled as on-demand ones.
+     */
+    private List<Instance> describe(Ec2Client ec2, CreateFleetResponse response) {
+        Map<String, CreateFleetInstance> launched = new LinkedHashMap<>();
+        for (CreateFleetInstance instance : response.instances()) {
+            for (String instanceId : instance.instanceIds()) {
+                launched.put(instanceId, instance);
+            }
+        }
+
+        Map<String, Instance> found = new HashMap<>();
+        for (int attempt = 0; attempt < DESCRIBE_ATTEMPTS; attempt++) {
+            List<String> missing = new ArrayList<>();
+            for (Map.Entry<String, CreateFleetInstance> entry : launched.entrySet()) {
+                if (!isResolved(found.get(entry.getKey()), entry.getValue())) {
+                    missing.add(entry.getKey());
+                }
+            }
+            if (missing.isEmpty()) {
+                break;
+            }
+            if (attempt > 0) {
+                pause.accept(DESCRIBE_DELAY_MILLIS << (attempt - 1));
+            }
+            try {
+                for (Reservation reservation : ec2.describeInstances(DescribeInstancesRequest.builder()
+                                .instanceIds(missing)
+                                .build())
+                        .reservations()) {
+                    for (Instance instance : reservation.instances()) {
+                        found.put(instance.instanceId(), instance);
+                    }
+                }
+            } catch (AwsServiceException e) {
+                if (!INSTANCE_NOT_FOUND.equals(e.awsErrorDetails().errorCode())) {
+                    throw e;
+                }
+            }
+        }
+
+        Map<String, String> spotRequestIds = describeSpotRequests(ec2, launched, found);
+        List<Instance> instances = new ArrayList<>();
+        List<String> unresolved = new ArrayList<>();
+        for (Map.Entry<String, CreateFleetInstance> entry : launched.entrySet()) {
+            String instanceId = entry.getKey();
+            CreateFleetInstance fleetInstance = entry.getValue();
+            Instance instance = found.get(instanceId);
+            if (instance == null) {
+                instance = Instance.builder()
+                        .instanceId(instanceId)
+                        .instanceType(fleetInstance.instanceTypeAsString())
+                        .instanceLifecycle(isSpot(fleetInstance) ? InstanceLifecycleType.SPOT : null)
+                        .build();
+            }
+            if (isSpot(fleetInstance) && instance.spotInstanceRequestId() == null) {
+                String spotRequestId = spotRequestIds.get(instanceId);
+                if (spotRequestId == null) {
+                    unresolved.add(instanceId);
+                    continue;
+                }
+                instance = instance.toBuilder().spotInstanceRequestId(spotRequestId).build();
+            }
+            instances.add(instance);
+        }
+
+        if (!unresolved.isEmpty()) {
+            LOGGER.log(
+                    Level.WARNING,
+                    "{0}. Terminating spot instances {1} launched by the fleet, EC2 does not tell their spot request",
+                    new Object[] {template, unresolved});
+            ec2.terminateInstances(
+                    TerminateInstancesRequest.builder().instanceIds(unresolved).build());
+        }
+        return instances;
+    }
+
+    /*
+     * Looks up the spot requests of the spot instances that were not described with theirs.
+     */
+    private static Map<String, String> describeSpotRequests(
+            Ec2Client ec2, Map<String, CreateFleetInstance> launched, Map<String, Instance> found) {
+        List<String> instanceIds = new ArrayList<>();
+        for (Map.Entry<String, CreateFleetInstance> entry : launched.entrySet()) {
+            Instance instance = found.get(entry.getKey());
+            if (isSpot(entry.getValue()) && (instance == null || instance.spotInstanceRequestId() == null)) {
+                instanceIds.add(entry.getKey());
+            }
+        }
+        Map<String, String> spotRequestIds = new HashMap<>();
+        if (instanceIds.isEmpty()) {
+            return spotRequestIds;
+        }
+        DescribeSpotInstanceRequestsResponse response =
+                ec2.describeSpotInstanceRequests(DescribeSpotInstanceRequestsRequest.builder()
+                        .filters(Filter.builder().name("instance-id").values(instanceIds).build())
+                        .build());
+        if (response != null) {
+            for (SpotInstanceRequest sir : response.spotInstanceRequests()) {
+                if (sir.instanceId() != null) {
+                    spotRequestIds.put(sir.instanceId(), sir.spotInstanceRequestId());
+                }
+            }
+        }
+        return spotRequestIds;
+    }
+
+    private static boolean isResolved(@CheckForNull Instance instance, CreateFleetInstance fleetInstance) {
+        return instance != null && (!isSpot(fleetInstance) || instance.spotInstanceRequestId() != null);
+    }
+
+    private static boolean isSpot(CreateFleetInstance fleetInstance) {
+        return fleetInstance.lifecycle() == InstanceLifecycle.SPOT;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * Registers the launch template data as the version to launch, unless it is the one last registered.
+     */
+    private String registerVersion(Ec2Client ec2, RequestLaunchTemplateData data) {
+        RegisteredVersion last = registered;
+        if (last != null && last.data.equals(data)) {
+            return last.version;
+        }
+        synchronized (this) {
+            last = registered;
+            if (last != null && last.data.equals(data)) {
+                return last.version;
+            }
+            String name = getLaunchTemplateName();
+            Long version;
+            try {
+                version = createVersion(ec2, name, data);
+            } catch (AwsServiceException e) {
+                if (!LAUNCH_TEMPLATE_NOT_FOUND.equals(e.awsErrorDetails().errorCode())) {
+                    throw e;
+                }
+                LOGGER.info("Creating launch template " + name + " for template " + template.description);
+                try {
+                    version = ec2.createLaunchTemplate(CreateLaunchTemplateRequest.builder()
+                                    .launchTemplateName(name)
+                                    .launchTemplateData(data)
+                                    .build())
+                            .launchTemplate()
+                            .latestVersionNumber();
+                } catch (AwsServiceException e2) {
+                    if (!LAUNCH_TEMPLATE_EXISTS.equals(e2.awsErrorDetails().errorCode())) {
+                        throw e2;
+                    }
+                    // Another controller created it meanwhile
+                    version = createVersion(ec2, name, data);
+                }
+            }
+            registered = new RegisteredVersion(data, String.valueOf(version));
+            return registered.version;
+        }
+    }
+
+    private static Long createVersion(Ec2Client ec2, String name, RequestLaunchTemplateData data) {
+        return ec2.createLaunchTemplateVersion(CreateLaunchTemplateVersionRequest.builder()
+                        .launchTemplateName(name)
+                        .launchTemplateData(data)
+                        .build())
+                .launchTemplateVersion()
+                .versionNumber();
+    }
+
+    /**
+     * Gets the name of the launch template of this template, unique to its cloud and description.
+     */
+    @NonNull
+    String getLaunchTemplateName() {
+        EC2Cloud cloud = template.getParent();
+        String key = (cloud != null ? cloud.name : "") + "/" + template.description;
+        String readable = String.valueOf(template.description).replaceAll("[^a-zA-Z0-9().\\-/_]", "_");
+        if (readable.length() > 100) {
+            readable = readable.substring(0, 100);
+        }
+        return "jenkins-" + readable + "-" + Integer.toHexString(key.hashCode());
+    }
+
+    /**
+     * Drops the version last registered, the next launch registers the specification again.
+     */
+    void invalidate() {
+        registered = null;
+    }
+
+    /**
+     * Converts a launch specification to launch template data, without its instance type and subnet.
+     */
+    @NonNull
+    static RequestLaunchTemplateData toLaunchTemplateData(@NonNull RunInstancesRequest spec) {
+        RequestLaunchTemplateData.Builder data = RequestLaunchTemplateData.builder()
+                .imageId(spec.imageId())
+                .keyName(spec.keyName())
+                .userData(spec.userData())
+                .ebsOptimized(spec.ebsOptimized())
+                .instanceInitiatedShutdownBehavior(spec.instanceInitiatedShutdownBehaviorAsString())
+                .creditSpecification(spec.creditSpecification());
+        if (spec.monitoring() != null) {
+            data.monitoring(LaunchTemplatesMonitoringRequest.builder()
+                    .enabled(spec.monitoring().enabled())
+                    .build());
+        }
+        if (spec.hasBlockDeviceMappings()) {
+            List<LaunchTemplateBlockDeviceMappingRequest> mappings = new ArrayList<>();
+            for (BlockDeviceMapping mapping : spec.blockDeviceMappings()) {
+                mappings.add(toLaunchTemplateMapping(mapping));
+            }
+            data.blockDeviceMappings(mappings);
+        }
+        if (spec.placement() != null) {
+            data.placement(LaunchTemplatePlacementRequest.builder()
+                    .availabilityZone(spec.placement().availabilityZone())
+                    .tenancy(spec.placement().tenancyAsString())
+                    .build());
+        }
+        if (spec.hasNetworkInterfaces()) {
+            List<LaunchTemplateInstanceNetworkInterfaceSpecificationRequest> interfaces = new ArrayList<>();
+            for (InstanceNetworkInterfaceSpecification networkInterface : spec.networkInterfaces()) {
+                // The subnet comes from the overrides of the fleet
+                interfaces.add(LaunchTemplateInstanceNetworkInterfaceSpecificationRequest.builder()
+                        .associatePublicIpAddress(networkInterface.associatePublicIpAddress())
+                        .deviceIndex(networkInterface.deviceIndex())
+                        .groups(networkInterface.hasGroups() ? networkInterface.groups() : null)
+                        .build());
+            }
+            data.networkInterfaces(interfaces);
+        }
+        if (spec.hasSecurityGroupIds()) {
+            data.securityGroupIds(spec.securityGroupIds());
+        }
+        if (spec.hasSecurityGroups()) {
+            data.securityGroups(spec.securityGroups());
+        }
+        if (spec.iamInstanceProfile() != null) {
+            data.iamInstanceProfile(LaunchTemplateIamInstanceProfileSpecificationRequest.builder()
+                    .arn(spec.iamInstanceProfile().arn())
+                    .build());
+        }
+        if (spec.hasTagSpecifications()) {
+            List<LaunchTemplateTagSpecificationRequest> tagSpecifications = new ArrayList<>();
+            for (TagSpecification tagSpecification : spec.tagSpecifications()) {
+                tagSpecifications.add(LaunchTemplateTagSpecificationRequest.builder()
+                        .resourceType(tagSpecification.resourceTypeAsString())
+                        .tags(tagSpecification.tags())
+                        .build());
+            }
+            data.tagSpecifications(tagSpecifications);
+        }
+        if (spec.metadataOptions() != null) {
+            data.metadataOptions(LaunchTemplateInstanceMetadataOptionsRequest.builder()
+                    .httpEndpoint(spec.metadataOptions().httpEndpointAsString())
+                    .httpTokens(spec.metadataOptions().httpTokensAsString())
+                    .httpPutResponseHopLimit(spec.metadataOptions().httpPutResponseHopLimit())
+                    .build());
+        }
+        if (spec.enclaveOptions() != null) {
+            data.enclaveOptions(LaunchTemplateEnclaveOptionsRequest.builder()
+                    .enabled(spec.enclaveOptions().enabled())
+                    .build());
+        }
+        return data.build();
+    }
+
+    private static LaunchTemplateBlockDeviceMappingRequest toLaunchTemplateMapping(BlockDeviceMapping mapping) {
+        LaunchTemplateBlockDeviceMappingRequest.Builder result = LaunchTemplateBlockDeviceMappingRequest.builder()
+                .deviceName(mapping.deviceName())
+                .virtualName(mapping.virtualName())
+                .noDevice(mapping.noDevice());
+        EbsBlockDevice ebs = mapping.ebs();
+        if (ebs != null) {
+            result.ebs(LaunchTemplateEbsBlockDeviceRequest.builder()
+                    .deleteOnTermination(ebs.deleteOnTermination())
+                    .encrypted(ebs.encrypted())
+                    .iops(ebs.iops())
+                    .kmsKeyId(ebs.kmsKeyId())
+                    .snapshotId(ebs.snapshotId())
+                    .volumeSize(ebs.volumeSize())
+                    .volumeType(ebs.volumeTypeAsString())
+                    .throughput(ebs.throughput())
+                    .build());
+        }
+        return result.build();
+    }
+
+    private static final class RegisteredVersion {
+        private final RequestLaunchTemplateData data;
+        private final String version;
+
+        RegisteredVersion(RequestLaunchTemplateData data, String version) {
+            this.data = data;
+            this.version = version;
+        }
+    }
+}
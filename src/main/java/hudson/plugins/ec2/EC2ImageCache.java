@@ -0,0 +1,118 @@
+package hudson.plugins.ec2;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Computer;
+import java.util.Comparator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.ec2.model.DescribeImagesRequest;
+import software.amazon.awssdk.services.ec2.model.Image;
+
+/**
+ * Cache of the image a {@link SlaveTemplate} launches, keyed by the DescribeImagesRequest built from the AMI id,
+ * owners, users and filters of the template.
+ * <p>
+ * Only the first lookup of a request waits on DescribeImages. Once the cached image is older than {@link #TTL}, it is
+ * still served while a background refresh looks up the latest image matching the request.
+ */
+final class EC2ImageCache {
+
+    private static final Logger LOGGER = Logger.getLogger(EC2ImageCache.class.getName());
+
+    /*
+     * How long (in milliseconds) the resolved image is used before being looked up again in the background.
+     */
+    static final long TTL = Long.getLong("hudson.plugins.ec2.EC2ImageCache.ttl", TimeUnit.MINUTES.toMillis(10));
+
+    private final SlaveTemplate template;
+
+    private final long ttl;
+
+    private final Executor executor;
+
+    private final AtomicReference<Entry> entry = new AtomicReference<>();
+
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    EC2ImageCache(@NonNull SlaveTemplate template) {
+        this(template, TTL, Computer.threadPoolForRemoting);
+    }
+
+    EC2ImageCache(@NonNull SlaveTemplate template, long ttl, @NonNull Executor executor) {
+        this.template = template;
+        this.ttl = ttl;
+        this.executor = executor;
+    }
+
+    /**
+     * Gets the latest image matching the request.
+     */
+    @NonNull
+    Image getImage(@NonNull DescribeImagesRequest request) throws SdkException {
+        Entry e = entry.get();
+        if (e != null && e.request.equals(request)) {
+            if (System.currentTimeMillis() - e.resolvedAt >= ttl && refreshing.compareAndSet(false, true)) {
+                try {
+                    executor.execute(() -> refresh(e));
+                } catch (RejectedExecutionException ex) {
+                    refreshing.set(false);
+                }
+            }
+            return e.image;
+        }
+
+        Entry resolved = new Entry(request, resolve(request), System.currentTimeMillis());
+        entry.set(resolved);
+        return resolved.image;
+    }
+
+    /**
+     * Drops the cached image, the next lookup will wait on DescribeImages.
+     */
+    void invalidate() {
+        entry.set(null);
+    }
+
+    private void refresh(Entry stale) {
+        try {
+            Entry resolved = new Entry(stale.request, resolve(stale.request), System.currentTimeMillis());
+            // Unless the template was changed meanwhile
+            entry.compareAndSet(stale, resolved);
+        } catch (SdkException e) {
+            LOGGER.log(
+                    Level.WARNING,
+                    "Failed to refresh image for template " + template.description + ", keeping " + stale.image.imageId(),
+                    e);
+        } finally {
+            refreshing.set(false);
+        }
+    }
+
+    private Image resolve(DescribeImagesRequest request) throws SdkException {
+        LOGGER.info("Getting image for request " + request);
+        // Only the latest image is needed, no need to sort them all
+        return template.getParent().connect().describeImages(request).images().stream()
+                .max(Comparator.comparing(Image::creationDate, Comparator.nullsFirst(Comparator.naturalOrder())))
+                .orElseThrow(() -> SdkException.builder()
+                        .message("Unable to find image for request " + request)
+                        .build());
+    }
+
+    private static final class Entry {
+        private final DescribeImagesRequest request;
+        private final Image image;
+        private final long resolvedAt;
+
+        Entry(DescribeImagesRequest request, Image image, long resolvedAt) {
+            this.request = request;
+            this.image = image;
+            this.resolvedAt = resolvedAt;
+        }
+    }
+}
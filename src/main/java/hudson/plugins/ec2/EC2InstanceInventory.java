@@ -0,0 +1,157 @@
+package hudson.plugins.ec2;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.JenkinsLocationConfiguration;
+import org.apache.commons.lang.StringUtils;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesResponse;
+import software.amazon.awssdk.services.ec2.model.Filter;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.Reservation;
+
+/**
+ * Fleet-wide snapshot of the instances launched by an {@link EC2Cloud}.
+ * <p>
+ * Instead of every node describing its own instance, a single paginated, tag-filtered DescribeInstances call
+ * refreshes an immutable map from instance id to {@link Instance}. Readers accept a snapshot up to
+ * {@link EC2AbstractSlave#MIN_FETCH_TIME} old, or {@link #FORCED_MAX_AGE} old when they need current data.
+ * Instances not covered by the tag filters (e.g. attached by hand) fall back to a single-instance lookup.
+ */
+final class EC2InstanceInventory {
+
+    private static final Logger LOGGER = Logger.getLogger(EC2InstanceInventory.class.getName());
+
+    /*
+     * The maximum age (in milliseconds) of the snapshot served to callers that ask for the current state of an
+     * instance, e.g. the retention strategy or the launchers waiting for an address.
+     */
+    static final long FORCED_MAX_AGE =
+            Long.getLong("hudson.plugins.ec2.EC2InstanceInventory.forcedMaxAge", TimeUnit.SECONDS.toMillis(5));
+
+    private final EC2Cloud cloud;
+
+    private final Object refreshLock = new Object();
+
+    private volatile Snapshot snapshot = new Snapshot(Collections.emptyMap(), 0);
+
+    EC2InstanceInventory(@NonNull EC2Cloud cloud) {
+        this.cloud = cloud;
+    }
+
+    /**
+     * Looks up an instance in the inventory, refreshing it first if it is older than the staleness bound.
+     *
+     * @param instanceId the instance to look up
+     * @param force if true, only a snapshot of at most {@link #FORCED_MAX_AGE} is accepted
+     * @return the instance, or null if the instance id is empty
+     */
+    @CheckForNull
+    Instance getInstance(String instanceId, boolean force) throws SdkException, InterruptedException {
+        if (StringUtils.isEmpty(instanceId)) {
+            return null;
+        }
+        Instance instance =
+                current(force ? FORCED_MAX_AGE : EC2AbstractSlave.MIN_FETCH_TIME).get(instanceId);
+        if (instance != null) {
+            return instance;
+        }
+
+        // Either launched after the last refresh or not tagged as one of ours, ask EC2 directly.
+        instance = CloudHelper.getInstanceWithRetry(instanceId, cloud);
+        if (instance != null) {
+            put(instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Forces a refresh of the inventory, regardless of the age of the current snapshot.
+     */
+    void refresh() throws SdkException {
+        synchronized (refreshLock) {
+            snapshot = fetch();
+        }
+    }
+
+    /**
+     * Drops the current snapshot so that the next read will refresh it.
+     */
+    void invalidate() {
+        synchronized (refreshLock) {
+            snapshot = new Snapshot(Collections.emptyMap(), 0);
+        }
+    }
+
+    private Map<String, Instance> current(long maxAge) throws SdkException {
+        Snapshot s = snapshot;
+        if (s.isFresh(maxAge)) {
+            return s.instances;
+        }
+        synchronized (refreshLock) {
+            // Another thread may have refreshed the snapshot while we were waiting
+            s = snapshot;
+            if (!s.isFresh(maxAge)) {
+                s = fetch();
+                snapshot = s;
+            }
+            return s.instances;
+        }
+    }
+
+    private void put(Instance instance) {
+        synchronized (refreshLock) {
+            Snapshot s = snapshot;
+            Map<String, Instance> instances = new HashMap<>(s.instances);
+            instances.put(instance.instanceId(), instance);
+            snapshot = new Snapshot(Collections.unmodifiableMap(instances), s.fetchedAt);
+        }
+    }
+
+    private Snapshot fetch() throws SdkException {
+        long now = System.currentTimeMillis();
+        String jenkinsServerUrl = JenkinsLocationConfiguration.get().getUrl();
+        List<Filter> filters = cloud.getGenericFilters(jenkinsServerUrl, null);
+
+        Map<String, Instance> instances = new HashMap<>();
+        DescribeInstancesRequest request =
+                DescribeInstancesRequest.builder().filters(filters).build();
+        DescribeInstancesResponse result;
+        do {
+            result = cloud.connect().describeInstances(request);
+            for (Reservation r : result.reservations()) {
+                for (Instance i : r.instances()) {
+                    instances.put(i.instanceId(), i);
+                }
+            }
+            request = request.toBuilder().nextToken(result.nextToken()).build();
+        } while (result.nextToken() != null);
+
+        LOGGER.log(Level.FINE, "Refreshed instance inventory of cloud {0}: {1} instances in {2}ms", new Object[] {
+            cloud.getDisplayName(), instances.size(), System.currentTimeMillis() - now
+        });
+        return new Snapshot(Collections.unmodifiableMap(instances), now);
+    }
+
+    private static final class Snapshot {
+        private final Map<String, Instance> instances;
+        private final long fetchedAt;
+
+        Snapshot(Map<String, Instance> instances, long fetchedAt) {
+            this.instances = instances;
+            this.fetchedAt = fetchedAt;
+        }
+
+        boolean isFresh(long maxAge) {
+            return fetchedAt > 0 && System.currentTimeMillis() - fetchedAt < maxAge;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package hudson.plugins.ec2;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.plugins.ec2.util.KeyPair;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+
+/**
+ * Cache of the EC2 key pair matching the private key of an {@link EC2Cloud}.
+ * <p>
+ * The key pair is looked up once per credential, keyed by the credentials id and a digest of the private key, so that
+ * the fingerprints are not computed and DescribeKeyPairs is not called on every launch. A changed credential is a
+ * cache miss; a launch rejected because of the key pair drops the cache through {@link #invalidate()}.
+ */
+final class EC2KeyPairCache {
+
+    private static final Logger LOGGER = Logger.getLogger(EC2KeyPairCache.class.getName());
+
+    @CheckForNull
+    private volatile Entry entry;
+
+    /**
+     * Finds the key pair matching the private key, looking it up in EC2 only if the credential changed.
+     *
+     * @param credentialsId the id of the credential the private key comes from, if any
+     * @return the key pair, or null if EC2 has no key pair matching the private key
+     */
+    @CheckForNull
+    KeyPair find(@CheckForNull String credentialsId, @NonNull EC2PrivateKey privateKey, @NonNull Ec2Client ec2)
+            throws IOException, SdkException {
+        String key = credentialsId + "/" + digest(privateKey.getPrivateKey());
+        Entry e = entry;
+        if (e != null && e.key.equals(key)) {
+            return e.keyPair;
+        }
+
+        KeyPair keyPair = privateKey.find(ec2);
+        // Don't remember misses, the key pair may be imported at any time
+        if (keyPair != null) {
+            LOGGER.log(Level.FINE, "Resolved key pair {0} for credential {1}", new Object[] {
+                keyPair.getKeyPairInfo().keyName(), credentialsId
+            });
+            entry = new Entry(key, keyPair);
+        }
+        return keyPair;
+    }
+
+    /**
+     * Drops the cached key pair, the next launch will look it up again.
+     */
+    void invalidate() {
+        entry = null;
+    }
+
+    /**
+     * Whether EC2 rejected a request because of the key pair it was given.
+     */
+    static boolean isInvalidKeyPairError(@NonNull AwsServiceException e) {
+        String errorCode = e.awsErrorDetails() != null ? e.awsErrorDetails().errorCode() : null;
+        return errorCode != null && errorCode.startsWith("InvalidKeyPair.");
+    }
+
+    private static String digest(String privateKey) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(privateKey.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static final class Entry {
+        private final String key;
+        private final KeyPair keyPair;
+
+        Entry(String key, KeyPair keyPair) {
+            this.key = key;
+            this.keyPair = keyPair;
+        }
+    }
+}
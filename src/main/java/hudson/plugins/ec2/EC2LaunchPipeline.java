@@ -0,0 +1,269 @@
+package hudson.plugins.ec2;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Computer;
+import hudson.model.Node;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.lang.StringUtils;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.InstanceStateName;
+
+/**
+ * Waits for the instance of a newly provisioned agent to be running, as the future of its planned node.
+ * <p>
+ * It holds no thread: the {@link EC2PendingInstanceTracker} of the cloud polls it along with all the other pending
+ * launches, and polls it less and less often while its state does not change.
+ */
+final class EC2LaunchPipeline {
+
+    private static final Logger LOGGER = Logger.getLogger(EC2LaunchPipeline.class.getName());
+
+    private static final int DESCRIBE_LIMIT = 2;
+
+    /*
+     * Sometimes even after a successful RunInstances, DescribeInstances returns an error for a few seconds. See
+     * [JENKINS-15319].
+     */
+    private static final int NOT_FOUND_LIMIT = 5;
+
+    /*
+     * How many times in a row a poll may fail for throttling or network errors before the launch is given up. The
+     * instances of all the launches are described together, so these errors are not specific to this one.
+     */
+    private static final int TRANSIENT_FAILURE_LIMIT = 10;
+
+    private static final String SPOT_REQUEST_OPEN = "spot-request-open";
+
+    private final SlaveTemplate template;
+
+    private final EC2AbstractSlave slave;
+
+    private final CompletableFuture<Node> result = new CompletableFuture<>();
+
+    private int retryCount;
+
+    private int notFoundCount;
+
+    private int transientFailureCount;
+
+    /*
+     * The state seen by the last poll, and whether it changed since the one before.
+     */
+    private String observed;
+
+    private boolean changed = true;
+
+    private long interval;
+
+    private volatile long dueAt;
+
+    EC2LaunchPipeline(@NonNull SlaveTemplate template, @NonNull EC2AbstractSlave slave) {
+        this.template = template;
+        this.slave = slave;
+    }
+
+    /**
+     * Starts waiting for the instance of the given agent.
+     *
+     * @return the future agent, completed with null if its instance will never run
+     */
+    static CompletableFuture<Node> start(@NonNull SlaveTemplate template, @NonNull EC2AbstractSlave slave) {
+        EC2LaunchPipeline launch = new EC2LaunchPipeline(template, slave);
+        EC2Cloud cloud = slave.getCloud();
+        if (cloud == null) {
+            launch.onDescribed(slave.getInstanceId(), null);
+            return launch.result;
+        }
+        return cloud.getPendingInstances().track(launch);
+    }
+
+    @NonNull
+    CompletableFuture<Node> getResult() {
+        return result;
+    }
+
+    boolean isDone() {
+        return result.isDone();
+    }
+
+    long getDueAt() {
+        return dueAt;
+    }
+
+    /**
+     * Schedules the next poll, after the shortest interval if the state changed since the last poll, after twice the
+     * last interval otherwise.
+     *
+     * @return when to poll next
+     */
+    synchronized long next(long now, long minInterval, long maxInterval) {
+        interval = changed ? minInterval : Math.min(Math.max(interval * 2, minInterval), maxInterval);
+        changed = false;
+        dueAt = now + interval;
+        return dueAt;
+    }
+
+    /**
+     * Marks this launch as being polled if it is due, so that no other poll starts until it is scheduled again.
+     *
+     * @return whether it was due
+     */
+    synchronized boolean startPoll(long now) {
+        if (dueAt > now) {
+            return false;
+        }
+        dueAt = Long.MAX_VALUE;
+        return true;
+    }
+
+    /**
+     * Gets the spot request of this launch, to be looked up along with the ones of the other launches.
+     *
+     * @return the id of the spot request, null if the instance was launched on demand
+     */
+    @CheckForNull
+    String getSpotRequestId() {
+        return slave instanceof EC2SpotSlave spotSlave ? spotSlave.getSpotInstanceRequestId() : null;
+    }
+
+    /**
+     * Starts a poll.
+     *
+     * @return the instance to describe, null if there is none to describe yet or this launch is over
+     */
+    @CheckForNull
+    String prepare() {
+        String instanceId = slave.getInstanceId();
+        if (slave instanceof EC2SpotSlave spotSlave) {
+            if (spotSlave.isSpotRequestDead()) {
+                LOGGER.log(Level.WARNING, "{0} Spot request died, can't do anything. Terminate provisioning", template);
+                result.complete(null);
+                return null;
+            }
+
+            // Spot Instance does not have instance id yet.
+            if (StringUtils.isEmpty(instanceId)) {
+                observe(SPOT_REQUEST_OPEN);
+                return null;
+            }
+        }
+
+        if (StringUtils.isEmpty(instanceId)) {
+            onDescribed(instanceId, null);
+            return null;
+        }
+        return instanceId;
+    }
+
+    /**
+     * Ends a poll whose DescribeInstances call failed.
+     */
+    void onDescribeFailure(@NonNull Throwable e) {
+        if (isTransient(e) && transientFailureCount < TRANSIENT_FAILURE_LIMIT) {
+            transientFailureCount++;
+            LOGGER.log(Level.FINE, "{0} Failed to poll node {1}, will try again: {2}", new Object[] {
+                template, slave.getNodeName(), e.getMessage()
+            });
+            return;
+        }
+        if (e instanceof AwsServiceException awsException
+                && awsException.awsErrorDetails() != null
+                && EC2Cloud.EC2_REQUEST_EXPIRED_ERROR_CODE.equals(
+                        awsException.awsErrorDetails().errorCode())
+                && notFoundCount < NOT_FOUND_LIMIT) {
+            notFoundCount++;
+            return;
+        }
+        result.completeExceptionally(e);
+    }
+
+    /**
+     * Tells whether the given failure is about the call rather than about the launch, e.g. throttling or a network
+     * error, so that the next poll may well succeed.
+     */
+    static boolean isTransient(@NonNull Throwable e) {
+        if (e instanceof SdkClientException) {
+            return true;
+        }
+        return e instanceof SdkServiceException serviceException
+                && (serviceException.isThrottlingException() || serviceException.statusCode() >= 500);
+    }
+
+    /**
+     * Ends a poll whose DescribeInstances call did not find the instance.
+     */
+    void onNotFound(@NonNull String instanceId) {
+        if (notFoundCount < NOT_FOUND_LIMIT) {
+            notFoundCount++;
+            return;
+        }
+        onDescribed(instanceId, null);
+    }
+
+    /**
+     * Ends a poll.
+     */
+    void onDescribed(String instanceId, @CheckForNull Instance instance) {
+        if (instance == null) {
+            LOGGER.log(
+                    Level.WARNING,
+                    "{0} Can't find instance with instance id `{1}` in cloud {2}. Terminate provisioning ",
+                    new Object[] {template, instanceId, slave.cloudName});
+            result.complete(null);
+            return;
+        }
+        notFoundCount = 0;
+        transientFailureCount = 0;
+
+        InstanceStateName state = instance.state().name();
+        observe(state.toString());
+        if (state.equals(InstanceStateName.RUNNING)) {
+            // Spot instance are not reconnected automatically,
+            // but could be new orphans that has the option enable
+            Computer c = slave.toComputer();
+            if (slave.getStopOnTerminate() && (c != null)) {
+                c.connect(false);
+            }
+
+            long secondsSinceStart = Instant.now().until(instance.launchTime(), ChronoUnit.SECONDS);
+            LOGGER.log(
+                    Level.INFO,
+                    "{0} Node {1} moved to RUNNING state in {2} seconds and is ready to be connected by Jenkins",
+                    new Object[] {template, slave.getNodeName(), secondsSinceStart});
+            result.complete(slave);
+            return;
+        }
+
+        if (!state.equals(InstanceStateName.PENDING)) {
+            if (retryCount >= DESCRIBE_LIMIT) {
+                LOGGER.log(
+                        Level.WARNING,
+                        "Instance {0} did not move to running after {1} attempts, terminating provisioning",
+                        new Object[] {instanceId, retryCount});
+                result.complete(null);
+                return;
+            }
+
+            LOGGER.log(
+                    Level.INFO,
+                    "Attempt {0}: {1}. Node {2} is neither pending, neither running, it''s {3}. Will try again",
+                    new Object[] {retryCount, template, slave.getNodeName(), state});
+            retryCount++;
+        }
+    }
+
+    private void observe(String state) {
+        if (!state.equals(observed)) {
+            observed = state;
+            changed = true;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package hudson.plugins.ec2;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.DescribeSecurityGroupsRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeSubnetsRequest;
+import software.amazon.awssdk.services.ec2.model.Filter;
+import software.amazon.awssdk.services.ec2.model.SecurityGroup;
+import software.amazon.awssdk.services.ec2.model.Subnet;
+
+/**
+ * Cache of the network topology a {@link SlaveTemplate} launches into: the security groups its names (or ids) resolve
+ * to, with the VPC they belong to, and whether its subnets are available in those VPCs.
+ * <p>
+ * None of this changes between launches, so it is only described again after {@link #TTL} or once the template is
+ * saved. Lookups that found nothing are not cached, the groups or subnets may be created at any time.
+ */
+final class EC2NetworkCache {
+
+    private static final Logger LOGGER = Logger.getLogger(EC2NetworkCache.class.getName());
+
+    /*
+     * How long (in milliseconds) the resolved security groups and subnets are used before being described again.
+     */
+    static final long TTL = Long.getLong("hudson.plugins.ec2.EC2NetworkCache.ttl", TimeUnit.MINUTES.toMillis(10));
+
+    private final long ttl;
+
+    private final Map<String, Entry<List<SecurityGroup>>> securityGroups = new ConcurrentHashMap<>();
+
+    private final Map<String, Entry<Boolean>> subnets = new ConcurrentHashMap<>();
+
+    EC2NetworkCache() {
+        this(TTL);
+    }
+
+    EC2NetworkCache(long ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * Gets the security groups with the given names, or with the given ids if {@code byIdIfNoName} is set and no group
+     * has any of the names.
+     */
+    @NonNull
+    List<SecurityGroup> getSecurityGroups(@NonNull Set<String> groups, boolean byIdIfNoName, @NonNull Ec2Client ec2)
+            throws SdkException {
+        String key = byIdIfNoName + "/" + String.join(",", new TreeSet<>(groups));
+        Entry<List<SecurityGroup>> e = securityGroups.get(key);
+        if (e != null && e.isFresh(ttl)) {
+            return e.value;
+        }
+
+        List<SecurityGroup> result = describeSecurityGroups("group-name", groups, ec2);
+        if (result.isEmpty() && byIdIfNoName) {
+            result = describeSecurityGroups("group-id", groups, ec2);
+        }
+        if (result.isEmpty()) {
+            securityGroups.remove(key);
+        } else {
+            securityGroups.put(key, new Entry<>(Collections.unmodifiableList(new ArrayList<>(result))));
+        }
+        return result;
+    }
+
+    /**
+     * Whether the given subnet is an available subnet of the given VPC.
+     */
+    boolean isSubnetInVpc(@NonNull String subnetId, @NonNull String vpcId, @NonNull Ec2Client ec2)
+            throws SdkException {
+        String key = subnetId + "/" + vpcId;
+        Entry<Boolean> e = subnets.get(key);
+        if (e != null && e.isFresh(ttl)) {
+            return e.value;
+        }
+
+        List<Filter> filters = new ArrayList<>();
+        filters.add(Filter.builder().name("vpc-id").values(vpcId).build());
+        filters.add(Filter.builder().name("state").values("available").build());
+        filters.add(Filter.builder().name("subnet-id").values(subnetId).build());
+        List<Subnet> result = ec2.describeSubnets(
+                        DescribeSubnetsRequest.builder().filters(filters).build())
+                .subnets();
+        boolean inVpc = result != null && !result.isEmpty();
+        LOGGER.log(Level.FINE, "Subnet {0} is {1}an available subnet of {2}", new Object[] {
+            subnetId, inVpc ? "" : "not ", vpcId
+        });
+        if (inVpc) {
+            subnets.put(key, new Entry<>(true));
+        } else {
+            subnets.remove(key);
+        }
+        return inVpc;
+    }
+
+    /**
+     * Drops everything cached, the next launch will describe the security groups and subnets again.
+     */
+    void invalidate() {
+        securityGroups.clear();
+        subnets.clear();
+    }
+
+    private static List<SecurityGroup> describeSecurityGroups(String filterName, Set<String> values, Ec2Client ec2) {
+        DescribeSecurityGroupsRequest groupReq = DescribeSecurityGroupsRequest.builder()
+                .filters(Filter.builder().name(filterName).values(values).build())
+                .build();
+        List<SecurityGroup> groups = ec2.describeSecurityGroups(groupReq).securityGroups();
+        return groups != null ? groups : Collections.emptyList();
+    }
+
+    private static final class Entry<T> {
+        private final T value;
+        private final long resolvedAt;
+
+        Entry(T value) {
+            this.value = value;
+            this.resolvedAt = System.currentTimeMillis();
+        }
+
+        boolean isFresh(long ttl) {
+            return System.currentTimeMillis() - resolvedAt < ttl;
+        }
+    }
+}
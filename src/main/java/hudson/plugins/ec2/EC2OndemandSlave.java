@@ -522,6 +522,7 @@ public class EC2OndemandSlave extends EC2AbstractSlave {
                                         .instanceIds(Collections.singletonList(getInstanceId()))
                                         .build();
                                 ec2.terminateInstances(request);
+                                getCloud().onInstanceTerminated(getInstanceId());
                                 LOGGER.info("Terminated EC2 instance (terminated): " + getInstanceId());
                             }
                             Jenkins.get().removeNode(this);
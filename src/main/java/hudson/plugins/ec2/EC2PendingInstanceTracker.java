@@ -0,0 +1,239 @@
+package hudson.plugins.ec2;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.plugins.ec2.util.EC2ApiSubsystem;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.ec2.model.Instance;
+
+/**
+ * Tracks the launches of an {@link EC2Cloud} waiting for their instance to be running.
+ * <p>
+ * A single scheduled tick polls all the launches due: their spot requests are refreshed together in the
+ * {@link EC2SpotRequestCache} of the cloud and the instances are described together through
+ * {@link InstanceLookupCoalescer#getInstancesAsync}. A launch is polled again after {@link #MIN_POLL_INTERVAL_MILLIS}
+ * when its state changed, and twice as late as the last time otherwise, up to {@link #MAX_POLL_INTERVAL_MILLIS}. A
+ * burst of launches is thus waited on by one call per tick, without holding a thread per launch. When that call
+ * fails for throttling or a network error, the launches stay pending until the next tick rather than all failing.
+ */
+final class EC2PendingInstanceTracker {
+
+    private static final Logger LOGGER = Logger.getLogger(EC2PendingInstanceTracker.class.getName());
+
+    /*
+     * How long (in milliseconds) to wait before polling a launch just started or whose state just changed.
+     */
+    static final long MIN_POLL_INTERVAL_MILLIS = Long.getLong(
+            "hudson.plugins.ec2.EC2PendingInstanceTracker.minPollIntervalMillis", TimeUnit.SECONDS.toMillis(1));
+
+    /*
+     * The longest (in milliseconds) to wait between two polls of a launch whose state does not change.
+     */
+    static final long MAX_POLL_INTERVAL_MILLIS = Long.getLong(
+            "hudson.plugins.ec2.EC2PendingInstanceTracker.maxPollIntervalMillis", TimeUnit.SECONDS.toMillis(5));
+
+    private final EC2Cloud cloud;
+
+    private final Executor executor;
+
+    private final LongSupplier clock;
+
+    private final long minInterval;
+
+    private final long maxInterval;
+
+    private final Set<EC2LaunchPipeline> pending = ConcurrentHashMap.newKeySet();
+
+    private final Object lock = new Object();
+
+    /*
+     * When the next tick is due, Long.MAX_VALUE if none is scheduled.
+     */
+    private long scheduledAt = Long.MAX_VALUE;
+
+    EC2PendingInstanceTracker(@NonNull EC2Cloud cloud) {
+        this(
+                cloud,
+                Computer.threadPoolForRemoting,
+                System::currentTimeMillis,
+                MIN_POLL_INTERVAL_MILLIS,
+                MAX_POLL_INTERVAL_MILLIS);
+    }
+
+    EC2PendingInstanceTracker(
+            @NonNull EC2Cloud cloud,
+            @NonNull Executor executor,
+            @NonNull LongSupplier clock,
+            long minInterval,
+            long maxInterval) {
+        this.cloud = cloud;
+        this.executor = executor;
+        this.clock = clock;
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+    }
+
+    /**
+     * Starts polling the given launch.
+     *
+     * @return the future of the launch
+     */
+    @NonNull
+    CompletableFuture<Node> track(@NonNull EC2LaunchPipeline launch) {
+        pending.add(launch);
+        schedule(launch.next(clock.getAsLong(), minInterval, maxInterval));
+        return launch.getResult();
+    }
+
+    /**
+     * Gets how many launches are waiting for their instance.
+     */
+    int size() {
+        return pending.size();
+    }
+
+    private void schedule(long at) {
+        synchronized (lock) {
+            if (scheduledAt <= at) {
+                // The tick already scheduled polls it
+                return;
+            }
+            scheduledAt = at;
+        }
+        long delay = Math.max(at - clock.getAsLong(), 0);
+        CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, executor)
+                .execute(() -> tick(at));
+    }
+
+    private void tick(long at) {
+        synchronized (lock) {
+            if (scheduledAt != at) {
+                // Superseded by an earlier tick
+                return;
+            }
+            scheduledAt = Long.MAX_VALUE;
+        }
+
+        long now = clock.getAsLong();
+        List<EC2LaunchPipeline> polled = new ArrayList<>();
+        Map<String, EC2LaunchPipeline> described = new LinkedHashMap<>();
+        try (EC2ApiSubsystem.Scope ignored = EC2ApiSubsystem.LAUNCH_POLLING.enter()) {
+            List<EC2LaunchPipeline> due = new ArrayList<>();
+            Set<String> spotRequestIds = new HashSet<>();
+            for (EC2LaunchPipeline launch : pending) {
+                if (launch.isDone()) {
+                    // Cancelled
+                    pending.remove(launch);
+                    continue;
+                }
+                if (!launch.startPoll(now)) {
+                    continue;
+                }
+                due.add(launch);
+                String spotRequestId = launch.getSpotRequestId();
+                if (spotRequestId != null) {
+                    spotRequestIds.add(spotRequestId);
+                }
+            }
+
+            SdkException spotRequestsFailure = null;
+            if (!spotRequestIds.isEmpty()) {
+                // Refresh them all at once, so that each launch then reads its own from the cache
+                try {
+                    cloud.getSpotRequests().getSpotRequests(spotRequestIds);
+                } catch (SdkException e) {
+                    LOGGER.log(Level.FINE, "Failed to describe the pending spot requests of cloud " + cloud.name, e);
+                    spotRequestsFailure = e;
+                }
+            }
+
+            for (EC2LaunchPipeline launch : due) {
+                if (spotRequestsFailure != null && launch.getSpotRequestId() != null) {
+                    // Try again next time rather than describing them one by one
+                    launch.onDescribeFailure(spotRequestsFailure);
+                    polled.add(launch);
+                    continue;
+                }
+                try {
+                    String instanceId = launch.prepare();
+                    if (instanceId != null) {
+                        described.put(instanceId, launch);
+                        continue;
+                    }
+                } catch (RuntimeException e) {
+                    launch.getResult().completeExceptionally(e);
+                }
+                polled.add(launch);
+            }
+
+            if (!described.isEmpty()) {
+                LOGGER.log(Level.FINE, "Describing {0} pending instances of cloud {1}", new Object[] {
+                    described.size(), cloud.getDisplayName()
+                });
+                CompletableFuture<Map<String, Instance>> instances;
+                try {
+                    instances = cloud.getInstanceLookups().getInstancesAsync(described.keySet());
+                } catch (RuntimeException e) {
+                    instances = CompletableFuture.failedFuture(e);
+                }
+                instances.whenComplete((found, e) -> {
+                    for (Map.Entry<String, EC2LaunchPipeline> entry : described.entrySet()) {
+                        onDescribed(entry.getKey(), entry.getValue(), found, e);
+                    }
+                    reschedule(described.values());
+                });
+            }
+        } finally {
+            reschedule(polled);
+        }
+    }
+
+    private static void onDescribed(
+            String instanceId, EC2LaunchPipeline launch, Map<String, Instance> found, Throwable e) {
+        try {
+            if (e != null) {
+                launch.onDescribeFailure(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            } else if (found.containsKey(instanceId)) {
+                launch.onDescribed(instanceId, found.get(instanceId));
+            } else {
+                launch.onNotFound(instanceId);
+            }
+        } catch (RuntimeException x) {
+            launch.getResult().completeExceptionally(x);
+        }
+    }
+
+    private void reschedule(Iterable<EC2LaunchPipeline> launches) {
+        long now = clock.getAsLong();
+        for (EC2LaunchPipeline launch : launches) {
+            if (launch.isDone()) {
+                pending.remove(launch);
+            } else {
+                launch.next(now, minInterval, maxInterval);
+            }
+        }
+        // The launches being described are scheduled once described
+        long next = Long.MAX_VALUE;
+        for (EC2LaunchPipeline launch : pending) {
+            next = Math.min(next, launch.getDueAt());
+        }
+        if (next != Long.MAX_VALUE) {
+            schedule(next);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package hudson.plugins.ec2;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.Computer;
+import hudson.model.Label;
+import hudson.model.LoadStatistics;
+import hudson.model.Node;
+import hudson.slaves.Cloud;
+import hudson.slaves.NodeProvisioner;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Implementation of {@link NodeProvisioner.Strategy} which provisions ahead of the demand it forecasts.
+ * <p>
+ * For each label of the templates with a {@link SlaveTemplate#getPredictiveInstanceCap() predictive instance cap}, it
+ * records the demand (busy executors and queued items) in an {@link EC2DemandHistory}, and forecasts it one launch
+ * lead time ahead. When the forecast, rounded to whole executors, exceeds the online, connecting and planned capacity,
+ * it launches the difference right away, so that the agents are up when the demand comes. The agents launched ahead of
+ * each template that are still starting or idle count against its predictive cap. It runs before
+ * {@link NoDelayProvisionerStrategy}, which then only launches what the demand seen still lacks.
+ */
+@Extension(ordinal = 200)
+public class EC2PredictiveProvisionerStrategy extends NodeProvisioner.Strategy {
+
+    private static final Logger LOGGER = Logger.getLogger(EC2PredictiveProvisionerStrategy.class.getName());
+
+    /*
+     * How long (in milliseconds) the demand is recorded for, in slots of SLOT_MILLIS.
+     */
+    static final long SLOT_MILLIS = Long.getLong(
+            "hudson.plugins.ec2.EC2PredictiveProvisionerStrategy.slotMillis", TimeUnit.MINUTES.toMillis(15));
+
+    static final long RETENTION_MILLIS = Long.getLong(
+            "hudson.plugins.ec2.EC2PredictiveProvisionerStrategy.retentionMillis", TimeUnit.DAYS.toMillis(28));
+
+    /*
+     * How long (in milliseconds) an agent takes from its launch to be online, i.e. how far ahead to forecast.
+     */
+    static final long LEAD_TIME_MILLIS = Long.getLong(
+            "hudson.plugins.ec2.EC2PredictiveProvisionerStrategy.leadTimeMillis", TimeUnit.MINUTES.toMillis(3));
+
+    private final Map<String, EC2DemandHistory> histories = new ConcurrentHashMap<>();
+
+    /*
+     * The agents launched ahead, by cloud and template.
+     */
+    private final Map<String, List<NodeProvisioner.PlannedNode>> launchedAhead = new ConcurrentHashMap<>();
+
+    private final LongSupplier clock;
+
+    public EC2PredictiveProvisionerStrategy() {
+        this(System::currentTimeMillis);
+    }
+
+    EC2PredictiveProvisionerStrategy(@NonNull LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public NodeProvisioner.StrategyDecision apply(NodeProvisioner.StrategyState strategyState) {
+        final Label label = strategyState.getLabel();
+        List<EC2Cloud> clouds = getPredictiveClouds(label);
+        if (clouds.isEmpty()) {
+            return NodeProvisioner.StrategyDecision.CONSULT_REMAINING_STRATEGIES;
+        }
+
+        LoadStatistics.LoadStatisticsSnapshot snapshot = strategyState.getSnapshot();
+        long now = clock.getAsLong();
+        EC2DemandHistory history = getHistory(label);
+        history.record(now, snapshot.getBusyExecutors() + snapshot.getQueueLength());
+
+        // A fraction of an executor is not worth an agent
+        int forecast = (int) Math.round(history.forecast(now + LEAD_TIME_MILLIS));
+        int capacity = snapshot.getOnlineExecutors()
+                + snapshot.getConnectingExecutors()
+                + strategyState.getPlannedCapacitySnapshot()
+                + strategyState.getAdditionalPlannedCapacity();
+        LOGGER.log(Level.FINE, "Label {0}: capacity={1}, forecast demand={2}", new Object[] {label, capacity, forecast
+        });
+        int shortfall = forecast - capacity;
+        for (EC2Cloud cloud : clouds) {
+            for (SlaveTemplate t : cloud.getTemplates(label)) {
+                if (shortfall <= 0) {
+                    return NodeProvisioner.StrategyDecision.CONSULT_REMAINING_STRATEGIES;
+                }
+                int cap = t.getPredictiveInstanceCap();
+                if (cap <= 0) {
+                    continue;
+                }
+                List<NodeProvisioner.PlannedNode> launched =
+                        launchedAhead.computeIfAbsent(cloud.name + "/" + t.description, k -> new ArrayList<>());
+                int number;
+                synchronized (launched) {
+                    launched.removeIf(plannedNode -> !isOutstanding(plannedNode));
+                    number = Math.min(
+                            (shortfall + t.getNumExecutors() - 1) / t.getNumExecutors(), cap - launched.size());
+                }
+                if (number <= 0) {
+                    LOGGER.log(Level.FINE, "{0}. Predictive instance cap reached", t);
+                    continue;
+                }
+                Collection<NodeProvisioner.PlannedNode> plannedNodes = cloud.provisionAhead(t, number);
+                LOGGER.log(Level.FINE, "{0}. Planned {1} new nodes ahead of the forecast demand", new Object[] {
+                    t, plannedNodes.size()
+                });
+                synchronized (launched) {
+                    launched.addAll(plannedNodes);
+                }
+                strategyState.recordPendingLaunches(plannedNodes);
+                shortfall -= plannedNodes.size() * t.getNumExecutors();
+            }
+        }
+        // Whatever was launched ahead, the demand seen is left to the other strategies
+        return NodeProvisioner.StrategyDecision.CONSULT_REMAINING_STRATEGIES;
+    }
+
+    /*
+     * Whether an agent launched ahead is still starting, or online and idle, i.e. not taken by the demand yet.
+     */
+    private static boolean isOutstanding(NodeProvisioner.PlannedNode plannedNode) {
+        if (!plannedNode.future.isDone()) {
+            return true;
+        }
+        Node node;
+        try {
+            node = plannedNode.future.get();
+        } catch (ExecutionException | CancellationException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        if (node == null || Jenkins.get().getNode(node.getNodeName()) == null) {
+            return false;
+        }
+        Computer computer = node.toComputer();
+        return computer == null || computer.isIdle();
+    }
+
+    private static List<EC2Cloud> getPredictiveClouds(@CheckForNull Label label) {
+        List<EC2Cloud> clouds = new ArrayList<>();
+        for (Cloud cloud : Jenkins.get().clouds) {
+            if (cloud instanceof EC2Cloud ec2 && hasPredictiveTemplates(ec2.getTemplates(label))) {
+                clouds.add(ec2);
+            }
+        }
+        return clouds;
+    }
+
+    private static boolean hasPredictiveTemplates(Collection<SlaveTemplate> templates) {
+        for (SlaveTemplate t : templates) {
+            if (t.getPredictiveInstanceCap() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @NonNull
+    EC2DemandHistory getHistory(@CheckForNull Label label) {
+        return histories.computeIfAbsent(key(label), k -> new EC2DemandHistory(SLOT_MILLIS, RETENTION_MILLIS));
+    }
+
+    private static String key(@CheckForNull Label label) {
+        return label == null ? "" : label.getExpression();
+    }
+
+    /**
+     * Gets the demand observed and forecast for the labels the predictive templates of the given cloud serve.
+     */
+    @NonNull
+    List<DemandForecast> getForecasts(@NonNull EC2Cloud cloud) {
+        long at = clock.getAsLong() + LEAD_TIME_MILLIS;
+        List<DemandForecast> forecasts = new ArrayList<>();
+        for (Map.Entry<String, EC2DemandHistory> entry : histories.entrySet()) {
+            Label label = entry.getKey().isEmpty() ? null : Jenkins.get().getLabel(entry.getKey());
+            List<String> templates = new ArrayList<>();
+            for (SlaveTemplate t : cloud.getTemplates(label)) {
+                if (t.getPredictiveInstanceCap() > 0) {
+                    templates.add(t.description + " (" + t.getPredictiveInstanceCap() + ")");
+                }
+            }
+            if (!templates.isEmpty()) {
+                EC2DemandHistory history = entry.getValue();
+                forecasts.add(new DemandForecast(
+                        entry.getKey(), String.join(", ", templates), history.getObserved(), history.forecast(at)));
+            }
+        }
+        forecasts.sort(Comparator.comparing(DemandForecast::getLabel));
+        return forecasts;
+    }
+
+    @NonNull
+    static EC2PredictiveProvisionerStrategy get() {
+        return ExtensionList.lookupSingleton(EC2PredictiveProvisionerStrategy.class);
+    }
+
+    /**
+     * The demand of a label served by predictive templates, shown on the demand forecast page of their cloud.
+     */
+    @Restricted(NoExternalUse.class)
+    public static final class DemandForecast {
+
+        private final String label;
+
+        private final String templates;
+
+        private final int observed;
+
+        private final double forecast;
+
+        DemandForecast(String label, String templates, int observed, double forecast) {
+            this.label = label;
+            this.templates = templates;
+            this.observed = observed;
+            this.forecast = forecast;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * Gets the predictive templates serving the label, with their predictive instance cap.
+         */
+        public String getTemplates() {
+            return templates;
+        }
+
+        public int getObserved() {
+            return observed;
+        }
+
+        public double getForecast() {
+            return forecast;
+        }
+
+        public long getLeadTimeSeconds() {
+            return TimeUnit.MILLISECONDS.toSeconds(LEAD_TIME_MILLIS);
+        }
+    }
+}
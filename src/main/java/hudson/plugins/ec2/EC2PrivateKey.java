@@ -34,6 +34,9 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.security.UnrecoverableKeyException;
 import java.util.Base64;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.crypto.Cipher;
@@ -43,6 +46,8 @@ import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.DescribeKeyPairsRequest;
+import software.amazon.awssdk.services.ec2.model.Filter;
 import software.amazon.awssdk.services.ec2.model.KeyPairInfo;
 
 /**
@@ -116,9 +121,33 @@ public class EC2PrivateKey {
      * Finds the {@link KeyPairInfo} that corresponds to this key in EC2.
      */
     public KeyPair find(Ec2Client ec2) throws IOException, SdkException {
-        String fp = getFingerprint();
-        String pfp = getPublicFingerprint();
-        for (KeyPairInfo kp : ec2.describeKeyPairs().keyPairs()) {
+        String pemData = privateKey.getPlainText();
+        if (pemData == null || pemData.isEmpty()) {
+            throw new IOException("This private key cannot be empty");
+        }
+        String fp;
+        String pfp;
+        try {
+            // Decode once for both fingerprints
+            PEMEncodable pem = PEMEncodable.decode(pemData);
+            fp = pem.getPrivateKeyFingerprint();
+            pfp = pem.getPublicKeyFingerprint();
+        } catch (UnrecoverableKeyException e) {
+            throw new IOException("This private key is password protected, which isn't supported yet");
+        }
+
+        // Only ask for the key pairs with one of our fingerprints, rather than every key pair of the region
+        Set<String> fingerprints = new LinkedHashSet<>();
+        for (String fingerprint : new String[] {fp, pfp}) {
+            if (fingerprint != null) {
+                fingerprints.add(fingerprint);
+                fingerprints.add(fingerprint.toLowerCase(Locale.ENGLISH));
+            }
+        }
+        DescribeKeyPairsRequest request = DescribeKeyPairsRequest.builder()
+                .filters(Filter.builder().name("fingerprint").values(fingerprints).build())
+                .build();
+        for (KeyPairInfo kp : ec2.describeKeyPairs(request).keyPairs()) {
             if (kp.keyFingerprint().equalsIgnoreCase(fp)) {
                 return new KeyPair(
                         KeyPairInfo.builder()
@@ -0,0 +1,162 @@
+package hudson.plugins.ec2;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Provisioning locks of an {@link EC2Cloud}, one per template.
+ * <p>
+ * Provisioning a template looks for its orphaned and stopped instances before launching new ones, so two provisioners
+ * of the same template running at the same time could wake the same instance twice. They are serialized on the lock of
+ * the template, while different templates provision concurrently. The instance caps are checked against the lock-free
+ * {@link EC2CapacityAccounting} instead.
+ * <p>
+ * Templates are hashed onto {@link #STRIPES} locks, so that templates that are added and removed don't leave locks
+ * behind. How long provisioning waited on the lock is recorded by template.
+ */
+@Restricted(NoExternalUse.class)
+public final class EC2ProvisioningLocks {
+
+    /*
+     * How many locks the templates of a cloud are hashed onto.
+     */
+    static final int STRIPES = Integer.getInteger("hudson.plugins.ec2.EC2ProvisioningLocks.stripes", 16);
+
+    private final ReentrantLock[] locks;
+
+    private final LongSupplier nanoClock;
+
+    private final Map<String, LockWaits> waits = new ConcurrentHashMap<>();
+
+    EC2ProvisioningLocks() {
+        this(STRIPES, System::nanoTime);
+    }
+
+    EC2ProvisioningLocks(int stripes, @NonNull LongSupplier nanoClock) {
+        this.locks = new ReentrantLock[Math.max(stripes, 1)];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Takes the lock of the given template, waiting for it if needed.
+     *
+     * @return the lock held, to be closed once done provisioning
+     */
+    @NonNull
+    Held lock(@CheckForNull String templateDescription) {
+        String key = String.valueOf(templateDescription);
+        ReentrantLock lock = locks[Math.floorMod(key.hashCode(), locks.length)];
+        LockWaits templateWaits = waits.computeIfAbsent(key, LockWaits::new);
+        if (lock.tryLock()) {
+            templateWaits.acquired(false, 0);
+        } else {
+            long start = nanoClock.getAsLong();
+            lock.lock();
+            templateWaits.acquired(true, nanoClock.getAsLong() - start);
+        }
+        return new Held(lock);
+    }
+
+    /**
+     * Gets how long provisioning waited on the lock of every template, the most waited first.
+     */
+    @NonNull
+    public List<LockWaits> getWaits() {
+        return waits.values().stream()
+                .sorted(Comparator.comparingLong(LockWaits::getTotalWaitNanos).reversed())
+                .toList();
+    }
+
+    /**
+     * A lock held by provisioning.
+     */
+    static final class Held implements AutoCloseable {
+        private final ReentrantLock lock;
+
+        private Held(ReentrantLock lock) {
+            this.lock = lock;
+        }
+
+        @Override
+        public void close() {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * How long provisioning waited on the lock of a template.
+     */
+    public static final class LockWaits {
+        private final String template;
+
+        private final LongAdder acquisitions = new LongAdder();
+
+        private final LongAdder contended = new LongAdder();
+
+        private final LongAdder totalWaitNanos = new LongAdder();
+
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+
+        LockWaits(String template) {
+            this.template = template;
+        }
+
+        public String getTemplate() {
+            return template;
+        }
+
+        public long getAcquisitions() {
+            return acquisitions.sum();
+        }
+
+        /**
+         * Gets how many times the lock was held by another provisioning when taken.
+         */
+        public long getContended() {
+            return contended.sum();
+        }
+
+        long getTotalWaitNanos() {
+            return totalWaitNanos.sum();
+        }
+
+        public long getTotalWaitMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.sum());
+        }
+
+        public long getMaxWaitMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+        }
+
+        /**
+         * Gets how long taking the lock took on average, counting the times it was free.
+         */
+        public double getMeanWaitMillis() {
+            long n = acquisitions.sum();
+            return n == 0 ? 0 : (double) getTotalWaitNanos() / n / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        private void acquired(boolean wasContended, long waitNanos) {
+            acquisitions.increment();
+            if (wasContended) {
+                contended.increment();
+                totalWaitNanos.add(waitNanos);
+                maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+            }
+        }
+    }
+}
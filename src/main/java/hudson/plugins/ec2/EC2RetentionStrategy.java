@@ -29,6 +29,7 @@ import hudson.model.Executor;
 import hudson.model.ExecutorListener;
 import hudson.model.Label;
 import hudson.model.Queue;
+import hudson.plugins.ec2.util.EC2ApiSubsystem;
 import hudson.plugins.ec2.util.MinimumInstanceChecker;
 import hudson.slaves.RetentionStrategy;
 import java.time.Clock;
@@ -99,7 +100,7 @@ public class EC2RetentionStrategy extends RetentionStrategy<EC2Computer> impleme
         if (!checkLock.tryLock()) {
             return CHECK_INTERVAL_MINUTES;
         } else {
-            try {
+            try (EC2ApiSubsystem.Scope ignored = EC2ApiSubsystem.RETENTION.enter()) {
                 long currentTime = this.clock.millis();
 
                 if (currentTime > nextCheckAfter) {
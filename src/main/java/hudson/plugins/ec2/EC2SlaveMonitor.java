@@ -4,6 +4,7 @@ import hudson.Extension;
 import hudson.model.AsyncPeriodicWork;
 import hudson.model.Node;
 import hudson.model.TaskListener;
+import hudson.plugins.ec2.util.EC2ApiSubsystem;
 import hudson.plugins.ec2.util.MinimumInstanceChecker;
 import java.io.IOException;
 import java.util.concurrent.TimeUnit;
@@ -35,8 +36,21 @@ public class EC2SlaveMonitor extends AsyncPeriodicWork {
 
     @Override
     protected void execute(TaskListener listener) throws IOException, InterruptedException {
-        removeDeadNodes();
+        try (EC2ApiSubsystem.Scope ignored = EC2ApiSubsystem.MONITOR.enter()) {
+            removeDeadNodes();
+        }
         MinimumInstanceChecker.checkForMinimumInstances();
+        maintainWarmPools();
+    }
+
+    private void maintainWarmPools() {
+        for (EC2Cloud cloud : Jenkins.get().clouds.getAll(EC2Cloud.class)) {
+            for (SlaveTemplate template : cloud.getTemplates()) {
+                if (template.isWarmPoolEnabled()) {
+                    template.getWarmPool().maintain();
+                }
+            }
+        }
     }
 
     private void removeDeadNodes() {
@@ -0,0 +1,199 @@
+package hudson.plugins.ec2;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Node;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import org.apache.commons.lang.StringUtils;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.ec2.model.DescribeSpotInstanceRequestsRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeSpotInstanceRequestsResponse;
+import software.amazon.awssdk.services.ec2.model.Filter;
+import software.amazon.awssdk.services.ec2.model.SpotInstanceRequest;
+import software.amazon.awssdk.services.ec2.model.SpotInstanceState;
+
+/**
+ * Cache of the spot instance requests of the {@link EC2SpotSlave} nodes of an {@link EC2Cloud}.
+ * <p>
+ * Rather than describing the request of each node on its own, the requests of all the spot nodes of the cloud are
+ * described together, in batches of {@link #MAX_BATCH_SIZE}, whenever the cached state is older than
+ * {@link #MAX_AGE} or a request that was not part of the last refresh is looked up. The requests of launches not added
+ * as nodes yet are looked up together through {@link #getSpotRequests(Collection)}, and are refreshed along with the
+ * known ones from then on, as long as they are open or active.
+ */
+final class EC2SpotRequestCache {
+
+    private static final Logger LOGGER = Logger.getLogger(EC2SpotRequestCache.class.getName());
+
+    /*
+     * How long (in milliseconds) the state of the spot requests is served before being described again.
+     */
+    static final long MAX_AGE =
+            Long.getLong("hudson.plugins.ec2.EC2SpotRequestCache.maxAge", TimeUnit.SECONDS.toMillis(10));
+
+    /*
+     * DescribeSpotInstanceRequests does not accept more than 1000 values per filter.
+     */
+    static final int MAX_BATCH_SIZE = 1000;
+
+    private final EC2Cloud cloud;
+
+    private final Object refreshLock = new Object();
+
+    private volatile Snapshot snapshot = new Snapshot(Collections.emptySet(), Collections.emptyMap(), 0);
+
+    EC2SpotRequestCache(@NonNull EC2Cloud cloud) {
+        this.cloud = cloud;
+    }
+
+    /**
+     * Gets the spot request with the given id, refreshing the state of all the known requests if needed.
+     *
+     * @return the spot request, or null if EC2 does not know about it (anymore)
+     */
+    @CheckForNull
+    SpotInstanceRequest getSpotRequest(String spotInstanceRequestId) throws SdkException {
+        if (StringUtils.isEmpty(spotInstanceRequestId)) {
+            return null;
+        }
+        return getSpotRequests(Collections.singleton(spotInstanceRequestId)).get(spotInstanceRequestId);
+    }
+
+    /**
+     * Gets the spot requests with the given ids, describing the ones not covered by the cached state along with all
+     * the known requests in a single refresh.
+     *
+     * @return the spot requests EC2 knows about, by id
+     */
+    @NonNull
+    Map<String, SpotInstanceRequest> getSpotRequests(@NonNull Collection<String> spotInstanceRequestIds)
+            throws SdkException {
+        if (spotInstanceRequestIds.stream().allMatch(StringUtils::isEmpty)) {
+            return Collections.emptyMap();
+        }
+        Snapshot s = snapshot;
+        if (!s.coversAll(spotInstanceRequestIds)) {
+            synchronized (refreshLock) {
+                // Another thread may have refreshed the cache while we were waiting
+                s = snapshot;
+                if (!s.coversAll(spotInstanceRequestIds)) {
+                    s = fetch(s, spotInstanceRequestIds);
+                    snapshot = s;
+                }
+            }
+        }
+        Map<String, SpotInstanceRequest> requests = new HashMap<>();
+        for (String id : spotInstanceRequestIds) {
+            SpotInstanceRequest sir = s.requests.get(id);
+            if (sir != null) {
+                requests.put(id, sir);
+            }
+        }
+        return requests;
+    }
+
+    /**
+     * Drops the cached state so that the next read will describe the requests again.
+     */
+    void invalidate() {
+        synchronized (refreshLock) {
+            snapshot = new Snapshot(Collections.emptySet(), Collections.emptyMap(), 0);
+        }
+    }
+
+    private Snapshot fetch(Snapshot previous, Collection<String> spotInstanceRequestIds) throws SdkException {
+        long now = System.currentTimeMillis();
+        Set<String> requestIds = new HashSet<>(knownRequestIds());
+        // The requests of the launches still pending are not nodes yet, keep refreshing them until they are over
+        for (SpotInstanceRequest sir : previous.requests.values()) {
+            if (sir.state() == SpotInstanceState.OPEN || sir.state() == SpotInstanceState.ACTIVE) {
+                requestIds.add(sir.spotInstanceRequestId());
+            }
+        }
+        for (String id : spotInstanceRequestIds) {
+            if (StringUtils.isNotEmpty(id)) {
+                requestIds.add(id);
+            }
+        }
+
+        Map<String, SpotInstanceRequest> requests = new HashMap<>();
+        List<String> ids = new ArrayList<>(requestIds);
+        for (int from = 0; from < ids.size(); from += MAX_BATCH_SIZE) {
+            List<String> batch = ids.subList(from, Math.min(from + MAX_BATCH_SIZE, ids.size()));
+            // Filtering by request id, unlike passing the ids, does not fail the whole call if one of them is unknown
+            List<Filter> filters = Collections.singletonList(Filter.builder()
+                    .name("spot-instance-request-id")
+                    .values(batch)
+                    .build());
+            DescribeSpotInstanceRequestsRequest dsir = DescribeSpotInstanceRequestsRequest.builder()
+                    .filters(filters)
+                    .maxResults(MAX_BATCH_SIZE)
+                    .build();
+            DescribeSpotInstanceRequestsResponse result;
+            do {
+                result = cloud.connect().describeSpotInstanceRequests(dsir);
+                for (SpotInstanceRequest sir : result.spotInstanceRequests()) {
+                    requests.put(sir.spotInstanceRequestId(), sir);
+                }
+                dsir = dsir.toBuilder().nextToken(result.nextToken()).build();
+            } while (result.nextToken() != null);
+        }
+
+        LOGGER.log(Level.FINE, "Refreshed {0} spot requests of cloud {1}, {2} found, in {3}ms", new Object[] {
+            requestIds.size(), cloud.name, requests.size(), System.currentTimeMillis() - now
+        });
+        return new Snapshot(
+                Collections.unmodifiableSet(requestIds), Collections.unmodifiableMap(requests), now);
+    }
+
+    private Set<String> knownRequestIds() {
+        Set<String> requestIds = new HashSet<>();
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) {
+            return requestIds;
+        }
+        for (Node node : jenkins.getNodes()) {
+            if (node instanceof EC2SpotSlave spotSlave
+                    && StringUtils.equals(spotSlave.cloudName, cloud.name)
+                    && spotSlave.getSpotInstanceRequestId() != null) {
+                requestIds.add(spotSlave.getSpotInstanceRequestId());
+            }
+        }
+        return requestIds;
+    }
+
+    private static final class Snapshot {
+        private final Set<String> requestIds;
+        private final Map<String, SpotInstanceRequest> requests;
+        private final long fetchedAt;
+
+        Snapshot(Set<String> requestIds, Map<String, SpotInstanceRequest> requests, long fetchedAt) {
+            this.requestIds = requestIds;
+            this.requests = requests;
+            this.fetchedAt = fetchedAt;
+        }
+
+        boolean coversAll(Collection<String> spotInstanceRequestIds) {
+            if (System.currentTimeMillis() - fetchedAt >= MAX_AGE) {
+                return false;
+            }
+            for (String id : spotInstanceRequestIds) {
+                if (StringUtils.isNotEmpty(id) && !requestIds.contains(id)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
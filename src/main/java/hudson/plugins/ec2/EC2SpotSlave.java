@@ -21,8 +21,6 @@ import org.kohsuke.stapler.DataBoundConstructor;
 import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.services.ec2.Ec2Client;
 import software.amazon.awssdk.services.ec2.model.CancelSpotInstanceRequestsRequest;
-import software.amazon.awssdk.services.ec2.model.DescribeSpotInstanceRequestsRequest;
-import software.amazon.awssdk.services.ec2.model.DescribeSpotInstanceRequestsResponse;
 import software.amazon.awssdk.services.ec2.model.SpotInstanceRequest;
 import software.amazon.awssdk.services.ec2.model.SpotInstanceState;
 import software.amazon.awssdk.services.ec2.model.TerminateInstancesRequest;
@@ -201,6 +199,7 @@ public class EC2SpotSlave extends EC2AbstractSlave implements EC2Readiness {
                                             .build();
                             try {
                                 ec2.cancelSpotInstanceRequests(cancelRequest);
+                                getCloud().onInstanceTerminated(spotInstanceRequestId);
                                 LOGGER.info("Cancelled Spot request: " + spotInstanceRequestId);
                             } catch (SdkException e) {
                                 // Spot request is no longer valid
@@ -220,6 +219,7 @@ public class EC2SpotSlave extends EC2AbstractSlave implements EC2Readiness {
                                             .build();
                                     try {
                                         ec2.terminateInstances(request);
+                                        getCloud().onInstanceTerminated(instanceId);
                                         LOGGER.info("Terminated EC2 instance (terminated): " + instanceId);
                                     } catch (SdkException e) {
                                         // Spot request is no longer valid
@@ -256,26 +256,18 @@ public class EC2SpotSlave extends EC2AbstractSlave implements EC2Readiness {
     }
 
     /**
-     * Retrieve the SpotRequest for a requestId
+     * Retrieve the SpotRequest for a requestId, from the spot request cache of the cloud
      *
      * @return SpotInstanceRequest object for this agent, or null if request is not valid anymore
      */
     @CheckForNull
     SpotInstanceRequest getSpotRequest() {
-        Ec2Client ec2 = getCloud().connect();
-
         if (this.spotInstanceRequestId == null) {
             return null;
         }
 
-        DescribeSpotInstanceRequestsRequest dsirRequest = DescribeSpotInstanceRequestsRequest.builder()
-                .spotInstanceRequestIds(this.spotInstanceRequestId)
-                .build();
         try {
-            DescribeSpotInstanceRequestsResponse dsirResult = ec2.describeSpotInstanceRequests(dsirRequest);
-            List<SpotInstanceRequest> siRequests = dsirResult.spotInstanceRequests();
-
-            return siRequests.get(0);
+            return getCloud().getSpotRequests().getSpotRequest(this.spotInstanceRequestId);
         } catch (SdkException e) {
             // Spot request is no longer valid
             LOGGER.log(
@@ -29,7 +29,6 @@ import hudson.model.TaskListener;
 import hudson.slaves.Cloud;
 import hudson.util.ListBoxModel;
 import java.util.Collections;
-import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
@@ -144,18 +143,15 @@ public class EC2Step extends Step {
                 SlaveTemplate t;
                 t = ((EC2Cloud) cl).getTemplate(this.template);
                 if (t != null) {
-                    SlaveTemplate.ProvisionOptions universe = SlaveTemplate.ProvisionOptions.ALLOW_CREATE;
-                    EnumSet<SlaveTemplate.ProvisionOptions> opt = EnumSet.noneOf(SlaveTemplate.ProvisionOptions.class);
-                    opt.add(universe);
-
-                    List<EC2AbstractSlave> instances = t.provision(1, opt);
-                    if (instances == null) {
+                    // Through the cloud, so that the instance caps and the lock of the template are respected
+                    List<EC2AbstractSlave> instances = ((EC2Cloud) cl).getNewOrExistingAvailableSlave(t, 1, false);
+                    if (instances == null || instances.isEmpty()) {
                         throw new IllegalArgumentException(
                                 "Error in AWS Cloud. Please review AWS template defined in Jenkins configuration.");
                     }
 
                     EC2AbstractSlave slave = instances.get(0);
-                    return CloudHelper.getInstanceWithRetry(slave.getInstanceId(), (EC2Cloud) cl);
+                    return CloudHelper.getCachedInstance(slave.getInstanceId(), (EC2Cloud) cl, true);
                 } else {
                     throw new IllegalArgumentException(
                             "Error in AWS Cloud. Please review AWS template defined in Jenkins configuration.");
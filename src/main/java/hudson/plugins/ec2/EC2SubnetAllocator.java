@@ -0,0 +1,259 @@
+package hudson.plugins.ec2;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.DescribeSubnetsRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeSubnetsResponse;
+import software.amazon.awssdk.services.ec2.model.Subnet;
+
+/**
+ * Picks the subnets a {@link SlaveTemplate} launches into.
+ * <p>
+ * Each subnet is scored on the launches in flight into it, its capacity errors since it last launched, and its free IP
+ * addresses, as last described by DescribeSubnets minus what was launched since. The lowest score wins, ties go round
+ * robin. A subnet that failed for lack of capacity or addresses is cooled down, for {@link #COOLDOWN} doubling with
+ * each consecutive failure up to {@link #MAX_COOLDOWN}, and only picked again when all the others are cooling down
+ * too.
+ */
+final class EC2SubnetAllocator {
+
+    private static final Logger LOGGER = Logger.getLogger(EC2SubnetAllocator.class.getName());
+
+    /*
+     * How long (in milliseconds) a subnet is left alone after its first capacity error.
+     */
+    static final long COOLDOWN =
+            Long.getLong("hudson.plugins.ec2.EC2SubnetAllocator.cooldown", TimeUnit.SECONDS.toMillis(30));
+
+    /*
+     * The longest (in milliseconds) a subnet is left alone after consecutive capacity errors.
+     */
+    static final long MAX_COOLDOWN =
+            Long.getLong("hudson.plugins.ec2.EC2SubnetAllocator.maxCooldown", TimeUnit.MINUTES.toMillis(10));
+
+    /*
+     * How long (in milliseconds) the free IP addresses of the subnets are used before being described again.
+     */
+    static final long AVAILABLE_IPS_TTL =
+            Long.getLong("hudson.plugins.ec2.EC2SubnetAllocator.availableIpsTtl", TimeUnit.MINUTES.toMillis(1));
+
+    private static final Set<String> CAPACITY_ERRORS = Set.of(
+            "InsufficientInstanceCapacity",
+            "InsufficientFreeAddressesInSubnet",
+            "InsufficientHostCapacity",
+            "InsufficientCapacity",
+            "Unsupported");
+
+    private final LongSupplier clock;
+
+    private final Map<String, SubnetState> subnets = new ConcurrentHashMap<>();
+
+    private final AtomicInteger cursor = new AtomicInteger();
+
+    private volatile long availableIpsDescribedAt = Long.MIN_VALUE;
+
+    EC2SubnetAllocator() {
+        this(System::currentTimeMillis);
+    }
+
+    EC2SubnetAllocator(@NonNull LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Picks the subnet to launch a single instance into.
+     */
+    @CheckForNull
+    String choose(@NonNull List<String> subnetIds) {
+        if (subnetIds.isEmpty()) {
+            return null;
+        }
+        int start = Math.floorMod(cursor.getAndIncrement(), subnetIds.size());
+        return best(subnetIds, start, Map.of());
+    }
+
+    /**
+     * Splits {@code number} instances across the subnets, one at a time onto the best one.
+     *
+     * @return how many instances to launch into each subnet, the best first
+     */
+    @NonNull
+    Map<String, Integer> split(@NonNull List<String> subnetIds, int number) {
+        Map<String, Integer> planned = new LinkedHashMap<>();
+        if (subnetIds.isEmpty()) {
+            return planned;
+        }
+        int start = Math.floorMod(cursor.getAndIncrement(), subnetIds.size());
+        for (int i = 0; i < number; i++) {
+            planned.merge(best(subnetIds, start, planned), 1, Integer::sum);
+        }
+        return planned;
+    }
+
+    /**
+     * Gets the subnets not cooling down, or all of them if they all are.
+     */
+    @NonNull
+    List<String> healthy(@NonNull List<String> subnetIds) {
+        long now = clock.getAsLong();
+        List<String> result =
+                subnetIds.stream().filter(s -> !state(s).isCoolingDown(now)).toList();
+        return result.isEmpty() ? subnetIds : result;
+    }
+
+    private String best(List<String> subnetIds, int start, Map<String, Integer> planned) {
+        long now = clock.getAsLong();
+        String best = null;
+        double bestScore = Double.MAX_VALUE;
+        String fallback = null;
+        long fallbackUntil = Long.MAX_VALUE;
+        for (int i = 0; i < subnetIds.size(); i++) {
+            String subnetId = subnetIds.get((start + i) % subnetIds.size());
+            SubnetState s = state(subnetId);
+            int pending = s.inFlight.get() + planned.getOrDefault(subnetId, 0);
+            Integer free = s.availableIps == null ? null : s.availableIps - pending;
+            if (s.isCoolingDown(now) || (free != null && free <= 0)) {
+                // Only if all the others are unusable too
+                long until = Math.max(s.cooldownUntil, now);
+                if (until < fallbackUntil) {
+                    fallback = subnetId;
+                    fallbackUntil = until;
+                }
+                continue;
+            }
+            double score = pending + s.failures.get() + (free == null ? 0 : 1.0 / (1 + free));
+            if (score < bestScore) {
+                best = subnetId;
+                bestScore = score;
+            }
+        }
+        return best != null ? best : fallback;
+    }
+
+    /**
+     * Records a launch into the subnet as in flight, until closed.
+     */
+    @NonNull
+    InFlight launching(@NonNull String subnetId, int number) {
+        SubnetState s = state(subnetId);
+        s.inFlight.addAndGet(number);
+        return () -> s.inFlight.addAndGet(-number);
+    }
+
+    /**
+     * Records that instances were launched into the subnet, which ends its cooldown.
+     */
+    void launched(@NonNull String subnetId, int number) {
+        SubnetState s = state(subnetId);
+        synchronized (s) {
+            s.failures.set(0);
+            s.cooldownUntil = 0;
+            if (s.availableIps != null) {
+                s.availableIps = Math.max(s.availableIps - number, 0);
+            }
+        }
+    }
+
+    /**
+     * Records that launching into the subnet failed, cooling it down if it was for lack of capacity or addresses.
+     */
+    void failed(@NonNull String subnetId, @NonNull SdkException e) {
+        String errorCode = getErrorCode(e);
+        if (!isCapacityError(errorCode)) {
+            return;
+        }
+        SubnetState s = state(subnetId);
+        long cooldown;
+        synchronized (s) {
+            int failures = s.failures.incrementAndGet();
+            cooldown = Math.min(COOLDOWN << Math.min(failures - 1, 20), MAX_COOLDOWN);
+            s.cooldownUntil = clock.getAsLong() + cooldown;
+            if ("InsufficientFreeAddressesInSubnet".equals(errorCode)) {
+                s.availableIps = 0;
+            }
+        }
+        LOGGER.log(Level.INFO, "Subnet {0} failed with {1}, not using it for {2} ms", new Object[] {
+            subnetId, errorCode, cooldown
+        });
+    }
+
+    /**
+     * Describes the free IP addresses of the subnets, unless they were described recently.
+     */
+    void refreshAvailableIps(@NonNull Ec2Client ec2, @NonNull List<String> subnetIds) {
+        long now = clock.getAsLong();
+        if (subnetIds.isEmpty()
+                || (availableIpsDescribedAt != Long.MIN_VALUE && now - availableIpsDescribedAt < AVAILABLE_IPS_TTL)) {
+            return;
+        }
+        availableIpsDescribedAt = now;
+        try {
+            DescribeSubnetsResponse response = ec2.describeSubnets(
+                    DescribeSubnetsRequest.builder().subnetIds(subnetIds).build());
+            List<Subnet> described = response != null ? response.subnets() : null;
+            if (described == null) {
+                return;
+            }
+            for (Subnet subnet : described) {
+                if (subnet.subnetId() == null) {
+                    continue;
+                }
+                SubnetState s = state(subnet.subnetId());
+                synchronized (s) {
+                    s.availableIps = subnet.availableIpAddressCount();
+                }
+            }
+        } catch (SdkException e) {
+            // Launch without them, the launch reports what is wrong with the subnets
+            LOGGER.log(Level.FINE, "Failed to describe subnets " + subnetIds, e);
+        }
+    }
+
+    static boolean isCapacityError(@CheckForNull String errorCode) {
+        return errorCode != null && CAPACITY_ERRORS.contains(errorCode);
+    }
+
+    @CheckForNull
+    static String getErrorCode(@NonNull SdkException e) {
+        if (e instanceof AwsServiceException awsException && awsException.awsErrorDetails() != null) {
+            return awsException.awsErrorDetails().errorCode();
+        }
+        return null;
+    }
+
+    private SubnetState state(String subnetId) {
+        return subnets.computeIfAbsent(subnetId, k -> new SubnetState());
+    }
+
+    /**
+     * A launch in flight into a subnet.
+     */
+    interface InFlight extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static final class SubnetState {
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private volatile long cooldownUntil;
+        private volatile Integer availableIps;
+
+        boolean isCoolingDown(long now) {
+            return cooldownUntil > now;
+        }
+    }
+}
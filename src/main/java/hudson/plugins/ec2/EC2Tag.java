@@ -45,6 +45,11 @@ public class EC2Tag extends AbstractDescribableImpl<EC2Tag> {
 
     public static final String TAG_NAME_JENKINS_CLOUD_NAME = "jenkins_cloud_name";
 
+    /**
+     * Tag name marking the stopped instances of the warm pool of a template, with when they were parked as value.
+     */
+    public static final String TAG_NAME_JENKINS_WARM_POOL = "jenkins_warm_pool";
+
     @DataBoundConstructor
     public EC2Tag(String name, String value) {
         this.name = name;
@@ -0,0 +1,273 @@
+package hudson.plugins.ec2;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Computer;
+import hudson.plugins.ec2.util.EC2ApiSubsystem;
+import hudson.slaves.SlaveComputer;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import org.apache.commons.lang.StringUtils;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.CreateTagsRequest;
+import software.amazon.awssdk.services.ec2.model.DeleteTagsRequest;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.InstanceStateName;
+import software.amazon.awssdk.services.ec2.model.Reservation;
+import software.amazon.awssdk.services.ec2.model.StartInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.StopInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.Tag;
+import software.amazon.awssdk.services.ec2.model.TerminateInstancesRequest;
+
+/**
+ * Warm pool of an on-demand {@link SlaveTemplate}: stopped instances that already ran the init script and got
+ * remoting.jar, started first when the template provisions.
+ * <p>
+ * Starting a stopped instance takes seconds where launching one takes minutes to boot and initialize. The pool is
+ * refilled in the background by launching agents as usual; once such an agent connected, it is stopped and removed
+ * from Jenkins, unless a build already took it. Members are the stopped instances of the template tagged with
+ * {@link EC2Tag#TAG_NAME_JENKINS_WARM_POOL}, the tag holding when they were parked, so the pool outlives restarts of
+ * the controller.
+ * <p>
+ * The most recently parked members are taken first. Members parked for longer than the maximum age of the template,
+ * and the least recently parked ones beyond its target size, are terminated.
+ */
+final class EC2WarmPool {
+
+    private static final Logger LOGGER = Logger.getLogger(EC2WarmPool.class.getName());
+
+    private final SlaveTemplate template;
+
+    private final LongSupplier clock;
+
+    private final Executor executor;
+
+    /*
+     * Instance ids of the agents launched to refill the pool, until they connect.
+     */
+    private final Set<String> warming = ConcurrentHashMap.newKeySet();
+
+    private final AtomicBoolean maintaining = new AtomicBoolean();
+
+    EC2WarmPool(@NonNull SlaveTemplate template) {
+        this(template, System::currentTimeMillis, Computer.threadPoolForRemoting);
+    }
+
+    EC2WarmPool(@NonNull SlaveTemplate template, @NonNull LongSupplier clock, @NonNull Executor executor) {
+        this.template = template;
+        this.clock = clock;
+        this.executor = executor;
+    }
+
+    /**
+     * Takes up to {@code number} members out of the pool and starts them. The provisioning lock of the template must
+     * be held.
+     *
+     * @return the instances started, the most recently parked first
+     */
+    @NonNull
+    List<Instance> take(@NonNull Ec2Client ec2, int number) throws IOException {
+        if (!template.isWarmPoolEnabled() || number <= 0) {
+            return Collections.emptyList();
+        }
+        List<Instance> taken = selectToTake(getMembers(ec2), number);
+        if (!taken.isEmpty()) {
+            List<String> instanceIds =
+                    taken.stream().map(Instance::instanceId).toList();
+            // Out of the pool before starting, and with no stale expiry for the orphan cleanup to act on
+            ec2.deleteTags(DeleteTagsRequest.builder()
+                    .resources(instanceIds)
+                    .tags(
+                            Tag.builder().key(EC2Tag.TAG_NAME_JENKINS_WARM_POOL).build(),
+                            Tag.builder()
+                                    .key(EC2CleanupOrphanedNodes.NODE_EXPIRES_AT_TAG_NAME)
+                                    .build())
+                    .build());
+            ec2.startInstances(
+                    StartInstancesRequest.builder().instanceIds(instanceIds).build());
+            LOGGER.info(template + ". Started " + instanceIds + " from the warm pool");
+        }
+        scheduleMaintenance();
+        return taken;
+    }
+
+    /**
+     * Evicts the members too old or beyond the target size, and launches agents for the members missing.
+     */
+    void maintain() {
+        if (!template.isWarmPoolEnabled() || !maintaining.compareAndSet(false, true)) {
+            return;
+        }
+        try (EC2ApiSubsystem.Scope ignored = EC2ApiSubsystem.PROVISIONING.enter()) {
+            EC2Cloud cloud = template.getParent();
+            Ec2Client ec2 = cloud.connect();
+            int kept;
+            // Provisioning could take the members being evicted
+            try (EC2ProvisioningLocks.Held held = cloud.getProvisioningLocks().lock(template.description)) {
+                List<Instance> members = getMembers(ec2);
+                List<Instance> evicted = selectToEvict(members);
+                if (!evicted.isEmpty()) {
+                    List<String> instanceIds =
+                            evicted.stream().map(Instance::instanceId).toList();
+                    LOGGER.info(template + ". Evicting " + instanceIds + " from the warm pool");
+                    ec2.terminateInstances(TerminateInstancesRequest.builder()
+                            .instanceIds(instanceIds)
+                            .build());
+                    instanceIds.forEach(cloud::onInstanceTerminated);
+                }
+                kept = members.size() - evicted.size();
+            }
+
+            int missing = template.getWarmPoolSize() - kept - warming.size();
+            if (missing > 0 && !Jenkins.get().isQuietingDown()) {
+                refill(missing);
+            }
+        } catch (SdkException | IOException e) {
+            LOGGER.log(Level.WARNING, template + ". Failed to maintain the warm pool", e);
+        } finally {
+            maintaining.set(false);
+        }
+    }
+
+    private void refill(int number) throws IOException {
+        LOGGER.log(Level.INFO, "{0}. Launching {1} agent(s) for the warm pool", new Object[] {template, number});
+        List<EC2AbstractSlave> agents = template.getParent().launchWarmPoolAgents(template, number);
+        for (EC2AbstractSlave agent : agents) {
+            // Before it can connect
+            warming.add(agent.getInstanceId());
+            Jenkins.get().addNode(agent);
+        }
+    }
+
+    /**
+     * Parks an agent launched to refill the pool, now that it connected and is initialized.
+     */
+    void onConnected(@NonNull EC2AbstractSlave agent) {
+        if (warming.remove(agent.getInstanceId())) {
+            try {
+                executor.execute(() -> park(agent));
+            } catch (RejectedExecutionException e) {
+                LOGGER.log(Level.FINE, "Not parking " + agent.getInstanceId() + ", keeping it as an agent", e);
+            }
+        }
+    }
+
+    private void park(EC2AbstractSlave agent) {
+        Computer computer = agent.toComputer();
+        if (!(computer instanceof SlaveComputer slaveComputer)) {
+            return;
+        }
+        slaveComputer.setAcceptingTasks(false);
+        if (!computer.isIdle()) {
+            LOGGER.info(template + ". " + agent.getInstanceId() + " took a build before joining the warm pool");
+            slaveComputer.setAcceptingTasks(true);
+            return;
+        }
+        try (EC2ApiSubsystem.Scope ignored = EC2ApiSubsystem.PROVISIONING.enter()) {
+            Ec2Client ec2 = template.getParent().connect();
+            ec2.createTags(CreateTagsRequest.builder()
+                    .resources(agent.getInstanceId())
+                    .tags(Tag.builder()
+                            .key(EC2Tag.TAG_NAME_JENKINS_WARM_POOL)
+                            .value(String.valueOf(clock.getAsLong()))
+                            .build())
+                    .build());
+            ec2.stopInstances(StopInstancesRequest.builder()
+                    .instanceIds(agent.getInstanceId())
+                    .build());
+            computer.disconnect(null);
+            Jenkins.get().removeNode(agent);
+            LOGGER.info(template + ". Parked " + agent.getInstanceId() + " in the warm pool");
+        } catch (SdkException | IOException e) {
+            LOGGER.log(Level.WARNING, template + ". Failed to park " + agent.getInstanceId() + ", keeping it", e);
+            slaveComputer.setAcceptingTasks(true);
+        }
+    }
+
+    private void scheduleMaintenance() {
+        try {
+            executor.execute(this::maintain);
+        } catch (RejectedExecutionException e) {
+            // The next run of the monitor refills it
+        }
+    }
+
+    @NonNull
+    private List<Instance> getMembers(Ec2Client ec2) throws IOException {
+        List<Instance> members = new ArrayList<>();
+        for (Reservation reservation : template.getDescribeInstanceResult(
+                        ec2, StringUtils.isNotBlank(template.getSubnetId()))
+                .reservations()) {
+            for (Instance instance : reservation.instances()) {
+                if (isMember(instance) && InstanceStateName.STOPPED.equals(instance.state().name())) {
+                    members.add(instance);
+                }
+            }
+        }
+        return members;
+    }
+
+    /**
+     * Picks the members to take, the most recently parked first.
+     */
+    @NonNull
+    static List<Instance> selectToTake(@NonNull List<Instance> members, int number) {
+        return members.stream()
+                .sorted(Comparator.comparingLong(EC2WarmPool::getParkedAt).reversed())
+                .limit(number)
+                .toList();
+    }
+
+    /**
+     * Picks the members parked for longer than the maximum age, and the least recently parked ones beyond the target
+     * size.
+     */
+    @NonNull
+    List<Instance> selectToEvict(@NonNull List<Instance> members) {
+        long maxAge = TimeUnit.MINUTES.toMillis(template.getWarmPoolMaxAgeMinutes());
+        long now = clock.getAsLong();
+        List<Instance> sorted = new ArrayList<>(members);
+        sorted.sort(Comparator.comparingLong(EC2WarmPool::getParkedAt).reversed());
+        List<Instance> evicted = new ArrayList<>();
+        for (int i = 0; i < sorted.size(); i++) {
+            Instance member = sorted.get(i);
+            if (i >= template.getWarmPoolSize() || (maxAge > 0 && now - getParkedAt(member) > maxAge)) {
+                evicted.add(member);
+            }
+        }
+        return evicted;
+    }
+
+    static boolean isMember(@NonNull Instance instance) {
+        return instance.tags().stream().anyMatch(tag -> EC2Tag.TAG_NAME_JENKINS_WARM_POOL.equals(tag.key()));
+    }
+
+    /*
+     * When the instance was parked, members with an unreadable tag count as the least recently parked.
+     */
+    private static long getParkedAt(Instance instance) {
+        for (Tag tag : instance.tags()) {
+            if (EC2Tag.TAG_NAME_JENKINS_WARM_POOL.equals(tag.key())) {
+                try {
+                    return Long.parseLong(tag.value());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,36 @@
+package hudson.plugins.ec2;
+
+import software.amazon.awssdk.services.ec2.model.FleetOnDemandAllocationStrategy;
+import software.amazon.awssdk.services.ec2.model.SpotAllocationStrategy;
+
+/**
+ * How an EC2 Fleet picks among the instance types and subnets of a {@link SlaveTemplate}.
+ */
+public enum FleetAllocationStrategy {
+    /**
+     * From the pools with the most spare capacity. On-demand capacity comes from the instance types in the order
+     * they are listed.
+     */
+    CapacityOptimized(SpotAllocationStrategy.CAPACITY_OPTIMIZED, FleetOnDemandAllocationStrategy.PRIORITIZED),
+    /**
+     * From the cheapest pools.
+     */
+    LowestPrice(SpotAllocationStrategy.LOWEST_PRICE, FleetOnDemandAllocationStrategy.LOWEST_PRICE);
+
+    private final SpotAllocationStrategy spotStrategy;
+
+    private final FleetOnDemandAllocationStrategy onDemandStrategy;
+
+    FleetAllocationStrategy(SpotAllocationStrategy spotStrategy, FleetOnDemandAllocationStrategy onDemandStrategy) {
+        this.spotStrategy = spotStrategy;
+        this.onDemandStrategy = onDemandStrategy;
+    }
+
+    SpotAllocationStrategy getSpotStrategy() {
+        return spotStrategy;
+    }
+
+    FleetOnDemandAllocationStrategy getOnDemandStrategy() {
+        return onDemandStrategy;
+    }
+}
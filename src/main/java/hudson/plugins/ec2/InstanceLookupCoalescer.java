@@ -0,0 +1,343 @@
+package hudson.plugins.ec2;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Computer;
+import hudson.plugins.ec2.util.EC2ApiSubsystem;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.ec2.Ec2AsyncClient;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesResponse;
+import software.amazon.awssdk.services.ec2.model.Filter;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.Reservation;
+
+/**
+ * Coalesces single-instance lookups of an {@link EC2Cloud} into batched DescribeInstances calls.
+ * <p>
+ * The first lookup of a window schedules a task that, {@link #WINDOW_MILLIS} later, sends all the lookups that
+ * arrived in a single call of at most {@link #MAX_BATCH_SIZE} ids and completes the future of every caller from the
+ * shared response. Ids missing from the response fail with {@code InvalidInstanceID.NotFound}, as a single-instance
+ * lookup would, so that {@link CloudHelper#getInstanceWithRetry} keeps retrying them one by one.
+ * <p>
+ * {@link #getInstanceAsync} joins the same batches without holding a thread: the batch is described with the
+ * non-blocking client of the cloud, if there is one.
+ */
+final class InstanceLookupCoalescer {
+
+    private static final Logger LOGGER = Logger.getLogger(InstanceLookupCoalescer.class.getName());
+
+    static final String INSTANCE_NOT_FOUND_ERROR_CODE = "InvalidInstanceID.NotFound";
+
+    /*
+     * How long (in milliseconds) the first lookup of a batch waits for other lookups to join. 0 disables batching.
+     */
+    static final long WINDOW_MILLIS = Long.getLong("hudson.plugins.ec2.InstanceLookupCoalescer.windowMillis", 5);
+
+    /*
+     * DescribeInstances does not accept more than 1000 values per filter.
+     */
+    static final int MAX_BATCH_SIZE =
+            Math.min(Integer.getInteger("hudson.plugins.ec2.InstanceLookupCoalescer.maxBatchSize", 1000), 1000);
+
+    private final EC2Cloud cloud;
+
+    private final Executor executor;
+
+    private final long windowMillis;
+
+    private final Object lock = new Object();
+
+    @CheckForNull
+    private Map<String, CompletableFuture<Instance>> pending;
+
+    InstanceLookupCoalescer(@NonNull EC2Cloud cloud) {
+        this(cloud, Computer.threadPoolForRemoting, WINDOW_MILLIS);
+    }
+
+    InstanceLookupCoalescer(@NonNull EC2Cloud cloud, @NonNull Executor executor, long windowMillis) {
+        this.cloud = cloud;
+        this.executor = executor;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Looks up a single instance, sharing the DescribeInstances call with the lookups that arrive in the same window.
+     */
+    @CheckForNull
+    Instance getInstance(@NonNull String instanceId) throws SdkException, InterruptedException {
+        if (windowMillis <= 0) {
+            return CloudHelper.getInstance(instanceId, cloud);
+        }
+
+        // The batch may be sent from another thread, on behalf of the caller
+        EC2ApiSubsystem subsystem = EC2ApiSubsystem.current();
+        CompletableFuture<Instance> future = join(instanceId, batch -> {
+            try (EC2ApiSubsystem.Scope ignored = subsystem.enter()) {
+                execute(batch);
+            }
+        });
+
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SdkException sdkException) {
+                throw sdkException;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw SdkException.create("Failed to describe instance " + instanceId, e.getCause());
+        }
+    }
+
+    /**
+     * Looks up a single instance like {@link #getInstance}, without blocking the calling thread.
+     *
+     * @return the future instance, failed with an {@link SdkException} if the lookup failed
+     */
+    @NonNull
+    CompletableFuture<Instance> getInstanceAsync(@NonNull String instanceId) {
+        // The batch is sent from another thread, on behalf of the caller
+        EC2ApiSubsystem subsystem = EC2ApiSubsystem.current();
+        if (windowMillis <= 0) {
+            CompletableFuture<Instance> future = new CompletableFuture<>();
+            executeAsync(Map.of(instanceId, future), subsystem);
+            return future;
+        }
+
+        return join(instanceId, batch -> {
+            try (EC2ApiSubsystem.Scope ignored = subsystem.enter()) {
+                executeAsync(batch, subsystem);
+            }
+        });
+    }
+
+    /*
+     * Adds the lookup to the current batch. The batch is sent right away once full, otherwise when its window closes,
+     * the window being opened by the first lookup of the batch.
+     */
+    private CompletableFuture<Instance> join(
+            String instanceId, Consumer<Map<String, CompletableFuture<Instance>>> send) {
+        Map<String, CompletableFuture<Instance>> batch;
+        Map<String, CompletableFuture<Instance>> full = null;
+        boolean leader = false;
+        CompletableFuture<Instance> future;
+        synchronized (lock) {
+            if (pending == null) {
+                pending = new LinkedHashMap<>();
+                leader = true;
+            }
+            batch = pending;
+            future = batch.computeIfAbsent(instanceId, id -> new CompletableFuture<>());
+            if (batch.size() >= MAX_BATCH_SIZE) {
+                // Don't wait for the window to close, nothing else fits in this batch
+                full = batch;
+                pending = null;
+            }
+        }
+
+        if (full != null) {
+            send.accept(full);
+        } else if (leader) {
+            sendWhenClosed(batch, () -> send.accept(batch));
+        }
+        return future;
+    }
+
+    /*
+     * Sends the batch once its window closed, unless it was sent already because it was full.
+     */
+    private void sendWhenClosed(Map<String, CompletableFuture<Instance>> batch, Runnable send) {
+        CompletableFuture.delayedExecutor(windowMillis, TimeUnit.MILLISECONDS, executor)
+                .execute(() -> {
+                    boolean detached = false;
+                    synchronized (lock) {
+                        if (pending == batch) {
+                            pending = null;
+                            detached = true;
+                        }
+                    }
+                    if (detached) {
+                        send.run();
+                    }
+                });
+    }
+
+    /**
+     * Gets the number of lookups waiting for the current window to close.
+     */
+    int getWaiting() {
+        synchronized (lock) {
+            return pending == null ? 0 : pending.size();
+        }
+    }
+
+    /**
+     * Describes many instances at once, in calls of at most {@link #MAX_BATCH_SIZE} ids, without blocking the calling
+     * thread.
+     *
+     * @return the future instances found by id, those not found are missing
+     */
+    @NonNull
+    CompletableFuture<Map<String, Instance>> getInstancesAsync(@NonNull Collection<String> instanceIds) {
+        EC2ApiSubsystem subsystem = EC2ApiSubsystem.current();
+        Ec2AsyncClient ec2 = cloud.connectAsync();
+        List<String> ids = new ArrayList<>(instanceIds);
+        CompletableFuture<Map<String, Instance>> result = CompletableFuture.completedFuture(new HashMap<>());
+        for (int i = 0; i < ids.size(); i += MAX_BATCH_SIZE) {
+            List<String> batch = ids.subList(i, Math.min(i + MAX_BATCH_SIZE, ids.size()));
+            result = result.thenCompose(found -> {
+                if (ec2 != null) {
+                    try (EC2ApiSubsystem.Scope ignored = subsystem.enter()) {
+                        return describeAsync(ec2, describeRequest(batch), found);
+                    }
+                }
+                return CompletableFuture.supplyAsync(
+                        () -> {
+                            try (EC2ApiSubsystem.Scope ignored = subsystem.enter()) {
+                                found.putAll(describe(batch));
+                                return found;
+                            }
+                        },
+                        executor);
+            });
+        }
+        return result;
+    }
+
+    private void executeAsync(Map<String, CompletableFuture<Instance>> batch, EC2ApiSubsystem subsystem) {
+        Ec2AsyncClient ec2 = cloud.connectAsync();
+        if (ec2 == null) {
+            executor.execute(() -> {
+                try (EC2ApiSubsystem.Scope ignored = subsystem.enter()) {
+                    execute(batch);
+                }
+            });
+            return;
+        }
+
+        List<String> instanceIds = new ArrayList<>(batch.keySet());
+        describeAsync(ec2, describeRequest(instanceIds), new HashMap<>()).whenComplete((found, e) -> {
+            if (e != null) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                SdkException failure = cause instanceof SdkException sdkException
+                        ? sdkException
+                        : SdkException.create("Failed to describe instances " + instanceIds, cause);
+                batch.values().forEach(f -> f.completeExceptionally(failure));
+            } else {
+                complete(batch, found);
+            }
+        });
+    }
+
+    private static CompletableFuture<Map<String, Instance>> describeAsync(
+            Ec2AsyncClient ec2, DescribeInstancesRequest request, Map<String, Instance> found) {
+        return ec2.describeInstances(request).thenCompose(result -> {
+            for (Reservation r : result.reservations()) {
+                for (Instance i : r.instances()) {
+                    found.put(i.instanceId(), i);
+                }
+            }
+            if (result.nextToken() == null) {
+                return CompletableFuture.completedFuture(found);
+            }
+            return describeAsync(
+                    ec2, request.toBuilder().nextToken(result.nextToken()).build(), found);
+        });
+    }
+
+    private void execute(Map<String, CompletableFuture<Instance>> batch) {
+        if (batch.size() == 1) {
+            // Nothing to share, keep the exact semantics of a single-instance lookup
+            Map.Entry<String, CompletableFuture<Instance>> entry =
+                    batch.entrySet().iterator().next();
+            try {
+                entry.getValue().complete(CloudHelper.getInstance(entry.getKey(), cloud));
+            } catch (Throwable e) {
+                entry.getValue().completeExceptionally(e);
+                rethrowIfError(e);
+            }
+            return;
+        }
+
+        List<String> instanceIds = new ArrayList<>(batch.keySet());
+        try {
+            complete(batch, describe(instanceIds));
+        } catch (Throwable e) {
+            // Whatever happened, nobody is left waiting on this batch
+            batch.values().forEach(f -> f.completeExceptionally(e));
+            rethrowIfError(e);
+        }
+    }
+
+    private static void rethrowIfError(Throwable e) {
+        if (e instanceof Error error) {
+            throw error;
+        }
+    }
+
+    private void complete(Map<String, CompletableFuture<Instance>> batch, Map<String, Instance> found) {
+        LOGGER.log(Level.FINE, "Coalesced lookup of {0} instances in cloud {1}, {2} found", new Object[] {
+            batch.size(), cloud.getDisplayName(), found.size()
+        });
+        for (Map.Entry<String, CompletableFuture<Instance>> entry : batch.entrySet()) {
+            Instance instance = found.get(entry.getKey());
+            if (instance != null) {
+                entry.getValue().complete(instance);
+            } else {
+                entry.getValue().completeExceptionally(notFound(entry.getKey()));
+            }
+        }
+    }
+
+    private static DescribeInstancesRequest describeRequest(List<String> instanceIds) {
+        // Filtering by instance id, unlike passing the ids, does not fail the whole call if one of them is unknown
+        return DescribeInstancesRequest.builder()
+                .filters(Filter.builder().name("instance-id").values(instanceIds).build())
+                .build();
+    }
+
+    private Map<String, Instance> describe(List<String> instanceIds) throws SdkException {
+        DescribeInstancesRequest request = describeRequest(instanceIds);
+        Map<String, Instance> found = new HashMap<>();
+        DescribeInstancesResponse result;
+        do {
+            result = cloud.connect().describeInstances(request);
+            for (Reservation r : result.reservations()) {
+                for (Instance i : r.instances()) {
+                    found.put(i.instanceId(), i);
+                }
+            }
+            request = request.toBuilder().nextToken(result.nextToken()).build();
+        } while (result.nextToken() != null);
+        return found;
+    }
+
+    private static AwsServiceException notFound(String instanceId) {
+        String message = "The instance ID '" + instanceId + "' does not exist";
+        return AwsServiceException.builder()
+                .message(message)
+                .awsErrorDetails(AwsErrorDetails.builder()
+                        .errorCode(INSTANCE_NOT_FOUND_ERROR_CODE)
+                        .errorMessage(message)
+                        .build())
+                .build();
+    }
+}
@@ -5,15 +5,24 @@ import hudson.model.Label;
 import hudson.model.LoadStatistics;
 import hudson.slaves.Cloud;
 import hudson.slaves.NodeProvisioner;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import jenkins.model.Jenkins;
+import software.amazon.awssdk.core.exception.SdkException;
 
 /**
  * Implementation of {@link NodeProvisioner.Strategy} which will provision a new node immediately as
  * a task enter the queue.
  * Now that EC2 is billed by the minute, we don't really need to wait before provisioning a new node.
+ * <p>
+ * When several EC2 clouds can provision the label, the demand is spread over them in proportion to their
+ * {@link EC2Cloud#getProvisioningWeight() provisioning weight}, each one taking no more than its
+ * {@link EC2Cloud#getHeadroom(Label) headroom}. The demand is split in whole agents, of as many executors as the first
+ * template of each cloud for the label has, since that is what a cloud launches for any part of an agent. What a cloud
+ * fails to launch is spread over the others, until the demand is covered or none of them can launch more.
  *
  * @author <a href="mailto:nicolas.deloof@gmail.com">Nicolas De Loof</a>
  */
@@ -37,8 +46,10 @@ public class NoDelayProvisionerStrategy extends NodeProvisioner.Strategy {
                 Level.FINE, "Available capacity={0}, currentDemand={1}", new Object[] {availableCapacity, currentDemand
                 });
         if (availableCapacity < currentDemand) {
-            Jenkins jenkinsInstance = Jenkins.get();
-            for (Cloud cloud : jenkinsInstance.clouds) {
+            List<EC2Cloud> clouds = new ArrayList<>();
+            List<Integer> headrooms = new ArrayList<>();
+            List<Integer> nodeSizes = new ArrayList<>();
+            for (Cloud cloud : Jenkins.get().clouds) {
                 if (!(cloud instanceof EC2Cloud ec2)) {
                     continue;
                 }
@@ -48,16 +59,56 @@ public class NoDelayProvisionerStrategy extends NodeProvisioner.Strategy {
                 if (!ec2.isNoDelayProvisioning()) {
                     continue;
                 }
+                int headroom = getHeadroom(ec2, label);
+                if (headroom > 0) {
+                    clouds.add(ec2);
+                    headrooms.add(headroom);
+                    nodeSizes.add(getNodeSize(ec2, label));
+                }
+            }
 
-                Collection<NodeProvisioner.PlannedNode> plannedNodes =
-                        cloud.provision(new Cloud.CloudState(label, 0), currentDemand - availableCapacity);
-                LOGGER.log(Level.FINE, "Planned {0} new nodes", plannedNodes.size());
-                strategyState.recordPendingLaunches(plannedNodes);
-                availableCapacity += plannedNodes.size();
+            while (availableCapacity < currentDemand && !clouds.isEmpty()) {
+                int[] shares = split(
+                        clouds.stream().map(EC2Cloud::getProvisioningWeight).toList(),
+                        nodeSizes,
+                        headrooms,
+                        currentDemand - availableCapacity);
+                List<EC2Cloud> remaining = new ArrayList<>();
+                List<Integer> remainingHeadrooms = new ArrayList<>();
+                List<Integer> remainingNodeSizes = new ArrayList<>();
+                for (int i = 0; i < clouds.size(); i++) {
+                    EC2Cloud cloud = clouds.get(i);
+                    int headroom = headrooms.get(i);
+                    if (shares[i] <= 0) {
+                        remaining.add(cloud);
+                        remainingHeadrooms.add(headroom);
+                        remainingNodeSizes.add(nodeSizes.get(i));
+                        continue;
+                    }
+                    Collection<NodeProvisioner.PlannedNode> plannedNodes =
+                            cloud.provision(new Cloud.CloudState(label, 0), shares[i]);
+                    LOGGER.log(Level.FINE, "Planned {0} new nodes in cloud {1} for a share of {2}", new Object[] {
+                        plannedNodes.size(), cloud.getDisplayName(), shares[i]
+                    });
+                    strategyState.recordPendingLaunches(plannedNodes);
+                    int planned = 0;
+                    for (NodeProvisioner.PlannedNode plannedNode : plannedNodes) {
+                        planned += plannedNode.numExecutors;
+                    }
+                    availableCapacity += planned;
+                    // Unless it is capped, out of capacity or failing, it can take more of what is left
+                    if (planned > 0 && planned < headroom) {
+                        remaining.add(cloud);
+                        remainingHeadrooms.add(headroom - planned);
+                        remainingNodeSizes.add(nodeSizes.get(i));
+                    }
+                }
+                clouds = remaining;
+                headrooms = remainingHeadrooms;
+                nodeSizes = remainingNodeSizes;
                 LOGGER.log(Level.FINE, "After provisioning, available capacity={0}, currentDemand={1}", new Object[] {
                     availableCapacity, currentDemand
                 });
-                break;
             }
         }
         if (availableCapacity >= currentDemand) {
@@ -68,4 +119,59 @@ public class NoDelayProvisionerStrategy extends NodeProvisioner.Strategy {
             return NodeProvisioner.StrategyDecision.CONSULT_REMAINING_STRATEGIES;
         }
     }
+
+    private static int getHeadroom(EC2Cloud cloud, Label label) {
+        try {
+            return cloud.getHeadroom(label);
+        } catch (SdkException e) {
+            // Provisioning will tell whether it can launch anything
+            LOGGER.log(Level.FINE, "Failed to count the instances of cloud " + cloud.getDisplayName(), e);
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    /*
+     * The executors of the agents the cloud launches first for the label.
+     */
+    private static int getNodeSize(EC2Cloud cloud, Label label) {
+        Collection<SlaveTemplate> templates = cloud.getTemplates(label);
+        return templates.isEmpty()
+                ? 1
+                : Math.max(templates.iterator().next().getNumExecutors(), 1);
+    }
+
+    /**
+     * Splits the demand in proportion to the weights, in whole agents, each share being no more than its headroom.
+     * <p>
+     * Each agent goes to the cloud whose share, with that agent, is the smallest for its weight, so that the shares
+     * follow the weights as closely as agents allow, and an agent the weights cannot settle goes to the first cloud.
+     * The last agents may cover more than the demand, never by a whole agent.
+     *
+     * @param nodeSizes the executors of an agent of each cloud
+     * @return the share of each cloud, in executors
+     */
+    static int[] split(List<Integer> weights, List<Integer> nodeSizes, List<Integer> headrooms, int demand) {
+        int[] shares = new int[weights.size()];
+        int left = demand;
+        while (left > 0) {
+            int chosen = -1;
+            for (int i = 0; i < weights.size(); i++) {
+                if (shares[i] >= headrooms.get(i)) {
+                    continue;
+                }
+                if (chosen < 0
+                        || (long) (shares[i] + nodeSizes.get(i)) * weights.get(chosen)
+                                < (long) (shares[chosen] + nodeSizes.get(chosen)) * weights.get(i)) {
+                    chosen = i;
+                }
+            }
+            if (chosen < 0) {
+                // None can launch more
+                break;
+            }
+            shares[chosen] += nodeSizes.get(chosen);
+            left -= nodeSizes.get(chosen);
+        }
+        return shares;
+    }
 }
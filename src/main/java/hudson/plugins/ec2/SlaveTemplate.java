@@ -34,10 +34,11 @@ import hudson.model.Saveable;
 import hudson.model.TaskListener;
 import hudson.model.labels.LabelAtom;
 import hudson.model.listeners.SaveableListener;
-import hudson.plugins.ec2.util.AmazonEC2Factory;
 import hudson.plugins.ec2.util.DeviceMappingParser;
 import hudson.plugins.ec2.util.EC2AgentConfig;
 import hudson.plugins.ec2.util.EC2AgentFactory;
+import hudson.plugins.ec2.util.EC2ApiSubsystem;
+import hudson.plugins.ec2.util.EC2ClientRegistry;
 import hudson.plugins.ec2.util.InstanceTypeCompat;
 import hudson.plugins.ec2.util.KeyPair;
 import hudson.plugins.ec2.util.MinimumInstanceChecker;
@@ -56,17 +57,17 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
-import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -83,24 +84,16 @@ import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.Stapler;
 import org.kohsuke.stapler.interceptor.RequirePOST;
 import org.kohsuke.stapler.verb.POST;
-import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.awscore.exception.AwsServiceException;
 import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.services.ec2.Ec2Client;
 import software.amazon.awssdk.services.ec2.model.BlockDeviceMapping;
-import software.amazon.awssdk.services.ec2.model.CancelSpotInstanceRequestsRequest;
-import software.amazon.awssdk.services.ec2.model.CreateTagsRequest;
 import software.amazon.awssdk.services.ec2.model.CreditSpecificationRequest;
 import software.amazon.awssdk.services.ec2.model.DescribeImagesRequest;
 import software.amazon.awssdk.services.ec2.model.DescribeInstanceTypesRequest;
 import software.amazon.awssdk.services.ec2.model.DescribeInstanceTypesResponse;
 import software.amazon.awssdk.services.ec2.model.DescribeInstancesRequest;
 import software.amazon.awssdk.services.ec2.model.DescribeInstancesResponse;
-import software.amazon.awssdk.services.ec2.model.DescribeSecurityGroupsRequest;
-import software.amazon.awssdk.services.ec2.model.DescribeSecurityGroupsResponse;
-import software.amazon.awssdk.services.ec2.model.DescribeSpotInstanceRequestsRequest;
-import software.amazon.awssdk.services.ec2.model.DescribeSubnetsRequest;
-import software.amazon.awssdk.services.ec2.model.DescribeSubnetsResponse;
 import software.amazon.awssdk.services.ec2.model.DeviceType;
 import software.amazon.awssdk.services.ec2.model.EbsBlockDevice;
 import software.amazon.awssdk.services.ec2.model.Ec2Exception;
@@ -121,9 +114,6 @@ import software.amazon.awssdk.services.ec2.model.InstanceTypeInfo;
 import software.amazon.awssdk.services.ec2.model.MarketType;
 import software.amazon.awssdk.services.ec2.model.NitroEnclavesSupport;
 import software.amazon.awssdk.services.ec2.model.Placement;
-import software.amazon.awssdk.services.ec2.model.RequestSpotInstancesRequest;
-import software.amazon.awssdk.services.ec2.model.RequestSpotInstancesResponse;
-import software.amazon.awssdk.services.ec2.model.RequestSpotLaunchSpecification;
 import software.amazon.awssdk.services.ec2.model.Reservation;
 import software.amazon.awssdk.services.ec2.model.ResourceType;
 import software.amazon.awssdk.services.ec2.model.RunInstancesMonitoringEnabled;
@@ -132,10 +122,8 @@ import software.amazon.awssdk.services.ec2.model.SecurityGroup;
 import software.amazon.awssdk.services.ec2.model.ShutdownBehavior;
 import software.amazon.awssdk.services.ec2.model.SpotInstanceRequest;
 import software.amazon.awssdk.services.ec2.model.SpotMarketOptions;
-import software.amazon.awssdk.services.ec2.model.SpotPlacement;
 import software.amazon.awssdk.services.ec2.model.StartInstancesRequest;
 import software.amazon.awssdk.services.ec2.model.StartInstancesResponse;
-import software.amazon.awssdk.services.ec2.model.Subnet;
 import software.amazon.awssdk.services.ec2.model.Tag;
 import software.amazon.awssdk.services.ec2.model.TagSpecification;
 
@@ -149,6 +137,12 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
 
     private static final String EC2_RESOURCE_ID_DELIMETERS = "[\\s,;]+";
 
+    /*
+     * The errors of a spot launch that fall back to on-demand, if enabled.
+     */
+    private static final Set<String> SPOT_FALLBACK_ERRORS =
+            Set.of("InsufficientInstanceCapacity", "MaxSpotInstanceCountExceeded", "SpotMaxPriceTooLow");
+
     public String ami;
 
     public final String description;
@@ -251,10 +245,37 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
 
     private Boolean enclaveEnabled;
 
+    private int warmPoolSize;
+
+    private int warmPoolMaxAgeMinutes;
+
+    private boolean useFleet;
+
+    private String fleetInstanceTypes;
+
+    private FleetAllocationStrategy fleetAllocationStrategy;
+
+    private int predictiveInstanceCap;
+
     private transient /* almost final */ Set<LabelAtom> labelSet;
 
     private transient /* almost final */ Set<String> securityGroupSet;
 
+    private transient volatile EC2ImageCache imageCache;
+
+    private transient volatile EC2NetworkCache networkCache;
+
+    private transient volatile EC2WarmPool warmPool;
+
+    private transient volatile EC2FleetLauncher fleetLauncher;
+
+    private transient volatile EC2SubnetAllocator subnetAllocator;
+
+    /*
+     * The launch specification compiled for each subnet, by subnet id.
+     */
+    private transient volatile Map<String, CompiledLaunch> compiledLaunches;
+
     /* FIXME: Ideally these would be List<String>, but Jenkins currently
      * doesn't offer a usable way to represent those in forms. Instead
      * the values are interpreted as a comma separated list.
@@ -1614,13 +1635,10 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
         if (StringUtils.isBlank(subnetId)) {
             return null;
         } else {
-            String[] subnetIdList = getSubnetId().split(EC2_RESOURCE_ID_DELIMETERS);
-
-            // Round-robin subnet selection.
-            currentSubnetId = subnetIdList[nextSubnet];
-            nextSubnet = (nextSubnet + 1) % subnetIdList.length;
-
-            return currentSubnetId;
+            // The healthiest subnet, round-robin among equals
+            String chosen = getSubnetAllocator().choose(getSubnetIdList());
+            currentSubnetId = chosen;
+            return chosen;
         }
     }
 
@@ -1636,6 +1654,13 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
         return subnetId;
     }
 
+    @NonNull
+    List<String> getSubnetIdList() {
+        return StringUtils.isBlank(subnetId)
+                ? Collections.emptyList()
+                : Arrays.asList(subnetId.trim().split(EC2_RESOURCE_ID_DELIMETERS));
+    }
+
     public String getCurrentSubnetId() {
         return currentSubnetId;
     }
@@ -1822,6 +1847,85 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
         this.avoidUsingOrphanedNodes = avoidUsingOrphanedNodes;
     }
 
+    public int getWarmPoolSize() {
+        return warmPoolSize;
+    }
+
+    @DataBoundSetter
+    public void setWarmPoolSize(int warmPoolSize) {
+        this.warmPoolSize = Math.max(warmPoolSize, 0);
+    }
+
+    public int getWarmPoolMaxAgeMinutes() {
+        return warmPoolMaxAgeMinutes;
+    }
+
+    @DataBoundSetter
+    public void setWarmPoolMaxAgeMinutes(int warmPoolMaxAgeMinutes) {
+        this.warmPoolMaxAgeMinutes = Math.max(warmPoolMaxAgeMinutes, 0);
+    }
+
+    public boolean isUseFleet() {
+        return useFleet;
+    }
+
+    @DataBoundSetter
+    public void setUseFleet(boolean useFleet) {
+        this.useFleet = useFleet;
+    }
+
+    public String getFleetInstanceTypes() {
+        return fleetInstanceTypes;
+    }
+
+    @DataBoundSetter
+    public void setFleetInstanceTypes(String fleetInstanceTypes) {
+        this.fleetInstanceTypes = Util.fixEmptyAndTrim(fleetInstanceTypes);
+    }
+
+    @NonNull
+    public FleetAllocationStrategy getFleetAllocationStrategy() {
+        return fleetAllocationStrategy != null ? fleetAllocationStrategy : FleetAllocationStrategy.CapacityOptimized;
+    }
+
+    @DataBoundSetter
+    public void setFleetAllocationStrategy(FleetAllocationStrategy fleetAllocationStrategy) {
+        this.fleetAllocationStrategy = fleetAllocationStrategy;
+    }
+
+    public int getPredictiveInstanceCap() {
+        return predictiveInstanceCap;
+    }
+
+    @DataBoundSetter
+    public void setPredictiveInstanceCap(int predictiveInstanceCap) {
+        this.predictiveInstanceCap = Math.max(predictiveInstanceCap, 0);
+    }
+
+    /**
+     * Gets the instance types a fleet launches, the type of this template first.
+     */
+    @NonNull
+    List<String> getFleetInstanceTypeList() {
+        Set<String> types = new LinkedHashSet<>();
+        types.add(type);
+        if (fleetInstanceTypes != null) {
+            for (String t : fleetInstanceTypes.split(EC2_RESOURCE_ID_DELIMETERS)) {
+                if (!t.isEmpty()) {
+                    types.add(t);
+                }
+            }
+        }
+        return new ArrayList<>(types);
+    }
+
+    /**
+     * Whether this template keeps stopped instances ready to start, only on-demand templates do.
+     */
+    public boolean isWarmPoolEnabled() {
+        return warmPoolSize > 0 && spotConfig == null;
+    }
+
     @Override
     public String toString() {
         return "SlaveTemplate{" + "description='" + description + '\'' + ", labels='" + labels + '\'' + '}';
@@ -1877,14 +1981,30 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
     public List<EC2AbstractSlave> provision(int number, EnumSet<ProvisionOptions> provisionOptions)
             throws SdkException, IOException {
         final Image image = getImage();
-        if (this.spotConfig != null) {
-            if (provisionOptions.contains(ProvisionOptions.ALLOW_CREATE)
-                    || provisionOptions.contains(ProvisionOptions.FORCE_CREATE)) {
-                return provisionSpot(image, number, provisionOptions);
+        try {
+            if (this.spotConfig != null) {
+                if (provisionOptions.contains(ProvisionOptions.ALLOW_CREATE)
+                        || provisionOptions.contains(ProvisionOptions.FORCE_CREATE)) {
+                    return provisionSpot(image, number, provisionOptions);
+                }
+                return Collections.emptyList();
+            }
+            return provisionOndemand(image, number, provisionOptions);
+        } catch (AwsServiceException e) {
+            if (EC2KeyPairCache.isInvalidKeyPairError(e)) {
+                // The key pair may have been deleted or replaced, look it up again next time
+                getParent().invalidateKeyPair();
             }
-            return Collections.emptyList();
+            throw e;
         }
-        return provisionOndemand(image, number, provisionOptions);
+    }
+
+    /**
+     * Looks up the image, key pair and security groups this template launches with, so that a later
+     * {@link #provision} finds them cached.
+     */
+    void prepare() throws SdkException, IOException {
+        makeRunInstancesRequestAndFilters(getImage(), 1, getParent().connect(), false);
     }
 
     /**
@@ -1935,11 +2055,78 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
 
     HashMap<RunInstancesRequest, List<Filter>> makeRunInstancesRequestAndFilters(
             Image image, int number, Ec2Client ec2, boolean rotateSubnet) throws IOException {
+        if (rotateSubnet) {
+            getSubnetAllocator().refreshAvailableIps(ec2, getSubnetIdList());
+        }
+        return makeSubnetRunInstancesRequestAndFilters(image, number, ec2, chooseSubnetId(rotateSubnet));
+    }
+
+    private HashMap<RunInstancesRequest, List<Filter>> makeSubnetRunInstancesRequestAndFilters(
+            Image image, int number, Ec2Client ec2, @CheckForNull String subnetId) throws IOException {
+        KeyPair keyPair = getKeyPair(ec2);
+        if (keyPair == null) {
+            logProvisionInfo("Could not retrieve a valid key pair.");
+            return null;
+        }
+        String keyName = keyPair.getKeyPairInfo().keyName();
+
+        LOGGER.log(Level.FINE, () -> String.format("Chose subnetId %s", subnetId));
+
+        List<String> groupIds;
+        if (StringUtils.isNotBlank(subnetId)) {
+            /*
+             * If we have a subnet ID then we can only use VPC security groups
+             */
+            groupIds = getSecurityGroupSet().isEmpty() ? Collections.emptyList() : getEc2SecurityGroups(ec2, subnetId);
+        } else {
+            groupIds = getNetworkCache().getSecurityGroups(securityGroupSet, false, ec2).stream()
+                    .map(SecurityGroup::groupId)
+                    .collect(Collectors.toList());
+        }
+
+        CompiledLaunch launch = getCompiledLaunch(image, keyName, subnetId, groupIds);
+        HashMap<RunInstancesRequest, List<Filter>> ret = new HashMap<>();
+        // Only the count differs between launches, callers may add their own filters
+        ret.put(launch.request.toBuilder().maxCount(number).build(), new ArrayList<>(launch.filters));
+        return ret;
+    }
+
+    private CompiledLaunch getCompiledLaunch(Image image, String keyName, String subnetId, List<String> groupIds) {
+        String jenkinsUrl = JenkinsLocationConfiguration.get().getUrl();
+        Map<String, CompiledLaunch> launches = getCompiledLaunches();
+        String key = String.valueOf(subnetId);
+        CompiledLaunch launch = launches.get(key);
+        if (launch == null || !launch.matches(image.imageId(), keyName, groupIds, jenkinsUrl)) {
+            launch = compileLaunch(image, keyName, subnetId, groupIds, jenkinsUrl);
+            launches.put(key, launch);
+        }
+        return launch;
+    }
+
+    private Map<String, CompiledLaunch> getCompiledLaunches() {
+        Map<String, CompiledLaunch> result = compiledLaunches;
+        if (result == null) {
+            synchronized (this) {
+                result = compiledLaunches;
+                if (result == null) {
+                    compiledLaunches = result = new ConcurrentHashMap<>();
+                }
+            }
+        }
+        return result;
+    }
+
+    /*
+     * Builds the RunInstancesRequest for a single instance, and the filters of the matching instances, from the
+     * configuration of this template and what was resolved from EC2.
+     */
+    private CompiledLaunch compileLaunch(
+            Image image, String keyName, String subnetId, List<String> groupIds, String jenkinsUrl) {
         String imageId = image.imageId();
         RunInstancesRequest.Builder riRequestBuilder = RunInstancesRequest.builder()
                 .imageId(image.imageId())
                 .minCount(1)
-                .maxCount(number)
+                .maxCount(1)
                 .instanceType(type)
                 .ebsOptimized(ebsOptimized)
                 .monitoring(RunInstancesMonitoringEnabled.builder()
@@ -1966,16 +2153,11 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
         diFilters.add(Filter.builder().name("image-id").values(imageId).build());
         diFilters.add(Filter.builder().name("instance-type").values(type).build());
 
-        KeyPair keyPair = getKeyPair(ec2);
-        if (keyPair == null) {
-            logProvisionInfo("Could not retrieve a valid key pair.");
-            return null;
-        }
         riRequestBuilder.userData(Base64.getEncoder().encodeToString(userData.getBytes(StandardCharsets.UTF_8)));
-        riRequestBuilder.keyName(keyPair.getKeyPairInfo().keyName());
+        riRequestBuilder.keyName(keyName);
         diFilters.add(Filter.builder()
                 .name("key-name")
-                .values(keyPair.getKeyPairInfo().keyName())
+                .values(keyName)
                 .build());
 
         Placement.Builder placementBuilder = Placement.builder();
@@ -2006,9 +2188,6 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
                     .build());
         }
 
-        String subnetId = chooseSubnetId(rotateSubnet);
-        LOGGER.log(Level.FINE, () -> String.format("Chose subnetId %s", subnetId));
-
         InstanceNetworkInterfaceSpecification.Builder netBuilder = InstanceNetworkInterfaceSpecification.builder();
         if (StringUtils.isNotBlank(subnetId)) {
             if (getAssociatePublicIp()) {
@@ -2019,29 +2198,19 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
 
             diFilters.add(Filter.builder().name("subnet-id").values(subnetId).build());
 
-            /*
-             * If we have a subnet ID then we can only use VPC security groups
-             */
-            if (!getSecurityGroupSet().isEmpty()) {
-                List<String> groupIds = getEc2SecurityGroups(ec2);
-
-                if (!groupIds.isEmpty()) {
-                    if (getAssociatePublicIp()) {
-                        netBuilder.groups(groupIds);
-                    } else {
-                        riRequestBuilder.securityGroupIds(groupIds);
-                    }
-
-                    diFilters.add(Filter.builder()
-                            .name("instance.group-id")
-                            .values(groupIds)
-                            .build());
+            if (!groupIds.isEmpty()) {
+                if (getAssociatePublicIp()) {
+                    netBuilder.groups(groupIds);
+                } else {
+                    riRequestBuilder.securityGroupIds(groupIds);
                 }
+
+                diFilters.add(Filter.builder()
+                        .name("instance.group-id")
+                        .values(groupIds)
+                        .build());
             }
         } else {
-            List<String> groupIds = getSecurityGroupsBy("group-name", securityGroupSet, ec2).securityGroups().stream()
-                    .map(SecurityGroup::groupId)
-                    .collect(Collectors.toList());
             if (getAssociatePublicIp()) {
                 netBuilder.groups(groupIds);
             } else {
@@ -2111,9 +2280,7 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
             riRequestBuilder.enclaveOptions(enclaveOptionsRequestBuilder.build());
         }
 
-        HashMap<RunInstancesRequest, List<Filter>> ret = new HashMap<>();
-        ret.put(riRequestBuilder.build(), diFilters);
-        return ret;
+        return new CompiledLaunch(riRequestBuilder.build(), diFilters, imageId, keyName, groupIds, jenkinsUrl);
     }
 
     @Deprecated
@@ -2137,7 +2304,7 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
             Image image,
             int number,
             EnumSet<ProvisionOptions> provisionOptions,
-            boolean spotWithoutBidPrice,
+            boolean spot,
             boolean fallbackSpotToOndemand)
             throws IOException {
         Ec2Client ec2 = getParent().connect();
@@ -2150,6 +2317,13 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
         RunInstancesRequest riRequest = entry.getKey();
         List<Filter> diFilters = entry.getValue();
 
+        // Initialized instances start the fastest
+        List<Instance> warm = spot ? Collections.emptyList() : getWarmPool().take(ec2, number);
+        if (warm.size() == number) {
+            return toSlaves(warm);
+        }
+        Set<String> warmIds = warm.stream().map(Instance::instanceId).collect(Collectors.toSet());
+
         DescribeInstancesRequest diRequest =
                 DescribeInstancesRequest.builder().filters(diFilters).build();
 
@@ -2158,9 +2332,10 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
         DescribeInstancesResponse diResult = ec2.describeInstances(diRequest);
         List<Instance> orphansOrStopped = new ArrayList<>();
         if (!avoidUsingOrphanedNodes) {
-            orphansOrStopped = findOrphansOrStopped(diResult, number);
+            orphansOrStopped = findOrphansOrStopped(diResult, number - warm.size(), warmIds);
 
             if (orphansOrStopped.isEmpty()
+                    && warm.isEmpty()
                     && !provisionOptions.contains(ProvisionOptions.FORCE_CREATE)
                     && !provisionOptions.contains(ProvisionOptions.ALLOW_CREATE)) {
                 logProvisionInfo("No existing instance found - but cannot create new instance");
@@ -2168,38 +2343,167 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
             }
 
             wakeOrphansOrStoppedUp(ec2, orphansOrStopped);
+        }
+        orphansOrStopped.addAll(warm);
+        if (orphansOrStopped.size() == number) {
+            return toSlaves(orphansOrStopped);
+        }
+
+        if (useFleet) {
+            List<EC2AbstractSlave> slaves = toSlaves(orphansOrStopped);
+            slaves.addAll(toSpotOrOndemandSlaves(launchWithFleet(
+                    ec2, riRequest, number - orphansOrStopped.size(), spot, fallbackSpotToOndemand)));
+            return slaves;
+        }
+
+        List<Instance> newInstances = launchAcrossSubnets(
+                ec2, image, number - orphansOrStopped.size(), spot, fallbackSpotToOndemand);
+        // Have to create a new instance
+
+        if (newInstances.isEmpty()) {
+            logProvisionInfo("No new instances were created");
+        }
+
+        newInstances.addAll(orphansOrStopped);
 
-            if (orphansOrStopped.size() == number) {
-                return toSlaves(orphansOrStopped);
+        if (spot && spotConfig != null && spotConfig.useBidPrice) {
+            // Spot agents, but for the ones that fell back to on-demand
+            return toSpotOrOndemandSlaves(newInstances);
+        }
+        return toSlaves(newInstances);
+    }
+
+    /**
+     * Launches up to {@code number} instances, split across the subnets of this template the
+     * {@link EC2SubnetAllocator} finds healthiest. What a subnet could not launch for lack of capacity is launched into
+     * the others. Spot instances fall back to on-demand only once every subnet ran out of spot capacity.
+     */
+    private List<Instance> launchAcrossSubnets(
+            Ec2Client ec2, Image image, int number, boolean spot, boolean fallbackSpotToOndemand)
+            throws IOException {
+        List<String> subnetIds = getSubnetIdList();
+        if (subnetIds.isEmpty()) {
+            RunInstancesRequest riRequest = makeSubnetRunInstancesRequestAndFilters(image, number, ec2, null)
+                    .keySet()
+                    .iterator()
+                    .next();
+            return runInstances(ec2, riRequest, spot, fallbackSpotToOndemand);
+        }
+
+        EC2SubnetAllocator allocator = getSubnetAllocator();
+        allocator.refreshAvailableIps(ec2, subnetIds);
+        List<Instance> launched = new ArrayList<>();
+        SdkException capacityFailure = launchIntoSubnets(ec2, image, subnetIds, allocator, number, spot, launched);
+        if (spot && fallbackSpotToOndemand && capacityFailure != null && launched.size() < number) {
+            logProvisionInfo("There is no spot capacity available matching your request in any subnet, falling back "
+                    + "to on-demand instances for " + (number - launched.size()) + " instances.");
+            capacityFailure = launchIntoSubnets(
+                    ec2, image, subnetIds, allocator, number - launched.size(), false, launched);
+        }
+        if (launched.isEmpty() && capacityFailure != null) {
+            throw capacityFailure;
+        }
+        return launched;
+    }
+
+    /**
+     * Launches up to {@code number} instances into the given subnets, each one being tried once, adding them to
+     * {@code launched}.
+     *
+     * @return the last failure for lack of capacity if not all the instances could be launched, null if they all were
+     *     or launching stopped on another error after some were launched
+     * @throws SdkException if launching failed on another error before any instance was launched
+     */
+    @CheckForNull
+    private SdkException launchIntoSubnets(
+            Ec2Client ec2,
+            Image image,
+            List<String> subnetIds,
+            EC2SubnetAllocator allocator,
+            int number,
+            boolean spot,
+            List<Instance> launched)
+            throws IOException {
+        List<String> untried = new ArrayList<>(subnetIds);
+        SdkException capacityFailure = null;
+        int remaining = number;
+        while (remaining > 0 && !untried.isEmpty()) {
+            for (Map.Entry<String, Integer> share :
+                    allocator.split(untried, remaining).entrySet()) {
+                String shareSubnetId = share.getKey();
+                untried.remove(shareSubnetId);
+                RunInstancesRequest riRequest = makeSubnetRunInstancesRequestAndFilters(
+                                image, share.getValue(), ec2, shareSubnetId)
+                        .keySet()
+                        .iterator()
+                        .next();
+                try (EC2SubnetAllocator.InFlight ignored = allocator.launching(shareSubnetId, share.getValue())) {
+                    List<Instance> instances = runInstances(ec2, riRequest, spot, false);
+                    allocator.launched(shareSubnetId, instances.size());
+                    launched.addAll(instances);
+                    remaining -= instances.size();
+                } catch (SdkException e) {
+                    allocator.failed(shareSubnetId, e);
+                    String errorCode = EC2SubnetAllocator.getErrorCode(e);
+                    if (!EC2SubnetAllocator.isCapacityError(errorCode)
+                            && !(spot && SPOT_FALLBACK_ERRORS.contains(errorCode))) {
+                        if (launched.isEmpty()) {
+                            throw e;
+                        }
+                        // Keep what was launched
+                        logProvisionInfo(
+                                "Stopped launching after " + launched.size() + " instances: " + e.getMessage());
+                        return null;
+                    }
+                    logProvisionInfo("Subnet " + shareSubnetId + " is out of " + (spot ? "spot " : "")
+                            + "capacity, launching " + share.getValue() + " instances into the others: "
+                            + e.getMessage());
+                    capacityFailure = e;
+                }
             }
         }
+        return remaining > 0 ? capacityFailure : null;
+    }
 
+    private List<Instance> runInstances(
+            Ec2Client ec2, RunInstancesRequest riRequest, boolean spot, boolean fallbackSpotToOndemand) {
         RunInstancesRequest.Builder riRequestBuilder = riRequest.toBuilder();
-        riRequestBuilder.maxCount(number - orphansOrStopped.size());
 
         List<Instance> newInstances;
-        if (spotWithoutBidPrice) {
+        if (spot) {
+            SpotMarketOptions.Builder spotOptions = SpotMarketOptions.builder();
+            boolean hasSpotOptions = false;
+            if (getSpotBlockReservationDuration() != 0) {
+                spotOptions.blockDurationMinutes(getSpotBlockReservationDuration() * 60);
+                hasSpotOptions = true;
+            }
+            if (spotConfig != null && spotConfig.useBidPrice) {
+                spotOptions.maxPrice(getSpotMaxBidPrice());
+                hasSpotOptions = true;
+            }
             InstanceMarketOptionsRequest.Builder instanceMarketOptionsRequestBuilder =
                     InstanceMarketOptionsRequest.builder().marketType(MarketType.SPOT);
-            if (getSpotBlockReservationDuration() != 0) {
-                SpotMarketOptions spotOptions = SpotMarketOptions.builder()
-                        .blockDurationMinutes(getSpotBlockReservationDuration() * 60)
-                        .build();
-                instanceMarketOptionsRequestBuilder.spotOptions(spotOptions);
+            if (hasSpotOptions) {
+                instanceMarketOptionsRequestBuilder.spotOptions(spotOptions.build());
             }
             riRequestBuilder.instanceMarketOptions(instanceMarketOptionsRequestBuilder.build());
+
+            // The spot requests are tagged as the ones of RequestSpotInstances were
+            List<TagSpecification> tagSpecifications = new ArrayList<>(riRequest.tagSpecifications());
+            tagSpecifications.add(TagSpecification.builder()
+                    .tags(buildTags(EC2Cloud.EC2_SLAVE_TYPE_SPOT))
+                    .resourceType(ResourceType.SPOT_INSTANCES_REQUEST)
+                    .build());
+            riRequestBuilder.tagSpecifications(tagSpecifications);
             try {
                 newInstances = new ArrayList<>(
                         ec2.runInstances(riRequestBuilder.build()).instances());
             } catch (Ec2Exception e) {
-                if (fallbackSpotToOndemand
-                        && "InsufficientInstanceCapacity"
-                                .equals(e.awsErrorDetails().errorCode())) {
+                String errorCode = EC2SubnetAllocator.getErrorCode(e);
+                if (fallbackSpotToOndemand && errorCode != null && SPOT_FALLBACK_ERRORS.contains(errorCode)) {
                     logProvisionInfo(
                             "There is no spot capacity available matching your request, falling back to on-demand instance.");
-                    riRequestBuilder.instanceMarketOptions(instanceMarketOptionsRequestBuilder.build());
-                    newInstances = new ArrayList<>(
-                            ec2.runInstances(riRequestBuilder.build()).instances());
+                    newInstances = new ArrayList<>(ec2.runInstances(riRequest).instances());
                 } else {
                     throw e;
                 }
@@ -2215,15 +2519,80 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
                 throw e;
             }
         }
-        // Have to create a new instance
+        return newInstances;
+    }
 
-        if (newInstances.isEmpty()) {
-            logProvisionInfo("No new instances were created");
-        }
+    /**
+     * Launches new instances to refill the warm pool, skipping its members and the orphaned and stopped instances.
+     */
+    List<EC2AbstractSlave> launchWarmPoolInstances(int number) throws IOException {
+        Ec2Client ec2 = getParent().connect();
+        return toSlaves(launchAcrossSubnets(ec2, getImage(), number, false, false));
+    }
 
-        newInstances.addAll(orphansOrStopped);
+    /**
+     * Launches up to {@code number} instances with an EC2 Fleet, across the instance types and subnets of this
+     * template.
+     */
+    private List<Instance> launchWithFleet(
+            Ec2Client ec2, RunInstancesRequest spec, int number, boolean spot, boolean fallbackSpotToOndemand) {
+        // Leaves the subnets out of capacity to the others
+        List<String> subnetIds = getSubnetAllocator().healthy(getSubnetIdList());
+        String maxPrice = spot && spotConfig != null && spotConfig.useBidPrice ? getSpotMaxBidPrice() : null;
+        try {
+            return getFleetLauncher()
+                    .launch(
+                            ec2,
+                            spec,
+                            getFleetInstanceTypeList(),
+                            subnetIds,
+                            getFleetAllocationStrategy(),
+                            number,
+                            spot,
+                            maxPrice);
+        } catch (SdkException e) {
+            if (spot && fallbackSpotToOndemand) {
+                logProvisionInfo("The fleet found no spot capacity matching your request, falling back to on-demand: "
+                        + e.getMessage());
+                return getFleetLauncher()
+                        .launch(
+                                ec2,
+                                spec,
+                                getFleetInstanceTypeList(),
+                                subnetIds,
+                                getFleetAllocationStrategy(),
+                                number,
+                                false,
+                                null);
+            }
+            logProvisionInfo("Jenkins attempted to launch " + number + " instances with a fleet and received: "
+                    + e.getMessage());
+            throw e;
+        }
+    }
 
-        return toSlaves(newInstances);
+    /*
+     * The spot instances launched by a fleet come with their spot request, unless EC2 didn't show them yet.
+     */
+    private List<EC2AbstractSlave> toSpotOrOndemandSlaves(List<Instance> instances) throws IOException {
+        try {
+            List<EC2AbstractSlave> slaves = new ArrayList<>(instances.size());
+            for (Instance instance : instances) {
+                if (instance.spotInstanceRequestId() != null) {
+                    slaves.add(newSpotSlave(SpotInstanceRequest.builder()
+                            .spotInstanceRequestId(instance.spotInstanceRequestId())
+                            .instanceId(instance.instanceId())
+                            .tags(instance.tags())
+                            .build()));
+                } else {
+                    slaves.add(newOndemandSlave(instance));
+                }
+                logProvisionInfo("Return instance: " + instance);
+            }
+            return slaves;
+        } catch (FormException e) {
+            throw new AssertionError(e);
+        }
     }
 
     void wakeOrphansOrStoppedUp(Ec2Client ec2, List<Instance> orphansOrStopped) {
@@ -2263,10 +2632,30 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
     }
 
     List<Instance> findOrphansOrStopped(DescribeInstancesResponse diResult, int number) {
+        return findOrphansOrStopped(diResult, number, Collections.emptySet());
+    }
+
+    /**
+     * Finds up to {@code number} instances of this template unknown to Jenkins, other than the excluded ones and the
+     * members of the warm pool.
+     */
+    List<Instance> findOrphansOrStopped(DescribeInstancesResponse diResult, int number, Set<String> excluded) {
         List<Instance> orphansOrStopped = new ArrayList<>();
+        if (number <= 0) {
+            return orphansOrStopped;
+        }
         int count = 0;
         for (Reservation reservation : diResult.reservations()) {
             for (Instance instance : reservation.instances()) {
+                if (excluded.contains(instance.instanceId())) {
+                    continue;
+                }
+
+                if (isWarmPoolEnabled() && EC2WarmPool.isMember(instance)) {
+                    logInstanceCheck(instance, ". false - Instance is kept in the warm pool");
+                    continue;
+                }
+
                 if (!isSameIamInstanceProfile(instance)) {
                     logInstanceCheck(
                             instance,
@@ -2408,20 +2797,94 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
 
     @NonNull
     private Image getImage() throws SdkException {
-        DescribeImagesRequest request = makeDescribeImagesRequest();
+        return getImageCache().getImage(makeDescribeImagesRequest());
+    }
 
-        LOGGER.info("Getting image for request " + request);
-        List<Image> images =
-                new ArrayList<>(getParent().connect().describeImages(request).images());
-        if (images.isEmpty()) {
-            throw SdkException.builder()
-                    .message("Unable to find image for request " + request)
-                    .build();
+    private EC2ImageCache getImageCache() {
+        EC2ImageCache result = imageCache;
+        if (result == null) {
+            synchronized (this) {
+                result = imageCache;
+                if (result == null) {
+                    imageCache = result = new EC2ImageCache(this);
+                }
+            }
+        }
+        return result;
+    }
+
+    EC2WarmPool getWarmPool() {
+        EC2WarmPool result = warmPool;
+        if (result == null) {
+            synchronized (this) {
+                result = warmPool;
+                if (result == null) {
+                    warmPool = result = new EC2WarmPool(this);
+                }
+            }
+        }
+        return result;
+    }
+
+    private EC2SubnetAllocator getSubnetAllocator() {
+        EC2SubnetAllocator result = subnetAllocator;
+        if (result == null) {
+            synchronized (this) {
+                result = subnetAllocator;
+                if (result == null) {
+                    subnetAllocator = result = new EC2SubnetAllocator();
+                }
+            }
         }
+        return result;
+    }
 
-        // Sort in reverse by creation date to get latest image
-        images.sort(Comparator.comparing(Image::creationDate).reversed());
-        return images.get(0);
+    private EC2FleetLauncher getFleetLauncher() {
+        EC2FleetLauncher result = fleetLauncher;
+        if (result == null) {
+            synchronized (this) {
+                result = fleetLauncher;
+                if (result == null) {
+                    fleetLauncher = result = new EC2FleetLauncher(this);
+                }
+            }
+        }
+        return result;
+    }
+
+    private EC2NetworkCache getNetworkCache() {
+        EC2NetworkCache result = networkCache;
+        if (result == null) {
+            synchronized (this) {
+                result = networkCache;
+                if (result == null) {
+                    networkCache = result = new EC2NetworkCache();
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Drops what was cached from EC2 about this template, e.g. after its configuration was saved.
+     */
+    void invalidateCaches() {
+        EC2ImageCache cache = imageCache;
+        if (cache != null) {
+            cache.invalidate();
+        }
+        EC2NetworkCache network = networkCache;
+        if (network != null) {
+            network.invalidate();
+        }
+        Map<String, CompiledLaunch> launches = compiledLaunches;
+        if (launches != null) {
+            launches.clear();
+        }
+        EC2FleetLauncher fleet = fleetLauncher;
+        if (fleet != null) {
+            fleet.invalidate();
+        }
     }
 
     private void setupCustomDeviceMapping(List<BlockDeviceMapping> deviceMappings) {
@@ -2435,178 +2898,23 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
      */
     private List<EC2AbstractSlave> provisionSpot(Image image, int number, EnumSet<ProvisionOptions> provisionOptions)
             throws IOException {
+        if (useFleet) {
+            // The fleet launches them all at once, with the bid price if any
+            return provisionOndemand(image, number, provisionOptions, true, spotConfig.getFallbackToOndemand());
+        }
         if (!spotConfig.useBidPrice) {
             return provisionOndemand(image, 1, provisionOptions, true, spotConfig.getFallbackToOndemand());
         }
 
-        Ec2Client ec2 = getParent().connect();
-        String imageId = image.imageId();
-
-        try {
-            LOGGER.info("Launching " + imageId + " for template " + description);
-
-            KeyPair keyPair = getKeyPair(ec2);
-
-            RequestSpotInstancesRequest.Builder spotRequestBuilder = RequestSpotInstancesRequest.builder();
-
-            // Validate spot bid before making the request
-            if (getSpotMaxBidPrice() == null) {
-                throw SdkException.builder()
-                        .message("Invalid Spot price specified: " + getSpotMaxBidPrice())
-                        .build();
-            }
-
-            spotRequestBuilder.spotPrice(getSpotMaxBidPrice());
-            spotRequestBuilder.instanceCount(number);
-
-            RequestSpotLaunchSpecification.Builder launchSpecificationBuilder =
-                    RequestSpotLaunchSpecification.builder();
-
-            launchSpecificationBuilder.imageId(imageId);
-            launchSpecificationBuilder.instanceType(type);
-            launchSpecificationBuilder.ebsOptimized(ebsOptimized);
-            launchSpecificationBuilder.monitoring(
-                    RunInstancesMonitoringEnabled.builder().enabled(monitoring).build());
-
-            if (StringUtils.isNotBlank(getZone())) {
-                SpotPlacement placement =
-                        SpotPlacement.builder().availabilityZone(getZone()).build();
-                launchSpecificationBuilder.placement(placement);
-            }
-
-            InstanceNetworkInterfaceSpecification.Builder netBuilder = InstanceNetworkInterfaceSpecification.builder();
-            String subnetId = chooseSubnetId();
-            LOGGER.log(Level.FINE, () -> String.format("Chose subnetId %s", subnetId));
-            if (StringUtils.isNotBlank(subnetId)) {
-                netBuilder.subnetId(subnetId);
-
-                /*
-                 * If we have a subnet ID then we can only use VPC security groups
-                 */
-                if (!securityGroupSet.isEmpty()) {
-                    List<String> groupIds = getEc2SecurityGroups(ec2);
-                    if (!groupIds.isEmpty()) {
-                        netBuilder.groups(groupIds);
-                    }
-                }
-            } else {
-                if (!securityGroupSet.isEmpty()) {
-                    List<String> groupIds =
-                            getSecurityGroupsBy("group-name", securityGroupSet, ec2).securityGroups().stream()
-                                    .map(SecurityGroup::groupId)
-                                    .collect(Collectors.toList());
-                    netBuilder.groups(groupIds);
-                }
-            }
-
-            String userDataString = Base64.getEncoder().encodeToString(userData.getBytes(StandardCharsets.UTF_8));
-
-            launchSpecificationBuilder.userData(userDataString);
-            launchSpecificationBuilder.keyName(keyPair.getKeyPairInfo().keyName());
-            launchSpecificationBuilder.instanceType(type);
-
-            netBuilder.associatePublicIpAddress(getAssociatePublicIp());
-            netBuilder.deviceIndex(0);
-            launchSpecificationBuilder.networkInterfaces(netBuilder.build());
-
-            HashSet<Tag> instTags = buildTags(EC2Cloud.EC2_SLAVE_TYPE_SPOT);
-
-            if (StringUtils.isNotBlank(getIamInstanceProfile())) {
-                launchSpecificationBuilder.iamInstanceProfile(IamInstanceProfileSpecification.builder()
-                        .arn(getIamInstanceProfile())
-                        .build());
-            }
-
-            launchSpecificationBuilder.blockDeviceMappings(getBlockDeviceMappings(image));
-
-            spotRequestBuilder.launchSpecification(launchSpecificationBuilder.build());
-
-            if (getSpotBlockReservationDuration() != 0) {
-                spotRequestBuilder.blockDurationMinutes(getSpotBlockReservationDuration() * 60);
-            }
-
-            RequestSpotInstancesResponse reqResult;
-            try {
-                // Make the request for a new Spot instance
-                reqResult = ec2.requestSpotInstances(spotRequestBuilder.build());
-            } catch (Ec2Exception e) {
-                if (spotConfig.getFallbackToOndemand()
-                        && "MaxSpotInstanceCountExceeded"
-                                .equals(e.awsErrorDetails().errorCode())) {
-                    logProvisionInfo(
-                            "There is no spot capacity available matching your request, falling back to on-demand instance.");
-                    return provisionOndemand(image, number, provisionOptions);
-                } else {
-                    throw e;
-                }
-            }
-
-            List<SpotInstanceRequest> reqInstances = reqResult.spotInstanceRequests();
-            if (reqInstances.isEmpty()) {
-                throw SdkException.builder().message("No spot instances found").build();
-            }
-
-            List<EC2AbstractSlave> slaves = new ArrayList<>(reqInstances.size());
-            for (SpotInstanceRequest spotInstReq : reqInstances) {
-                if (spotInstReq == null) {
-                    throw SdkException.builder()
-                            .message("Spot instance request is null")
-                            .build();
-                }
-                String slaveName = spotInstReq.spotInstanceRequestId();
-
-                if (spotConfig.getFallbackToOndemand()) {
-                    for (int i = 0; i < 2 && spotInstReq.status().code().equals("pending-evaluation"); i++) {
-                        LOGGER.info("Spot request " + slaveName + " is still pending evaluation");
-                        Thread.sleep(5000);
-                        LOGGER.info("Fetching info about spot request " + slaveName);
-                        DescribeSpotInstanceRequestsRequest describeRequest =
-                                DescribeSpotInstanceRequestsRequest.builder()
-                                        .spotInstanceRequestIds(slaveName)
-                                        .build();
-                        spotInstReq = ec2.describeSpotInstanceRequests(describeRequest)
-                                .spotInstanceRequests()
-                                .get(0);
-                    }
-
-                    List<String> spotRequestBadCodes =
-                            Arrays.asList("capacity-not-available", "capacity-oversubscribed", "price-too-low");
-                    if (spotRequestBadCodes.contains(spotInstReq.status().code())) {
-                        LOGGER.info(
-                                "There is no spot capacity available matching your request, falling back to on-demand instance.");
-                        List<String> requestsToCancel = reqInstances.stream()
-                                .map(SpotInstanceRequest::spotInstanceRequestId)
-                                .collect(Collectors.toList());
-                        CancelSpotInstanceRequestsRequest cancelRequest = CancelSpotInstanceRequestsRequest.builder()
-                                .spotInstanceRequestIds(requestsToCancel)
-                                .build();
-                        ec2.cancelSpotInstanceRequests(cancelRequest);
-                        return provisionOndemand(image, number, provisionOptions);
-                    }
-                }
-
-                // Now that we have our Spot request, we can set tags on it
-                updateRemoteTags(
-                        ec2, instTags, "InvalidSpotInstanceRequestID.NotFound", spotInstReq.spotInstanceRequestId());
-
-                // That was a remote request - we should also update our local instance data
-                SpotInstanceRequest.Builder spotInstReqBuilder = spotInstReq.toBuilder();
-                spotInstReqBuilder.tags(instTags);
-
-                LOGGER.info("Spot instance id in provision: " + spotInstReq.spotInstanceRequestId());
-
-                slaves.add(newSpotSlave(spotInstReqBuilder.build()));
-            }
-
-            return slaves;
-
-        } catch (FormException e) {
-            throw new AssertionError(); // we should have discovered all
-            // configuration issues upfront
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new RuntimeException(e);
+        // Validate spot bid before making the request
+        if (getSpotMaxBidPrice() == null) {
+            throw SdkException.builder()
+                    .message("Invalid Spot price specified: " + getSpotMaxBidPrice())
+                    .build();
         }
+
+        // RunInstances returns the instances right away, or fails at once when there is no spot capacity
+        return provisionOndemand(image, number, provisionOptions, true, spotConfig.getFallbackToOndemand());
     }
 
     private List<BlockDeviceMapping> getBlockDeviceMappings(Image image) {
@@ -2734,7 +3042,7 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
                     .message("No keypair credential found. Please configure a credential in the Jenkins configuration.")
                     .build();
         }
-        KeyPair keyPair = ec2PrivateKey.find(ec2);
+        KeyPair keyPair = getParent().findKeyPair(ec2PrivateKey, ec2);
         if (keyPair == null) {
             throw SdkException.builder()
                     .message("No matching keypair found on EC2. Is the EC2 private key a valid one?")
@@ -2744,75 +3052,27 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
         return keyPair;
     }
 
-    /**
-     * Update the tags stored in EC2 with the specified information. Re-try 5 times if instances isn't up by
-     * catchErrorCode - e.g. InvalidSpotInstanceRequestID.NotFound or InvalidInstanceRequestID.NotFound
-     *
-     * @param ec2
-     * @param instTags
-     * @param catchErrorCode
-     * @param params
-     * @throws InterruptedException
-     */
-    private void updateRemoteTags(
-            Ec2Client ec2, Collection<Tag> instTags, @NonNull String catchErrorCode, String... params)
-            throws InterruptedException {
-        for (int i = 0; i < 5; i++) {
-            try {
-                ec2.createTags(CreateTagsRequest.builder()
-                        .resources(params)
-                        .tags(instTags)
-                        .build());
-                break;
-            } catch (AwsServiceException e) {
-                if (catchErrorCode.equals(e.awsErrorDetails().errorCode())) {
-                    Thread.sleep(5000);
-                    continue;
-                }
-                LOGGER.log(Level.SEVERE, e.awsErrorDetails().errorMessage(), e);
-            }
-        }
-    }
-
     /**
      * Get a list of security group ids for the agent
      */
-    private List<String> getEc2SecurityGroups(Ec2Client ec2) throws SdkException {
+    private List<String> getEc2SecurityGroups(Ec2Client ec2, String subnetId) throws SdkException {
         LOGGER.log(
                 Level.FINE,
                 () -> String.format(
                         "Get security group %s for EC2Cloud %s with currentSubnetId %s",
-                        securityGroupSet, this.getParent().name, getCurrentSubnetId()));
+                        securityGroupSet, this.getParent().name, subnetId));
         List<String> groupIds = new ArrayList<>();
-        DescribeSecurityGroupsResponse groupResult = getSecurityGroupsBy("group-name", securityGroupSet, ec2);
-        if (groupResult.securityGroups().isEmpty()) {
-            groupResult = getSecurityGroupsBy("group-id", securityGroupSet, ec2);
-        }
-
-        for (SecurityGroup group : groupResult.securityGroups()) {
+        for (SecurityGroup group : getNetworkCache().getSecurityGroups(securityGroupSet, true, ec2)) {
             LOGGER.log(
                     Level.FINE,
                     () -> String.format(
                             "Checking security group %s (vpc-id = %s, subnet-id = %s)",
-                            group.groupId(), group.vpcId(), getCurrentSubnetId()));
-            if (group.vpcId() != null && !group.vpcId().isEmpty()) {
-                List<Filter> filters = new ArrayList<>();
-                filters.add(
-                        Filter.builder().name("vpc-id").values(group.vpcId()).build());
-                filters.add(Filter.builder().name("state").values("available").build());
-                filters.add(Filter.builder()
-                        .name("subnet-id")
-                        .values(getCurrentSubnetId())
-                        .build());
-
-                DescribeSubnetsResponse subnetResult = ec2.describeSubnets(
-                        DescribeSubnetsRequest.builder().filters(filters).build());
-
-                List<Subnet> subnets = subnetResult.subnets();
-                if (subnets != null && !subnets.isEmpty()) {
-                    LOGGER.log(Level.FINE, () -> "Adding security group");
-                    groupIds.add(group.groupId());
-                }
+                            group.groupId(), group.vpcId(), subnetId));
+            if (group.vpcId() != null
+                    && !group.vpcId().isEmpty()
+                    && getNetworkCache().isSubnetInVpc(subnetId, group.vpcId(), ec2)) {
+                LOGGER.log(Level.FINE, () -> "Adding security group");
+                groupIds.add(group.groupId());
             }
         }
 
@@ -2825,14 +3085,6 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
         return groupIds;
     }
 
-    private DescribeSecurityGroupsResponse getSecurityGroupsBy(
-            String filterName, Set<String> filterValues, Ec2Client ec2) {
-        DescribeSecurityGroupsRequest groupReq = DescribeSecurityGroupsRequest.builder()
-                .filters(Filter.builder().name(filterName).values(filterValues).build())
-                .build();
-        return ec2.describeSecurityGroups(groupReq);
-    }
-
     /**
      * Provisions a new EC2 agent based on the currently running instance on EC2, instead of starting a new one.
      */
@@ -3025,11 +3277,51 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
         return amiType.isWinRMAgent() && ((WindowsData) amiType).isAllowSelfSignedCertificate();
     }
 
+    /**
+     * An immutable RunInstancesRequest for a single instance, with the filters matching the instances it launches,
+     * along with what it was compiled from.
+     */
+    private static final class CompiledLaunch {
+        private final RunInstancesRequest request;
+        private final List<Filter> filters;
+        private final String imageId;
+        private final String keyName;
+        private final List<String> groupIds;
+        private final String jenkinsUrl;
+
+        CompiledLaunch(
+                RunInstancesRequest request,
+                List<Filter> filters,
+                String imageId,
+                String keyName,
+                List<String> groupIds,
+                String jenkinsUrl) {
+            this.request = request;
+            this.filters = Collections.unmodifiableList(filters);
+            this.imageId = imageId;
+            this.keyName = keyName;
+            this.groupIds = Collections.unmodifiableList(new ArrayList<>(groupIds));
+            this.jenkinsUrl = jenkinsUrl;
+        }
+
+        boolean matches(String imageId, String keyName, List<String> groupIds, String jenkinsUrl) {
+            return Objects.equals(this.imageId, imageId)
+                    && Objects.equals(this.keyName, keyName)
+                    && this.groupIds.equals(groupIds)
+                    && Objects.equals(this.jenkinsUrl, jenkinsUrl);
+        }
+    }
+
     @Extension
     public static final class OnSaveListener extends SaveableListener {
         @Override
         public void onChange(Saveable o, XmlFile file) {
-            if (o instanceof Jenkins) {
+            if (o instanceof Jenkins jenkins) {
+                for (EC2Cloud cloud : jenkins.clouds.getAll(EC2Cloud.class)) {
+                    for (SlaveTemplate t : cloud.getTemplates()) {
+                        t.invalidateCaches();
+                    }
+                }
                 MinimumInstanceChecker.checkForMinimumInstances();
             }
         }
@@ -3107,12 +3399,16 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
                 @QueryParameter String roleSessionName)
                 throws IOException {
             checkPermission(EC2Cloud.PROVISION);
-            AwsCredentialsProvider credentialsProvider = EC2Cloud.createCredentialsProvider(
-                    useInstanceProfileForCredentials, credentialsId, roleArn, roleSessionName, region);
-            Ec2Client ec2 = AmazonEC2Factory.getInstance()
-                    .connect(credentialsProvider, EC2Cloud.parseRegion(region), EC2Cloud.parseEndpoint(altEC2Endpoint));
-            try {
-                Image img = CloudHelper.getAmiImage(ec2, ami);
+            try (EC2ClientRegistry.Lease lease = EC2Cloud.leaseClient(
+                            useInstanceProfileForCredentials,
+                            credentialsId,
+                            roleArn,
+                            roleSessionName,
+                            region,
+                            EC2Cloud.parseRegion(region),
+                            EC2Cloud.parseEndpoint(altEC2Endpoint));
+                    EC2ApiSubsystem.Scope ignored = EC2ApiSubsystem.FORM_VALIDATION.enter()) {
+                Image img = CloudHelper.getAmiImage(lease.get(), ami);
                 if (img == null) {
                     return FormValidation.error("No such AMI, or not usable with this accessId: " + ami);
                 }
@@ -3316,9 +3612,8 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
                 @QueryParameter String roleSessionName)
                 throws IOException, ServletException {
             checkPermission(EC2Cloud.PROVISION);
-            AwsCredentialsProvider credentialsProvider = EC2Cloud.createCredentialsProvider(
+            return EC2AbstractSlave.fillZoneItems(
                     useInstanceProfileForCredentials, credentialsId, roleArn, roleSessionName, region);
-            return EC2AbstractSlave.fillZoneItems(credentialsProvider, region);
         }
 
         public String getDefaultTenancy() {
@@ -3466,17 +3761,21 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
                 @QueryParameter String roleSessionName) {
             checkPermission(EC2Cloud.PROVISION);
             if (enclaveEnabled && type != null && !type.isEmpty()) {
-                AwsCredentialsProvider credentialsProvider = EC2Cloud.createCredentialsProvider(
-                        useInstanceProfileForCredentials, credentialsId, roleArn, roleSessionName, region);
-                Ec2Client ec2 = AmazonEC2Factory.getInstance()
-                        .connect(
-                                credentialsProvider,
-                                EC2Cloud.parseRegion(region),
-                                EC2Cloud.parseEndpoint(altEC2Endpoint));
                 DescribeInstanceTypesRequest request = DescribeInstanceTypesRequest.builder()
                         .instanceTypes(InstanceType.fromValue(type))
                         .build();
-                DescribeInstanceTypesResponse response = ec2.describeInstanceTypes(request);
+                DescribeInstanceTypesResponse response;
+                try (EC2ClientRegistry.Lease lease = EC2Cloud.leaseClient(
+                                useInstanceProfileForCredentials,
+                                credentialsId,
+                                roleArn,
+                                roleSessionName,
+                                region,
+                                EC2Cloud.parseRegion(region),
+                                EC2Cloud.parseEndpoint(altEC2Endpoint));
+                        EC2ApiSubsystem.Scope ignored = EC2ApiSubsystem.FORM_VALIDATION.enter()) {
+                    response = lease.get().describeInstanceTypes(request);
+                }
                 for (InstanceTypeInfo instanceTypeInfo : response.instanceTypes()) {
                     if (!InstanceTypeHypervisor.UNKNOWN_TO_SDK_VERSION.equals(instanceTypeInfo.hypervisor())
                             && !InstanceTypeHypervisor.NITRO.equals(instanceTypeInfo.hypervisor())) {
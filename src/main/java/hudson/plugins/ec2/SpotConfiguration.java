@@ -4,7 +4,8 @@ import hudson.Extension;
 import hudson.Functions;
 import hudson.model.AbstractDescribableImpl;
 import hudson.model.Descriptor;
-import hudson.plugins.ec2.util.AmazonEC2Factory;
+import hudson.plugins.ec2.util.EC2ApiSubsystem;
+import hudson.plugins.ec2.util.EC2ClientRegistry;
 import hudson.util.FormValidation;
 import jakarta.servlet.ServletException;
 import java.io.IOException;
@@ -16,7 +17,6 @@ import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.interceptor.RequirePOST;
-import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.awscore.exception.AwsServiceException;
 import software.amazon.awssdk.services.ec2.Ec2Client;
 import software.amazon.awssdk.services.ec2.model.DescribeSpotPriceHistoryRequest;
@@ -158,64 +158,65 @@ public final class SpotConfiguration extends AbstractDescribableImpl<SpotConfigu
 
             // Connect to the EC2 cloud with the access id, secret key, and
             // region queried from the created cloud
-            AwsCredentialsProvider credentialsProvider = EC2Cloud.createCredentialsProvider(
-                    useInstanceProfileForCredentials, credentialsId, roleArn, roleSessionName, region);
-            Ec2Client ec2 =
-                    AmazonEC2Factory.getInstance().connect(credentialsProvider, EC2Cloud.parseRegion(region), null);
-
-            if (ec2 != null) {
-
-                try {
-                    // Build a new price history request with the currently
-                    // selected type
-                    DescribeSpotPriceHistoryRequest.Builder requestBuilder = DescribeSpotPriceHistoryRequest.builder();
-                    // If a zone is specified, set the availability zone in the
-                    // request
-                    // Else, proceed with no availability zone which will result
-                    // with the cheapest Spot price
-                    if (CloudHelper.getAvailabilityZones(ec2).contains(zone)) {
-                        requestBuilder.availabilityZone(zone);
-                        zoneStr = zone + " availability zone";
-                    } else {
-                        zoneStr = region + " region";
-                    }
+            try (EC2ClientRegistry.Lease lease = EC2Cloud.leaseClient(
+                            useInstanceProfileForCredentials,
+                            credentialsId,
+                            roleArn,
+                            roleSessionName,
+                            region,
+                            EC2Cloud.parseRegion(region),
+                            null);
+                    EC2ApiSubsystem.Scope ignored = EC2ApiSubsystem.FORM_VALIDATION.enter()) {
+                Ec2Client ec2 = lease.get();
+                // Build a new price history request with the currently
+                // selected type
+                DescribeSpotPriceHistoryRequest.Builder requestBuilder = DescribeSpotPriceHistoryRequest.builder();
+                // If a zone is specified, set the availability zone in the
+                // request
+                // Else, proceed with no availability zone which will result
+                // with the cheapest Spot price
+                if (CloudHelper.getAvailabilityZones(ec2).contains(zone)) {
+                    requestBuilder.availabilityZone(zone);
+                    zoneStr = zone + " availability zone";
+                } else {
+                    zoneStr = region + " region";
+                }
 
-                    /*
-                     * If the type string cannot be matched with an instance type, throw a Form error
-                     */
-                    InstanceType ec2Type = InstanceType.fromValue(type);
-                    if (ec2Type == null || ec2Type == InstanceType.UNKNOWN_TO_SDK_VERSION) {
-                        return FormValidation.error("Could not resolve instance type: " + type);
-                    }
+                /*
+                 * If the type string cannot be matched with an instance type, throw a Form error
+                 */
+                InstanceType ec2Type = InstanceType.fromValue(type);
+                if (ec2Type == null || ec2Type == InstanceType.UNKNOWN_TO_SDK_VERSION) {
+                    return FormValidation.error("Could not resolve instance type: " + type);
+                }
 
-                    if (!ami.isEmpty()) {
-                        Image img = CloudHelper.getAmiImage(ec2, ami);
-                        if (img != null) {
-                            Collection<String> productDescriptions = new ArrayList<>();
-                            productDescriptions.add(
-                                    img.platform() == PlatformValues.WINDOWS ? "Windows" : "Linux/UNIX");
-                            requestBuilder.productDescriptions(productDescriptions);
-                        }
+                if (!ami.isEmpty()) {
+                    Image img = CloudHelper.getAmiImage(ec2, ami);
+                    if (img != null) {
+                        Collection<String> productDescriptions = new ArrayList<>();
+                        productDescriptions.add(
+                                img.platform() == PlatformValues.WINDOWS ? "Windows" : "Linux/UNIX");
+                        requestBuilder.productDescriptions(productDescriptions);
                     }
+                }
 
-                    Collection<InstanceType> instanceType = new ArrayList<>();
-                    instanceType.add(ec2Type);
-                    requestBuilder.instanceTypes(instanceType);
-                    requestBuilder.startTime(Instant.now());
-
-                    // Retrieve the price history request result and store the
-                    // current price
-                    DescribeSpotPriceHistoryResponse result = ec2.describeSpotPriceHistory(requestBuilder.build());
+                Collection<InstanceType> instanceType = new ArrayList<>();
+                instanceType.add(ec2Type);
+                requestBuilder.instanceTypes(instanceType);
+                requestBuilder.startTime(Instant.now());
 
-                    if (!result.spotPriceHistory().isEmpty()) {
-                        SpotPrice currentPrice = result.spotPriceHistory().get(0);
+                // Retrieve the price history request result and store the
+                // current price
+                DescribeSpotPriceHistoryResponse result = ec2.describeSpotPriceHistory(requestBuilder.build());
 
-                        cp = currentPrice.spotPrice();
-                    }
+                if (!result.spotPriceHistory().isEmpty()) {
+                    SpotPrice currentPrice = result.spotPriceHistory().get(0);
 
-                } catch (AwsServiceException e) {
-                    return FormValidation.error(e.getMessage());
+                    cp = currentPrice.spotPrice();
                 }
+
+            } catch (AwsServiceException e) {
+                return FormValidation.error(e.getMessage());
             }
             /*
              * If we could not return the current price of the instance display an error Else, remove the additional
@@ -1,10 +1,12 @@
 package hudson.plugins.ec2.util;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import hudson.ExtensionList;
 import hudson.ExtensionPoint;
 import java.net.URI;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.ec2.Ec2AsyncClient;
 import software.amazon.awssdk.services.ec2.Ec2Client;
 
 public interface AmazonEC2Factory extends ExtensionPoint {
@@ -14,4 +16,24 @@ public interface AmazonEC2Factory extends ExtensionPoint {
     }
 
     Ec2Client connect(AwsCredentialsProvider credentialsProvider, Region region, URI endpoint);
+
+    /**
+     * Connects to EC2 on behalf of a cloud, whose name the {@link EC2ApiMetrics} of the calls are recorded under.
+     */
+    default Ec2Client connect(
+            AwsCredentialsProvider credentialsProvider, Region region, URI endpoint, @CheckForNull String cloudName) {
+        return connect(credentialsProvider, region, endpoint);
+    }
+
+    /**
+     * Connects to EC2 on behalf of a cloud with a non-blocking client.
+     *
+     * @return the client, or null if only blocking clients can be provided, in which case callers fall back to
+     *     {@link #connect}
+     */
+    @CheckForNull
+    default Ec2AsyncClient connectAsync(
+            AwsCredentialsProvider credentialsProvider, Region region, URI endpoint, @CheckForNull String cloudName) {
+        return null;
+    }
 }
@@ -3,20 +3,34 @@ package hudson.plugins.ec2.util;
 import hudson.Extension;
 import hudson.plugins.ec2.EC2Cloud;
 import java.net.URI;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.exception.SdkClientException;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.ec2.Ec2AsyncClient;
+import software.amazon.awssdk.services.ec2.Ec2AsyncClientBuilder;
 import software.amazon.awssdk.services.ec2.Ec2Client;
 import software.amazon.awssdk.services.ec2.Ec2ClientBuilder;
 
 @Extension
 public class AmazonEC2FactoryImpl implements AmazonEC2Factory {
 
+    private static final Logger LOGGER = Logger.getLogger(AmazonEC2FactoryImpl.class.getName());
+
     @Override
     public Ec2Client connect(AwsCredentialsProvider credentialsProvider, Region region, URI endpoint) {
+        return connect(credentialsProvider, region, endpoint, null);
+    }
+
+    @Override
+    public Ec2Client connect(
+            AwsCredentialsProvider credentialsProvider, Region region, URI endpoint, String cloudName) {
         Ec2ClientBuilder ec2ClientBuilder = Ec2Client.builder()
                 .credentialsProvider(credentialsProvider)
                 .httpClient(EC2Cloud.getHttpClient())
-                .overrideConfiguration(EC2Cloud.createClientOverrideConfiguration());
+                .overrideConfiguration(createOverrideConfiguration(credentialsProvider, region, cloudName));
         if (region != null) {
             ec2ClientBuilder.region(region);
         }
@@ -25,4 +39,37 @@ public class AmazonEC2FactoryImpl implements AmazonEC2Factory {
         }
         return ec2ClientBuilder.build();
     }
+
+    @Override
+    public Ec2AsyncClient connectAsync(
+            AwsCredentialsProvider credentialsProvider, Region region, URI endpoint, String cloudName) {
+        try {
+            Ec2AsyncClientBuilder ec2ClientBuilder = Ec2AsyncClient.builder()
+                    .credentialsProvider(credentialsProvider)
+                    .httpClient(EC2Cloud.getAsyncHttpClient())
+                    .overrideConfiguration(createOverrideConfiguration(credentialsProvider, region, cloudName));
+            if (region != null) {
+                ec2ClientBuilder.region(region);
+            }
+            if (endpoint != null) {
+                ec2ClientBuilder.endpointOverride(endpoint);
+            }
+            return ec2ClientBuilder.build();
+        } catch (SdkClientException | LinkageError e) {
+            // No non-blocking HTTP client is available
+            LOGGER.log(Level.FINE, "Unable to create a non-blocking EC2 client, using the blocking one", e);
+            return null;
+        }
+    }
+
+    private static ClientOverrideConfiguration createOverrideConfiguration(
+            AwsCredentialsProvider credentialsProvider, Region region, String cloudName) {
+        ClientOverrideConfiguration config = EC2Cloud.createClientOverrideConfiguration(cloudName);
+        // Shared by all the clients of the account in the region, retries included
+        EC2ApiRateLimiter rateLimiter = EC2ApiRateLimiter.forAccount(credentialsProvider, region);
+        if (rateLimiter != null) {
+            config = config.toBuilder().addExecutionInterceptor(rateLimiter).build();
+        }
+        return config;
+    }
 }
@@ -0,0 +1,384 @@
+package hudson.plugins.ec2.util;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+
+/**
+ * Counts the AWS API calls of each cloud, by operation and {@link EC2ApiSubsystem}: how many were made, how many
+ * failed and with which error codes, how many attempts were retried and how long they took, retries and client-side
+ * rate limiting included.
+ * <p>
+ * The calls are recorded by the {@link #interceptor} every client is configured with, under the cloud of their
+ * {@link EC2CloudScope}. Calls not made for a cloud, e.g. to fill and validate forms, are recorded without a cloud
+ * name.
+ */
+@Restricted(NoExternalUse.class)
+public final class EC2ApiMetrics {
+
+    /*
+     * Upper bounds (in milliseconds) of the latency histogram buckets. Slower calls fall in one last bucket.
+     */
+    static final long[] LATENCY_BUCKETS_MILLIS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+
+    private static final EC2ApiMetrics INSTANCE = new EC2ApiMetrics();
+
+    private static final ExecutionAttribute<Long> STARTED_AT =
+            new ExecutionAttribute<>("hudson.plugins.ec2.util.EC2ApiMetrics.startedAt");
+
+    private static final ExecutionAttribute<AtomicInteger> ATTEMPTS =
+            new ExecutionAttribute<>("hudson.plugins.ec2.util.EC2ApiMetrics.attempts");
+
+    private final Map<String, OperationStats> stats = new ConcurrentHashMap<>();
+
+    EC2ApiMetrics() {}
+
+    @NonNull
+    public static EC2ApiMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Creates the interceptor recording the calls of a client into the metrics.
+     *
+     * @param cloudName the name of the cloud the client makes calls for, null if it is shared or not bound to a cloud
+     */
+    @NonNull
+    public static ExecutionInterceptor interceptor(@CheckForNull String cloudName) {
+        return new Interceptor(INSTANCE, cloudName);
+    }
+
+    void record(
+            @NonNull String cloudName,
+            @NonNull String operation,
+            @NonNull EC2ApiSubsystem subsystem,
+            long latencyNanos,
+            int attempts,
+            @CheckForNull String errorCode) {
+        String key = cloudName + '\n' + operation + '\n' + subsystem;
+        stats.computeIfAbsent(key, k -> new OperationStats(cloudName, operation, subsystem))
+                .record(latencyNanos, attempts, errorCode);
+    }
+
+    /**
+     * Gets the metrics of the calls made for the given cloud, the most frequent operations first.
+     *
+     * @param cloudName the name of the cloud, null for the calls not made for any cloud
+     */
+    @NonNull
+    public List<OperationMetrics> getOperations(@CheckForNull String cloudName) {
+        String name = cloudName != null ? cloudName : "";
+        List<OperationMetrics> result = new ArrayList<>();
+        long total = 0;
+        for (OperationStats s : stats.values()) {
+            if (s.cloudName.equals(name)) {
+                OperationMetrics metrics = s.snapshot();
+                result.add(metrics);
+                total += metrics.calls;
+            }
+        }
+        for (OperationMetrics metrics : result) {
+            metrics.share = total > 0 ? 100.0 * metrics.calls / total : 0;
+        }
+        result.sort(Comparator.comparingLong(OperationMetrics::getCalls)
+                .reversed()
+                .thenComparing(OperationMetrics::getOperation)
+                .thenComparing(OperationMetrics::getSubsystem));
+        return result;
+    }
+
+    /**
+     * Drops the metrics of the clouds other than the given ones, i.e. removed or renamed since. The metrics of the
+     * calls not made for any cloud are kept.
+     */
+    public void retainClouds(@NonNull Collection<String> cloudNames) {
+        stats.values().removeIf(s -> !s.cloudName.isEmpty() && !cloudNames.contains(s.cloudName));
+    }
+
+    /**
+     * Gets the metrics of the calls made for the given cloud, as served by the JSON endpoint of the cloud.
+     */
+    @NonNull
+    public JSONObject toJSON(@CheckForNull String cloudName) {
+        JSONArray operations = new JSONArray();
+        for (OperationMetrics metrics : getOperations(cloudName)) {
+            JSONObject latency = new JSONObject();
+            latency.put("meanMillis", metrics.getMeanLatencyMillis());
+            latency.put("p50Millis", metrics.getLatencyPercentileMillis(50));
+            latency.put("p90Millis", metrics.getLatencyPercentileMillis(90));
+            latency.put("p99Millis", metrics.getLatencyPercentileMillis(99));
+            JSONObject buckets = new JSONObject();
+            for (int i = 0; i < metrics.latencyBuckets.length; i++) {
+                buckets.put(
+                        i < LATENCY_BUCKETS_MILLIS.length ? "le" + LATENCY_BUCKETS_MILLIS[i] : "inf",
+                        metrics.latencyBuckets[i]);
+            }
+            latency.put("buckets", buckets);
+
+            JSONObject operation = new JSONObject();
+            operation.put("operation", metrics.getOperation());
+            operation.put("subsystem", metrics.getSubsystem().name());
+            operation.put("calls", metrics.getCalls());
+            operation.put("errors", metrics.getErrors());
+            operation.put("errorCodes", metrics.getErrorCodes());
+            operation.put("retries", metrics.getRetries());
+            operation.put("latency", latency);
+            operations.add(operation);
+        }
+        JSONObject result = new JSONObject();
+        result.put("cloud", cloudName);
+        result.put("operations", operations);
+        return result;
+    }
+
+    private static final class OperationStats {
+        private final String cloudName;
+
+        private final String operation;
+
+        private final EC2ApiSubsystem subsystem;
+
+        private final LongAdder calls = new LongAdder();
+
+        private final LongAdder errors = new LongAdder();
+
+        private final LongAdder retries = new LongAdder();
+
+        private final LongAdder latencyNanos = new LongAdder();
+
+        private final LongAdder[] latencyBuckets = new LongAdder[LATENCY_BUCKETS_MILLIS.length + 1];
+
+        private final Map<String, LongAdder> errorCodes = new ConcurrentHashMap<>();
+
+        OperationStats(String cloudName, String operation, EC2ApiSubsystem subsystem) {
+            this.cloudName = cloudName;
+            this.operation = operation;
+            this.subsystem = subsystem;
+            for (int i = 0; i < latencyBuckets.length; i++) {
+                latencyBuckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long latency, int attempts, @CheckForNull String errorCode) {
+            calls.increment();
+            if (attempts > 1) {
+                retries.add(attempts - 1);
+            }
+            latencyNanos.add(latency);
+            long millis = TimeUnit.NANOSECONDS.toMillis(latency);
+            int bucket = 0;
+            while (bucket < LATENCY_BUCKETS_MILLIS.length && millis > LATENCY_BUCKETS_MILLIS[bucket]) {
+                bucket++;
+            }
+            latencyBuckets[bucket].increment();
+            if (errorCode != null) {
+                errors.increment();
+                errorCodes.computeIfAbsent(errorCode, c -> new LongAdder()).increment();
+            }
+        }
+
+        OperationMetrics snapshot() {
+            long[] buckets = new long[latencyBuckets.length];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = latencyBuckets[i].sum();
+            }
+            Map<String, Long> codes = new LinkedHashMap<>();
+            errorCodes.entrySet().stream()
+                    .sorted(Map.Entry.<String, LongAdder>comparingByValue(Comparator.comparingLong(LongAdder::sum))
+                            .reversed())
+                    .forEach(e -> codes.put(e.getKey(), e.getValue().sum()));
+            return new OperationMetrics(
+                    operation, subsystem, calls.sum(), errors.sum(), codes, retries.sum(), latencyNanos.sum(), buckets);
+        }
+    }
+
+    /**
+     * Snapshot of the calls of an operation made for a subsystem.
+     */
+    public static final class OperationMetrics {
+        private final String operation;
+
+        private final EC2ApiSubsystem subsystem;
+
+        private final long calls;
+
+        private final long errors;
+
+        private final Map<String, Long> errorCodes;
+
+        private final long retries;
+
+        private final long latencyNanos;
+
+        private final long[] latencyBuckets;
+
+        private double share;
+
+        OperationMetrics(
+                String operation,
+                EC2ApiSubsystem subsystem,
+                long calls,
+                long errors,
+                Map<String, Long> errorCodes,
+                long retries,
+                long latencyNanos,
+                long[] latencyBuckets) {
+            this.operation = operation;
+            this.subsystem = subsystem;
+            this.calls = calls;
+            this.errors = errors;
+            this.errorCodes = errorCodes;
+            this.retries = retries;
+            this.latencyNanos = latencyNanos;
+            this.latencyBuckets = latencyBuckets;
+        }
+
+        @NonNull
+        public String getOperation() {
+            return operation;
+        }
+
+        @NonNull
+        public EC2ApiSubsystem getSubsystem() {
+            return subsystem;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        /**
+         * Gets the share (in percent) of the calls of the cloud this operation accounts for.
+         */
+        public double getShare() {
+            return share;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        /**
+         * Gets how many calls failed with each error code, the most frequent first.
+         */
+        @NonNull
+        public Map<String, Long> getErrorCodes() {
+            return errorCodes;
+        }
+
+        public long getRetries() {
+            return retries;
+        }
+
+        public long getMeanLatencyMillis() {
+            return calls > 0 ? TimeUnit.NANOSECONDS.toMillis(latencyNanos / calls) : 0;
+        }
+
+        /**
+         * Gets the upper bound of the latency of the given percentile of the calls.
+         *
+         * @return the bound in milliseconds, -1 if it is above the last bucket of the histogram
+         */
+        public long getLatencyPercentileMillis(int percentile) {
+            long rank = (long) Math.ceil(calls * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < LATENCY_BUCKETS_MILLIS.length; i++) {
+                seen += latencyBuckets[i];
+                if (seen >= rank) {
+                    return LATENCY_BUCKETS_MILLIS[i];
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Describes the upper bound of the latency of the given percentile of the calls, for display.
+         */
+        @NonNull
+        public String getLatencyPercentileLabel(int percentile) {
+            long bound = getLatencyPercentileMillis(percentile);
+            return bound < 0
+                    ? "> " + LATENCY_BUCKETS_MILLIS[LATENCY_BUCKETS_MILLIS.length - 1] + " ms"
+                    : "\u2264 " + bound + " ms";
+        }
+    }
+
+    private static final class Interceptor implements ExecutionInterceptor {
+        private final EC2ApiMetrics metrics;
+
+        @CheckForNull
+        private final String cloudName;
+
+        Interceptor(EC2ApiMetrics metrics, @CheckForNull String cloudName) {
+            this.metrics = metrics;
+            this.cloudName = cloudName;
+        }
+
+        @Override
+        public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes executionAttributes) {
+            EC2ApiSubsystem.capture(executionAttributes);
+            EC2CloudScope.capture(executionAttributes);
+            executionAttributes.putAttribute(STARTED_AT, System.nanoTime());
+            executionAttributes.putAttribute(ATTEMPTS, new AtomicInteger());
+        }
+
+        @Override
+        public void beforeTransmission(Context.BeforeTransmission context, ExecutionAttributes executionAttributes) {
+            AtomicInteger attempts = executionAttributes.getAttribute(ATTEMPTS);
+            if (attempts != null) {
+                attempts.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void afterExecution(Context.AfterExecution context, ExecutionAttributes executionAttributes) {
+            record(executionAttributes, null);
+        }
+
+        @Override
+        public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes executionAttributes) {
+            Throwable e = context.exception();
+            String errorCode = null;
+            if (e instanceof AwsServiceException awsException && awsException.awsErrorDetails() != null) {
+                errorCode = awsException.awsErrorDetails().errorCode();
+            }
+            record(executionAttributes, errorCode != null ? errorCode : e.getClass().getSimpleName());
+        }
+
+        private void record(ExecutionAttributes executionAttributes, @CheckForNull String errorCode) {
+            Long startedAt = executionAttributes.getAttribute(STARTED_AT);
+            if (startedAt == null) {
+                return;
+            }
+            String operation = executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME);
+            AtomicInteger attempts = executionAttributes.getAttribute(ATTEMPTS);
+            String cloud = EC2CloudScope.of(executionAttributes, cloudName);
+            metrics.record(
+                    cloud != null ? cloud : "",
+                    operation != null ? operation : "Unknown",
+                    EC2ApiSubsystem.of(executionAttributes),
+                    System.nanoTime() - startedAt,
+                    attempts != null ? attempts.get() : 0,
+                    errorCode);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package hudson.plugins.ec2.util;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.ClientType;
+import software.amazon.awssdk.core.exception.AbortedException;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+import software.amazon.awssdk.regions.Region;
+
+/**
+ * Client-side token bucket limiting the rate of EC2 API calls of an account in a region, shared by all the clients
+ * connected with the same credentials to the same region.
+ * <p>
+ * Every attempt, retries included, takes a token before being sent. Calls have the {@link Priority} of the
+ * {@link EC2ApiSubsystem} they are made for: the lower the priority, the more tokens it leaves in the bucket for the
+ * higher ones, so that background sweeps give way to provisioning when the bucket runs low.
+ * <p>
+ * The refill rate starts at {@link #RATE} calls per second. It is halved, at most once per second, when EC2 throttles
+ * a call, and grows back slowly with every call that is not throttled.
+ * <p>
+ * Calls of non-blocking clients never wait, as they are sent from the event loop of their HTTP client: they take their
+ * token right away, even if the bucket runs into debt, which the blocking calls then pay back by waiting longer.
+ */
+@Restricted(NoExternalUse.class)
+public final class EC2ApiRateLimiter implements ExecutionInterceptor {
+
+    private static final Logger LOGGER = Logger.getLogger(EC2ApiRateLimiter.class.getName());
+
+    /*
+     * How many calls per second are allowed at most. 0 disables the limiter.
+     */
+    static final int RATE = Integer.getInteger("hudson.plugins.ec2.util.EC2ApiRateLimiter.rate", 20);
+
+    /*
+     * How many calls can be made in a burst after the bucket filled up.
+     */
+    static final int BURST = Integer.getInteger("hudson.plugins.ec2.util.EC2ApiRateLimiter.burst", 100);
+
+    private static final double MIN_RATE = 0.5;
+
+    /*
+     * How long (in minutes) the limiter of an account nobody made calls for is kept.
+     */
+    static final long IDLE_MINUTES = Long.getLong("hudson.plugins.ec2.util.EC2ApiRateLimiter.idleMinutes", 60);
+
+    /**
+     * What an EC2 API call is made for, from the most to the least important.
+     */
+    public enum Priority {
+        PROVISIONING(0),
+        LAUNCH_POLLING(0.1),
+        LIVENESS(0.25),
+        CLEANUP(0.5);
+
+        /*
+         * The share of the bucket calls of this priority leave to the higher priorities.
+         */
+        private final double reserve;
+
+        Priority(double reserve) {
+            this.reserve = reserve;
+        }
+    }
+
+    private static final Map<String, EC2ApiRateLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    private final double maxRate;
+
+    private final int burst;
+
+    private final LongSupplier nanoTime;
+
+    private double rate;
+
+    private double tokens;
+
+    private long refilledAt;
+
+    private long throttledAt;
+
+    private volatile long usedAt;
+
+    EC2ApiRateLimiter(double maxRate, int burst, @NonNull LongSupplier nanoTime) {
+        this.maxRate = maxRate;
+        this.burst = burst;
+        this.nanoTime = nanoTime;
+        this.rate = maxRate;
+        this.tokens = burst;
+        this.refilledAt = nanoTime.getAsLong();
+        this.throttledAt = refilledAt - TimeUnit.SECONDS.toNanos(1);
+        this.usedAt = refilledAt;
+    }
+
+    /**
+     * A credentials provider that tells the account it gets credentials for without resolving them, e.g. from the
+     * ARN of the role it assumes.
+     */
+    public interface AccountCredentialsProvider extends AwsCredentialsProvider {
+        @NonNull
+        String getAccount();
+    }
+
+    /**
+     * Gets the limiter of the account the given credentials belong to, in the given region.
+     *
+     * @return the limiter, or null if rate limiting is disabled
+     */
+    @CheckForNull
+    public static EC2ApiRateLimiter forAccount(
+            @NonNull AwsCredentialsProvider credentialsProvider, @CheckForNull Region region) {
+        if (RATE <= 0) {
+            return null;
+        }
+        long now = System.nanoTime();
+        LIMITERS.values().removeIf(limiter -> limiter.isIdle(now - TimeUnit.MINUTES.toNanos(IDLE_MINUTES)));
+        String key = accountOf(credentialsProvider) + "/" + (region != null ? region.id() : "");
+        return LIMITERS.computeIfAbsent(key, k -> new EC2ApiRateLimiter(RATE, BURST, System::nanoTime));
+    }
+
+    /*
+     * Identifies the account without calling STS: the session credentials of a role or an instance profile change
+     * with every refresh, so only the access keys of static credentials tell the account apart.
+     */
+    static String accountOf(@NonNull AwsCredentialsProvider credentialsProvider) {
+        if (credentialsProvider instanceof AccountCredentialsProvider account) {
+            return account.getAccount();
+        }
+        if (credentialsProvider instanceof StaticCredentialsProvider) {
+            try {
+                return credentialsProvider.resolveCredentials().accessKeyId();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.FINE, "Unable to resolve the credentials to rate limit", e);
+            }
+        }
+        // The instance profile or default credentials of this controller, all of the same account
+        return credentialsProvider.getClass().getName();
+    }
+
+    @Override
+    public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes executionAttributes) {
+        EC2ApiSubsystem.capture(executionAttributes);
+    }
+
+    @Override
+    public void beforeTransmission(Context.BeforeTransmission context, ExecutionAttributes executionAttributes) {
+        if (executionAttributes.getAttribute(SdkExecutionAttribute.CLIENT_TYPE) == ClientType.ASYNC) {
+            // Don't hold the event loop, the blocking calls wait for this one
+            take();
+            return;
+        }
+        try {
+            acquire(EC2ApiSubsystem.of(executionAttributes).getPriority());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw AbortedException.builder()
+                    .message("Interrupted while waiting for the EC2 API rate limit")
+                    .cause(e)
+                    .build();
+        }
+    }
+
+    @Override
+    public void afterTransmission(Context.AfterTransmission context, ExecutionAttributes executionAttributes) {
+        int statusCode = context.httpResponse().statusCode();
+        // EC2 answers RequestLimitExceeded with a 503
+        if (statusCode == 503 || statusCode == 429) {
+            throttled();
+        } else {
+            succeeded();
+        }
+    }
+
+    /**
+     * Takes a token, waiting for the bucket to refill if there are not enough left for the given priority.
+     */
+    synchronized void acquire(@NonNull Priority priority) throws InterruptedException {
+        while (!tryAcquire(priority)) {
+            double missing = burst * priority.reserve + 1 - tokens;
+            long waitNanos = (long) (missing / rate * TimeUnit.SECONDS.toNanos(1));
+            TimeUnit.NANOSECONDS.timedWait(this, Math.max(waitNanos, TimeUnit.MILLISECONDS.toNanos(1)));
+        }
+    }
+
+    synchronized boolean tryAcquire(@NonNull Priority priority) {
+        refill();
+        usedAt = refilledAt;
+        if (tokens - 1 >= burst * priority.reserve) {
+            tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Takes a token without waiting, leaving the bucket in debt if it is empty.
+     */
+    synchronized void take() {
+        refill();
+        usedAt = refilledAt;
+        tokens -= 1;
+    }
+
+    boolean isIdle(long since) {
+        return usedAt - since < 0;
+    }
+
+    synchronized void throttled() {
+        long now = nanoTime.getAsLong();
+        if (now - throttledAt < TimeUnit.SECONDS.toNanos(1)) {
+            // Already slowed down for this burst of throttling
+            return;
+        }
+        refill();
+        throttledAt = now;
+        rate = Math.max(MIN_RATE, rate / 2);
+        // Let the throttling on EC2 side wind down before sending anything else
+        tokens = Math.min(tokens, 0);
+        LOGGER.log(Level.FINE, "EC2 API calls were throttled, slowing down to {0} calls per second", rate);
+    }
+
+    synchronized void succeeded() {
+        if (rate < maxRate) {
+            refill();
+            rate = Math.min(maxRate, rate + maxRate / 100);
+        }
+    }
+
+    synchronized double getRate() {
+        return rate;
+    }
+
+    private void refill() {
+        long now = nanoTime.getAsLong();
+        tokens = Math.min(burst, tokens + (now - refilledAt) * rate / TimeUnit.SECONDS.toNanos(1));
+        refilledAt = now;
+    }
+}
@@ -0,0 +1,102 @@
+package hudson.plugins.ec2.util;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+
+/**
+ * The part of the plugin EC2 API calls are made for, set for the current thread with {@link #enter()}.
+ * <p>
+ * It tags the {@link EC2ApiMetrics} of the calls and gives them their {@link EC2ApiRateLimiter.Priority}.
+ */
+@Restricted(NoExternalUse.class)
+public enum EC2ApiSubsystem {
+    PROVISIONING(EC2ApiRateLimiter.Priority.PROVISIONING),
+    LAUNCH_POLLING(EC2ApiRateLimiter.Priority.LAUNCH_POLLING),
+    RETENTION(EC2ApiRateLimiter.Priority.LIVENESS),
+    MONITOR(EC2ApiRateLimiter.Priority.LIVENESS),
+    CLEANUP(EC2ApiRateLimiter.Priority.CLEANUP),
+    FORM_VALIDATION(EC2ApiRateLimiter.Priority.PROVISIONING),
+    /**
+     * Calls made outside of any subsystem, e.g. from the UI.
+     */
+    OTHER(EC2ApiRateLimiter.Priority.PROVISIONING);
+
+    private static final ThreadLocal<EC2ApiSubsystem> CURRENT = new ThreadLocal<>();
+
+    private static final ExecutionAttribute<EC2ApiSubsystem> EXECUTION_ATTRIBUTE =
+            new ExecutionAttribute<>("hudson.plugins.ec2.util.EC2ApiSubsystem");
+
+    private final EC2ApiRateLimiter.Priority priority;
+
+    EC2ApiSubsystem(EC2ApiRateLimiter.Priority priority) {
+        this.priority = priority;
+    }
+
+    @NonNull
+    public EC2ApiRateLimiter.Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Makes the EC2 API calls of the current thread on behalf of this subsystem, until the scope is closed.
+     */
+    @NonNull
+    public Scope enter() {
+        Scope scope = new Scope(CURRENT.get());
+        CURRENT.set(this);
+        return scope;
+    }
+
+    /**
+     * Gets the subsystem the current thread makes EC2 API calls for, {@link #OTHER} unless set.
+     */
+    @NonNull
+    public static EC2ApiSubsystem current() {
+        EC2ApiSubsystem subsystem = CURRENT.get();
+        return subsystem != null ? subsystem : OTHER;
+    }
+
+    /**
+     * Records the subsystem of the current thread as the one of an API call, when it starts executing.
+     */
+    static void capture(@NonNull ExecutionAttributes executionAttributes) {
+        if (executionAttributes.getAttribute(EXECUTION_ATTRIBUTE) == null) {
+            executionAttributes.putAttribute(EXECUTION_ATTRIBUTE, current());
+        }
+    }
+
+    /**
+     * Gets the subsystem an API call is made for. Unlike {@link #current()}, this holds on the threads asynchronous
+     * clients send and retry the call on.
+     */
+    @NonNull
+    static EC2ApiSubsystem of(@NonNull ExecutionAttributes executionAttributes) {
+        EC2ApiSubsystem subsystem = executionAttributes.getAttribute(EXECUTION_ATTRIBUTE);
+        return subsystem != null ? subsystem : current();
+    }
+
+    /**
+     * Restores the subsystem the current thread had before {@link #enter()}.
+     */
+    public static final class Scope implements AutoCloseable {
+        @CheckForNull
+        private final EC2ApiSubsystem previous;
+
+        private Scope(@CheckForNull EC2ApiSubsystem previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package hudson.plugins.ec2.util;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+
+/**
+ * Shares the EC2 clients connected with the same credentials to the same region and endpoint, so that form handlers
+ * and reconnecting clouds don't build a new client and credentials chain every time.
+ * <p>
+ * Clients are leased and reference counted: a client nobody leases is closed after {@link #IDLE_MILLIS}. A client is
+ * shared by the clouds and form handlers connecting with the same settings, the cloud each call is made for is told
+ * by its {@link EC2CloudScope}.
+ */
+@Restricted(NoExternalUse.class)
+public final class EC2ClientRegistry {
+
+    private static final Logger LOGGER = Logger.getLogger(EC2ClientRegistry.class.getName());
+
+    /*
+     * How long (in milliseconds) a client nobody leases is kept.
+     */
+    static final long IDLE_MILLIS =
+            Long.getLong("hudson.plugins.ec2.util.EC2ClientRegistry.idleMillis", TimeUnit.MINUTES.toMillis(5));
+
+    /*
+     * How long (in minutes) a client that was replaced is kept open, for the calls in flight.
+     */
+    private static final long CLOSE_DELAY_MINUTES = 1;
+
+    private static final EC2ClientRegistry INSTANCE = new EC2ClientRegistry(
+            IDLE_MILLIS,
+            System::currentTimeMillis,
+            CompletableFuture.delayedExecutor(IDLE_MILLIS, TimeUnit.MILLISECONDS),
+            CompletableFuture.delayedExecutor(CLOSE_DELAY_MINUTES, TimeUnit.MINUTES));
+
+    private final long idleMillis;
+
+    private final LongSupplier clock;
+
+    private final Executor idleCheckExecutor;
+
+    private final Executor closeExecutor;
+
+    private final Map<Key, Entry> entries = new HashMap<>();
+
+    EC2ClientRegistry(
+            long idleMillis,
+            @NonNull LongSupplier clock,
+            @NonNull Executor idleCheckExecutor,
+            @NonNull Executor closeExecutor) {
+        this.idleMillis = idleMillis;
+        this.clock = clock;
+        this.idleCheckExecutor = idleCheckExecutor;
+        this.closeExecutor = closeExecutor;
+    }
+
+    @NonNull
+    public static EC2ClientRegistry get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Leases the client connected with the given credentials to the given region and endpoint, connecting it through
+     * the {@link AmazonEC2Factory} if there is none yet.
+     *
+     * @param credentialsKey identifies the credentials, e.g. their id, a digest of their secret and the role assumed
+     *     with them
+     * @param credentialsProvider creates the credentials provider, only called to connect a new client
+     * @return the lease, to be closed once done with the client
+     */
+    @NonNull
+    public Lease connect(
+            @NonNull String credentialsKey,
+            @NonNull Supplier<AwsCredentialsProvider> credentialsProvider,
+            @CheckForNull Region region,
+            @CheckForNull URI endpoint) {
+        AmazonEC2Factory factory = AmazonEC2Factory.getInstance();
+        Key key = new Key(factory, credentialsKey, region, endpoint);
+        return connect(key, () -> factory.connect(credentialsProvider.get(), region, endpoint));
+    }
+
+    @NonNull
+    Lease connect(@NonNull Key key, @NonNull Supplier<Ec2Client> connector) {
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                entry.references++;
+                return new Lease(entry);
+            }
+        }
+
+        // Connect without holding the lock, another thread may connect the same client meanwhile
+        Ec2Client client = connector.get();
+        Entry duplicate = null;
+        Lease lease;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry(key, client);
+                entries.put(key, entry);
+            } else {
+                duplicate = new Entry(key, client);
+            }
+            entry.references++;
+            lease = new Lease(entry);
+        }
+        if (duplicate != null) {
+            closeLater(duplicate);
+        }
+        return lease;
+    }
+
+    /**
+     * Stops handing out the current clients, e.g. after the credentials or the proxy changed. They are closed once
+     * released.
+     */
+    public void invalidateAll() {
+        List<Entry> idle = new ArrayList<>();
+        synchronized (this) {
+            for (Entry entry : entries.values()) {
+                entry.retired = true;
+                if (entry.references == 0) {
+                    idle.add(entry);
+                }
+            }
+            entries.clear();
+        }
+        idle.forEach(this::closeLater);
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private void invalidate(Entry entry) {
+        boolean idle;
+        synchronized (this) {
+            if (entry.retired) {
+                return;
+            }
+            entry.retired = true;
+            entries.remove(entry.key, entry);
+            idle = entry.references == 0;
+        }
+        if (idle) {
+            closeLater(entry);
+        }
+    }
+
+    private void release(Entry entry) {
+        boolean close;
+        synchronized (this) {
+            entry.references--;
+            if (entry.references > 0) {
+                return;
+            }
+            entry.releasedAt = clock.getAsLong();
+            close = entry.retired;
+        }
+        if (close) {
+            closeLater(entry);
+        } else {
+            idleCheckExecutor.execute(() -> evictIfIdle(entry));
+        }
+    }
+
+    void evictIfIdle(Entry entry) {
+        synchronized (this) {
+            if (entry.retired
+                    || entry.references > 0
+                    || clock.getAsLong() - entry.releasedAt < idleMillis
+                    || !entries.remove(entry.key, entry)) {
+                return;
+            }
+            entry.retired = true;
+        }
+        LOGGER.log(Level.FINE, "Closing the idle EC2 client of {0}", entry.key);
+        entry.client.close();
+    }
+
+    private void closeLater(Entry entry) {
+        // Calls may still be in flight on a client that was replaced
+        closeExecutor.execute(entry.client::close);
+    }
+
+    /**
+     * A client taken from the registry, handed back when closed.
+     */
+    public final class Lease implements AutoCloseable {
+        private final Entry entry;
+
+        private boolean closed;
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        @NonNull
+        public Ec2Client get() {
+            return entry.client;
+        }
+
+        /**
+         * Stops handing out this client, e.g. because its credentials expired. It is closed once released.
+         */
+        public void invalidate() {
+            EC2ClientRegistry.this.invalidate(entry);
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            release(entry);
+        }
+    }
+
+    static final class Key {
+        private final Object factory;
+
+        private final String credentials;
+
+        private final Region region;
+
+        private final URI endpoint;
+
+        Key(
+                @NonNull Object factory,
+                @NonNull String credentials,
+                @CheckForNull Region region,
+                @CheckForNull URI endpoint) {
+            this.factory = factory;
+            this.credentials = credentials;
+            this.region = region;
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key key)) {
+                return false;
+            }
+            // A new factory, e.g. after a restart, connects new clients
+            return factory == key.factory
+                    && credentials.equals(key.credentials)
+                    && Objects.equals(region, key.region)
+                    && Objects.equals(endpoint, key.endpoint);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(factory), credentials, region, endpoint);
+        }
+
+        @Override
+        public String toString() {
+            return (region != null ? region.id() : "<default>") + (endpoint != null ? " at " + endpoint : "");
+        }
+    }
+
+    static final class Entry {
+        private final Key key;
+
+        private final Ec2Client client;
+
+        private int references;
+
+        private long releasedAt;
+
+        private boolean retired;
+
+        Entry(Key key, Ec2Client client) {
+            this.key = key;
+            this.client = client;
+        }
+    }
+}
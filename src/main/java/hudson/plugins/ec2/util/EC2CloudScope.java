@@ -0,0 +1,112 @@
+package hudson.plugins.ec2.util;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+
+/**
+ * The cloud EC2 API calls are made for, set for the current thread with {@link #enter(String)}.
+ * <p>
+ * The clients of the {@link EC2ClientRegistry} are shared by the clouds connected with the same credentials to the
+ * same region and endpoint, so the cloud of a call can't be told from its client. Each cloud makes its calls through
+ * a view of the shared client, see {@link #bind}, that sets the cloud for the duration of the call, so that its
+ * {@link EC2ApiMetrics} and connection health are still recorded under the cloud.
+ */
+@Restricted(NoExternalUse.class)
+public final class EC2CloudScope implements AutoCloseable {
+
+    private static final ThreadLocal<String> CURRENT = new ThreadLocal<>();
+
+    private static final ExecutionAttribute<String> EXECUTION_ATTRIBUTE =
+            new ExecutionAttribute<>("hudson.plugins.ec2.util.EC2CloudScope");
+
+    @CheckForNull
+    private final String previous;
+
+    private EC2CloudScope(@CheckForNull String previous) {
+        this.previous = previous;
+    }
+
+    /**
+     * Makes the EC2 API calls of the current thread on behalf of the given cloud, until the scope is closed.
+     */
+    @NonNull
+    public static EC2CloudScope enter(@NonNull String cloudName) {
+        EC2CloudScope scope = new EC2CloudScope(CURRENT.get());
+        CURRENT.set(cloudName);
+        return scope;
+    }
+
+    /**
+     * Gets the cloud the current thread makes EC2 API calls for, null unless set.
+     */
+    @CheckForNull
+    public static String current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Records the cloud of the current thread as the one of an API call, when it starts executing.
+     */
+    public static void capture(@NonNull ExecutionAttributes executionAttributes) {
+        String cloudName = CURRENT.get();
+        if (cloudName != null && executionAttributes.getAttribute(EXECUTION_ATTRIBUTE) == null) {
+            executionAttributes.putAttribute(EXECUTION_ATTRIBUTE, cloudName);
+        }
+    }
+
+    /**
+     * Gets the cloud an API call is made for. Unlike {@link #current()}, this holds on the threads asynchronous clients
+     * send and retry the call on.
+     *
+     * @param cloudName the cloud of the client, if it is not shared, null otherwise
+     * @return the cloud, null if the call is not made for a cloud
+     */
+    @CheckForNull
+    public static String of(@NonNull ExecutionAttributes executionAttributes, @CheckForNull String cloudName) {
+        String captured = executionAttributes.getAttribute(EXECUTION_ATTRIBUTE);
+        if (captured != null) {
+            return captured;
+        }
+        String current = CURRENT.get();
+        return current != null ? current : cloudName;
+    }
+
+    /**
+     * Gets a view of the given client making its calls for the given cloud.
+     *
+     * @param cloudName the cloud, null to get the client itself
+     */
+    @NonNull
+    public static Ec2Client bind(@NonNull Ec2Client client, @CheckForNull String cloudName) {
+        if (cloudName == null) {
+            return client;
+        }
+        return (Ec2Client) Proxy.newProxyInstance(
+                Ec2Client.class.getClassLoader(), new Class<?>[] {Ec2Client.class}, (proxy, method, args) -> {
+                    try (EC2CloudScope ignored = enter(cloudName)) {
+                        return method.invoke(client, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    /**
+     * Restores the cloud the current thread had before {@link #enter(String)}.
+     */
+    @Override
+    public void close() {
+        if (previous != null) {
+            CURRENT.set(previous);
+        } else {
+            CURRENT.remove();
+        }
+    }
+}
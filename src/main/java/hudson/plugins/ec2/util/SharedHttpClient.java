@@ -0,0 +1,209 @@
+package hudson.plugins.ec2.util;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.ProxyConfiguration;
+import hudson.util.Secret;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.utils.SdkAutoCloseable;
+
+/**
+ * The HTTP clients shared by all the EC2 and STS clients of the plugin, so that they share one connection pool and
+ * reuse its connections and TLS sessions instead of each keeping its own: one for the blocking clients, see
+ * {@link #get()}, and one for the non-blocking clients, see {@link #getAsync()}. Both go through the proxy of Jenkins.
+ * <p>
+ * The AWS clients do not close an HTTP client they are given, so it outlives them. They are only rebuilt when the proxy
+ * of Jenkins changes, see {@link #proxyChanged()}.
+ */
+@Restricted(NoExternalUse.class)
+public final class SharedHttpClient {
+
+    private static final Logger LOGGER = Logger.getLogger(SharedHttpClient.class.getName());
+
+    /*
+     * How many connections are pooled at most, for all the clouds and regions.
+     */
+    static final int MAX_CONNECTIONS = Integer.getInteger("hudson.plugins.ec2.util.SharedHttpClient.maxConnections", 200);
+
+    /*
+     * How long (in milliseconds) a pooled connection can stay idle before being closed.
+     */
+    static final long CONNECTION_MAX_IDLE_MILLIS = Long.getLong(
+            "hudson.plugins.ec2.util.SharedHttpClient.connectionMaxIdleMillis", TimeUnit.MINUTES.toMillis(1));
+
+    /*
+     * How long (in milliseconds) a connection is reused at most, so that changes of the endpoints addresses are seen.
+     */
+    static final long CONNECTION_TTL_MILLIS = Long.getLong(
+            "hudson.plugins.ec2.util.SharedHttpClient.connectionTimeToLiveMillis", TimeUnit.MINUTES.toMillis(10));
+
+    static final boolean TCP_KEEP_ALIVE_DISABLED =
+            Boolean.getBoolean("hudson.plugins.ec2.util.SharedHttpClient.tcpKeepAliveDisabled");
+
+    /*
+     * How long (in minutes) the previous client is kept open after the proxy changed, for the calls in flight.
+     */
+    private static final long CLOSE_DELAY_MINUTES = 1;
+
+    private static SdkHttpClient client;
+
+    private static List<Object> clientProxy;
+
+    private static SdkAsyncHttpClient asyncClient;
+
+    private static List<Object> asyncClientProxy;
+
+    private SharedHttpClient() {}
+
+    /**
+     * Gets the HTTP client, going through the proxy of Jenkins if one is configured.
+     */
+    @NonNull
+    public static synchronized SdkHttpClient get() {
+        if (client == null) {
+            ProxyConfiguration proxy = getProxy();
+            client = build(proxy);
+            clientProxy = settingsOf(proxy);
+        }
+        return client;
+    }
+
+    /**
+     * Gets the non-blocking HTTP client, going through the proxy of Jenkins if one is configured.
+     */
+    @NonNull
+    public static synchronized SdkAsyncHttpClient getAsync() {
+        if (asyncClient == null) {
+            ProxyConfiguration proxy = getProxy();
+            asyncClient = buildAsync(proxy);
+            asyncClientProxy = settingsOf(proxy);
+        }
+        return asyncClient;
+    }
+
+    /**
+     * Rebuilds the HTTP clients if the proxy of Jenkins changed since they were built. The previous ones are closed
+     * once the calls in flight had time to complete.
+     *
+     * @return true if a client is to be rebuilt, in which case the AWS clients are to be rebuilt too
+     */
+    public static boolean proxyChanged() {
+        return proxyChanged(CompletableFuture.delayedExecutor(CLOSE_DELAY_MINUTES, TimeUnit.MINUTES));
+    }
+
+    /**
+     * Rebuilds the HTTP clients if the proxy of Jenkins changed since they were built.
+     *
+     * @param closer runs the closing of each previous client, once the calls in flight had time to complete
+     */
+    static boolean proxyChanged(@NonNull Executor closer) {
+        List<SdkAutoCloseable> previous = new ArrayList<>();
+        synchronized (SharedHttpClient.class) {
+            List<Object> settings = settingsOf(getProxy());
+            if (client != null && !clientProxy.equals(settings)) {
+                previous.add(client);
+                client = null;
+                clientProxy = null;
+            }
+            if (asyncClient != null && !asyncClientProxy.equals(settings)) {
+                previous.add(asyncClient);
+                asyncClient = null;
+                asyncClientProxy = null;
+            }
+        }
+        if (previous.isEmpty()) {
+            return false;
+        }
+        LOGGER.fine("The proxy changed, rebuilding the HTTP clients");
+        for (SdkAutoCloseable closeable : previous) {
+            closer.execute(closeable::close);
+        }
+        return true;
+    }
+
+    @CheckForNull
+    private static ProxyConfiguration getProxy() {
+        Jenkins instance = Jenkins.getInstanceOrNull();
+        ProxyConfiguration proxy = instance != null ? instance.proxy : null;
+        return proxy != null && proxy.name != null && !proxy.name.isEmpty() ? proxy : null;
+    }
+
+    private static List<Object> settingsOf(@CheckForNull ProxyConfiguration proxy) {
+        if (proxy == null) {
+            return List.of();
+        }
+        return Arrays.asList(
+                proxy.name,
+                proxy.port,
+                proxy.getUserName(),
+                Secret.toString(proxy.getSecretPassword()),
+                proxy.getNoProxyHost());
+    }
+
+    private static SdkHttpClient build(@CheckForNull ProxyConfiguration proxy) {
+        ApacheHttpClient.Builder builder = ApacheHttpClient.builder()
+                .maxConnections(MAX_CONNECTIONS)
+                .connectionMaxIdleTime(Duration.ofMillis(CONNECTION_MAX_IDLE_MILLIS))
+                .useIdleConnectionReaper(true)
+                .connectionTimeToLive(Duration.ofMillis(CONNECTION_TTL_MILLIS))
+                .tcpKeepAlive(!TCP_KEEP_ALIVE_DISABLED);
+        if (proxy != null) {
+            software.amazon.awssdk.http.apache.ProxyConfiguration.Builder proxyConfiguration =
+                    software.amazon.awssdk.http.apache.ProxyConfiguration.builder()
+                            .endpoint(URI.create(String.format("http://%s:%s", proxy.name, proxy.port)));
+            if (proxy.getUserName() != null) {
+                proxyConfiguration.username(proxy.getUserName());
+                proxyConfiguration.password(Secret.toString(proxy.getSecretPassword()));
+            }
+            List<Pattern> patterns = proxy.getNoProxyHostPatterns();
+            if (patterns != null && !patterns.isEmpty()) {
+                patterns.stream().map(Pattern::pattern).forEach(proxyConfiguration::addNonProxyHost);
+            }
+            builder.proxyConfiguration(proxyConfiguration.build());
+        }
+        return builder.build();
+    }
+
+    private static SdkAsyncHttpClient buildAsync(@CheckForNull ProxyConfiguration proxy) {
+        NettyNioAsyncHttpClient.Builder builder = NettyNioAsyncHttpClient.builder()
+                .maxConcurrency(MAX_CONNECTIONS)
+                .connectionMaxIdleTime(Duration.ofMillis(CONNECTION_MAX_IDLE_MILLIS))
+                .useIdleConnectionReaper(true)
+                .connectionTimeToLive(Duration.ofMillis(CONNECTION_TTL_MILLIS))
+                .tcpKeepAlive(!TCP_KEEP_ALIVE_DISABLED);
+        if (proxy != null) {
+            software.amazon.awssdk.http.nio.netty.ProxyConfiguration.Builder proxyConfiguration =
+                    software.amazon.awssdk.http.nio.netty.ProxyConfiguration.builder()
+                            .scheme("http")
+                            .host(proxy.name)
+                            .port(proxy.port);
+            if (proxy.getUserName() != null) {
+                proxyConfiguration.username(proxy.getUserName());
+                proxyConfiguration.password(Secret.toString(proxy.getSecretPassword()));
+            }
+            List<Pattern> patterns = proxy.getNoProxyHostPatterns();
+            if (patterns != null && !patterns.isEmpty()) {
+                proxyConfiguration.nonProxyHosts(patterns.stream().map(Pattern::pattern).collect(Collectors.toSet()));
+            }
+            builder.proxyConfiguration(proxyConfiguration.build());
+        }
+        return builder.build();
+    }
+}
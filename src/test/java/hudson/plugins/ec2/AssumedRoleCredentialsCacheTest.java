@@ -0,0 +1,109 @@
+package hudson.plugins.ec2;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.services.sts.StsClient;
+import software.amazon.awssdk.services.sts.model.AssumeRoleRequest;
+import software.amazon.awssdk.services.sts.model.AssumeRoleResponse;
+import software.amazon.awssdk.services.sts.model.Credentials;
+
+class AssumedRoleCredentialsCacheTest {
+
+    private static final AssumeRoleRequest REQUEST = AssumeRoleRequest.builder()
+            .roleArn("arn:aws:iam::123456789012:role/jenkins")
+            .roleSessionName("Jenkins")
+            .build();
+
+    @AfterEach
+    void invalidate() {
+        AssumedRoleCredentialsCache.invalidateAll();
+    }
+
+    private static StsClient stsClient(AtomicInteger clients) {
+        clients.incrementAndGet();
+        StsClient client = mock(StsClient.class);
+        when(client.assumeRole(any(AssumeRoleRequest.class)))
+                .thenReturn(AssumeRoleResponse.builder()
+                        .credentials(Credentials.builder()
+                                .accessKeyId("ASIA" + clients.get())
+                                .secretAccessKey("secret")
+                                .sessionToken("token")
+                                .expiration(Instant.now().plusSeconds(3600))
+                                .build())
+                        .build());
+        return client;
+    }
+
+    @Test
+    void testSessionIsShared() {
+        AtomicInteger clients = new AtomicInteger();
+        AwsCredentialsProvider first = AssumedRoleCredentialsCache.get("a", REQUEST, refreshes -> stsClient(clients));
+        AwsCredentialsProvider second = AssumedRoleCredentialsCache.get("a", REQUEST, refreshes -> stsClient(clients));
+        assertEquals("ASIA1", first.resolveCredentials().accessKeyId());
+        assertEquals("ASIA1", second.resolveCredentials().accessKeyId());
+        assertEquals(1, clients.get());
+        assertNotNull(AssumedRoleCredentialsCache.getSession("a"));
+
+        AssumedRoleCredentialsCache.invalidateAll();
+        assertNull(AssumedRoleCredentialsCache.getSession("a"));
+    }
+
+    @Test
+    void testProvidersOutliveTheirSession() {
+        AtomicInteger clients = new AtomicInteger();
+        AwsCredentialsProvider provider =
+                AssumedRoleCredentialsCache.get("a", REQUEST, refreshes -> stsClient(clients));
+        assertEquals("ASIA1", provider.resolveCredentials().accessKeyId());
+        AssumedRoleCredentialsCache.RoleSession session = AssumedRoleCredentialsCache.getSession("a");
+
+        // Idle for long, the session is closed but the client connected with it keeps working
+        AssumedRoleCredentialsCache.evictIdle(Long.MAX_VALUE);
+        assertNull(AssumedRoleCredentialsCache.getSession("a"));
+        assertEquals("ASIA2", provider.resolveCredentials().accessKeyId());
+        assertNotSame(session, AssumedRoleCredentialsCache.getSession("a"));
+
+        // Reconnecting assumes the role again
+        AssumedRoleCredentialsCache.invalidate("a");
+        assertEquals("ASIA3", provider.resolveCredentials().accessKeyId());
+        assertEquals(3, clients.get());
+    }
+
+    @Test
+    void testRefreshesAreCounted() {
+        AssumedRoleCredentialsCache.RoleSession session =
+                new AssumedRoleCredentialsCache.RoleSession(REQUEST.roleArn(), REQUEST.roleSessionName());
+        ExecutionInterceptor interceptor = session.interceptor();
+        Instant expiration = Instant.now().plusSeconds(3600);
+
+        Context.AfterExecution success = mock(Context.AfterExecution.class);
+        when(success.response())
+                .thenReturn(AssumeRoleResponse.builder()
+                        .credentials(Credentials.builder().expiration(expiration).build())
+                        .build());
+        interceptor.afterExecution(success, new ExecutionAttributes());
+        Context.FailedExecution failure = mock(Context.FailedExecution.class);
+        when(failure.exception()).thenReturn(SdkClientException.create("Unable to reach STS"));
+        interceptor.onExecutionFailure(failure, new ExecutionAttributes());
+
+        assertEquals(1, session.getRefreshes());
+        assertEquals(1, session.getRefreshFailures());
+        // The current credentials are still valid
+        assertEquals(expiration, session.getExpiration());
+        assertEquals("Unable to reach STS", session.getLastFailureMessage());
+    }
+}
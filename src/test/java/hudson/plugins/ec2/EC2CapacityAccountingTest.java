@@ -0,0 +1,182 @@
+package hudson.plugins.ec2;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesResponse;
+import software.amazon.awssdk.services.ec2.model.DescribeSpotInstanceRequestsRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeSpotInstanceRequestsResponse;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.Reservation;
+import software.amazon.awssdk.services.ec2.model.SpotInstanceRequest;
+
+class EC2CapacityAccountingTest {
+
+    private EC2Cloud cloud;
+
+    private Ec2Client ec2;
+
+    @BeforeEach
+    void init() {
+        cloud = Mockito.spy(new EC2Cloud(
+                "us-east-1",
+                true,
+                "abc",
+                "us-east-1",
+                null,
+                "ghi",
+                "3",
+                Collections.emptyList(),
+                "roleArn",
+                "roleSessionName"));
+        ec2 = mock(Ec2Client.class);
+        Mockito.doReturn(ec2).when(cloud).connect();
+
+        Mockito.doReturn(DescribeInstancesResponse.builder()
+                        .reservations(Reservation.builder()
+                                .instances(
+                                        Instance.builder().instanceId("i-1").build(),
+                                        Instance.builder().instanceId("i-2").build())
+                                .build())
+                        .build())
+                .when(ec2)
+                .describeInstances(Mockito.any(DescribeInstancesRequest.class));
+        Mockito.doReturn(DescribeSpotInstanceRequestsResponse.builder()
+                        .spotInstanceRequests(SpotInstanceRequest.builder()
+                                .spotInstanceRequestId("sir-1")
+                                .build())
+                        .build())
+                .when(ec2)
+                .describeSpotInstanceRequests(Mockito.any(DescribeSpotInstanceRequestsRequest.class));
+    }
+
+    private static SlaveTemplate template(String description) throws Exception {
+        SlaveTemplate template = mock(SlaveTemplate.class);
+        Field field = SlaveTemplate.class.getDeclaredField("description");
+        field.setAccessible(true);
+        field.set(template, description);
+        return template;
+    }
+
+    @Test
+    void testSweepIsShared() {
+        EC2CapacityAccounting accounting = new EC2CapacityAccounting(cloud);
+        EC2CapacityAccounting.Sweep sweep = accounting.current("http://jenkins/");
+        assertSame(sweep, accounting.current("http://jenkins/"));
+        assertEquals(2, sweep.getInstances().size());
+        assertEquals(1, sweep.getSpotRequests().size());
+
+        verify(ec2, times(1)).describeInstances(Mockito.any(DescribeInstancesRequest.class));
+        verify(ec2, times(1))
+                .describeSpotInstanceRequests(Mockito.any(DescribeSpotInstanceRequestsRequest.class));
+
+        // A different Jenkins URL needs its own sweep
+        accounting.current("http://other/");
+        verify(ec2, times(2)).describeInstances(Mockito.any(DescribeInstancesRequest.class));
+    }
+
+    @Test
+    void testReservationsNeverOvershootTheCaps() throws Exception {
+        SlaveTemplate template = template("template");
+        SlaveTemplate other = template("other");
+
+        EC2CapacityAccounting accounting = new EC2CapacityAccounting(cloud);
+        long generation = accounting.generation();
+        EC2CapacityAccounting.SlotReservation first = accounting.reserve(template, 5, 3, 2, generation);
+        assertEquals(2, first.getSlots());
+        // Only one slot is left in the cloud
+        EC2CapacityAccounting.SlotReservation second = accounting.reserve(other, 5, 3, 5, generation);
+        assertEquals(1, second.getSlots());
+        assertEquals(0, accounting.reserve(other, 5, 3, 5, generation).getSlots());
+
+        // Unused slots are given back
+        first.close();
+        assertEquals(2, accounting.reserve(template, 5, 3, 2, generation).getSlots());
+    }
+
+    private void describeInstances(String... instanceIds) {
+        Mockito.doReturn(DescribeInstancesResponse.builder()
+                        .reservations(Reservation.builder()
+                                .instances(Arrays.stream(instanceIds)
+                                        .map(id -> Instance.builder().instanceId(id).build())
+                                        .toList())
+                                .build())
+                        .build())
+                .when(ec2)
+                .describeInstances(Mockito.any(DescribeInstancesRequest.class));
+    }
+
+    @Test
+    void testLaunchedInstancesKeepTheirSlotsUntilASweepDescribesThem() throws Exception {
+        SlaveTemplate template = template("template");
+
+        EC2CapacityAccounting accounting = new EC2CapacityAccounting(cloud);
+        accounting.current("http://jenkins/");
+        long generation = accounting.generation();
+        try (EC2CapacityAccounting.SlotReservation reservation = accounting.reserve(template, 2, 2, 2, generation)) {
+            reservation.launched(List.of("i-3"));
+        }
+        try (EC2CapacityAccounting.SlotReservation reservation = accounting.reserve(template, 2, 2, 2, generation)) {
+            assertEquals(1, reservation.getSlots());
+        }
+
+        // A sweep that does not describe the instance yet keeps counting it
+        accounting.invalidate();
+        accounting.current("http://jenkins/");
+        assertNull(accounting.reserve(template, 2, 2, 2, generation));
+        assertEquals(0, accounting.reserve(template, 1, 1, 1, accounting.generation()).getSlots());
+
+        // The sweep describing the instance takes over
+        describeInstances("i-1", "i-2", "i-3");
+        accounting.invalidate();
+        accounting.current("http://jenkins/");
+        assertEquals(1, accounting.reserve(template, 1, 1, 1, accounting.generation()).getSlots());
+    }
+
+    @Test
+    void testLaunchedInstancesNeverDescribedAreDroppedAfterTheirGracePeriod() throws Exception {
+        SlaveTemplate template = template("template");
+
+        EC2CapacityAccounting accounting = new EC2CapacityAccounting(cloud, 0);
+        long generation = accounting.generation();
+        try (EC2CapacityAccounting.SlotReservation reservation = accounting.reserve(template, 1, 1, 1, generation)) {
+            reservation.launched(List.of("i-3"));
+        }
+        assertEquals(1, accounting.pending(template));
+
+        Thread.sleep(10);
+        accounting.current("http://jenkins/");
+        assertEquals(0, accounting.pending(template));
+    }
+
+    @Test
+    void testTerminatedInstancesAreDroppedRightAway() throws Exception {
+        SlaveTemplate template = template("template");
+
+        EC2CapacityAccounting accounting = new EC2CapacityAccounting(cloud);
+        EC2CapacityAccounting.Sweep sweep = accounting.current("http://jenkins/");
+        long generation = accounting.generation();
+        try (EC2CapacityAccounting.SlotReservation reservation = accounting.reserve(template, 1, 1, 1, generation)) {
+            reservation.launched(List.of("i-3"));
+        }
+        assertEquals(0, accounting.reserve(template, 1, 1, 1, generation).getSlots());
+
+        accounting.terminated("i-1");
+        accounting.terminated("i-3");
+        assertEquals(List.of("i-2"), sweep.getInstances().stream().map(Instance::instanceId).toList());
+        assertEquals(1, accounting.reserve(template, 1, 1, 1, generation).getSlots());
+    }
+}
@@ -0,0 +1,209 @@
+package hudson.plugins.ec2;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+import hudson.model.Node;
+import hudson.plugins.ec2.util.AmazonEC2FactoryMockImpl;
+import hudson.slaves.NodeProvisioner.PlannedNode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+import software.amazon.awssdk.services.ec2.model.InstanceType;
+
+@WithJenkins
+class EC2CloudParallelProvisioningTest {
+
+    private JenkinsRule r;
+
+    @BeforeEach
+    void setUp(JenkinsRule rule) {
+        r = rule;
+        AmazonEC2FactoryMockImpl.mock = AmazonEC2FactoryMockImpl.createAmazonEC2Mock();
+    }
+
+    @Test
+    void testWorkloadIsSplitInTheOrderOfPreference() throws Exception {
+        SlaveTemplate first = template("first", "2");
+        SlaveTemplate second = template("second", "10");
+        EC2Cloud cloud = cloud("10", first, second);
+
+        List<PlannedNode> plannedNodes = new ArrayList<>();
+        cloud.provisionInParallel(List.of(first, second), 5, plannedNodes);
+
+        assertEquals(5, plannedNodes.size());
+        verify(first).provision(eq(2), any());
+        verify(second).provision(eq(3), any());
+    }
+
+    @Test
+    void testInstanceCapOfTheCloudIsRespected() throws Exception {
+        SlaveTemplate first = template("first", "2");
+        SlaveTemplate second = template("second", "10");
+        EC2Cloud cloud = cloud("3", first, second);
+
+        List<PlannedNode> plannedNodes = new ArrayList<>();
+        cloud.provisionInParallel(List.of(first, second), 5, plannedNodes);
+
+        assertEquals(3, plannedNodes.size());
+        verify(first).provision(eq(2), any());
+        verify(second).provision(eq(1), any());
+    }
+
+    @Test
+    void testPlannedNodesFollowThePreferenceWhateverFinishesFirst() throws Exception {
+        SlaveTemplate first = template("first", "1");
+        SlaveTemplate second = template("second", "1");
+        CountDownLatch secondLaunched = new CountDownLatch(1);
+        doAnswer(invocation -> {
+                    // Only done once the second one launched
+                    secondLaunched.await(10, TimeUnit.SECONDS);
+                    return slaves(invocation.getArgument(0));
+                })
+                .when(first)
+                .provision(anyInt(), any());
+        doAnswer(invocation -> {
+                    secondLaunched.countDown();
+                    return slaves(invocation.getArgument(0));
+                })
+                .when(second)
+                .provision(anyInt(), any());
+        EC2Cloud cloud = cloud("10", first, second);
+
+        List<PlannedNode> plannedNodes = new ArrayList<>();
+        cloud.provisionInParallel(List.of(first, second), 2, plannedNodes);
+
+        assertEquals(2, plannedNodes.size());
+        assertEquals(first.getDisplayName(), plannedNodes.get(0).displayName);
+        assertEquals(second.getDisplayName(), plannedNodes.get(1).displayName);
+    }
+
+    @Test
+    void testShareNotLaunchedFallsBackToTheNextTemplates() throws Exception {
+        SlaveTemplate first = template("first", "10");
+        SlaveTemplate second = template("second", "10");
+        // Out of capacity after the first instance
+        doAnswer(invocation -> slaves(1)).when(first).provision(anyInt(), any());
+        EC2Cloud cloud = cloud("10", first, second);
+
+        List<PlannedNode> plannedNodes = new ArrayList<>();
+        cloud.provisionInParallel(List.of(first, second), 5, plannedNodes);
+
+        assertEquals(5, plannedNodes.size());
+        verify(first).provision(eq(5), any());
+        verify(second).provision(eq(4), any());
+    }
+
+    @Test
+    void testFailingShareDoesNotLoseTheOthers() throws Exception {
+        SlaveTemplate first = template("first", "2");
+        SlaveTemplate second = template("second", "10");
+        doThrow(new IllegalStateException("unexpected")).when(first).provision(anyInt(), any());
+        EC2Cloud cloud = cloud("10", first, second);
+
+        List<PlannedNode> plannedNodes = new ArrayList<>();
+        cloud.provisionInParallel(List.of(first, second), 5, plannedNodes);
+
+        // The second one launched its share, then what the first one failed to
+        assertEquals(5, plannedNodes.size());
+        verify(second).provision(eq(3), any());
+        verify(second).provision(eq(2), any());
+        // The slots of the failed share were released
+        assertEquals(0, cloud.getCapacityAccounting().pending(first));
+    }
+
+    @Test
+    void testNothingIsLaunchedBeyondTheWorkload() throws Exception {
+        SlaveTemplate first = template("first", "10");
+        SlaveTemplate second = template("second", "10");
+        EC2Cloud cloud = cloud("10", first, second);
+
+        List<PlannedNode> plannedNodes = new ArrayList<>();
+        cloud.provisionInParallel(List.of(first, second), 3, plannedNodes);
+
+        assertEquals(3, plannedNodes.size());
+        verify(second, never()).provision(anyInt(), any());
+    }
+
+    private EC2Cloud cloud(String instanceCap, SlaveTemplate... templates) {
+        EC2Cloud cloud = new EC2Cloud(
+                "parallel", false, "", "us-east-1", null, "ghi", instanceCap, List.of(templates), null, null);
+        r.jenkins.clouds.add(cloud);
+        return cloud;
+    }
+
+    private static SlaveTemplate template(String description, String instanceCap) throws Exception {
+        SlaveTemplate template = spy(new SlaveTemplate(
+                "ami-123",
+                EC2AbstractSlave.TEST_ZONE,
+                null,
+                "default",
+                "foo",
+                InstanceType.M1_LARGE.toString(),
+                false,
+                "ttt",
+                Node.Mode.NORMAL,
+                description,
+                "bar",
+                "bbb",
+                "aaa",
+                "1",
+                "fff",
+                null,
+                EC2AbstractSlave.DEFAULT_JAVA_PATH,
+                "-Xmx1g",
+                false,
+                "subnet-123",
+                null,
+                null,
+                0,
+                0,
+                instanceCap,
+                null,
+                false,
+                false,
+                "",
+                false,
+                "",
+                false,
+                false,
+                false,
+                ConnectionStrategy.PRIVATE_DNS,
+                -1,
+                Collections.emptyList(),
+                null,
+                Tenancy.Default,
+                EbsEncryptRootVolume.DEFAULT,
+                EC2AbstractSlave.DEFAULT_METADATA_ENDPOINT_ENABLED,
+                EC2AbstractSlave.DEFAULT_METADATA_TOKENS_REQUIRED,
+                EC2AbstractSlave.DEFAULT_METADATA_HOPS_LIMIT,
+                EC2AbstractSlave.DEFAULT_METADATA_SUPPORTED,
+                EC2AbstractSlave.DEFAULT_ENCLAVE_ENABLED));
+        doNothing().when(template).prepare();
+        doAnswer(invocation -> slaves(invocation.getArgument(0))).when(template).provision(anyInt(), any());
+        return template;
+    }
+
+    private static List<EC2AbstractSlave> slaves(int number) {
+        List<EC2AbstractSlave> slaves = new ArrayList<>();
+        for (int i = 0; i < number; i++) {
+            slaves.add(mock(EC2AbstractSlave.class));
+        }
+        return slaves;
+    }
+}
@@ -36,6 +36,7 @@ import com.cloudbees.plugins.credentials.CredentialsScope;
 import com.cloudbees.plugins.credentials.CredentialsStore;
 import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
 import com.cloudbees.plugins.credentials.domains.Domain;
+import hudson.plugins.ec2.util.AmazonEC2FactoryMockImpl;
 import hudson.plugins.ec2.util.TestSSHUserPrivateKey;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
@@ -66,6 +67,7 @@ class EC2CloudTest {
     @BeforeEach
     void setUp(JenkinsRule rule) {
         r = rule;
+        AmazonEC2FactoryMockImpl.mock = AmazonEC2FactoryMockImpl.createAmazonEC2Mock();
         cloud = new EC2Cloud(
                 "us-east-1",
                 true,
@@ -94,7 +96,9 @@ class EC2CloudTest {
         EC2Cloud cloud = r.jenkins.clouds.get(EC2Cloud.class);
         Ec2Client connection = cloud.connect();
         assertNotNull(connection);
-        assertTrue(Mockito.mockingDetails(connection).isMock());
+        // The calls of the cloud are made by the client of the factory
+        connection.describeRegions();
+        Mockito.verify(AmazonEC2FactoryMockImpl.mock).describeRegions();
     }
 
     @Test
@@ -104,7 +108,9 @@ class EC2CloudTest {
         EC2Cloud cloud = r.jenkins.clouds.get(EC2Cloud.class);
         Ec2Client connection = cloud.connect();
         assertNotNull(connection);
-        assertTrue(Mockito.mockingDetails(connection).isMock());
+        // The calls of the cloud are made by the client of the factory
+        connection.describeRegions();
+        Mockito.verify(AmazonEC2FactoryMockImpl.mock).describeRegions();
     }
 
     @Test
@@ -150,6 +156,22 @@ class EC2CloudTest {
         assertThat(m.size(), is(3));
     }
 
+    @Test
+    void testCredentialsKeyChangesWithTheSecret() {
+        SystemCredentialsProvider.getInstance()
+                .getCredentials()
+                .add(new AWSCredentialsImpl(CredentialsScope.SYSTEM, "rotated_id", "ak", "sk", "desc"));
+        String key = EC2Cloud.credentialsKey(false, "rotated_id", null, null, "us-east-1");
+        assertEquals(key, EC2Cloud.credentialsKey(false, "rotated_id", null, null, "us-east-1"));
+
+        SystemCredentialsProvider.getInstance().getCredentials().clear();
+        SystemCredentialsProvider.getInstance()
+                .getCredentials()
+                .add(new AWSCredentialsImpl(CredentialsScope.SYSTEM, "rotated_id", "ak", "rotated_sk", "desc"));
+        // Clients connected with the previous secret are not handed out anymore
+        assertNotEquals(key, EC2Cloud.credentialsKey(false, "rotated_id", null, null, "us-east-1"));
+    }
+
     @Test
     void testSshCredentials() throws IOException {
         EC2Cloud actual = r.jenkins.clouds.get(EC2Cloud.class);
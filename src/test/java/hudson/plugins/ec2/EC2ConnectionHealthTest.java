@@ -0,0 +1,99 @@
+package hudson.plugins.ec2;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+
+class EC2ConnectionHealthTest {
+
+    private static AwsServiceException error(String code) {
+        return AwsServiceException.builder()
+                .awsErrorDetails(AwsErrorDetails.builder().errorCode(code).build())
+                .build();
+    }
+
+    @Test
+    void testReconnectAfterConsecutiveAuthFailures() {
+        EC2ConnectionHealth health = new EC2ConnectionHealth(() -> 0);
+        for (int i = 1; i < EC2ConnectionHealth.AUTH_FAILURE_LIMIT; i++) {
+            health.failed(error("AuthFailure"));
+        }
+        assertFalse(health.needsReconnect(null));
+
+        health.succeeded();
+        assertEquals(0, health.getConsecutiveAuthFailures());
+
+        for (int i = 0; i < EC2ConnectionHealth.AUTH_FAILURE_LIMIT; i++) {
+            health.failed(error("ExpiredToken"));
+        }
+        assertTrue(health.needsReconnect(null));
+
+        health.connected();
+        assertFalse(health.needsReconnect(null));
+    }
+
+    @Test
+    void testRemovedCloudsAreForgotten() {
+        EC2ConnectionHealth kept = EC2ConnectionHealth.of("kept");
+        EC2ConnectionHealth removed = EC2ConnectionHealth.of("removed");
+
+        EC2ConnectionHealth.retainClouds(Set.of("kept"));
+
+        assertSame(kept, EC2ConnectionHealth.of("kept"));
+        assertNotSame(removed, EC2ConnectionHealth.of("removed"));
+    }
+
+    @Test
+    void testOtherFailuresAreIgnored() {
+        EC2ConnectionHealth health = new EC2ConnectionHealth(() -> 0);
+        for (int i = 0; i < EC2ConnectionHealth.AUTH_FAILURE_LIMIT; i++) {
+            health.failed(error("RequestLimitExceeded"));
+            health.failed(SdkClientException.create("Unable to execute HTTP request"));
+        }
+        assertEquals(0, health.getConsecutiveAuthFailures());
+        assertFalse(health.needsReconnect(null));
+    }
+
+    @Test
+    void testReconnectOnceCredentialsExpired() {
+        AtomicLong now = new AtomicLong(TimeUnit.HOURS.toMillis(1));
+        EC2ConnectionHealth health = new EC2ConnectionHealth(now::get);
+        Instant expiration = Instant.ofEpochMilli(now.get() + TimeUnit.MINUTES.toMillis(15));
+
+        assertFalse(health.needsReconnect(expiration));
+        now.addAndGet(TimeUnit.MINUTES.toMillis(15));
+        assertTrue(health.needsReconnect(expiration));
+    }
+
+    @Test
+    void testProbeOnlyWhenIdleLongerThanCredentialsLive() {
+        AtomicLong now = new AtomicLong();
+        EC2ConnectionHealth health = new EC2ConnectionHealth(now::get);
+        long lifetime = TimeUnit.MINUTES.toMillis(15);
+
+        now.addAndGet(lifetime);
+        assertFalse(health.needsProbe(lifetime));
+        now.incrementAndGet();
+        assertTrue(health.needsProbe(lifetime));
+
+        health.succeeded();
+        assertFalse(health.needsProbe(lifetime));
+
+        // Credentials of unknown lifetime are assumed to live the default time
+        now.addAndGet(lifetime + 1);
+        assertFalse(health.needsProbe(0));
+        now.addAndGet(TimeUnit.MINUTES.toMillis(EC2ConnectionHealth.DEFAULT_CREDENTIALS_LIFETIME_MINUTES));
+        assertTrue(health.needsProbe(0));
+    }
+}
@@ -0,0 +1,81 @@
+package hudson.plugins.ec2;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class EC2DemandHistoryTest {
+
+    private static final long SLOT = TimeUnit.MINUTES.toMillis(15);
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    private static final long WEEK = TimeUnit.DAYS.toMillis(7);
+
+    private static final long T0 = 100_000 * SLOT;
+
+    private EC2DemandHistory history;
+
+    @BeforeEach
+    void init() {
+        history = new EC2DemandHistory(SLOT, 4 * WEEK);
+    }
+
+    @Test
+    void testNoHistoryForecastsNothing() {
+        assertEquals(0, history.forecast(T0));
+        history.record(T0, 5);
+        assertEquals(5, history.getObserved());
+        assertEquals(0, history.forecast(T0 + SLOT));
+    }
+
+    @Test
+    void testSlotKeepsTheHighestDemand() {
+        history.record(T0, 5);
+        history.record(T0 + SLOT / 2, 3);
+        assertEquals(3, history.getObserved());
+        history.record(T0 + DAY - SLOT, 0);
+        assertEquals(5, history.forecast(T0 + DAY), 0.001);
+    }
+
+    @Test
+    void testSameTimeOfDayIsForecast() {
+        history.record(T0, 8);
+        history.record(T0 + DAY, 4);
+        history.record(T0 + 2 * DAY - SLOT, 0);
+        // The day before weighs more than the one before it
+        double expected = (4 * EC2DemandHistory.SMOOTHING
+                        + 8 * EC2DemandHistory.SMOOTHING * (1 - EC2DemandHistory.SMOOTHING))
+                / (EC2DemandHistory.SMOOTHING + EC2DemandHistory.SMOOTHING * (1 - EC2DemandHistory.SMOOTHING));
+        assertEquals(expected, history.forecast(T0 + 2 * DAY), 0.001);
+    }
+
+    @Test
+    void testSameTimeOfWeekWeighsMoreThanTimeOfDay() {
+        history.record(T0, 10);
+        history.record(T0 + 6 * DAY, 20);
+        history.record(T0 + WEEK - SLOT, 0);
+        double daily = (20 * EC2DemandHistory.SMOOTHING + 10 * Math.pow(EC2DemandHistory.SMOOTHING, 7))
+                / (EC2DemandHistory.SMOOTHING + Math.pow(EC2DemandHistory.SMOOTHING, 7));
+        double expected = EC2DemandHistory.WEEKLY_WEIGHT * 10 + (1 - EC2DemandHistory.WEEKLY_WEIGHT) * daily;
+        assertEquals(expected, history.forecast(T0 + WEEK), 0.001);
+    }
+
+    @Test
+    void testSkippedSlotsAreUnknown() {
+        history.record(T0, 10);
+        history.record(T0 + WEEK + SLOT, 6);
+        // The slot one week later was not recorded, so it does not count as no demand
+        assertEquals(10, history.forecast(T0 + 2 * WEEK), 0.001);
+    }
+
+    @Test
+    void testSlotsOlderThanTheRetentionExpire() {
+        history.record(T0, 10);
+        assertEquals(10, history.forecast(T0 + WEEK), 0.001);
+        history.record(T0 + 4 * WEEK, 0);
+        assertEquals(0, history.forecast(T0 + 5 * WEEK), 0.001);
+    }
+}
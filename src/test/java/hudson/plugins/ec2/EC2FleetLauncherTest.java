@@ -0,0 +1,276 @@
+package hudson.plugins.ec2;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.CreateFleetError;
+import software.amazon.awssdk.services.ec2.model.CreateFleetInstance;
+import software.amazon.awssdk.services.ec2.model.CreateFleetRequest;
+import software.amazon.awssdk.services.ec2.model.CreateFleetResponse;
+import software.amazon.awssdk.services.ec2.model.CreateLaunchTemplateRequest;
+import software.amazon.awssdk.services.ec2.model.CreateLaunchTemplateResponse;
+import software.amazon.awssdk.services.ec2.model.CreateLaunchTemplateVersionRequest;
+import software.amazon.awssdk.services.ec2.model.CreateLaunchTemplateVersionResponse;
+import software.amazon.awssdk.services.ec2.model.DefaultTargetCapacityType;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesResponse;
+import software.amazon.awssdk.services.ec2.model.DescribeSpotInstanceRequestsRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeSpotInstanceRequestsResponse;
+import software.amazon.awssdk.services.ec2.model.Ec2Exception;
+import software.amazon.awssdk.services.ec2.model.FleetLaunchTemplateOverridesRequest;
+import software.amazon.awssdk.services.ec2.model.FleetOnDemandAllocationStrategy;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.InstanceLifecycle;
+import software.amazon.awssdk.services.ec2.model.InstanceLifecycleType;
+import software.amazon.awssdk.services.ec2.model.InstanceNetworkInterfaceSpecification;
+import software.amazon.awssdk.services.ec2.model.RequestLaunchTemplateData;
+import software.amazon.awssdk.services.ec2.model.Reservation;
+import software.amazon.awssdk.services.ec2.model.RunInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.SpotAllocationStrategy;
+import software.amazon.awssdk.services.ec2.model.SpotInstanceRequest;
+import software.amazon.awssdk.services.ec2.model.TerminateInstancesRequest;
+
+class EC2FleetLauncherTest {
+
+    private static final RunInstancesRequest SPEC = RunInstancesRequest.builder()
+            .imageId("ami-1")
+            .instanceType("m5.large")
+            .keyName("key")
+            .minCount(1)
+            .maxCount(1)
+            .networkInterfaces(InstanceNetworkInterfaceSpecification.builder()
+                    .subnetId("subnet-a")
+                    .associatePublicIpAddress(true)
+                    .deviceIndex(0)
+                    .groups("sg-1")
+                    .build())
+            .build();
+
+    private EC2FleetLauncher launcher;
+
+    private Ec2Client ec2;
+
+    @BeforeEach
+    void init() {
+        launcher = new EC2FleetLauncher(mock(SlaveTemplate.class), millis -> {});
+        ec2 = mock(Ec2Client.class);
+        when(ec2.createLaunchTemplateVersion(any(CreateLaunchTemplateVersionRequest.class)))
+                .thenReturn(CreateLaunchTemplateVersionResponse.builder()
+                        .launchTemplateVersion(v -> v.versionNumber(3L))
+                        .build());
+        when(ec2.describeInstances(any(DescribeInstancesRequest.class)))
+                .thenReturn(DescribeInstancesResponse.builder()
+                        .reservations(Reservation.builder()
+                                .instances(Instance.builder().instanceId("i-1").build())
+                                .build())
+                        .build());
+    }
+
+    @Test
+    void testLaunchTemplateDataLeavesTypeAndSubnetToTheFleet() {
+        RequestLaunchTemplateData data = EC2FleetLauncher.toLaunchTemplateData(SPEC);
+        assertEquals("ami-1", data.imageId());
+        assertEquals("key", data.keyName());
+        assertNull(data.instanceTypeAsString());
+        assertEquals(1, data.networkInterfaces().size());
+        assertNull(data.networkInterfaces().get(0).subnetId());
+        assertEquals(List.of("sg-1"), data.networkInterfaces().get(0).groups());
+    }
+
+    @Test
+    void testOverridesCoverEveryTypeAndSubnet() {
+        CreateFleetRequest request = launcher.makeCreateFleetRequest(
+                "3",
+                List.of("m5.large", "m6i.large"),
+                List.of("subnet-a", "subnet-b"),
+                FleetAllocationStrategy.CapacityOptimized,
+                5,
+                false,
+                null);
+        List<FleetLaunchTemplateOverridesRequest> overrides =
+                request.launchTemplateConfigs().get(0).overrides();
+        assertEquals(4, overrides.size());
+        assertEquals("m5.large", overrides.get(0).instanceTypeAsString());
+        assertEquals("subnet-b", overrides.get(1).subnetId());
+        assertEquals(1.0, overrides.get(3).priority());
+        assertEquals(5, request.targetCapacitySpecification().totalTargetCapacity());
+        assertEquals(
+                DefaultTargetCapacityType.ON_DEMAND,
+                request.targetCapacitySpecification().defaultTargetCapacityType());
+        assertEquals(
+                FleetOnDemandAllocationStrategy.PRIORITIZED,
+                request.onDemandOptions().allocationStrategy());
+    }
+
+    @Test
+    void testSpotOverridesCarryTheMaxPrice() {
+        CreateFleetRequest request = launcher.makeCreateFleetRequest(
+                "3", List.of("m5.large"), List.of(), FleetAllocationStrategy.LowestPrice, 2, true, "0.05");
+        FleetLaunchTemplateOverridesRequest override =
+                request.launchTemplateConfigs().get(0).overrides().get(0);
+        assertEquals("0.05", override.maxPrice());
+        assertNull(override.subnetId());
+        assertEquals(SpotAllocationStrategy.LOWEST_PRICE, request.spotOptions().allocationStrategy());
+    }
+
+    @Test
+    void testPartialLaunchReturnsTheInstancesLaunched() {
+        when(ec2.createFleet(any(CreateFleetRequest.class)))
+                .thenReturn(CreateFleetResponse.builder()
+                        .instances(CreateFleetInstance.builder().instanceIds("i-1").build())
+                        .errors(CreateFleetError.builder()
+                                .errorCode("InsufficientInstanceCapacity")
+                                .build())
+                        .build());
+
+        List<Instance> instances = launcher.launch(
+                ec2, SPEC, List.of("m5.large"), List.of(), FleetAllocationStrategy.LowestPrice, 2, false, null);
+        assertEquals(1, instances.size());
+        assertEquals("i-1", instances.get(0).instanceId());
+
+        // The same specification is registered once
+        launcher.launch(
+                ec2, SPEC, List.of("m5.large"), List.of(), FleetAllocationStrategy.LowestPrice, 2, false, null);
+        verify(ec2, times(1)).createLaunchTemplateVersion(any(CreateLaunchTemplateVersionRequest.class));
+    }
+
+    @Test
+    void testLaunchTemplateIsCreatedWhenMissing() {
+        when(ec2.createLaunchTemplateVersion(any(CreateLaunchTemplateVersionRequest.class)))
+                .thenThrow(Ec2Exception.builder()
+                        .awsErrorDetails(AwsErrorDetails.builder()
+                                .errorCode("InvalidLaunchTemplateName.NotFoundException")
+                                .build())
+                        .build());
+        when(ec2.createLaunchTemplate(any(CreateLaunchTemplateRequest.class)))
+                .thenReturn(CreateLaunchTemplateResponse.builder()
+                        .launchTemplate(t -> t.latestVersionNumber(1L))
+                        .build());
+        when(ec2.createFleet(any(CreateFleetRequest.class)))
+                .thenReturn(CreateFleetResponse.builder()
+                        .instances(CreateFleetInstance.builder().instanceIds("i-1").build())
+                        .build());
+
+        assertFalse(launcher.launch(
+                        ec2, SPEC, List.of("m5.large"), List.of(), FleetAllocationStrategy.LowestPrice, 1, false, null)
+                .isEmpty());
+        verify(ec2).createLaunchTemplate(any(CreateLaunchTemplateRequest.class));
+    }
+
+    @Test
+    void testNoInstanceLaunchedFails() {
+        when(ec2.createFleet(any(CreateFleetRequest.class)))
+                .thenReturn(CreateFleetResponse.builder()
+                        .errors(CreateFleetError.builder()
+                                .errorCode("InsufficientInstanceCapacity")
+                                .build())
+                        .build());
+        assertThrows(
+                SdkException.class,
+                () -> launcher.launch(
+                        ec2, SPEC, List.of("m5.large"), List.of(), FleetAllocationStrategy.LowestPrice, 1, false, null));
+    }
+
+    @Test
+    void testInstancesNotVisibleYetAreDescribedAgain() {
+        when(ec2.createFleet(any(CreateFleetRequest.class)))
+                .thenReturn(CreateFleetResponse.builder()
+                        .instances(CreateFleetInstance.builder()
+                                .instanceIds("i-1")
+                                .lifecycle(InstanceLifecycle.SPOT)
+                                .build())
+                        .build());
+        when(ec2.describeInstances(any(DescribeInstancesRequest.class)))
+                .thenThrow(Ec2Exception.builder()
+                        .awsErrorDetails(AwsErrorDetails.builder()
+                                .errorCode("InvalidInstanceID.NotFound")
+                                .build())
+                        .build())
+                .thenReturn(DescribeInstancesResponse.builder()
+                        .reservations(Reservation.builder()
+                                .instances(Instance.builder()
+                                        .instanceId("i-1")
+                                        .privateIpAddress("10.0.0.1")
+                                        .spotInstanceRequestId("sir-1")
+                                        .build())
+                                .build())
+                        .build());
+
+        List<Instance> instances = launcher.launch(
+                ec2, SPEC, List.of("m5.large"), List.of(), FleetAllocationStrategy.LowestPrice, 1, true, null);
+        assertEquals(1, instances.size());
+        assertEquals("10.0.0.1", instances.get(0).privateIpAddress());
+        assertEquals("sir-1", instances.get(0).spotInstanceRequestId());
+        verify(ec2, times(2)).describeInstances(any(DescribeInstancesRequest.class));
+    }
+
+    @Test
+    void testSpotInstancesNeverVisibleKeepTheirLifecycle() {
+        when(ec2.createFleet(any(CreateFleetRequest.class)))
+                .thenReturn(CreateFleetResponse.builder()
+                        .instances(
+                                CreateFleetInstance.builder()
+                                        .instanceIds("i-1")
+                                        .instanceType("m5.large")
+                                        .lifecycle(InstanceLifecycle.SPOT)
+                                        .build(),
+                                CreateFleetInstance.builder()
+                                        .instanceIds("i-2")
+                                        .lifecycle(InstanceLifecycle.ON_DEMAND)
+                                        .build())
+                        .build());
+        when(ec2.describeInstances(any(DescribeInstancesRequest.class)))
+                .thenReturn(DescribeInstancesResponse.builder().build());
+        when(ec2.describeSpotInstanceRequests(any(DescribeSpotInstanceRequestsRequest.class)))
+                .thenReturn(DescribeSpotInstanceRequestsResponse.builder()
+                        .spotInstanceRequests(SpotInstanceRequest.builder()
+                                .spotInstanceRequestId("sir-1")
+                                .instanceId("i-1")
+                                .build())
+                        .build());
+
+        List<Instance> instances = launcher.launch(
+                ec2, SPEC, List.of("m5.large"), List.of(), FleetAllocationStrategy.LowestPrice, 2, true, null);
+        assertEquals(2, instances.size());
+        assertEquals("i-1", instances.get(0).instanceId());
+        assertEquals(InstanceLifecycleType.SPOT, instances.get(0).instanceLifecycle());
+        assertEquals("sir-1", instances.get(0).spotInstanceRequestId());
+        assertEquals("m5.large", instances.get(0).instanceTypeAsString());
+        assertNull(instances.get(1).instanceLifecycle());
+        assertNull(instances.get(1).spotInstanceRequestId());
+        verify(ec2, times(4)).describeInstances(any(DescribeInstancesRequest.class));
+    }
+
+    @Test
+    void testSpotInstancesWithoutRequestAreTerminated() {
+        when(ec2.createFleet(any(CreateFleetRequest.class)))
+                .thenReturn(CreateFleetResponse.builder()
+                        .instances(CreateFleetInstance.builder()
+                                .instanceIds("i-1")
+                                .lifecycle(InstanceLifecycle.SPOT)
+                                .build())
+                        .build());
+        when(ec2.describeSpotInstanceRequests(any(DescribeSpotInstanceRequestsRequest.class)))
+                .thenReturn(DescribeSpotInstanceRequestsResponse.builder().build());
+
+        // i-1 is described, but without its spot request
+        assertTrue(launcher.launch(
+                        ec2, SPEC, List.of("m5.large"), List.of(), FleetAllocationStrategy.LowestPrice, 1, true, null)
+                .isEmpty());
+        verify(ec2).terminateInstances(any(TerminateInstancesRequest.class));
+    }
+}
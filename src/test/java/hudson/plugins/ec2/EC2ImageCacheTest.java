@@ -0,0 +1,85 @@
+package hudson.plugins.ec2;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.DescribeImagesRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeImagesResponse;
+import software.amazon.awssdk.services.ec2.model.Image;
+
+class EC2ImageCacheTest {
+
+    private static final DescribeImagesRequest REQUEST =
+            DescribeImagesRequest.builder().owners("self").build();
+
+    private SlaveTemplate template;
+
+    private Ec2Client ec2;
+
+    private final List<Image> images = new ArrayList<>();
+
+    @BeforeEach
+    void init() {
+        EC2Cloud cloud = mock(EC2Cloud.class);
+        ec2 = mock(Ec2Client.class);
+        when(cloud.connect()).thenReturn(ec2);
+        template = mock(SlaveTemplate.class);
+        when(template.getParent()).thenReturn(cloud);
+
+        images.add(image("ami-old", "2024-01-01T00:00:00.000Z"));
+        images.add(image("ami-new", "2025-01-01T00:00:00.000Z"));
+        images.add(image("ami-older", "2023-01-01T00:00:00.000Z"));
+        Mockito.doAnswer(invocation -> DescribeImagesResponse.builder()
+                        .images(new ArrayList<>(images))
+                        .build())
+                .when(ec2)
+                .describeImages(Mockito.any(DescribeImagesRequest.class));
+    }
+
+    private static Image image(String imageId, String creationDate) {
+        return Image.builder().imageId(imageId).creationDate(creationDate).build();
+    }
+
+    @Test
+    void testLatestImageIsCached() {
+        EC2ImageCache cache = new EC2ImageCache(template, 60_000, Runnable::run);
+        assertEquals("ami-new", cache.getImage(REQUEST).imageId());
+        assertEquals("ami-new", cache.getImage(REQUEST).imageId());
+        verify(ec2, times(1)).describeImages(REQUEST);
+
+        // Another request, e.g. after the filters of the template were changed
+        DescribeImagesRequest other = DescribeImagesRequest.builder().owners("amazon").build();
+        cache.getImage(other);
+        verify(ec2, times(1)).describeImages(other);
+
+        cache.invalidate();
+        cache.getImage(other);
+        verify(ec2, times(2)).describeImages(other);
+    }
+
+    @Test
+    void testExpiredImageIsServedWhileRefreshing() {
+        List<Runnable> refreshes = new ArrayList<>();
+        EC2ImageCache cache = new EC2ImageCache(template, 0, refreshes::add);
+        assertEquals("ami-new", cache.getImage(REQUEST).imageId());
+
+        images.add(image("ami-newest", "2026-01-01T00:00:00.000Z"));
+        // Served from the cache, with a single refresh scheduled
+        assertEquals("ami-new", cache.getImage(REQUEST).imageId());
+        assertEquals("ami-new", cache.getImage(REQUEST).imageId());
+        assertEquals(1, refreshes.size());
+        verify(ec2, times(1)).describeImages(REQUEST);
+
+        refreshes.get(0).run();
+        assertEquals("ami-newest", cache.getImage(REQUEST).imageId());
+    }
+}
@@ -0,0 +1,112 @@
+package hudson.plugins.ec2;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import jenkins.model.JenkinsLocationConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesResponse;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.Reservation;
+
+class EC2InstanceInventoryTest {
+
+    private EC2Cloud cloud;
+
+    private Ec2Client ec2;
+
+    private MockedStatic<JenkinsLocationConfiguration> locationConfiguration;
+
+    @BeforeEach
+    void init() {
+        cloud = Mockito.spy(new EC2Cloud(
+                "us-east-1",
+                true,
+                "abc",
+                "us-east-1",
+                null,
+                "ghi",
+                "3",
+                Collections.emptyList(),
+                "roleArn",
+                "roleSessionName"));
+        ec2 = mock(Ec2Client.class);
+        Mockito.doReturn(ec2).when(cloud).connect();
+
+        JenkinsLocationConfiguration config = mock(JenkinsLocationConfiguration.class);
+        Mockito.doReturn("http://jenkins/").when(config).getUrl();
+        locationConfiguration = Mockito.mockStatic(JenkinsLocationConfiguration.class);
+        locationConfiguration.when(JenkinsLocationConfiguration::get).thenReturn(config);
+    }
+
+    @AfterEach
+    void tearDown() {
+        locationConfiguration.close();
+    }
+
+    private static DescribeInstancesResponse response(String nextToken, String... instanceIds) {
+        Reservation reservation = Reservation.builder()
+                .instances(Arrays.stream(instanceIds)
+                        .map(id -> Instance.builder().instanceId(id).build())
+                        .toList())
+                .build();
+        return DescribeInstancesResponse.builder()
+                .reservations(reservation)
+                .nextToken(nextToken)
+                .build();
+    }
+
+    @Test
+    void testSingleSweepServesAllInstances() throws Exception {
+        Mockito.doReturn(response("token", "i-1"), response(null, "i-2"))
+                .when(ec2)
+                .describeInstances(Mockito.any(DescribeInstancesRequest.class));
+
+        EC2InstanceInventory inventory = new EC2InstanceInventory(cloud);
+        assertEquals("i-1", inventory.getInstance("i-1", false).instanceId());
+        assertEquals("i-2", inventory.getInstance("i-2", false).instanceId());
+        assertEquals("i-2", inventory.getInstance("i-2", true).instanceId());
+
+        // One paginated sweep, tag filtered, and no per-instance lookups
+        ArgumentCaptor<DescribeInstancesRequest> captor = ArgumentCaptor.forClass(DescribeInstancesRequest.class);
+        verify(ec2, times(2)).describeInstances(captor.capture());
+        List<DescribeInstancesRequest> requests = captor.getAllValues();
+        assertEquals(Collections.emptyList(), requests.get(0).instanceIds());
+        assertEquals("token", requests.get(1).nextToken());
+        assertEquals("tag-key", requests.get(0).filters().get(0).name());
+    }
+
+    @Test
+    void testFallbackForInstanceOutsideOfInventory() throws Exception {
+        Mockito.doAnswer(invocation -> {
+                    DescribeInstancesRequest request = invocation.getArgument(0);
+                    if (request.hasInstanceIds()) {
+                        return response(null, request.instanceIds().get(0));
+                    }
+                    return response(null, "i-1");
+                })
+                .when(ec2)
+                .describeInstances(Mockito.any(DescribeInstancesRequest.class));
+
+        EC2InstanceInventory inventory = new EC2InstanceInventory(cloud);
+        assertEquals("i-untagged", inventory.getInstance("i-untagged", false).instanceId());
+        // The looked up instance is kept until the next refresh
+        assertEquals("i-untagged", inventory.getInstance("i-untagged", false).instanceId());
+        assertNull(inventory.getInstance("", false));
+
+        verify(ec2, times(2)).describeInstances(Mockito.any(DescribeInstancesRequest.class));
+    }
+}
@@ -0,0 +1,80 @@
+package hudson.plugins.ec2;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import hudson.plugins.ec2.util.KeyPair;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.KeyPairInfo;
+
+class EC2KeyPairCacheTest {
+
+    private final Ec2Client ec2 = mock(Ec2Client.class);
+
+    private static EC2PrivateKey privateKey(String material, KeyPair keyPair) throws Exception {
+        EC2PrivateKey privateKey = mock(EC2PrivateKey.class);
+        when(privateKey.getPrivateKey()).thenReturn(material);
+        when(privateKey.find(any(Ec2Client.class))).thenReturn(keyPair);
+        return privateKey;
+    }
+
+    private static KeyPair keyPair(String name, String material) {
+        return new KeyPair(KeyPairInfo.builder().keyName(name).build(), material);
+    }
+
+    @Test
+    void testKeyPairIsLookedUpOncePerCredential() throws Exception {
+        KeyPair keyPair = keyPair("key", "material");
+        EC2PrivateKey privateKey = privateKey("material", keyPair);
+
+        EC2KeyPairCache cache = new EC2KeyPairCache();
+        assertSame(keyPair, cache.find("creds", privateKey, ec2));
+        assertSame(keyPair, cache.find("creds", privateKey, ec2));
+        verify(privateKey, times(1)).find(ec2);
+
+        // The secret of the credential was changed
+        KeyPair rotated = keyPair("rotated", "other material");
+        EC2PrivateKey rotatedKey = privateKey("other material", rotated);
+        assertSame(rotated, cache.find("creds", rotatedKey, ec2));
+        verify(rotatedKey, times(1)).find(ec2);
+
+        // EC2 rejected the key pair
+        cache.invalidate();
+        assertSame(rotated, cache.find("creds", rotatedKey, ec2));
+        verify(rotatedKey, times(2)).find(ec2);
+    }
+
+    @Test
+    void testMissesAreNotCached() throws Exception {
+        EC2PrivateKey privateKey = privateKey("material", null);
+
+        EC2KeyPairCache cache = new EC2KeyPairCache();
+        assertNull(cache.find("creds", privateKey, ec2));
+        assertNull(cache.find("creds", privateKey, ec2));
+        verify(privateKey, times(2)).find(ec2);
+    }
+
+    @Test
+    void testInvalidKeyPairError() {
+        assertTrue(EC2KeyPairCache.isInvalidKeyPairError(error("InvalidKeyPair.NotFound")));
+        assertFalse(EC2KeyPairCache.isInvalidKeyPairError(error("InsufficientInstanceCapacity")));
+        assertFalse(EC2KeyPairCache.isInvalidKeyPairError(
+                AwsServiceException.builder().message("no details").build()));
+    }
+
+    private static AwsServiceException error(String errorCode) {
+        return AwsServiceException.builder()
+                .awsErrorDetails(AwsErrorDetails.builder().errorCode(errorCode).build())
+                .build();
+    }
+}
@@ -0,0 +1,150 @@
+package hudson.plugins.ec2;
+
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import hudson.model.Node;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.InstanceState;
+import software.amazon.awssdk.services.ec2.model.InstanceStateName;
+
+class EC2LaunchPipelineTest {
+
+    private static final String INSTANCE_ID = "i-123";
+
+    private SlaveTemplate template;
+
+    private EC2AbstractSlave slave;
+
+    private EC2Cloud cloud;
+
+    private InstanceLookupCoalescer lookups;
+
+    @BeforeEach
+    void init() {
+        template = mock(SlaveTemplate.class);
+        cloud = mock(EC2Cloud.class);
+        lookups = mock(InstanceLookupCoalescer.class);
+        when(cloud.getInstanceLookups()).thenReturn(lookups);
+        slave = mock(EC2OndemandSlave.class);
+        when(slave.getInstanceId()).thenReturn(INSTANCE_ID);
+        when(slave.getCloud()).thenReturn(cloud);
+    }
+
+    private CompletableFuture<Node> start() {
+        return new EC2PendingInstanceTracker(cloud, Runnable::run, System::currentTimeMillis, 0, 0)
+                .track(new EC2LaunchPipeline(template, slave));
+    }
+
+    private static CompletableFuture<Map<String, Instance>> instance(InstanceStateName state) {
+        return CompletableFuture.completedFuture(Map.of(
+                INSTANCE_ID,
+                Instance.builder()
+                        .instanceId(INSTANCE_ID)
+                        .state(InstanceState.builder().name(state).build())
+                        .launchTime(Instant.now())
+                        .build()));
+    }
+
+    private static CompletableFuture<Map<String, Instance>> notFound() {
+        return CompletableFuture.completedFuture(Map.of());
+    }
+
+    private static CompletableFuture<Map<String, Instance>> failure(String errorCode) {
+        return CompletableFuture.failedFuture(AwsServiceException.builder()
+                .awsErrorDetails(AwsErrorDetails.builder().errorCode(errorCode).build())
+                .build());
+    }
+
+    @Test
+    void testCompletesOnceRunning() throws Exception {
+        when(lookups.getInstancesAsync(anyCollection()))
+                .thenReturn(instance(InstanceStateName.PENDING))
+                .thenReturn(instance(InstanceStateName.PENDING))
+                .thenReturn(instance(InstanceStateName.RUNNING));
+
+        assertSame(slave, start().get(10, TimeUnit.SECONDS));
+        verify(lookups, times(3)).getInstancesAsync(anyCollection());
+    }
+
+    @Test
+    void testInstanceNotVisibleYetIsRetried() throws Exception {
+        when(lookups.getInstancesAsync(anyCollection()))
+                .thenReturn(notFound())
+                .thenReturn(instance(InstanceStateName.RUNNING));
+
+        assertSame(slave, start().get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testInstanceNeverFoundIsGivenUp() throws Exception {
+        when(lookups.getInstancesAsync(anyCollection())).thenReturn(notFound());
+
+        assertNull(start().get(10, TimeUnit.SECONDS));
+        verify(lookups, times(6)).getInstancesAsync(anyCollection());
+    }
+
+    @Test
+    void testExpiredRequestIsRetried() throws Exception {
+        when(lookups.getInstancesAsync(anyCollection()))
+                .thenReturn(failure(EC2Cloud.EC2_REQUEST_EXPIRED_ERROR_CODE))
+                .thenReturn(instance(InstanceStateName.RUNNING));
+
+        assertSame(slave, start().get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testThrottlingIsRetried() throws Exception {
+        when(lookups.getInstancesAsync(anyCollection()))
+                .thenReturn(failure("RequestLimitExceeded"))
+                .thenReturn(CompletableFuture.failedFuture(SdkClientException.create("Connection reset")))
+                .thenReturn(instance(InstanceStateName.RUNNING));
+
+        assertSame(slave, start().get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testNetworkErrorsAreGivenUpAfterAWhile() {
+        when(lookups.getInstancesAsync(anyCollection()))
+                .thenReturn(CompletableFuture.failedFuture(SdkClientException.create("Connection reset")));
+
+        ExecutionException e = assertThrows(
+                ExecutionException.class, () -> start().get(10, TimeUnit.SECONDS));
+        assertInstanceOf(SdkClientException.class, e.getCause());
+        verify(lookups, times(11)).getInstancesAsync(anyCollection());
+    }
+
+    @Test
+    void testOtherErrorsFailTheLaunch() {
+        when(lookups.getInstancesAsync(anyCollection())).thenReturn(failure("UnauthorizedOperation"));
+
+        ExecutionException e = assertThrows(
+                ExecutionException.class, () -> start().get(10, TimeUnit.SECONDS));
+        assertInstanceOf(AwsServiceException.class, e.getCause());
+    }
+
+    @Test
+    void testGivesUpOnInstanceThatDoesNotRun() throws Exception {
+        when(lookups.getInstancesAsync(anyCollection())).thenReturn(instance(InstanceStateName.STOPPED));
+
+        assertNull(start().get(10, TimeUnit.SECONDS));
+        verify(lookups, times(3)).getInstancesAsync(anyCollection());
+    }
+}
@@ -0,0 +1,92 @@
+package hudson.plugins.ec2;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.DescribeSecurityGroupsRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeSecurityGroupsResponse;
+import software.amazon.awssdk.services.ec2.model.DescribeSubnetsRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeSubnetsResponse;
+import software.amazon.awssdk.services.ec2.model.SecurityGroup;
+import software.amazon.awssdk.services.ec2.model.Subnet;
+
+class EC2NetworkCacheTest {
+
+    private final Ec2Client ec2 = mock(Ec2Client.class);
+
+    private static DescribeSecurityGroupsResponse groups(SecurityGroup... groups) {
+        return DescribeSecurityGroupsResponse.builder().securityGroups(groups).build();
+    }
+
+    private static boolean isFilteredBy(DescribeSecurityGroupsRequest request, String filterName) {
+        return request != null && request.filters().get(0).name().equals(filterName);
+    }
+
+    @Test
+    void testSecurityGroupsAreCached() {
+        SecurityGroup group =
+                SecurityGroup.builder().groupId("sg-1").vpcId("vpc-1").build();
+        when(ec2.describeSecurityGroups(argThat((DescribeSecurityGroupsRequest r) -> isFilteredBy(r, "group-name"))))
+                .thenReturn(groups());
+        when(ec2.describeSecurityGroups(argThat((DescribeSecurityGroupsRequest r) -> isFilteredBy(r, "group-id"))))
+                .thenReturn(groups(group));
+
+        EC2NetworkCache cache = new EC2NetworkCache(60_000);
+        assertEquals(List.of(group), cache.getSecurityGroups(Set.of("sg-1"), true, ec2));
+        assertEquals(List.of(group), cache.getSecurityGroups(Set.of("sg-1"), true, ec2));
+        verify(ec2, times(2)).describeSecurityGroups(any(DescribeSecurityGroupsRequest.class));
+
+        // Names only, nothing found, not cached
+        assertTrue(cache.getSecurityGroups(Set.of("sg-1"), false, ec2).isEmpty());
+        assertTrue(cache.getSecurityGroups(Set.of("sg-1"), false, ec2).isEmpty());
+        verify(ec2, times(4)).describeSecurityGroups(any(DescribeSecurityGroupsRequest.class));
+
+        // The template was saved
+        cache.invalidate();
+        cache.getSecurityGroups(Set.of("sg-1"), true, ec2);
+        verify(ec2, times(6)).describeSecurityGroups(any(DescribeSecurityGroupsRequest.class));
+    }
+
+    @Test
+    void testSubnetMembershipIsCached() {
+        when(ec2.describeSubnets(any(DescribeSubnetsRequest.class)))
+                .thenReturn(DescribeSubnetsResponse.builder()
+                        .subnets(Subnet.builder().subnetId("subnet-1").build())
+                        .build());
+
+        EC2NetworkCache cache = new EC2NetworkCache(60_000);
+        assertTrue(cache.isSubnetInVpc("subnet-1", "vpc-1", ec2));
+        assertTrue(cache.isSubnetInVpc("subnet-1", "vpc-1", ec2));
+        verify(ec2, times(1)).describeSubnets(any(DescribeSubnetsRequest.class));
+
+        when(ec2.describeSubnets(any(DescribeSubnetsRequest.class)))
+                .thenReturn(DescribeSubnetsResponse.builder().build());
+        assertFalse(cache.isSubnetInVpc("subnet-1", "vpc-2", ec2));
+        assertFalse(cache.isSubnetInVpc("subnet-1", "vpc-2", ec2));
+        verify(ec2, times(3)).describeSubnets(any(DescribeSubnetsRequest.class));
+    }
+
+    @Test
+    void testExpiredEntriesAreDescribedAgain() {
+        when(ec2.describeSubnets(any(DescribeSubnetsRequest.class)))
+                .thenReturn(DescribeSubnetsResponse.builder()
+                        .subnets(Subnet.builder().subnetId("subnet-1").build())
+                        .build());
+
+        EC2NetworkCache cache = new EC2NetworkCache(0);
+        cache.isSubnetInVpc("subnet-1", "vpc-1", ec2);
+        cache.isSubnetInVpc("subnet-1", "vpc-1", ec2);
+        verify(ec2, times(2)).describeSubnets(any(DescribeSubnetsRequest.class));
+    }
+}
@@ -0,0 +1,150 @@
+package hudson.plugins.ec2;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import hudson.model.Node;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.InstanceState;
+import software.amazon.awssdk.services.ec2.model.InstanceStateName;
+
+class EC2PendingInstanceTrackerTest {
+
+    private final BlockingQueue<Runnable> ticks = new LinkedBlockingQueue<>();
+
+    private EC2Cloud cloud;
+
+    private InstanceLookupCoalescer lookups;
+
+    @BeforeEach
+    void init() {
+        cloud = mock(EC2Cloud.class);
+        lookups = mock(InstanceLookupCoalescer.class);
+        when(cloud.getInstanceLookups()).thenReturn(lookups);
+    }
+
+    private EC2LaunchPipeline launch(EC2AbstractSlave slave) {
+        when(slave.getCloud()).thenReturn(cloud);
+        return new EC2LaunchPipeline(mock(SlaveTemplate.class), slave);
+    }
+
+    private EC2AbstractSlave ondemand(String instanceId) {
+        EC2AbstractSlave slave = mock(EC2OndemandSlave.class);
+        when(slave.getInstanceId()).thenReturn(instanceId);
+        return slave;
+    }
+
+    private static Instance running(String instanceId) {
+        return Instance.builder()
+                .instanceId(instanceId)
+                .state(InstanceState.builder().name(InstanceStateName.RUNNING).build())
+                .launchTime(Instant.now())
+                .build();
+    }
+
+    private void tick() throws InterruptedException {
+        Runnable tick = ticks.poll(10, TimeUnit.SECONDS);
+        assertNotNull(tick, "No tick was scheduled");
+        tick.run();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testPendingInstancesAreDescribedTogether() throws Exception {
+        EC2PendingInstanceTracker tracker = new EC2PendingInstanceTracker(cloud, ticks::add, () -> 0, 0, 0);
+        EC2AbstractSlave first = ondemand("i-1");
+        EC2AbstractSlave second = ondemand("i-2");
+        when(lookups.getInstancesAsync(anyCollection()))
+                .thenReturn(CompletableFuture.completedFuture(Map.of("i-1", running("i-1"), "i-2", running("i-2"))));
+
+        CompletableFuture<Node> firstNode = tracker.track(launch(first));
+        CompletableFuture<Node> secondNode = tracker.track(launch(second));
+        assertEquals(2, tracker.size());
+        tick();
+
+        ArgumentCaptor<Collection<String>> described = ArgumentCaptor.forClass(Collection.class);
+        verify(lookups).getInstancesAsync(described.capture());
+        assertEquals(List.of("i-1", "i-2"), described.getValue().stream().sorted().toList());
+        assertSame(first, firstNode.get(10, TimeUnit.SECONDS));
+        assertSame(second, secondNode.get(10, TimeUnit.SECONDS));
+        assertEquals(0, tracker.size());
+    }
+
+    @Test
+    void testUnfulfilledSpotRequestIsNotDescribed() throws Exception {
+        EC2PendingInstanceTracker tracker = new EC2PendingInstanceTracker(cloud, ticks::add, () -> 0, 0, 0);
+        EC2SpotSlave slave = mock(EC2SpotSlave.class);
+        when(slave.isSpotRequestDead()).thenReturn(false).thenReturn(true);
+
+        CompletableFuture<Node> node = tracker.track(launch(slave));
+        tick();
+        assertEquals(1, tracker.size());
+        tick();
+
+        assertNull(node.get(10, TimeUnit.SECONDS));
+        verify(lookups, never()).getInstancesAsync(anyCollection());
+    }
+
+    @Test
+    void testSpotRequestsAreRefreshedTogether() throws Exception {
+        EC2PendingInstanceTracker tracker = new EC2PendingInstanceTracker(cloud, ticks::add, () -> 0, 0, 0);
+        EC2SpotRequestCache spotRequests = mock(EC2SpotRequestCache.class);
+        when(cloud.getSpotRequests()).thenReturn(spotRequests);
+        for (String id : List.of("sir-1", "sir-2")) {
+            EC2SpotSlave slave = mock(EC2SpotSlave.class);
+            when(slave.getSpotInstanceRequestId()).thenReturn(id);
+            tracker.track(launch(slave));
+        }
+        tick();
+
+        verify(spotRequests).getSpotRequests(Set.of("sir-1", "sir-2"));
+        // Not fulfilled yet
+        assertEquals(2, tracker.size());
+        verify(lookups, never()).getInstancesAsync(anyCollection());
+    }
+
+    @Test
+    void testPollsBackOffWhileTheStateDoesNotChange() {
+        EC2LaunchPipeline launch = launch(ondemand("i-1"));
+        Instance pending = Instance.builder()
+                .instanceId("i-1")
+                .state(InstanceState.builder().name(InstanceStateName.PENDING).build())
+                .build();
+
+        assertEquals(1000, launch.next(0, 1000, 5000));
+        launch.onDescribed("i-1", pending);
+        // First seen pending
+        assertEquals(2000, launch.next(1000, 1000, 5000));
+        launch.onDescribed("i-1", pending);
+        assertEquals(4000, launch.next(2000, 1000, 5000));
+        launch.onDescribed("i-1", pending);
+        assertEquals(8000, launch.next(4000, 1000, 5000));
+        launch.onDescribed("i-1", pending);
+        assertEquals(13000, launch.next(8000, 1000, 5000));
+
+        Instance stopped = pending.toBuilder()
+                .state(InstanceState.builder().name(InstanceStateName.STOPPED).build())
+                .build();
+        launch.onDescribed("i-1", stopped);
+        assertEquals(14000, launch.next(13000, 1000, 5000));
+    }
+}
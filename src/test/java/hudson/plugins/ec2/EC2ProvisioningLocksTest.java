@@ -0,0 +1,65 @@
+package hudson.plugins.ec2;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class EC2ProvisioningLocksTest {
+
+    @Test
+    void testTemplatesOnDifferentStripesDontWait() throws Exception {
+        EC2ProvisioningLocks locks = new EC2ProvisioningLocks(2, System::nanoTime);
+        // "a" and "b" hash onto different stripes
+        try (EC2ProvisioningLocks.Held ignored = locks.lock("a")) {
+            CompletableFuture<Void> other = CompletableFuture.runAsync(() -> {
+                try (EC2ProvisioningLocks.Held ignored2 = locks.lock("b")) {
+                    // provisioning
+                }
+            });
+            other.get(10, TimeUnit.SECONDS);
+        }
+        for (EC2ProvisioningLocks.LockWaits waits : locks.getWaits()) {
+            assertEquals(1, waits.getAcquisitions());
+            assertEquals(0, waits.getContended());
+        }
+    }
+
+    @Test
+    void testSameTemplateWaitsAndIsMeasured() throws Exception {
+        AtomicLong now = new AtomicLong();
+        EC2ProvisioningLocks locks = new EC2ProvisioningLocks(16, now::get);
+        CountDownLatch waiting = new CountDownLatch(1);
+        CompletableFuture<Void> other;
+        try (EC2ProvisioningLocks.Held ignored = locks.lock("template")) {
+            other = CompletableFuture.runAsync(() -> {
+                waiting.countDown();
+                try (EC2ProvisioningLocks.Held ignored2 = locks.lock("template")) {
+                    // provisioning
+                }
+            });
+            assertTrue(waiting.await(10, TimeUnit.SECONDS));
+            // Give the other thread time to block on the lock
+            Thread.sleep(100);
+            assertFalse(other.isDone());
+            now.addAndGet(TimeUnit.MILLISECONDS.toNanos(250));
+        }
+        other.get(10, TimeUnit.SECONDS);
+
+        List<EC2ProvisioningLocks.LockWaits> waits = locks.getWaits();
+        assertEquals(1, waits.size());
+        EC2ProvisioningLocks.LockWaits template = waits.get(0);
+        assertEquals("template", template.getTemplate());
+        assertEquals(2, template.getAcquisitions());
+        assertEquals(1, template.getContended());
+        assertEquals(250, template.getTotalWaitMillis());
+        assertEquals(250, template.getMaxWaitMillis());
+        assertEquals(125, template.getMeanWaitMillis(), 0.001);
+    }
+}
@@ -0,0 +1,138 @@
+package hudson.plugins.ec2;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import jenkins.model.Jenkins;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.DescribeSpotInstanceRequestsRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeSpotInstanceRequestsResponse;
+import software.amazon.awssdk.services.ec2.model.SpotInstanceRequest;
+import software.amazon.awssdk.services.ec2.model.SpotInstanceState;
+
+class EC2SpotRequestCacheTest {
+
+    private EC2Cloud cloud;
+
+    private Ec2Client ec2;
+
+    private MockedStatic<Jenkins> mockedJenkins;
+
+    @BeforeEach
+    void init() throws Exception {
+        cloud = Mockito.spy(new EC2Cloud(
+                "us-east-1",
+                true,
+                "abc",
+                "us-east-1",
+                null,
+                "ghi",
+                "3",
+                Collections.emptyList(),
+                "roleArn",
+                "roleSessionName"));
+        ec2 = mock(Ec2Client.class);
+        Mockito.doReturn(ec2).when(cloud).connect();
+
+        Jenkins jenkins = mock(Jenkins.class);
+        Mockito.doReturn(Arrays.asList(
+                        spotSlave("sir-1", "us-east-1"), spotSlave("sir-2", "us-east-1"), spotSlave("sir-3", "other")))
+                .when(jenkins)
+                .getNodes();
+        mockedJenkins = Mockito.mockStatic(Jenkins.class);
+        mockedJenkins.when(Jenkins::getInstanceOrNull).thenReturn(jenkins);
+
+        // Answers with every requested spot request but sir-gone
+        Mockito.doAnswer(invocation -> {
+                    DescribeSpotInstanceRequestsRequest request = invocation.getArgument(0);
+                    List<SpotInstanceRequest> requests = request.filters().get(0).values().stream()
+                            .filter(id -> !id.equals("sir-gone"))
+                            .map(id -> SpotInstanceRequest.builder()
+                                    .spotInstanceRequestId(id)
+                                    .state(SpotInstanceState.ACTIVE)
+                                    .build())
+                            .toList();
+                    return DescribeSpotInstanceRequestsResponse.builder()
+                            .spotInstanceRequests(requests)
+                            .build();
+                })
+                .when(ec2)
+                .describeSpotInstanceRequests(Mockito.any(DescribeSpotInstanceRequestsRequest.class));
+    }
+
+    @AfterEach
+    void tearDown() {
+        mockedJenkins.close();
+    }
+
+    private static EC2SpotSlave spotSlave(String spotInstanceRequestId, String cloudName) throws Exception {
+        EC2SpotSlave slave = mock(EC2SpotSlave.class);
+        Mockito.doReturn(spotInstanceRequestId).when(slave).getSpotInstanceRequestId();
+        Field field = EC2AbstractSlave.class.getDeclaredField("cloudName");
+        field.setAccessible(true);
+        field.set(slave, cloudName);
+        return slave;
+    }
+
+    @Test
+    void testAllKnownRequestsAreDescribedTogether() {
+        EC2SpotRequestCache cache = new EC2SpotRequestCache(cloud);
+        assertEquals("sir-1", cache.getSpotRequest("sir-1").spotInstanceRequestId());
+        assertEquals("sir-2", cache.getSpotRequest("sir-2").spotInstanceRequestId());
+        assertEquals("sir-1", cache.getSpotRequest("sir-1").spotInstanceRequestId());
+
+        ArgumentCaptor<DescribeSpotInstanceRequestsRequest> captor =
+                ArgumentCaptor.forClass(DescribeSpotInstanceRequestsRequest.class);
+        verify(ec2, times(1)).describeSpotInstanceRequests(captor.capture());
+        // The request of the agent of the other cloud is left out
+        assertEquals(
+                Set.of("sir-1", "sir-2"),
+                new HashSet<>(captor.getValue().filters().get(0).values()));
+    }
+
+    @Test
+    void testUnknownRequest() {
+        EC2SpotRequestCache cache = new EC2SpotRequestCache(cloud);
+        assertEquals("sir-1", cache.getSpotRequest("sir-1").spotInstanceRequestId());
+        // Not part of the last refresh, so it is described along with the known requests
+        assertNull(cache.getSpotRequest("sir-gone"));
+        assertNull(cache.getSpotRequest("sir-gone"));
+        assertNull(cache.getSpotRequest(null));
+
+        verify(ec2, times(2)).describeSpotInstanceRequests(Mockito.any(DescribeSpotInstanceRequestsRequest.class));
+    }
+
+    @Test
+    void testPendingRequestsAreDescribedTogetherAndKept() {
+        EC2SpotRequestCache cache = new EC2SpotRequestCache(cloud);
+        assertEquals(
+                Set.of("sir-a", "sir-b"),
+                cache.getSpotRequests(List.of("sir-a", "sir-b", "sir-gone")).keySet());
+        assertEquals("sir-a", cache.getSpotRequest("sir-a").spotInstanceRequestId());
+        verify(ec2, times(1)).describeSpotInstanceRequests(Mockito.any(DescribeSpotInstanceRequestsRequest.class));
+
+        // A new pending request is described along with the known and the still pending ones
+        assertEquals("sir-c", cache.getSpotRequest("sir-c").spotInstanceRequestId());
+        ArgumentCaptor<DescribeSpotInstanceRequestsRequest> captor =
+                ArgumentCaptor.forClass(DescribeSpotInstanceRequestsRequest.class);
+        verify(ec2, times(2)).describeSpotInstanceRequests(captor.capture());
+        assertEquals(
+                Set.of("sir-1", "sir-2", "sir-a", "sir-b", "sir-c"),
+                new HashSet<>(captor.getValue().filters().get(0).values()));
+    }
+}
@@ -2,6 +2,7 @@ package hudson.plugins.ec2;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.when;
@@ -62,7 +63,7 @@ class EC2StepTest {
 
         when(instance.getNodeName()).thenReturn("nodeName");
         List<EC2AbstractSlave> slaves = Collections.singletonList(instance);
-        when(st.provision(anyInt(), any())).thenReturn(slaves);
+        when(cl.getNewOrExistingAvailableSlave(any(), anyInt(), anyBoolean())).thenReturn(slaves);
     }
 
     @Test
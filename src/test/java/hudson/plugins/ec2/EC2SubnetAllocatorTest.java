@@ -0,0 +1,149 @@
+package hudson.plugins.ec2;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.DescribeSubnetsRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeSubnetsResponse;
+import software.amazon.awssdk.services.ec2.model.Ec2Exception;
+import software.amazon.awssdk.services.ec2.model.Subnet;
+
+class EC2SubnetAllocatorTest {
+
+    private static final List<String> SUBNETS = List.of("subnet-a", "subnet-b", "subnet-c");
+
+    private final AtomicLong now = new AtomicLong(1_000_000L);
+
+    private EC2SubnetAllocator allocator;
+
+    @BeforeEach
+    void init() {
+        allocator = new EC2SubnetAllocator(now::get);
+    }
+
+    private static SdkException error(String errorCode) {
+        return Ec2Exception.builder()
+                .awsErrorDetails(AwsErrorDetails.builder().errorCode(errorCode).build())
+                .build();
+    }
+
+    @Test
+    void testEqualSubnetsAreChosenRoundRobin() {
+        assertEquals("subnet-a", allocator.choose(SUBNETS));
+        assertEquals("subnet-b", allocator.choose(SUBNETS));
+        assertEquals("subnet-c", allocator.choose(SUBNETS));
+        assertEquals("subnet-a", allocator.choose(SUBNETS));
+        assertNull(allocator.choose(List.of()));
+    }
+
+    @Test
+    void testSubnetsInFlightAreAvoided() {
+        try (EC2SubnetAllocator.InFlight ignored = allocator.launching("subnet-a", 2)) {
+            assertEquals("subnet-b", allocator.choose(SUBNETS));
+            assertEquals("subnet-b", allocator.choose(List.of("subnet-a", "subnet-b")));
+        }
+        // Back to round robin once launched
+        assertEquals("subnet-a", allocator.choose(List.of("subnet-a", "subnet-b")));
+    }
+
+    @Test
+    void testCapacityErrorsCoolTheSubnetDown() {
+        allocator.failed("subnet-a", error("InsufficientInstanceCapacity"));
+        for (int i = 0; i < SUBNETS.size(); i++) {
+            assertFalse("subnet-a".equals(allocator.choose(SUBNETS)));
+        }
+        assertEquals(List.of("subnet-b", "subnet-c"), allocator.healthy(SUBNETS));
+
+        now.addAndGet(EC2SubnetAllocator.COOLDOWN);
+        assertEquals(SUBNETS, allocator.healthy(SUBNETS));
+    }
+
+    @Test
+    void testCooldownDoublesWithConsecutiveFailures() {
+        allocator.failed("subnet-a", error("InsufficientInstanceCapacity"));
+        now.addAndGet(EC2SubnetAllocator.COOLDOWN);
+        allocator.failed("subnet-a", error("InsufficientInstanceCapacity"));
+
+        now.addAndGet(EC2SubnetAllocator.COOLDOWN);
+        assertEquals(List.of("subnet-b"), allocator.healthy(List.of("subnet-a", "subnet-b")));
+        now.addAndGet(EC2SubnetAllocator.COOLDOWN);
+        assertEquals(List.of("subnet-a", "subnet-b"), allocator.healthy(List.of("subnet-a", "subnet-b")));
+
+        // A launch resets it
+        allocator.failed("subnet-a", error("InsufficientInstanceCapacity"));
+        allocator.launched("subnet-a", 1);
+        assertEquals(List.of("subnet-a", "subnet-b"), allocator.healthy(List.of("subnet-a", "subnet-b")));
+    }
+
+    @Test
+    void testOtherErrorsDoNotCoolTheSubnetDown() {
+        allocator.failed("subnet-a", error("UnauthorizedOperation"));
+        assertEquals(SUBNETS, allocator.healthy(SUBNETS));
+        assertFalse(EC2SubnetAllocator.isCapacityError(null));
+        assertTrue(EC2SubnetAllocator.isCapacityError("InsufficientFreeAddressesInSubnet"));
+    }
+
+    @Test
+    void testAllCoolingDownFallsBackToTheFirstToRecover() {
+        allocator.failed("subnet-a", error("InsufficientInstanceCapacity"));
+        allocator.failed("subnet-b", error("InsufficientInstanceCapacity"));
+        allocator.failed("subnet-b", error("InsufficientInstanceCapacity"));
+        assertEquals("subnet-a", allocator.choose(List.of("subnet-a", "subnet-b")));
+        assertEquals("subnet-a", allocator.choose(List.of("subnet-a", "subnet-b")));
+        assertEquals(List.of("subnet-a", "subnet-b"), allocator.healthy(List.of("subnet-a", "subnet-b")));
+    }
+
+    @Test
+    void testSplitSpreadsAcrossHealthySubnets() {
+        allocator.failed("subnet-c", error("InsufficientInstanceCapacity"));
+        Map<String, Integer> split = allocator.split(SUBNETS, 5);
+        assertEquals(Map.of("subnet-a", 3, "subnet-b", 2), split);
+    }
+
+    @Test
+    void testSplitFollowsFreeAddresses() {
+        Ec2Client ec2 = mock(Ec2Client.class);
+        when(ec2.describeSubnets(any(DescribeSubnetsRequest.class)))
+                .thenReturn(DescribeSubnetsResponse.builder()
+                        .subnets(
+                                Subnet.builder()
+                                        .subnetId("subnet-a")
+                                        .availableIpAddressCount(1)
+                                        .build(),
+                                Subnet.builder()
+                                        .subnetId("subnet-b")
+                                        .availableIpAddressCount(100)
+                                        .build())
+                        .build());
+        List<String> subnets = List.of("subnet-a", "subnet-b");
+        allocator.refreshAvailableIps(ec2, subnets);
+        allocator.refreshAvailableIps(ec2, subnets);
+        verify(ec2, times(1)).describeSubnets(any(DescribeSubnetsRequest.class));
+
+        assertEquals(Map.of("subnet-a", 1, "subnet-b", 3), allocator.split(subnets, 4));
+
+        // No address left once it launched its last one
+        allocator.launched("subnet-a", 1);
+        assertEquals(Map.of("subnet-b", 2), allocator.split(subnets, 2));
+
+        allocator.failed("subnet-b", error("InsufficientFreeAddressesInSubnet"));
+        now.addAndGet(EC2SubnetAllocator.AVAILABLE_IPS_TTL);
+        allocator.refreshAvailableIps(ec2, subnets);
+        verify(ec2, times(2)).describeSubnets(any(DescribeSubnetsRequest.class));
+    }
+}
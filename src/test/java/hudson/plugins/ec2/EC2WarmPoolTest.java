@@ -0,0 +1,127 @@
+package hudson.plugins.ec2;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.DeleteTagsRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesResponse;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.InstanceStateName;
+import software.amazon.awssdk.services.ec2.model.Reservation;
+import software.amazon.awssdk.services.ec2.model.StartInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.Tag;
+
+class EC2WarmPoolTest {
+
+    private static final long NOW = TimeUnit.DAYS.toMillis(1);
+
+    private SlaveTemplate template;
+
+    private Ec2Client ec2;
+
+    private final List<Runnable> scheduled = new ArrayList<>();
+
+    @BeforeEach
+    void init() {
+        template = mock(SlaveTemplate.class);
+        ec2 = mock(Ec2Client.class);
+        when(template.isWarmPoolEnabled()).thenReturn(true);
+        when(template.getWarmPoolSize()).thenReturn(2);
+    }
+
+    private EC2WarmPool pool() {
+        return new EC2WarmPool(template, () -> NOW, scheduled::add);
+    }
+
+    private static Instance instance(String instanceId, InstanceStateName state, Long parkedAt) {
+        Instance.Builder builder = Instance.builder()
+                .instanceId(instanceId)
+                .state(s -> s.name(state))
+                .tags(Tag.builder().key(EC2Tag.TAG_NAME_JENKINS_SLAVE_TYPE).value("demand").build());
+        if (parkedAt != null) {
+            builder.tags(
+                    Tag.builder().key(EC2Tag.TAG_NAME_JENKINS_SLAVE_TYPE).value("demand").build(),
+                    Tag.builder()
+                            .key(EC2Tag.TAG_NAME_JENKINS_WARM_POOL)
+                            .value(String.valueOf(parkedAt))
+                            .build());
+        }
+        return builder.build();
+    }
+
+    private static long minutesAgo(long minutes) {
+        return NOW - TimeUnit.MINUTES.toMillis(minutes);
+    }
+
+    @Test
+    void testMostRecentlyParkedAreTakenFirst() throws Exception {
+        DescribeInstancesResponse response = DescribeInstancesResponse.builder()
+                .reservations(Reservation.builder()
+                        .instances(
+                                instance("i-old", InstanceStateName.STOPPED, minutesAgo(30)),
+                                instance("i-new", InstanceStateName.STOPPED, minutesAgo(1)),
+                                instance("i-running", InstanceStateName.RUNNING, minutesAgo(1)),
+                                instance("i-orphan", InstanceStateName.STOPPED, null))
+                        .build())
+                .build();
+        when(template.getDescribeInstanceResult(any(Ec2Client.class), anyBoolean()))
+                .thenReturn(response);
+
+        List<Instance> taken = pool().take(ec2, 1);
+        assertEquals(1, taken.size());
+        assertEquals("i-new", taken.get(0).instanceId());
+
+        ArgumentCaptor<DeleteTagsRequest> untagged = ArgumentCaptor.forClass(DeleteTagsRequest.class);
+        verify(ec2).deleteTags(untagged.capture());
+        assertEquals(List.of("i-new"), untagged.getValue().resources());
+        ArgumentCaptor<StartInstancesRequest> started = ArgumentCaptor.forClass(StartInstancesRequest.class);
+        verify(ec2).startInstances(started.capture());
+        assertEquals(List.of("i-new"), started.getValue().instanceIds());
+        // Refilled in the background
+        assertEquals(1, scheduled.size());
+    }
+
+    @Test
+    void testNothingIsTakenWhenDisabled() throws Exception {
+        when(template.isWarmPoolEnabled()).thenReturn(false);
+        assertTrue(pool().take(ec2, 3).isEmpty());
+        verify(ec2, never()).startInstances(any(StartInstancesRequest.class));
+    }
+
+    @Test
+    void testOldAndExtraMembersAreEvicted() {
+        when(template.getWarmPoolMaxAgeMinutes()).thenReturn(60);
+        List<Instance> members = List.of(
+                instance("i-1", InstanceStateName.STOPPED, minutesAgo(5)),
+                instance("i-2", InstanceStateName.STOPPED, minutesAgo(90)),
+                instance("i-3", InstanceStateName.STOPPED, minutesAgo(10)),
+                instance("i-4", InstanceStateName.STOPPED, minutesAgo(20)));
+
+        List<String> evicted = pool().selectToEvict(members).stream()
+                .map(Instance::instanceId)
+                .toList();
+        // i-4 is beyond the size of 2, i-2 is too old
+        assertEquals(List.of("i-4", "i-2"), evicted);
+    }
+
+    @Test
+    void testMembersAreKeptWithoutMaxAge() {
+        List<Instance> members = List.of(
+                instance("i-1", InstanceStateName.STOPPED, minutesAgo(5)),
+                instance("i-2", InstanceStateName.STOPPED, minutesAgo(TimeUnit.DAYS.toMinutes(1))));
+        assertTrue(pool().selectToEvict(members).isEmpty());
+    }
+}
@@ -0,0 +1,203 @@
+package hudson.plugins.ec2;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.services.ec2.Ec2AsyncClient;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesResponse;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.Reservation;
+
+class InstanceLookupCoalescerTest {
+
+    private final BlockingQueue<Runnable> windows = new LinkedBlockingQueue<>();
+
+    private EC2Cloud cloud;
+
+    private Ec2Client ec2;
+
+    @BeforeEach
+    void init() {
+        cloud = Mockito.spy(new EC2Cloud(
+                "us-east-1",
+                true,
+                "abc",
+                "us-east-1",
+                null,
+                "ghi",
+                "3",
+                Collections.emptyList(),
+                "roleArn",
+                "roleSessionName"));
+        ec2 = mock(Ec2Client.class);
+        Mockito.doReturn(ec2).when(cloud).connect();
+    }
+
+    private static AwsServiceException notFound() {
+        return AwsServiceException.builder()
+                .awsErrorDetails(AwsErrorDetails.builder()
+                        .errorCode(InstanceLookupCoalescer.INSTANCE_NOT_FOUND_ERROR_CODE)
+                        .build())
+                .build();
+    }
+
+    /*
+     * Closes the window of the current batch, once the given number of lookups joined it.
+     */
+    private void closeWindow(InstanceLookupCoalescer lookups, int waiting) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (lookups.getWaiting() < waiting) {
+            assertTrue(System.nanoTime() < deadline, "The lookups did not join the batch");
+            Thread.sleep(1);
+        }
+        Runnable window = windows.poll(10, TimeUnit.SECONDS);
+        assertNotNull(window, "No window was opened");
+        window.run();
+    }
+
+    @Test
+    void testConcurrentLookupsShareOneCall() throws Exception {
+        // Answers with every requested instance but i-gone, like EC2 does
+        Mockito.doAnswer(invocation -> {
+                    DescribeInstancesRequest request = invocation.getArgument(0);
+                    if (request.hasInstanceIds() && request.instanceIds().contains("i-gone")) {
+                        throw notFound();
+                    }
+                    List<String> ids = request.hasInstanceIds()
+                            ? request.instanceIds()
+                            : request.filters().get(0).values();
+                    List<Instance> instances = ids.stream()
+                            .filter(id -> !id.equals("i-gone"))
+                            .map(id -> Instance.builder().instanceId(id).build())
+                            .toList();
+                    return DescribeInstancesResponse.builder()
+                            .reservations(
+                                    Reservation.builder().instances(instances).build())
+                            .build();
+                })
+                .when(ec2)
+                .describeInstances(Mockito.any(DescribeInstancesRequest.class));
+
+        InstanceLookupCoalescer lookups = new InstanceLookupCoalescer(cloud, windows::add, 1);
+        String[] ids = {"i-1", "i-2", "i-3", "i-gone"};
+        ExecutorService executor = Executors.newFixedThreadPool(ids.length);
+        try {
+            List<Future<Instance>> results = new ArrayList<>();
+            for (String id : ids) {
+                results.add(executor.submit(() -> lookups.getInstance(id)));
+            }
+            closeWindow(lookups, ids.length);
+
+            for (int i = 0; i < 3; i++) {
+                assertEquals(ids[i], results.get(i).get().instanceId());
+            }
+            Exception e = assertThrows(Exception.class, () -> results.get(3).get());
+            assertTrue(e.getCause() instanceof AwsServiceException);
+            assertEquals(
+                    InstanceLookupCoalescer.INSTANCE_NOT_FOUND_ERROR_CODE,
+                    ((AwsServiceException) e.getCause()).awsErrorDetails().errorCode());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Every instance was asked for exactly once, in a single call
+        ArgumentCaptor<DescribeInstancesRequest> captor = ArgumentCaptor.forClass(DescribeInstancesRequest.class);
+        verify(ec2).describeInstances(captor.capture());
+        assertEquals(Set.of(ids), Set.copyOf(captor.getValue().filters().get(0).values()));
+        assertTrue(windows.isEmpty());
+    }
+
+    @Test
+    void testAsyncLookupsShareOneCall() throws Exception {
+        Ec2AsyncClient asyncEc2 = mock(Ec2AsyncClient.class);
+        Mockito.doReturn(asyncEc2).when(cloud).connectAsync();
+        Mockito.doAnswer(invocation -> {
+                    DescribeInstancesRequest request = invocation.getArgument(0);
+                    List<Instance> instances = request.filters().get(0).values().stream()
+                            .filter(id -> !id.equals("i-gone"))
+                            .map(id -> Instance.builder().instanceId(id).build())
+                            .toList();
+                    return CompletableFuture.completedFuture(DescribeInstancesResponse.builder()
+                            .reservations(
+                                    Reservation.builder().instances(instances).build())
+                            .build());
+                })
+                .when(asyncEc2)
+                .describeInstances(Mockito.any(DescribeInstancesRequest.class));
+
+        InstanceLookupCoalescer lookups = new InstanceLookupCoalescer(cloud, windows::add, 1);
+        CompletableFuture<Instance> first = lookups.getInstanceAsync("i-1");
+        CompletableFuture<Instance> second = lookups.getInstanceAsync("i-2");
+        CompletableFuture<Instance> gone = lookups.getInstanceAsync("i-gone");
+        closeWindow(lookups, 3);
+
+        assertEquals("i-1", first.get(10, TimeUnit.SECONDS).instanceId());
+        assertEquals("i-2", second.get(10, TimeUnit.SECONDS).instanceId());
+        Exception e = assertThrows(Exception.class, () -> gone.get(10, TimeUnit.SECONDS));
+        assertEquals(
+                InstanceLookupCoalescer.INSTANCE_NOT_FOUND_ERROR_CODE,
+                ((AwsServiceException) e.getCause()).awsErrorDetails().errorCode());
+        verify(asyncEc2).describeInstances(Mockito.any(DescribeInstancesRequest.class));
+        Mockito.verifyNoInteractions(ec2);
+    }
+
+    @Test
+    void testErrorsDoNotLeaveLookupsWaiting() throws Exception {
+        Mockito.doThrow(new OutOfMemoryError("describe"))
+                .when(ec2)
+                .describeInstances(Mockito.any(DescribeInstancesRequest.class));
+
+        InstanceLookupCoalescer lookups = new InstanceLookupCoalescer(cloud, windows::add, 1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Instance> first = executor.submit(() -> lookups.getInstance("i-1"));
+            Future<Instance> second = executor.submit(() -> lookups.getInstance("i-2"));
+            assertThrows(OutOfMemoryError.class, () -> closeWindow(lookups, 2));
+
+            for (Future<Instance> result : List.of(first, second)) {
+                ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+                assertTrue(e.getCause() instanceof OutOfMemoryError);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testSingleLookupKeepsErrors() {
+        AwsServiceException expired = AwsServiceException.builder()
+                .awsErrorDetails(AwsErrorDetails.builder()
+                        .errorCode(EC2Cloud.EC2_REQUEST_EXPIRED_ERROR_CODE)
+                        .build())
+                .build();
+        Mockito.doThrow(expired).when(ec2).describeInstances(Mockito.any(DescribeInstancesRequest.class));
+
+        InstanceLookupCoalescer lookups = new InstanceLookupCoalescer(cloud);
+        AwsServiceException e = assertThrows(AwsServiceException.class, () -> lookups.getInstance("i-1"));
+        assertEquals(EC2Cloud.EC2_REQUEST_EXPIRED_ERROR_CODE, e.awsErrorDetails().errorCode());
+    }
+}
@@ -0,0 +1,149 @@
+package hudson.plugins.ec2;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import hudson.model.Label;
+import hudson.model.LoadStatistics;
+import hudson.slaves.Cloud;
+import hudson.slaves.NodeProvisioner;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+@WithJenkins
+class NoDelayProvisionerStrategyTest {
+
+    private static final List<Integer> UNCAPPED = List.of(Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+    private static final List<Integer> SINGLE_EXECUTOR = List.of(1, 1);
+
+    @Test
+    void testDemandIsSplitByWeight() {
+        assertArrayEquals(
+                new int[] {2, 2}, NoDelayProvisionerStrategy.split(List.of(1, 1), SINGLE_EXECUTOR, UNCAPPED, 4));
+        assertArrayEquals(
+                new int[] {6, 2}, NoDelayProvisionerStrategy.split(List.of(3, 1), SINGLE_EXECUTOR, UNCAPPED, 8));
+        // What the weights cannot settle goes to the first cloud
+        assertArrayEquals(
+                new int[] {2, 1}, NoDelayProvisionerStrategy.split(List.of(1, 1), SINGLE_EXECUTOR, UNCAPPED, 3));
+        assertArrayEquals(
+                new int[] {0, 1}, NoDelayProvisionerStrategy.split(List.of(1, 2), SINGLE_EXECUTOR, UNCAPPED, 1));
+    }
+
+    @Test
+    void testSharesDoNotExceedTheHeadroom() {
+        assertArrayEquals(
+                new int[] {1, 4},
+                NoDelayProvisionerStrategy.split(List.of(1, 1), SINGLE_EXECUTOR, List.of(1, Integer.MAX_VALUE), 5));
+        assertArrayEquals(
+                new int[] {1, 2}, NoDelayProvisionerStrategy.split(List.of(5, 1), SINGLE_EXECUTOR, List.of(1, 2), 10));
+        assertArrayEquals(new int[] {0}, NoDelayProvisionerStrategy.split(List.of(1), List.of(1), List.of(0), 3));
+    }
+
+    @Test
+    void testDemandIsSplitInWholeAgents() {
+        // Less than an agent is not split over two clouds
+        assertArrayEquals(
+                new int[] {4, 0}, NoDelayProvisionerStrategy.split(List.of(1, 1), List.of(4, 4), UNCAPPED, 2));
+        assertArrayEquals(
+                new int[] {4, 4}, NoDelayProvisionerStrategy.split(List.of(1, 1), List.of(4, 4), UNCAPPED, 6));
+        // The weights apply to executors, whatever the size of the agents
+        assertArrayEquals(
+                new int[] {4, 4}, NoDelayProvisionerStrategy.split(List.of(1, 1), List.of(4, 1), UNCAPPED, 8));
+    }
+
+    @Test
+    void testSubAgentDemandLaunchesOneAgent(JenkinsRule r) {
+        EC2Cloud first = cloud("first", 4);
+        EC2Cloud second = cloud("second", 4);
+        r.jenkins.clouds.add(first);
+        r.jenkins.clouds.add(second);
+
+        NodeProvisioner.StrategyState state = state(2);
+        assertEquals(
+                NodeProvisioner.StrategyDecision.PROVISIONING_COMPLETED,
+                new NoDelayProvisionerStrategy().apply(state));
+
+        verify(first).provision(any(Cloud.CloudState.class), eq(4));
+        verify(second, never()).provision(any(Cloud.CloudState.class), anyInt());
+        verify(state).recordPendingLaunches(any(Collection.class));
+    }
+
+    @Test
+    void testDemandIsSpreadOverTheClouds(JenkinsRule r) {
+        EC2Cloud first = cloud("first", 4);
+        EC2Cloud second = cloud("second", 4);
+        r.jenkins.clouds.add(first);
+        r.jenkins.clouds.add(second);
+
+        assertEquals(
+                NodeProvisioner.StrategyDecision.PROVISIONING_COMPLETED,
+                new NoDelayProvisionerStrategy().apply(state(6)));
+
+        verify(first).provision(any(Cloud.CloudState.class), eq(4));
+        verify(second).provision(any(Cloud.CloudState.class), eq(4));
+    }
+
+    @Test
+    void testWhatACloudCannotLaunchGoesToTheOthers(JenkinsRule r) {
+        EC2Cloud first = cloud("first", 1);
+        EC2Cloud second = cloud("second", 1);
+        // Out of capacity
+        when(first.provision(any(Cloud.CloudState.class), anyInt())).thenReturn(List.of());
+        r.jenkins.clouds.add(first);
+        r.jenkins.clouds.add(second);
+
+        assertEquals(
+                NodeProvisioner.StrategyDecision.PROVISIONING_COMPLETED,
+                new NoDelayProvisionerStrategy().apply(state(2)));
+
+        verify(first).provision(any(Cloud.CloudState.class), eq(1));
+        // Its share, then the one the first cloud could not launch
+        verify(second, times(2)).provision(any(Cloud.CloudState.class), eq(1));
+    }
+
+    private static EC2Cloud cloud(String name, int numExecutors) {
+        EC2Cloud cloud = mock(EC2Cloud.class);
+        SlaveTemplate template = mock(SlaveTemplate.class);
+        when(template.getNumExecutors()).thenReturn(numExecutors);
+        when(cloud.getDisplayName()).thenReturn(name);
+        when(cloud.canProvision(any(Cloud.CloudState.class))).thenReturn(true);
+        when(cloud.isNoDelayProvisioning()).thenReturn(true);
+        when(cloud.getProvisioningWeight()).thenReturn(1);
+        when(cloud.getHeadroom(any())).thenReturn(100);
+        when(cloud.getTemplates(any(Label.class))).thenReturn(List.of(template));
+        // Launches whole agents, as EC2Cloud.provision does
+        when(cloud.provision(any(Cloud.CloudState.class), anyInt())).thenAnswer(invocation -> {
+            int excessWorkload = invocation.getArgument(1);
+            List<NodeProvisioner.PlannedNode> plannedNodes = new ArrayList<>();
+            for (int i = 0; i < Math.max(excessWorkload / numExecutors, 1); i++) {
+                plannedNodes.add(
+                        new NodeProvisioner.PlannedNode(name, CompletableFuture.completedFuture(null), numExecutors));
+            }
+            return plannedNodes;
+        });
+        return cloud;
+    }
+
+    private static NodeProvisioner.StrategyState state(int queueLength) {
+        LoadStatistics.LoadStatisticsSnapshot snapshot = mock(LoadStatistics.LoadStatisticsSnapshot.class);
+        when(snapshot.getQueueLength()).thenReturn(queueLength);
+        NodeProvisioner.StrategyState state = mock(NodeProvisioner.StrategyState.class);
+        when(state.getLabel()).thenReturn(Label.get("linux"));
+        when(state.getSnapshot()).thenReturn(snapshot);
+        return state;
+    }
+}
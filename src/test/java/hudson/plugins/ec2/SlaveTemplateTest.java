@@ -28,6 +28,8 @@ import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -41,6 +43,8 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.htmlunit.html.HtmlForm;
@@ -64,6 +68,7 @@ import software.amazon.awssdk.services.ec2.model.DescribeSubnetsRequest;
 import software.amazon.awssdk.services.ec2.model.DescribeSubnetsResponse;
 import software.amazon.awssdk.services.ec2.model.Ec2Exception;
 import software.amazon.awssdk.services.ec2.model.EnclaveOptionsRequest;
+import software.amazon.awssdk.services.ec2.model.Filter;
 import software.amazon.awssdk.services.ec2.model.HttpTokensState;
 import software.amazon.awssdk.services.ec2.model.IamInstanceProfile;
 import software.amazon.awssdk.services.ec2.model.Image;
@@ -74,8 +79,10 @@ import software.amazon.awssdk.services.ec2.model.InstanceNetworkInterfaceSpecifi
 import software.amazon.awssdk.services.ec2.model.InstanceStateName;
 import software.amazon.awssdk.services.ec2.model.InstanceType;
 import software.amazon.awssdk.services.ec2.model.KeyPairInfo;
+import software.amazon.awssdk.services.ec2.model.MarketType;
 import software.amazon.awssdk.services.ec2.model.RequestSpotInstancesRequest;
 import software.amazon.awssdk.services.ec2.model.Reservation;
+import software.amazon.awssdk.services.ec2.model.ResourceType;
 import software.amazon.awssdk.services.ec2.model.RunInstancesRequest;
 import software.amazon.awssdk.services.ec2.model.RunInstancesResponse;
 import software.amazon.awssdk.services.ec2.model.SecurityGroup;
@@ -926,12 +933,107 @@ class SlaveTemplateTest {
                         .build())
                 .build();
 
-        when(mockedEC2.requestSpotInstances(any(RequestSpotInstancesRequest.class)))
-                .thenThrow(quotaExceededException);
+        when(mockedEC2.runInstances(any(RunInstancesRequest.class)))
+                .thenThrow(quotaExceededException)
+                .thenReturn(RunInstancesResponse.builder().build());
 
         template.provision(2, EnumSet.of(ProvisionOptions.ALLOW_CREATE));
 
-        verify(mockedEC2).runInstances(any(RunInstancesRequest.class));
+        ArgumentCaptor<RunInstancesRequest> requests = ArgumentCaptor.forClass(RunInstancesRequest.class);
+        verify(mockedEC2, times(2)).runInstances(requests.capture());
+        RunInstancesRequest spotRequest = requests.getAllValues().get(0);
+        assertEquals(MarketType.SPOT, spotRequest.instanceMarketOptions().marketType());
+        assertEquals("0.05", spotRequest.instanceMarketOptions().spotOptions().maxPrice());
+        assertTrue(spotRequest.tagSpecifications().stream()
+                .anyMatch(t -> t.resourceType() == ResourceType.SPOT_INSTANCES_REQUEST));
+        assertNull(requests.getAllValues().get(1).instanceMarketOptions());
+        verify(mockedEC2, never()).requestSpotInstances(any(RequestSpotInstancesRequest.class));
+    }
+
+    @Test
+    void provisionSpotTriesEverySubnetBeforeFallingBackToOndemand() throws Exception {
+        SpotConfiguration spotConfig = new SpotConfiguration(true);
+        spotConfig.setSpotMaxBidPrice(".05");
+        spotConfig.setFallbackToOndemand(true);
+        spotConfig.setSpotBlockReservationDuration(0);
+
+        SlaveTemplate template = new SlaveTemplate(
+                TEST_AMI,
+                TEST_ZONE,
+                spotConfig,
+                "some security group",
+                TEST_REMOTE_FS,
+                TEST_INSTANCE_TYPE.toString(),
+                TEST_EBSO,
+                TEST_LABEL,
+                Node.Mode.NORMAL,
+                "foo ami",
+                "bar",
+                "bbb",
+                "aaa",
+                "10",
+                "fff",
+                null,
+                EC2AbstractSlave.DEFAULT_JAVA_PATH,
+                "-Xmx1g",
+                false,
+                "subnet-a subnet-b",
+                null,
+                null,
+                0,
+                0,
+                null,
+                "some instance profile",
+                false,
+                true,
+                "",
+                true,
+                "",
+                false,
+                false,
+                false,
+                ConnectionStrategy.backwardsCompatible(false, false, true),
+                -1,
+                Collections.emptyList(),
+                null,
+                Tenancy.Default,
+                EbsEncryptRootVolume.DEFAULT,
+                EC2AbstractSlave.DEFAULT_METADATA_ENDPOINT_ENABLED,
+                EC2AbstractSlave.DEFAULT_METADATA_TOKENS_REQUIRED,
+                EC2AbstractSlave.DEFAULT_METADATA_HOPS_LIMIT,
+                EC2AbstractSlave.DEFAULT_METADATA_SUPPORTED,
+                EC2AbstractSlave.DEFAULT_ENCLAVE_ENABLED);
+
+        Ec2Client mockedEC2 = setupTestForProvisioning(template);
+
+        AwsServiceException noCapacityException = Ec2Exception.builder()
+                .statusCode(500)
+                .awsErrorDetails(AwsErrorDetails.builder()
+                        .serviceName("AmazonEC2")
+                        .errorCode("InsufficientInstanceCapacity")
+                        .build())
+                .build();
+
+        when(mockedEC2.runInstances(any(RunInstancesRequest.class)))
+                .thenThrow(noCapacityException)
+                .thenThrow(noCapacityException)
+                .thenReturn(RunInstancesResponse.builder().build());
+
+        template.provision(1, EnumSet.of(ProvisionOptions.ALLOW_CREATE));
+
+        ArgumentCaptor<RunInstancesRequest> requests = ArgumentCaptor.forClass(RunInstancesRequest.class);
+        verify(mockedEC2, times(3)).runInstances(requests.capture());
+        // Spot in each subnet, then on-demand
+        RunInstancesRequest first = requests.getAllValues().get(0);
+        RunInstancesRequest second = requests.getAllValues().get(1);
+        assertEquals(MarketType.SPOT, first.instanceMarketOptions().marketType());
+        assertEquals(MarketType.SPOT, second.instanceMarketOptions().marketType());
+        assertEquals(
+                Set.of("subnet-a", "subnet-b"),
+                Set.of(
+                        first.networkInterfaces().get(0).subnetId(),
+                        second.networkInterfaces().get(0).subnetId()));
+        assertNull(requests.getAllValues().get(2).instanceMarketOptions());
     }
 
     private Ec2Client setupTestForProvisioning(SlaveTemplate template) throws Exception {
@@ -943,6 +1045,7 @@ class SlaveTemplateTest {
         when(mockedPrivateKey.find(mockedEC2)).thenReturn(mockedKeyPair);
         when(mockedCloud.connect()).thenReturn(mockedEC2);
         when(mockedCloud.resolvePrivateKey()).thenReturn(mockedPrivateKey);
+        when(mockedCloud.findKeyPair(mockedPrivateKey, mockedEC2)).thenReturn(mockedKeyPair);
 
         template.parent = mockedCloud;
 
@@ -1286,6 +1389,97 @@ class SlaveTemplateTest {
         assertNull(metadataOptionsRequest);
     }
 
+    @Test
+    void launchSpecificationIsCompiledOncePerSubnet() throws Exception {
+        SlaveTemplate template = new SlaveTemplate(
+                TEST_AMI,
+                TEST_ZONE,
+                TEST_SPOT_CFG,
+                TEST_SEC_GROUPS,
+                TEST_REMOTE_FS,
+                TEST_INSTANCE_TYPE.toString(),
+                TEST_EBSO,
+                TEST_LABEL,
+                Node.Mode.NORMAL,
+                "",
+                "bar",
+                "bbb",
+                "aaa",
+                "10",
+                "fff",
+                null,
+                "java",
+                "-Xmx1g",
+                false,
+                "subnet-123 subnet-456",
+                null,
+                null,
+                0,
+                0,
+                null,
+                "",
+                true,
+                false,
+                "",
+                false,
+                "",
+                true,
+                false,
+                false,
+                ConnectionStrategy.PUBLIC_IP,
+                -1,
+                Collections.emptyList(),
+                null,
+                Tenancy.Default,
+                EbsEncryptRootVolume.DEFAULT,
+                true,
+                false,
+                2,
+                true,
+                false);
+
+        Ec2Client mockedEC2 = setupTestForProvisioning(template);
+        Image image = Image.builder().imageId(TEST_AMI).build();
+
+        Map.Entry<RunInstancesRequest, List<Filter>> first = template.makeRunInstancesRequestAndFilters(
+                        image, 2, mockedEC2)
+                .entrySet()
+                .iterator()
+                .next();
+        assertEquals("subnet-123", first.getKey().subnetId());
+        assertEquals(2, first.getKey().maxCount());
+        // Callers may add their own filters to the copy they get
+        first.getValue().clear();
+
+        Map.Entry<RunInstancesRequest, List<Filter>> second = template.makeRunInstancesRequestAndFilters(
+                        image, 3, mockedEC2)
+                .entrySet()
+                .iterator()
+                .next();
+        assertEquals("subnet-456", second.getKey().subnetId());
+
+        Map.Entry<RunInstancesRequest, List<Filter>> third = template.makeRunInstancesRequestAndFilters(
+                        image, 4, mockedEC2)
+                .entrySet()
+                .iterator()
+                .next();
+        assertEquals("subnet-123", third.getKey().subnetId());
+        assertEquals(4, third.getKey().maxCount());
+        assertFalse(third.getValue().isEmpty());
+        assertSame(first.getKey().userData(), third.getKey().userData());
+
+        // The configuration was saved
+        template.invalidateCaches();
+        template.makeRunInstancesRequestAndFilters(image, 1, mockedEC2); // subnet-456
+        Map.Entry<RunInstancesRequest, List<Filter>> recompiled = template.makeRunInstancesRequestAndFilters(
+                        image, 1, mockedEC2)
+                .entrySet()
+                .iterator()
+                .next();
+        assertEquals(third.getKey().toBuilder().maxCount(1).build(), recompiled.getKey());
+        assertNotSame(third.getKey().userData(), recompiled.getKey().userData());
+    }
+
     @Test
     void provisionOnDemandSetsMetadataV1Options() throws Exception {
         SlaveTemplate template = new SlaveTemplate(
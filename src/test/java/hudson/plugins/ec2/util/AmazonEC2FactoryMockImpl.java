@@ -22,6 +22,7 @@ import software.amazon.awssdk.services.ec2.model.DescribeImagesRequest;
 import software.amazon.awssdk.services.ec2.model.DescribeImagesResponse;
 import software.amazon.awssdk.services.ec2.model.DescribeInstancesRequest;
 import software.amazon.awssdk.services.ec2.model.DescribeInstancesResponse;
+import software.amazon.awssdk.services.ec2.model.DescribeKeyPairsRequest;
 import software.amazon.awssdk.services.ec2.model.DescribeKeyPairsResponse;
 import software.amazon.awssdk.services.ec2.model.DescribeRegionsResponse;
 import software.amazon.awssdk.services.ec2.model.DescribeSecurityGroupsRequest;
@@ -208,6 +209,9 @@ public class AmazonEC2FactoryMockImpl implements AmazonEC2Factory {
                 })
                 .when(mock)
                 .describeKeyPairs();
+        Mockito.doAnswer(invocationOnMock -> mock.describeKeyPairs())
+                .when(mock)
+                .describeKeyPairs(Mockito.any(DescribeKeyPairsRequest.class));
     }
 
     private static void mockDescribeSecurityGroups(Ec2Client mock) {
@@ -0,0 +1,81 @@
+package hudson.plugins.ec2.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class EC2ApiMetricsTest {
+
+    @Test
+    void testCallsAreRecordedByCloudOperationAndSubsystem() {
+        EC2ApiMetrics metrics = new EC2ApiMetrics();
+        long millis = TimeUnit.MILLISECONDS.toNanos(1);
+        metrics.record("cloud", "DescribeInstances", EC2ApiSubsystem.MONITOR, 20 * millis, 1, null);
+        metrics.record("cloud", "DescribeInstances", EC2ApiSubsystem.MONITOR, 40 * millis, 3, null);
+        metrics.record("cloud", "DescribeInstances", EC2ApiSubsystem.MONITOR, 200 * millis, 1, "RequestLimitExceeded");
+        metrics.record("cloud", "RunInstances", EC2ApiSubsystem.PROVISIONING, 900 * millis, 1, null);
+        metrics.record("other", "RunInstances", EC2ApiSubsystem.PROVISIONING, 900 * millis, 1, null);
+
+        List<EC2ApiMetrics.OperationMetrics> operations = metrics.getOperations("cloud");
+        assertEquals(2, operations.size());
+
+        EC2ApiMetrics.OperationMetrics describe = operations.get(0);
+        assertEquals("DescribeInstances", describe.getOperation());
+        assertSame(EC2ApiSubsystem.MONITOR, describe.getSubsystem());
+        assertEquals(3, describe.getCalls());
+        assertEquals(75, describe.getShare());
+        assertEquals(1, describe.getErrors());
+        assertEquals(Map.of("RequestLimitExceeded", 1L), describe.getErrorCodes());
+        assertEquals(2, describe.getRetries());
+        assertEquals(86, describe.getMeanLatencyMillis());
+        assertEquals(50, describe.getLatencyPercentileMillis(50));
+        assertEquals(250, describe.getLatencyPercentileMillis(99));
+
+        assertEquals("RunInstances", operations.get(1).getOperation());
+        assertEquals(1000, operations.get(1).getLatencyPercentileMillis(50));
+        assertTrue(metrics.getOperations(null).isEmpty());
+    }
+
+    @Test
+    void testSlowestCallsFallOutOfTheHistogram() {
+        EC2ApiMetrics metrics = new EC2ApiMetrics();
+        metrics.record("", "DescribeRegions", EC2ApiSubsystem.FORM_VALIDATION, TimeUnit.MINUTES.toNanos(1), 17, null);
+
+        EC2ApiMetrics.OperationMetrics operation = metrics.getOperations(null).get(0);
+        assertEquals(-1, operation.getLatencyPercentileMillis(50));
+        assertEquals(16, operation.getRetries());
+    }
+
+    @Test
+    void testRemovedCloudsAreDropped() {
+        EC2ApiMetrics metrics = new EC2ApiMetrics();
+        metrics.record("kept", "DescribeInstances", EC2ApiSubsystem.MONITOR, 1, 1, null);
+        metrics.record("removed", "DescribeInstances", EC2ApiSubsystem.MONITOR, 1, 1, null);
+        metrics.record("", "DescribeRegions", EC2ApiSubsystem.FORM_VALIDATION, 1, 1, null);
+
+        metrics.retainClouds(Set.of("kept"));
+
+        assertEquals(1, metrics.getOperations("kept").size());
+        assertTrue(metrics.getOperations("removed").isEmpty());
+        // The calls not made for any cloud are not removed with the clouds
+        assertEquals(1, metrics.getOperations(null).size());
+    }
+
+    @Test
+    void testSubsystemScopesNest() {
+        assertSame(EC2ApiSubsystem.OTHER, EC2ApiSubsystem.current());
+        try (EC2ApiSubsystem.Scope outer = EC2ApiSubsystem.CLEANUP.enter()) {
+            try (EC2ApiSubsystem.Scope inner = EC2ApiSubsystem.PROVISIONING.enter()) {
+                assertSame(EC2ApiSubsystem.PROVISIONING, EC2ApiSubsystem.current());
+            }
+            assertSame(EC2ApiSubsystem.CLEANUP, EC2ApiSubsystem.current());
+        }
+        assertSame(EC2ApiSubsystem.OTHER, EC2ApiSubsystem.current());
+    }
+}
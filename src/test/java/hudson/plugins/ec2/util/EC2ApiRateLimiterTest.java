@@ -0,0 +1,116 @@
+package hudson.plugins.ec2.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import hudson.plugins.ec2.util.EC2ApiRateLimiter.Priority;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.InstanceProfileCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+
+class EC2ApiRateLimiterTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    private void advanceMillis(long millis) {
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    @Test
+    void testLowerPrioritiesGiveWay() {
+        EC2ApiRateLimiter limiter = new EC2ApiRateLimiter(10, 20, now::get);
+
+        // Cleanup leaves half of the bucket to the others
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquire(Priority.CLEANUP));
+        }
+        assertFalse(limiter.tryAcquire(Priority.CLEANUP));
+        // Liveness checks leave a quarter
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire(Priority.LIVENESS));
+        }
+        assertFalse(limiter.tryAcquire(Priority.LIVENESS));
+        // Provisioning takes whatever is left
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire(Priority.PROVISIONING));
+        }
+        assertFalse(limiter.tryAcquire(Priority.PROVISIONING));
+
+        // 10 calls per second
+        advanceMillis(100);
+        assertTrue(limiter.tryAcquire(Priority.PROVISIONING));
+        assertFalse(limiter.tryAcquire(Priority.LAUNCH_POLLING));
+    }
+
+    @Test
+    void testRateAdaptsToThrottling() {
+        EC2ApiRateLimiter limiter = new EC2ApiRateLimiter(10, 20, now::get);
+
+        limiter.throttled();
+        assertEquals(5, limiter.getRate());
+        // The same burst of throttling only slows down once
+        limiter.throttled();
+        assertEquals(5, limiter.getRate());
+        // Nothing is sent until the bucket refilled
+        assertFalse(limiter.tryAcquire(Priority.PROVISIONING));
+        advanceMillis(200);
+        assertTrue(limiter.tryAcquire(Priority.PROVISIONING));
+
+        advanceMillis(1000);
+        limiter.throttled();
+        assertEquals(2.5, limiter.getRate());
+
+        for (int i = 0; i < 100; i++) {
+            limiter.succeeded();
+        }
+        assertEquals(10, limiter.getRate());
+    }
+
+    @Test
+    void testCallsThatCannotWaitLeaveTheBucketInDebt() {
+        EC2ApiRateLimiter limiter = new EC2ApiRateLimiter(10, 20, now::get);
+
+        for (int i = 0; i < 25; i++) {
+            limiter.take();
+        }
+        // The blocking calls pay the 5 calls back
+        advanceMillis(500);
+        assertFalse(limiter.tryAcquire(Priority.PROVISIONING));
+        advanceMillis(100);
+        assertTrue(limiter.tryAcquire(Priority.PROVISIONING));
+    }
+
+    @Test
+    void testUnusedLimitersAreIdle() {
+        EC2ApiRateLimiter limiter = new EC2ApiRateLimiter(10, 20, now::get);
+        advanceMillis(1000);
+        assertTrue(limiter.isIdle(now.get()));
+
+        limiter.tryAcquire(Priority.CLEANUP);
+        assertFalse(limiter.isIdle(now.get()));
+    }
+
+    @Test
+    void testAccountIsToldWithoutAssumingRoles() {
+        EC2ApiRateLimiter.AccountCredentialsProvider role = mock(EC2ApiRateLimiter.AccountCredentialsProvider.class);
+        when(role.getAccount()).thenReturn("123456789012");
+        assertEquals("123456789012", EC2ApiRateLimiter.accountOf(role));
+        verify(role, never()).resolveCredentials();
+
+        assertEquals(
+                "AKIA1",
+                EC2ApiRateLimiter.accountOf(
+                        StaticCredentialsProvider.create(AwsBasicCredentials.create("AKIA1", "secret"))));
+        assertEquals(
+                EC2ApiRateLimiter.accountOf(InstanceProfileCredentialsProvider.create()),
+                EC2ApiRateLimiter.accountOf(InstanceProfileCredentialsProvider.create()));
+    }
+}
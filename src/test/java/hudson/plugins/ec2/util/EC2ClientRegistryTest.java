@@ -0,0 +1,82 @@
+package hudson.plugins.ec2.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+
+class EC2ClientRegistryTest {
+
+    private static final Object FACTORY = new Object();
+
+    private final AtomicLong now = new AtomicLong();
+
+    private final List<Runnable> idleChecks = new ArrayList<>();
+
+    private final EC2ClientRegistry registry = new EC2ClientRegistry(1000, now::get, idleChecks::add, Runnable::run);
+
+    private static EC2ClientRegistry.Key key(String credentials) {
+        return new EC2ClientRegistry.Key(FACTORY, credentials, Region.US_EAST_1, null);
+    }
+
+    @Test
+    void testClientIsSharedWhileLeased() {
+        Ec2Client client = mock(Ec2Client.class);
+        try (EC2ClientRegistry.Lease first = registry.connect(key("credentials:a"), () -> client);
+                EC2ClientRegistry.Lease second =
+                        registry.connect(key("credentials:a"), () -> mock(Ec2Client.class))) {
+            assertSame(client, first.get());
+            assertSame(client, second.get());
+            try (EC2ClientRegistry.Lease other =
+                    registry.connect(key("credentials:b"), () -> mock(Ec2Client.class))) {
+                assertNotSame(client, other.get());
+            }
+        }
+        assertEquals(2, registry.size());
+        verify(client, never()).close();
+    }
+
+    @Test
+    void testIdleClientIsClosed() {
+        Ec2Client client = mock(Ec2Client.class);
+        registry.connect(key("credentials:a"), () -> client).close();
+
+        // Leased again before it expired
+        now.addAndGet(500);
+        registry.connect(key("credentials:a"), () -> mock(Ec2Client.class)).close();
+        idleChecks.remove(0).run();
+        verify(client, never()).close();
+
+        now.addAndGet(1000);
+        idleChecks.remove(0).run();
+        verify(client).close();
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    void testInvalidatedClientIsClosedOnceReleased() {
+        Ec2Client client = mock(Ec2Client.class);
+        EC2ClientRegistry.Lease lease = registry.connect(key("credentials:a"), () -> client);
+        lease.invalidate();
+
+        Ec2Client replacement = mock(Ec2Client.class);
+        try (EC2ClientRegistry.Lease next = registry.connect(key("credentials:a"), () -> replacement)) {
+            assertSame(replacement, next.get());
+        }
+        verify(client, never()).close();
+        lease.close();
+        verify(client).close();
+
+        registry.invalidateAll();
+        verify(replacement).close();
+    }
+}
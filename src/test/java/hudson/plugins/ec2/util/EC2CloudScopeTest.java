@@ -0,0 +1,50 @@
+package hudson.plugins.ec2.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+
+class EC2CloudScopeTest {
+
+    @Test
+    void testSharedClientMakesItsCallsForEachCloud() {
+        Ec2Client client = mock(Ec2Client.class);
+        List<String> clouds = new ArrayList<>();
+        when(client.describeRegions()).thenAnswer(invocation -> {
+            clouds.add(EC2CloudScope.current());
+            return null;
+        });
+
+        EC2CloudScope.bind(client, "first").describeRegions();
+        EC2CloudScope.bind(client, "second").describeRegions();
+        client.describeRegions();
+
+        assertEquals(Arrays.asList("first", "second", null), clouds);
+        assertNull(EC2CloudScope.current());
+    }
+
+    @Test
+    void testCallsAreRecordedUnderTheCloudTheyStartedFor() {
+        ExecutionInterceptor interceptor = EC2ApiMetrics.interceptor(null);
+        ExecutionAttributes executionAttributes = new ExecutionAttributes();
+        try (EC2CloudScope ignored = EC2CloudScope.enter("scoped")) {
+            interceptor.beforeExecution(mock(Context.BeforeExecution.class), executionAttributes);
+        }
+        // Completed on another thread, as with asynchronous clients
+        interceptor.afterExecution(mock(Context.AfterExecution.class), executionAttributes);
+
+        assertEquals("scoped", EC2CloudScope.of(executionAttributes, null));
+        assertEquals(1, EC2ApiMetrics.get().getOperations("scoped").size());
+        assertEquals("unshared", EC2CloudScope.of(new ExecutionAttributes(), "unshared"));
+    }
+}
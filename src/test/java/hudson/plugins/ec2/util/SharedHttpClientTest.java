@@ -0,0 +1,91 @@
+package hudson.plugins.ec2.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import hudson.ProxyConfiguration;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+import software.amazon.awssdk.http.HttpExecuteRequest;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.SdkHttpMethod;
+import software.amazon.awssdk.http.SdkHttpRequest;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+
+@WithJenkins
+class SharedHttpClientTest {
+
+    @Test
+    void testClientIsSharedUntilTheProxyChanges(JenkinsRule r) {
+        assertSame(SharedHttpClient.get(), SharedHttpClient.get());
+        // No proxy before nor after
+        assertFalse(SharedHttpClient.proxyChanged());
+        assertSame(SharedHttpClient.get(), SharedHttpClient.get());
+    }
+
+    @Test
+    void testClientIsRebuiltWhenTheProxyChanges(JenkinsRule r) throws Exception {
+        SdkHttpClient previous = SharedHttpClient.get();
+        List<Runnable> closings = new ArrayList<>();
+        try {
+            r.jenkins.proxy = new ProxyConfiguration("proxy.example.com", 3128);
+            assertTrue(SharedHttpClient.proxyChanged(closings::add));
+
+            SdkHttpClient client = SharedHttpClient.get();
+            assertNotSame(previous, client);
+            assertSame(client, SharedHttpClient.get());
+            // Still there for the calls in flight
+            assertEquals(1, closings.size());
+            assertThrows(IOException.class, () -> call(previous));
+
+            closings.get(0).run();
+            assertThrows(IllegalStateException.class, () -> call(previous));
+        } finally {
+            r.jenkins.proxy = null;
+            SharedHttpClient.proxyChanged(Runnable::run);
+        }
+    }
+
+    @Test
+    void testAsyncClientIsRebuiltWhenTheProxyChanges(JenkinsRule r) {
+        SdkHttpClient blocking = SharedHttpClient.get();
+        SdkAsyncHttpClient previous = SharedHttpClient.getAsync();
+        assertSame(previous, SharedHttpClient.getAsync());
+        List<Runnable> closings = new ArrayList<>();
+        try {
+            r.jenkins.proxy = new ProxyConfiguration("proxy.example.com", 3128);
+            assertTrue(SharedHttpClient.proxyChanged(closings::add));
+
+            SdkAsyncHttpClient client = SharedHttpClient.getAsync();
+            assertNotSame(previous, client);
+            assertSame(client, SharedHttpClient.getAsync());
+            assertNotSame(blocking, SharedHttpClient.get());
+            // Both closed once the calls in flight had time to complete
+            assertEquals(2, closings.size());
+        } finally {
+            r.jenkins.proxy = null;
+            SharedHttpClient.proxyChanged(Runnable::run);
+        }
+    }
+
+    /*
+     * Calls a port nobody listens on, which fails to connect unless the client was closed.
+     */
+    private static void call(SdkHttpClient client) throws IOException {
+        SdkHttpRequest request = SdkHttpRequest.builder()
+                .uri(URI.create("http://127.0.0.1:1"))
+                .method(SdkHttpMethod.GET)
+                .build();
+        client.prepareRequest(HttpExecuteRequest.builder().request(request).build())
+                .call();
+    }
+}